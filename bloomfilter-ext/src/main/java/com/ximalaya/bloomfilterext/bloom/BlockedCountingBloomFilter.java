@@ -0,0 +1,638 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * 分块的线程安全Counting Bloom Filter
+ * <p>
+ * 计数器仍为4bit，但按64字节（8个long，128个计数器）分块：一个key先哈希到某一块，它的k个计数器
+ * 全部落在这一块内，并且互不相同。这样每次操作只访问一块连续内存（一次cache miss、一次TLB查找），
+ * 而{@link ThreadSafeCBloomFilter}的k个计数器分散在整个数组中，最多要k次cache miss。同一个long内
+ * 的多个计数器用一次CAS一起更新。
+ * <p>
+ * 代价是误判率更高：各块装入的key数量不均匀（近似泊松分布），装得多的块误判率上升得很快，而且
+ * k越大越明显。vectorSize为160000000时的理论误判率如下：
+ * <table>
+ *   <tr><td>key数</td><td>k</td><td>ThreadSafeCBloomFilter</td><td>BlockedCountingBloomFilter</td></tr>
+ *   <tr><td>1000000</td><td>8</td><td>3.2e-11</td><td>1.6e-7</td></tr>
+ *   <tr><td>5000000</td><td>8</td><td>5.7e-6</td><td>1.1e-4</td></tr>
+ *   <tr><td>5000000</td><td>20</td><td>2.2e-7</td><td>4.7e-4</td></tr>
+ *   <tr><td>10000000</td><td>8</td><td>5.7e-4</td><td>2.4e-3</td></tr>
+ *   <tr><td>10000000</td><td>20</td><td>1.2e-3</td><td>1.8e-2</td></tr>
+ * </table>
+ * 所以使用本类时建议把k设为8左右，并让key数明显小于vectorSize/16。
+ * <p>
+ * 注意：JVM堆上的数组并不按64字节对齐，所以一块可能跨两个相邻的cache line，通常会被CPU的相邻行
+ * 预取一起取回。
+ * @author will
+ * @see ThreadSafeCBloomFilter
+ */
+public final class BlockedCountingBloomFilter extends Filter implements CountingFilter {
+
+	/** Number of 64 bit words in a block: 8 words, i.e. a 64 byte cache line */
+	private static final int WORDS_PER_BLOCK = 8;
+
+	/** Number of 4 bit buckets in a block */
+	private static final int BUCKETS_PER_BLOCK = WORDS_PER_BLOCK << 4;
+
+	/** Largest nbHash: the buckets of a key are distinct buckets of its block */
+	public static final int MAX_NB_HASH = BUCKETS_PER_BLOCK;
+
+	/** We are using 4bit buckets, so each bucket can count to 15 */
+	public static final int BUCKET_BITS = 4;
+
+	private static final long BUCKET_MAX_VALUE = (1L << BUCKET_BITS) - 1;
+
+	/** Written after the filter header, so that blocked dumps can be told apart */
+	private static final int BLOCK_SIZE_IN_BYTES = WORDS_PER_BLOCK << 3;
+
+	/** Number of lock stripes used to serialize conditional increments of the same key */
+	private static final int INCREASE_LOCK_STRIPES = 1024;
+
+	/* operations handled by apply() */
+	private static final int OP_COUNT = 0;
+	private static final int OP_ADD = 1;
+	private static final int OP_ADD_IF_BELOW = 2;
+	private static final int OP_DELETE = 3;
+
+	/** Storage for the counting buckets, block by block */
+	private BucketStorage buckets;
+
+	/** Where the buckets live, see {@link BucketStorage} */
+	private int storageType = BucketStorage.HEAP_STORAGE;
+
+	/** Failed CAS on the buckets, updates retry until they succeed */
+	private final ContentionCounter contention = new ContentionCounter();
+
+	/** Number of blocks */
+	private int blockNum;
+
+	/** Computes the two hashes of a key: the first one picks the block, the second one the buckets */
+	private HashFunction blockHash;
+
+	/** Lock stripes for addIfBelow, chosen by the block of a key */
+	private final Object[] increaseLocks = newIncreaseLocks();
+
+	/** Per-thread buffer receiving the two hashes of a character sequence key */
+	private final ThreadLocal<int[]> hashBuffer = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[2];
+		}
+	};
+
+	/** Default constructor - use with readFields */
+	public BlockedCountingBloomFilter() {
+	}
+
+	/**
+	 * Constructor - use with readFields
+	 *
+	 * @param storageType
+	 *            where the buckets read by readFields will live (see
+	 *            {@link BucketStorage}).
+	 */
+	public BlockedCountingBloomFilter(int storageType) {
+		this.storageType = storageType;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param vectorSize
+	 *            The vector size of <i>this</i> filter, rounded up to a whole
+	 *            number of blocks.
+	 * @param nbHash
+	 *            The number of hash function to consider, at most 128.
+	 * @param hashType
+	 *            type of the hashing function (see
+	 *            {@link com.ximalaya.bloomfilterext.hash.Hash}).
+	 */
+	public BlockedCountingBloomFilter(int vectorSize, int nbHash, int hashType) {
+		this(vectorSize, nbHash, hashType, BucketStorage.HEAP_STORAGE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param vectorSize
+	 *            The vector size of <i>this</i> filter, rounded up to a whole
+	 *            number of blocks.
+	 * @param nbHash
+	 *            The number of hash function to consider, at most 128.
+	 * @param hashType
+	 *            type of the hashing function (see
+	 *            {@link com.ximalaya.bloomfilterext.hash.Hash}).
+	 * @param storageType
+	 *            where the buckets live (see {@link BucketStorage}). Off-heap
+	 *            buckets are only freed by {@link #clear()}.
+	 */
+	public BlockedCountingBloomFilter(int vectorSize, int nbHash, int hashType, int storageType) {
+		super(vectorSize, nbHash, hashType);
+		if (nbHash > MAX_NB_HASH) {
+			throw new IllegalArgumentException("nbHash must be <= " + MAX_NB_HASH);
+		}
+
+		this.blockNum = buckets2blocks(vectorSize);
+		this.storageType = storageType;
+		this.buckets = BucketStorage.newInstance(storageType, blockNum * WORDS_PER_BLOCK);
+		this.blockHash = new HashFunction(Integer.MAX_VALUE, 2, hashType);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param vectorSize
+	 *            The vector size of <i>this</i> filter, rounded up to a whole
+	 *            number of blocks.
+	 * @param nbHash
+	 *            The number of hash function to consider, at most 128.
+	 * @param hashType
+	 *            type of the hashing function (see
+	 *            {@link com.ximalaya.bloomfilterext.hash.Hash}).
+	 * @param storage
+	 *            the buckets, which are used as they are, e.g. a
+	 *            {@link MappedBucketStorage}.
+	 */
+	public BlockedCountingBloomFilter(int vectorSize, int nbHash, int hashType, BucketStorage storage) {
+		super(vectorSize, nbHash, hashType);
+		if (nbHash > MAX_NB_HASH) {
+			throw new IllegalArgumentException("nbHash must be <= " + MAX_NB_HASH);
+		}
+
+		this.blockNum = buckets2blocks(vectorSize);
+		if (storage.length() != blockNum * WORDS_PER_BLOCK) {
+			throw new IllegalArgumentException("storage length mismatches vectorSize: " + vectorSize);
+		}
+		this.storageType = storage.getStorageType();
+		this.buckets = storage;
+		this.blockHash = new HashFunction(Integer.MAX_VALUE, 2, hashType);
+	}
+
+	/** returns the number of blocks it would take to hold vectorSize buckets */
+	private static int buckets2blocks(int vectorSize) {
+		return ((vectorSize - 1) / BUCKETS_PER_BLOCK) + 1;
+	}
+
+	private static Object[] newIncreaseLocks() {
+		Object[] locks = new Object[INCREASE_LOCK_STRIPES];
+		for (int i = 0; i < INCREASE_LOCK_STRIPES; i++) {
+			locks[i] = new Object();
+		}
+		return locks;
+	}
+
+	@Override
+	public void add(Key key) {
+		int[] h = hashKey(key);
+		apply(h[0], h[1], OP_ADD, 0);
+	}
+
+	/**
+	 * Removes a specified key from <i>this</i> counting Bloom filter.
+	 *
+	 * @param key
+	 *            The key to remove.
+	 */
+	public void delete(Key key) {
+		if (!membershipTest(key)) {
+			throw new IllegalArgumentException("Key is not a member");
+		}
+
+		int[] h = hashKey(key);
+		apply(h[0], h[1], OP_DELETE, 0);
+	}
+
+	@Override
+	public boolean membershipTest(Key key) {
+		return approximateCount(key) > 0;
+	}
+
+	@Override
+	public int approximateCount(Key key) {
+		int[] h = hashKey(key);
+		return apply(h[0], h[1], OP_COUNT, 0);
+	}
+
+	@Override
+	public int approximateCount(CharSequence chars) {
+		int[] h = hashChars(chars);
+		return apply(h[0], h[1], OP_COUNT, 0);
+	}
+
+	@Override
+	public int addIfBelow(Key key, int limit) {
+		int[] h = hashKey(key);
+		return apply(h[0], h[1], OP_ADD_IF_BELOW, limit);
+	}
+
+	@Override
+	public int addIfBelow(CharSequence chars, int limit) {
+		int[] h = hashChars(chars);
+		return apply(h[0], h[1], OP_ADD_IF_BELOW, limit);
+	}
+
+	public void batchAdd(Key[] keys) {
+		applyInBlockOrder(KeyBatch.hash(blockHash, keys, 2), OP_ADD);
+	}
+
+	public void batchAdd(CharSequence[] keys) {
+		applyInBlockOrder(KeyBatch.hash(blockHash, keys, 2), OP_ADD);
+	}
+
+	public int[] batchApproximateCount(Key[] keys) {
+		return applyInBlockOrder(KeyBatch.hash(blockHash, keys, 2), OP_COUNT);
+	}
+
+	public int[] batchApproximateCount(CharSequence[] keys) {
+		return applyInBlockOrder(KeyBatch.hash(blockHash, keys, 2), OP_COUNT);
+	}
+
+	/**
+	 * Runs an operation against a batch of keys in the order of their blocks,
+	 * so that the blocks are visited in memory order
+	 *
+	 * @param hashes
+	 *            the two hashes of each key, see {@link #apply(int, int, int, int)}
+	 * @return result of the operation for each key
+	 */
+	private int[] applyInBlockOrder(int[] hashes, int op) {
+		int keyNum = hashes.length / 2;
+		long[] sorted = new long[keyNum];
+		for (int i = 0; i < keyNum; i++) {
+			sorted[i] = ((long) (hashes[i * 2] % blockNum) << 32) | i;
+		}
+		Arrays.sort(sorted);
+
+		int[] res = new int[keyNum];
+		for (int i = 0; i < keyNum; i++) {
+			int keyIndex = (int) sorted[i];
+			res[keyIndex] = apply(hashes[keyIndex * 2], hashes[keyIndex * 2 + 1], op, 0);
+		}
+		return res;
+	}
+
+	private int[] hashKey(Key key) {
+		if (key == null) {
+			throw new NullPointerException("key can not be null");
+		}
+		return blockHash.hash(key);
+	}
+
+	private int[] hashChars(CharSequence chars) {
+		if (chars == null) {
+			throw new NullPointerException("key can not be null");
+		}
+		int[] h = hashBuffer.get();
+		blockHash.hash(chars, h);
+		return h;
+	}
+
+	/**
+	 * Runs an operation against the buckets of a key.
+	 * <p>
+	 * The block is chosen by <code>blockHashValue</code>; the <code>nbHash</code>
+	 * distinct buckets inside the block are drawn from a linear congruential
+	 * sequence seeded by <code>bucketHashValue</code>.
+	 *
+	 * @return the approximate count for OP_COUNT, the count after the increment
+	 *         (or -1) for OP_ADD_IF_BELOW, 0 otherwise
+	 */
+	private int apply(int blockHashValue, int bucketHashValue, int op, int limit) {
+		int block = blockHashValue % blockNum;
+
+		// bit i of lowBuckets/highBuckets is set if bucket i/(i + 64) of the block is selected
+		long lowBuckets = 0;
+		long highBuckets = 0;
+		int x = bucketHashValue;
+		for (int selected = 0; selected < nbHash;) {
+			x = x * 1664525 + 1013904223;
+			int bucket = x >>> 25; // top 7 bits: 0..127
+			if (bucket < 64) {
+				if ((lowBuckets & (1L << bucket)) == 0) {
+					lowBuckets |= 1L << bucket;
+					selected++;
+				}
+			} else if ((highBuckets & (1L << (bucket - 64))) == 0) {
+				highBuckets |= 1L << (bucket - 64);
+				selected++;
+			}
+		}
+
+		int firstWord = block * WORDS_PER_BLOCK;
+		switch (op) {
+		case OP_COUNT:
+			return minBucketValue(firstWord, lowBuckets, highBuckets);
+		case OP_ADD:
+			updateBuckets(firstWord, lowBuckets, highBuckets, 1);
+			return 0;
+		case OP_DELETE:
+			updateBuckets(firstWord, lowBuckets, highBuckets, -1);
+			return 0;
+		default:
+			synchronized (increaseLocks[block & (INCREASE_LOCK_STRIPES - 1)]) {
+				int count = minBucketValue(firstWord, lowBuckets, highBuckets);
+				if (count >= limit) {
+					return -1;
+				}
+				updateBuckets(firstWord, lowBuckets, highBuckets, 1);
+				return count + 1;
+			}
+		}
+	}
+
+	/** returns the 16 bit mask of the selected buckets of the i-th word of a block */
+	private static int wordMask(int i, long lowBuckets, long highBuckets) {
+		long buckets = i < 4 ? lowBuckets : highBuckets;
+		return (int) (buckets >>> ((i & 3) << 4)) & 0xffff;
+	}
+
+	private int minBucketValue(int firstWord, long lowBuckets, long highBuckets) {
+		long res = BUCKET_MAX_VALUE;
+		for (int i = 0; i < WORDS_PER_BLOCK; i++) {
+			int mask = wordMask(i, lowBuckets, highBuckets);
+			if (mask == 0) {
+				continue;
+			}
+
+			long word = buckets.get(firstWord + i);
+			for (; mask != 0; mask &= mask - 1) {
+				int bucketShift = Integer.numberOfTrailingZeros(mask) << 2;
+				long bucketValue = (word >>> bucketShift) & BUCKET_MAX_VALUE;
+				if (bucketValue < res) {
+					res = bucketValue;
+				}
+			}
+		}
+		return (int) res;
+	}
+
+	/**
+	 * Increments (delta = 1) or decrements (delta = -1) the selected buckets, one
+	 * CAS per word. Buckets which have reached BUCKET_MAX_VALUE are left
+	 * untouched, as well as empty buckets on decrement.
+	 */
+	private void updateBuckets(int firstWord, long lowBuckets, long highBuckets, int delta) {
+		BucketStorage storage = buckets;
+		int ticket = storage.beginUpdate();   // 快照看到这个key的全部计数器都已更新，或者都未更新
+		try {
+			for (int i = 0; i < WORDS_PER_BLOCK; i++) {
+				int mask = wordMask(i, lowBuckets, highBuckets);
+				if (mask == 0) {
+					continue;
+				}
+
+				int wordNum = firstWord + i;
+				for (int failedTimes = 0;; failedTimes++) {
+					long oldVal = buckets.get(wordNum);
+					long newVal = oldVal;
+					for (int m = mask; m != 0; m &= m - 1) {
+						int bucketShift = Integer.numberOfTrailingZeros(m) << 2;
+						long bucketValue = (oldVal >>> bucketShift) & BUCKET_MAX_VALUE;
+						if (delta > 0 && bucketValue < BUCKET_MAX_VALUE) {
+							newVal += 1L << bucketShift;
+						} else if (delta < 0 && bucketValue >= 1 && bucketValue < BUCKET_MAX_VALUE) {
+							newVal -= 1L << bucketShift;
+						}
+					}
+
+					if (newVal == oldVal || buckets.compareAndSet(wordNum, oldVal, newVal)) {
+						break;
+					}
+
+					contention.increment();
+					ContentionCounter.backoff(failedTimes);
+				}
+			}
+		} finally {
+			storage.endUpdate(ticket);
+		}
+	}
+
+	@Override
+	public void and(Filter filter) {
+		if (filter == null || !(filter instanceof BlockedCountingBloomFilter)
+				|| filter.vectorSize != this.vectorSize || filter.nbHash != this.nbHash) {
+			throw new IllegalArgumentException("filters cannot be and-ed");
+		}
+		BlockedCountingBloomFilter cbf = (BlockedCountingBloomFilter) filter;
+
+		int sizeInWords = blockNum * WORDS_PER_BLOCK;
+		BucketStorage storage = buckets;
+		int ticket = storage.beginUpdate();   // 快照看到整个操作的结果，或者完全没有看到
+		try {
+			for (int i = 0; i < sizeInWords; i++) {
+				for (int failedTimes = 0;; failedTimes++) {
+					long oldVal = buckets.get(i);
+					if (buckets.compareAndSet(i, oldVal, oldVal & cbf.buckets.get(i))) {
+						break;
+					}
+
+					contention.increment();
+					ContentionCounter.backoff(failedTimes);
+				}
+			}
+		} finally {
+			storage.endUpdate(ticket);
+		}
+	}
+
+	@Override
+	public void or(Filter filter) {
+		if (filter == null || !(filter instanceof BlockedCountingBloomFilter)
+				|| filter.vectorSize != this.vectorSize || filter.nbHash != this.nbHash) {
+			throw new IllegalArgumentException("filters cannot be or-ed");
+		}
+		BlockedCountingBloomFilter cbf = (BlockedCountingBloomFilter) filter;
+
+		int sizeInWords = blockNum * WORDS_PER_BLOCK;
+		BucketStorage storage = buckets;
+		int ticket = storage.beginUpdate();   // 快照看到整个操作的结果，或者完全没有看到
+		try {
+			for (int i = 0; i < sizeInWords; i++) {
+				for (int failedTimes = 0;; failedTimes++) {
+					long oldVal = buckets.get(i);
+					if (buckets.compareAndSet(i, oldVal, oldVal | cbf.buckets.get(i))) {
+						break;
+					}
+
+					contention.increment();
+					ContentionCounter.backoff(failedTimes);
+				}
+			}
+		} finally {
+			storage.endUpdate(ticket);
+		}
+	}
+
+	@Override
+	public void xor(Filter filter) {
+		throw new UnsupportedOperationException("xor() is undefined for " + this.getClass().getName());
+	}
+
+	@Override
+	public void not() {
+		throw new UnsupportedOperationException("not() is undefined for " + this.getClass().getName());
+	}
+
+	/**
+	 * Releases the buckets, <i>this</i> filter can not be used any more
+	 * afterwards
+	 */
+	@Override
+	public void clear() {
+		BucketStorage toRelease = this.buckets;
+		this.buckets = null;
+		if (toRelease != null) {
+			toRelease.release();
+		}
+	}
+
+	public int getVectorSize() {
+		return this.vectorSize;
+	}
+
+	public int getNbHash() {
+		return this.nbHash;
+	}
+
+	public int getHashType() {
+		return this.hashType;
+	}
+
+	public int getHashStrategy() {
+		return this.hashStrategy;
+	}
+
+	public int getStorageType() {
+		return this.storageType;
+	}
+
+	public int getBucketBits() {
+		return BUCKET_BITS;
+	}
+
+	public long getContentionCount() {
+		return contention.sum();
+	}
+
+	/**
+	 * The vector size counts the buckets of all blocks (vectorSize rounded up to whole blocks).
+	 * As a key's buckets are confined to a block, the false positive rates are computed from
+	 * the fill of each block and averaged over the blocks
+	 */
+	public CounterStats getCounterStats() {
+		return CounterStats.scan(buckets, BUCKET_BITS, (long) blockNum * BUCKETS_PER_BLOCK, nbHash, WORDS_PER_BLOCK);
+	}
+
+	public void force() throws IOException {
+		buckets.force();
+	}
+
+	public void clearDirtyPages() {
+		buckets.clearDirtyPages();
+	}
+
+	public int writeDirtyPages(RandomAccessFile file, long offset) throws IOException {
+		return writeDirtyPages(file, offset, null);
+	}
+
+	public int writeDirtyPages(RandomAccessFile file, long offset, SnapshotListener listener) throws IOException {
+		DataOutputStream header = new DataOutputStream(new ByteArrayOutputStream());
+		writeHeader(header);
+		return BucketStorage.writeDirtyPages(new BucketStorage[] { buckets }, file,
+				new long[] { offset + header.size() }, listener);
+	}
+
+	// Writable
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		writeHeader(out);
+		int sizeInWords = blockNum * WORDS_PER_BLOCK;
+		for (int i = 0; i < sizeInWords; i++) {
+			out.writeLong(buckets.get(i));
+		}
+	}
+
+	public void writeHeader(DataOutput out) throws IOException {
+		super.write(out);
+		out.writeInt(BLOCK_SIZE_IN_BYTES);
+	}
+
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		writeTo(channel, null);
+	}
+
+	public void writeTo(WritableByteChannel channel, SnapshotListener listener) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		writeHeader(new DataOutputStream(header));
+		BucketStorage.writeTo(new BucketStorage[] { buckets }, new byte[][] { header.toByteArray() }, channel,
+				listener);
+	}
+
+	public void readHeader(DataInput in, BucketStorage storage) throws IOException {
+		readBlockedHeader(in);
+		if (storage.length() != blockNum * WORDS_PER_BLOCK) {
+			throw new IOException("storage length mismatches vectorSize: " + vectorSize);
+		}
+		if (buckets != null) {
+			buckets.release();
+		}
+		buckets = storage;
+		storageType = storage.getStorageType();
+	}
+
+	private void readBlockedHeader(DataInput in) throws IOException {
+		super.readFields(in);
+		int blockSizeInBytes = in.readInt();
+		if (blockSizeInBytes != BLOCK_SIZE_IN_BYTES) {
+			throw new IOException("Unsupported block size: " + blockSizeInBytes);
+		}
+		if (nbHash > BUCKETS_PER_BLOCK) {
+			throw new IOException("Unsupported nbHash: " + nbHash);
+		}
+
+		this.blockNum = buckets2blocks(vectorSize);
+		this.blockHash = new HashFunction(Integer.MAX_VALUE, 2, hashType);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		readBlockedHeader(in);
+		int sizeInWords = blockNum * WORDS_PER_BLOCK;
+		if (buckets != null) {
+			buckets.release();
+		}
+		buckets = BucketStorage.newInstance(storageType, sizeInWords);
+		for (int i = 0; i < sizeInWords; i++) {
+			buckets.set(i, in.readLong());
+		}
+		if (buckets.isTrackingDirtyPages()) {   // 读入的计数器与文件一致
+			buckets.clearDirtyPages();
+		}
+	}
+
+	public void readFrom(ReadableByteChannel channel) throws IOException {
+		readBlockedHeader(new DataInputStream(Channels.newInputStream(channel)));   // 不缓冲，只读走头部
+		if (buckets != null) {
+			buckets.release();
+		}
+		buckets = BucketStorage.newInstance(storageType, blockNum * WORDS_PER_BLOCK);
+		buckets.readFrom(channel);
+		if (buckets.isTrackingDirtyPages()) {
+			buckets.clearDirtyPages();
+		}
+	}
+
+}
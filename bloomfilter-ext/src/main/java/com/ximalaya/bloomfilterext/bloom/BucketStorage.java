@@ -0,0 +1,523 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 计数器的存储，按64bit word原子读写
+ * <p>
+ * The methods mirror those of {@link java.util.concurrent.atomic.AtomicLongArray}
+ * so that the filters can work on heap or off-heap memory alike. A storage
+ * must not be accessed after {@link #release()}.
+ * <p>
+ * Heap and off-heap storages track which 4KB pages of words were changed, so
+ * that a copy of the words in a file can be brought up to date by
+ * {@link #writeDirtyPages(RandomAccessFile, long)} without rewriting all of
+ * them.
+ * <p>
+ * {@link #writeTo(WritableByteChannel)} and
+ * {@link #writeDirtyPages(RandomAccessFile, long)} write a point-in-time
+ * snapshot of the words without blocking writers: a writer about to change a
+ * page which has not been written out yet copies it first (copy-on-write), and
+ * the snapshot reads the copy. Updates of several words bracketed by
+ * {@link #beginUpdate()} and {@link #endUpdate(int)} are seen by a snapshot
+ * either as a whole or not at all: the snapshot starts once those in
+ * progress are done, and those beginning meanwhile wait for it to start.
+ * @author will
+ *
+ */
+public abstract class BucketStorage {
+
+	/** Constant to denote {@link HeapBucketStorage} */
+	public static final int HEAP_STORAGE = 0;
+
+	/** Constant to denote {@link OffHeapBucketStorage} */
+	public static final int OFF_HEAP_STORAGE = 1;
+
+	/**
+	 * Constant to denote {@link MappedBucketStorage}, which is created by
+	 * {@link MappedBucketStorage#map(java.io.File, long, int)} instead of
+	 * {@link #newInstance(int, int)}
+	 */
+	public static final int MAPPED_STORAGE = 2;
+
+	/** Number of words in a page of the dirty page bitmap: 512 * 8 bytes = 4KB */
+	public static final int WORDS_PER_PAGE = 512;
+
+	private static final int WORDS_PER_PAGE_SHIFT = 9;
+
+	/** Size of the direct buffer {@link #writeTo(WritableByteChannel)} and {@link #readFrom(ReadableByteChannel)} move the words through */
+	private static final int IO_BUFFER_SIZE = 1 << 20;
+
+	/** One direct buffer per I/O thread, allocated once and reused by every dump and restore of the thread */
+	private static final ThreadLocal<ByteBuffer> IO_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(IO_BUFFER_SIZE);   // 默认大端，与DataOutput.writeLong一致
+		}
+	};
+
+	private static final Logger LOG = LoggerFactory.getLogger(BucketStorage.class);
+
+	/** States of a page in a {@link Snapshot} */
+	private static final int PAGE_NOT_COPIED = 0;
+	private static final int PAGE_COPYING = 1;
+	private static final int PAGE_COPIED = 2;
+
+	/** Bit p is set once page p has been changed, null if dirty pages are not tracked */
+	private AtomicLongArray dirtyPages;
+
+	/** Snapshot being written, null if none. Writers check it before every write */
+	private volatile Snapshot snapshot;
+
+	/** Serializes the snapshots of <i>this</i> storage, a lock so that several storages can be snapshotted at once */
+	private final ReentrantLock snapshotLock = new ReentrantLock();
+
+	/** Multi-word updates in progress, a snapshot starts after those which began before it */
+	private final UpdateEpoch updates = new UpdateEpoch();
+
+	/**
+	 * Creates a zeroed storage of a given type.
+	 * <p>
+	 * If off-heap memory is not available on this JVM, a heap storage is
+	 * returned instead.
+	 * @param storageType HEAP_STORAGE or OFF_HEAP_STORAGE
+	 * @param sizeInWords number of 64 bit words
+	 * @return the new storage
+	 */
+	public static BucketStorage newInstance(int storageType, int sizeInWords) {
+		switch (storageType) {
+		case HEAP_STORAGE:
+			return new HeapBucketStorage(sizeInWords);
+		case OFF_HEAP_STORAGE:
+			if (OffHeapBucketStorage.isAvailable()) {
+				return new OffHeapBucketStorage(sizeInWords);
+			}
+			LOG.warn("off-heap storage is not available, fall back to heap storage");
+			return new HeapBucketStorage(sizeInWords);
+		case MAPPED_STORAGE:
+			throw new IllegalArgumentException("mapped storage needs a file, use MappedBucketStorage.map()");
+		default:
+			throw new IllegalArgumentException("unknown storageType: " + storageType);
+		}
+	}
+
+	/** @return the number of 64 bit words */
+	public abstract int length();
+
+	/** Reads the i-th word with volatile semantics */
+	public abstract long get(int i);
+
+	/** Writes the i-th word with volatile semantics */
+	public abstract void set(int i, long newValue);
+
+	/**
+	 * Atomically sets the i-th word to <code>update</code> if it currently
+	 * holds <code>expect</code>.
+	 * @return true if successful
+	 */
+	public abstract boolean compareAndSet(int i, long expect, long update);
+
+	/**
+	 * Releases the memory held by <i>this</i> storage. Calling it more than
+	 * once has no effect.
+	 */
+	public abstract void release();
+
+	/**
+	 * Writes the words back to the backing file, if any. Does nothing by
+	 * default.
+	 * @throws IOException
+	 */
+	public void force() throws IOException {
+	}
+
+	/** @return HEAP_STORAGE, OFF_HEAP_STORAGE or MAPPED_STORAGE */
+	public abstract int getStorageType();
+
+	/**
+	 * Starts tracking dirty pages, to be called by the constructor of a
+	 * subclass which calls {@link #markDirty(int)} on every write.
+	 * @param sizeInWords number of 64 bit words
+	 */
+	protected final void trackDirtyPages(int sizeInWords) {
+		int pageNum = getPageNum(sizeInWords);
+		this.dirtyPages = new AtomicLongArray((pageNum + 63) >>> 6);
+	}
+
+	/**
+	 * Marks the page of the i-th word as dirty. The bitmap is only written
+	 * when the page is clean, so a hot page costs one extra read per write.
+	 * @param i index of the word which was written
+	 */
+	protected final void markDirty(int i) {
+		int page = i >>> WORDS_PER_PAGE_SHIFT;
+		int index = page >>> 6;
+		long bit = 1L << page;   // 移位只取低6位
+		long cur;
+		while (((cur = dirtyPages.get(index)) & bit) == 0) {
+			if (dirtyPages.compareAndSet(index, cur, cur | bit)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Copies the page of the i-th word for the snapshot being written, if any
+	 * and if the page has not been copied or written out yet. To be called
+	 * by a subclass before every write, the cost is a volatile read when no
+	 * snapshot is being written.
+	 * @param i index of the word which is about to be written
+	 */
+	protected final void preserve(int i) {
+		Snapshot s = snapshot;
+		if (s != null) {
+			copyPage(s, i >>> WORDS_PER_PAGE_SHIFT);
+		}
+	}
+
+	/**
+	 * Starts an update of several words, which a snapshot sees either as a
+	 * whole or not at all.
+	 * @return the ticket to pass to {@link #endUpdate(int)}
+	 */
+	final int beginUpdate() {
+		return updates.enter();
+	}
+
+	/**
+	 * Ends an update started by {@link #beginUpdate()}
+	 * @param ticket
+	 */
+	final void endUpdate(int ticket) {
+		updates.exit(ticket);
+	}
+
+	/**
+	 * Forgets the pages changed so far, e.g. right before all the words are
+	 * written out or after they were read in.
+	 */
+	public final void clearDirtyPages() {
+		checkDirtyPagesTracked();
+		for (int i = 0; i < dirtyPages.length(); i++) {
+			dirtyPages.set(i, 0);
+		}
+	}
+
+	/**
+	 * Writes the pages changed since the last call (or since
+	 * {@link #clearDirtyPages()}) into <code>file</code>, word i as a big
+	 * endian long at <code>offset + i * 8</code>, i.e. the layout of
+	 * consecutive {@link java.io.DataOutput#writeLong(long)} calls. The pages
+	 * are marked clean at the point in time of the snapshot, once the updates
+	 * in progress are done and while those beginning meanwhile wait: every
+	 * update in the snapshot has its page written by this call, every later
+	 * one is picked up by the next call.
+	 * <p>
+	 * If an IOException is thrown, some pages may have been marked clean
+	 * without being written: the file has to be rewritten as a whole.
+	 * @param file file containing a copy of the words
+	 * @param offset position of word 0 in the file
+	 * @return number of pages written
+	 * @throws IOException
+	 */
+	public final int writeDirtyPages(RandomAccessFile file, long offset) throws IOException {
+		return writeDirtyPages(new BucketStorage[] { this }, file, new long[] { offset }, null);
+	}
+
+	/**
+	 * Same as {@link #writeDirtyPages(RandomAccessFile, long)} for several
+	 * storages whose snapshots start at the same point, e.g. the shards of a
+	 * filter
+	 * @param storages
+	 * @param file
+	 * @param offsets position of word 0 of each storage in the file
+	 * @param listener called at the start of the snapshots, may be null
+	 * @return number of pages written
+	 * @throws IOException
+	 */
+	static int writeDirtyPages(BucketStorage[] storages, RandomAccessFile file, long[] offsets,
+			SnapshotListener listener) throws IOException {
+		int locked = lockSnapshots(storages);
+		try {
+			long[][] pagesToWrite = new long[storages.length][];
+			Snapshot[] snapshots = beginSnapshots(storages, listener, pagesToWrite);
+			ByteBuffer page = ByteBuffer.allocate(WORDS_PER_PAGE << 3);
+			int writtenPages = 0;
+			for (int s = 0; s < storages.length; s++) {
+				BucketStorage storage = storages[s];
+				for (int i = 0; i < pagesToWrite[s].length; i++) {
+					for (long bits = pagesToWrite[s][i]; bits != 0; bits &= bits - 1) {
+						int p = (i << 6) + Long.numberOfTrailingZeros(bits);
+						int words = storage.putSnapshotPage(snapshots[s], p, page, 0);
+						file.seek(offsets[s] + (((long) p) << (WORDS_PER_PAGE_SHIFT + 3)));
+						file.write(page.array(), 0, words << 3);
+						writtenPages++;
+					}
+				}
+				storage.snapshot = null;   // 写完的存储不再需要写时复制
+			}
+			return writtenPages;
+		} finally {
+			unlockSnapshots(storages, locked);
+		}
+	}
+
+	/**
+	 * Marks all the pages clean
+	 * @return the dirty page bitmap before
+	 */
+	private long[] takeDirtyPages() {
+		checkDirtyPagesTracked();
+		long[] pages = new long[dirtyPages.length()];
+		for (int i = 0; i < pages.length; i++) {
+			if (dirtyPages.get(i) != 0) {
+				pages[i] = dirtyPages.getAndSet(i, 0);
+			}
+		}
+		return pages;
+	}
+
+	/**
+	 * Writes a snapshot of all the words to <code>channel</code> as big
+	 * endian longs, the same bytes as consecutive
+	 * {@link java.io.DataOutput#writeLong(long)} calls, 1MB at a time through
+	 * a reused direct buffer.
+	 * @param channel
+	 * @throws IOException
+	 */
+	public final void writeTo(WritableByteChannel channel) throws IOException {
+		writeTo(new BucketStorage[] { this }, new byte[][] { new byte[0] }, channel, null);
+	}
+
+	/**
+	 * Same as {@link #writeTo(WritableByteChannel)} for several storages
+	 * whose snapshots start at the same point, e.g. the shards of a filter.
+	 * Each storage is written after its header, the headers are written once
+	 * the snapshots have started, so the updates are not held back while
+	 * they are written.
+	 * @param storages
+	 * @param headers bytes to write in front of each storage
+	 * @param channel
+	 * @param listener called at the start of the snapshots, may be null
+	 * @throws IOException
+	 */
+	static void writeTo(BucketStorage[] storages, byte[][] headers, WritableByteChannel channel,
+			SnapshotListener listener) throws IOException {
+		int locked = lockSnapshots(storages);
+		try {
+			Snapshot[] snapshots = beginSnapshots(storages, listener, null);
+			for (int s = 0; s < storages.length; s++) {
+				writeFully(channel, ByteBuffer.wrap(headers[s]));
+				storages[s].writeSnapshot(snapshots[s], channel);
+				storages[s].snapshot = null;   // 写完的存储不再需要写时复制
+			}
+		} finally {
+			unlockSnapshots(storages, locked);
+		}
+	}
+
+	private void writeSnapshot(Snapshot s, WritableByteChannel channel) throws IOException {
+		ByteBuffer buffer = IO_BUFFER.get();
+		int pagesPerBuffer = IO_BUFFER_SIZE / (WORDS_PER_PAGE << 3);
+		int pageNum = getPageNum(length());
+		for (int from = 0; from < pageNum; from += pagesPerBuffer) {
+			int to = Math.min(from + pagesPerBuffer, pageNum);
+			buffer.clear();
+			int pos = 0;
+			for (int p = from; p < to; p++) {
+				pos += putSnapshotPage(s, p, buffer, pos) << 3;
+			}
+			buffer.limit(pos);
+			writeFully(channel, buffer);
+		}
+	}
+
+	/**
+	 * Takes the snapshot locks of the storages in order
+	 * @return number of locks taken, all of them unless an exception is thrown
+	 */
+	private static int lockSnapshots(BucketStorage[] storages) {
+		for (int s = 0; s < storages.length; s++) {
+			storages[s].snapshotLock.lock();
+		}
+		return storages.length;
+	}
+
+	/**
+	 * Ends the snapshots, if any, and releases the first <code>locked</code> snapshot locks
+	 */
+	private static void unlockSnapshots(BucketStorage[] storages, int locked) {
+		for (int s = locked - 1; s >= 0; s--) {
+			storages[s].snapshot = null;
+			storages[s].snapshotLock.unlock();
+		}
+	}
+
+	/**
+	 * Starts the snapshots of the storages once the updates which began
+	 * before are done; from then on writers copy a page before changing it.
+	 * Updates beginning meanwhile wait until all the snapshots have started
+	 * and the listener has been called. The snapshot locks must be held.
+	 * @param listener may be null
+	 * @param dirtyPages if not null, receives the dirty page bitmap of each
+	 *            storage as of the snapshot, the pages are marked clean
+	 * @return the snapshot of each storage
+	 * @throws IOException thrown by the listener
+	 */
+	private static Snapshot[] beginSnapshots(BucketStorage[] storages, SnapshotListener listener,
+			long[][] dirtyPages) throws IOException {
+		Snapshot[] snapshots = new Snapshot[storages.length];
+		if (listener != null) {
+			listener.beforeSnapshot();
+		}
+		int advanced = 0;
+		try {
+			for (; advanced < storages.length; advanced++) {
+				BucketStorage storage = storages[advanced];
+				snapshots[advanced] = new Snapshot(getPageNum(storage.length()));
+				storage.updates.advance();
+				if (dirtyPages != null) {   // 之前的更新都已完成，之后的还在等待，它们的页留给下一次
+					dirtyPages[advanced] = storage.takeDirtyPages();
+				}
+				storage.snapshot = snapshots[advanced];
+			}
+			if (listener != null) {
+				listener.onSnapshot();
+			}
+		} finally {
+			for (int s = 0; s < advanced; s++) {
+				storages[s].updates.resume();
+			}
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Puts the words of page p as of the snapshot into <code>buffer</code> at
+	 * <code>pos</code>. A page nobody has copied yet is read in place, writers
+	 * of the page wait meanwhile.
+	 * @return number of words put
+	 */
+	private int putSnapshotPage(Snapshot s, int p, ByteBuffer buffer, int pos) {
+		int from = p << WORDS_PER_PAGE_SHIFT;
+		int to = Math.min(from + WORDS_PER_PAGE, length());
+		if (s.states.compareAndSet(p, PAGE_NOT_COPIED, PAGE_COPYING)) {
+			for (int w = from; w < to; w++, pos += 8) {
+				buffer.putLong(pos, get(w));
+			}
+			s.states.set(p, PAGE_COPIED);
+		} else {
+			long[] copy = copyPage(s, p);
+			for (int w = 0; w < copy.length; w++, pos += 8) {
+				buffer.putLong(pos, copy[w]);
+			}
+			s.pages[p] = null;   // 只会读一次
+		}
+		return to - from;
+	}
+
+	/**
+	 * Copies page p unless it has been copied or is being read by the
+	 * snapshot, waiting for a concurrent copy or read to finish
+	 * @return the copy, null if the page was read in place
+	 */
+	private long[] copyPage(Snapshot s, int p) {
+		if (s.states.get(p) == PAGE_NOT_COPIED && s.states.compareAndSet(p, PAGE_NOT_COPIED, PAGE_COPYING)) {
+			int from = p << WORDS_PER_PAGE_SHIFT;
+			long[] copy = new long[Math.min(WORDS_PER_PAGE, length() - from)];
+			for (int w = 0; w < copy.length; w++) {
+				copy[w] = get(from + w);
+			}
+			s.pages[p] = copy;
+			s.states.set(p, PAGE_COPIED);   // 发布pages[p]
+			return copy;
+		}
+
+		while (s.states.get(p) != PAGE_COPIED) {
+			Thread.yield();
+		}
+		return s.pages[p];
+	}
+
+	private static int getPageNum(int sizeInWords) {
+		return (sizeInWords + WORDS_PER_PAGE - 1) >>> WORDS_PER_PAGE_SHIFT;
+	}
+
+	/**
+	 * Reads all the words from <code>channel</code>, in the format written by
+	 * {@link #writeTo(WritableByteChannel)}.
+	 * @param channel
+	 * @throws IOException
+	 *             including EOFException if the channel ends before all the
+	 *             words are read
+	 */
+	public final void readFrom(ReadableByteChannel channel) throws IOException {
+		ByteBuffer buffer = IO_BUFFER.get();
+		int length = length();
+		int wordsPerBuffer = IO_BUFFER_SIZE >>> 3;
+		for (int from = 0; from < length; from += wordsPerBuffer) {
+			int to = Math.min(from + wordsPerBuffer, length);
+			buffer.clear();
+			buffer.limit((to - from) << 3);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException("channel ends after " + (from + (buffer.position() >>> 3)) + " of " + length + " words");
+				}
+			}
+			for (int i = from, pos = 0; i < to; i++, pos += 8) {
+				set(i, buffer.getLong(pos));
+			}
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of <code>buffer</code> to
+	 * <code>channel</code>.
+	 */
+	static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/** @return whether dirty pages are tracked by <i>this</i> storage */
+	public final boolean isTrackingDirtyPages() {
+		return dirtyPages != null;
+	}
+
+	private void checkDirtyPagesTracked() {
+		if (dirtyPages == null) {
+			throw new IllegalStateException("dirty pages are not tracked by " + getClass().getName());
+		}
+	}
+
+	/**
+	 * Pages of a snapshot which writers had to copy before changing them
+	 */
+	private static final class Snapshot {
+
+		/** PAGE_NOT_COPIED, PAGE_COPYING or PAGE_COPIED for each page */
+		final AtomicIntegerArray states;
+
+		/** Copy of each page copied by a writer, until the snapshot has read it */
+		final long[][] pages;
+
+		Snapshot(int pageNum) {
+			this.states = new AtomicIntegerArray(pageNum);
+			this.pages = new long[pageNum][];
+		}
+
+	}
+
+}
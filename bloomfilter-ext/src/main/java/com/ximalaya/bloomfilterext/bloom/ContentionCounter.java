@@ -0,0 +1,66 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * CAS冲突计数器，用StripedCounter按线程分散计数，热点写入时不会在计数器本身上再产生冲突；
+ * 同时提供CAS失败后的退避方法
+ * @author will
+ *
+ */
+final class ContentionCounter {
+
+	/** Failures up to this are handled by spinning */
+	private static final int MAX_SPIN_FAILURES = 4;
+
+	/** Failures up to this are handled by yielding, later ones park */
+	private static final int MAX_YIELD_FAILURES = 8;
+
+	/** Upper bound of the park time: 1us << 6 = 64us */
+	private static final int MAX_PARK_SHIFT = 6;
+
+	/** Keeps the JIT from removing the spin loop, written almost never */
+	private static volatile int spinSink;
+
+	private final StripedCounter failures = new StripedCounter();
+
+	/**
+	 * Counts a failed CAS of the calling thread
+	 */
+	void increment() {
+		failures.increment();
+	}
+
+	/**
+	 * @return number of failed CAS so far, not a snapshot under concurrent updates
+	 */
+	long sum() {
+		return failures.sum();
+	}
+
+	/**
+	 * Backs off after a failed CAS: spins 2^failedTimes iterations first, then yields, then
+	 * parks for an exponentially growing but bounded time
+	 *
+	 * @param failedTimes
+	 *            number of failed CAS of the current update before this one, starting from 0
+	 */
+	static void backoff(int failedTimes) {
+		if (failedTimes < MAX_SPIN_FAILURES) {
+			int x = (int) System.nanoTime() | 1;
+			for (int i = 1 << failedTimes; i > 0; i--) {   // xorshift
+				x ^= x << 13;
+				x ^= x >>> 17;
+				x ^= x << 5;
+			}
+			if (x == 0) {   // never, xorshift of a non-zero value is non-zero
+				spinSink = x;
+			}
+		} else if (failedTimes < MAX_YIELD_FAILURES) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(1000L << Math.min(failedTimes - MAX_YIELD_FAILURES, MAX_PARK_SHIFT));
+		}
+	}
+
+}
@@ -0,0 +1,270 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.util.Arrays;
+
+/**
+ * 计数器的统计：非0计数器数和计数器取值的直方图，由{@link CountingFilter#getCounterStats()}扫描计数器得到，
+ * 据此估计已插入的不同key数和当前的误判率。填充率越高误判率越高，接近饱和前应扩容或拆分
+ * @author will
+ *
+ */
+public final class CounterStats {
+
+	/** Histograms count values up to this exactly, larger values are counted in the last slot */
+	private static final int MAX_HISTOGRAM_VALUE = 255;
+
+	/** Lowest bit of each 2, 4, 8 and 16 bit bucket of a word, indexed by log2(bucketBits) - 1 */
+	private static final long[] LOW_BIT_MASKS = {
+		0x5555555555555555L, 0x1111111111111111L, 0x0101010101010101L, 0x0001000100010001L
+	};
+
+	private final long vectorSize;
+	private final int nbHash;
+	private final long nonZeroCount;
+	private final long[] histogram;
+	private final double[] blockOvercountRates;   // 块式过滤器各取值的误判率，其它过滤器为null
+
+	/**
+	 * @param vectorSize number of buckets
+	 * @param nbHash number of buckets each key is hashed to
+	 * @param histogram number of buckets holding each value, the last slot also counts the
+	 * larger values. Slot 0 is ignored and recomputed from the other slots.
+	 */
+	CounterStats(long vectorSize, int nbHash, long[] histogram) {
+		this(vectorSize, nbHash, histogram, null);
+	}
+
+	/**
+	 * @param blockOvercountRates for filters confining the buckets of a key to one block: the
+	 * average over the blocks of the probability that the k buckets of a key all hold each value
+	 * or more, indexed like <code>histogram</code>
+	 */
+	private CounterStats(long vectorSize, int nbHash, long[] histogram, double[] blockOvercountRates) {
+		long nonZeroCount = 0;
+		for(int i = 1; i < histogram.length; i++) {
+			nonZeroCount += histogram[i];
+		}
+		histogram[0] = vectorSize - nonZeroCount;
+		this.vectorSize = vectorSize;
+		this.nbHash = nbHash;
+		this.nonZeroCount = nonZeroCount;
+		this.histogram = histogram;
+		this.blockOvercountRates = blockOvercountRates;
+	}
+
+	/**
+	 * Scans the buckets of a filter. Only non-zero words are looked into: a SWAR fold gives the
+	 * non-zero buckets of a word as one bit each, whose population count is added up, and only
+	 * those buckets are read for the histogram. Concurrent updates are not blocked, so the result
+	 * may be slightly off while keys are being added.
+	 * @param storage buckets of the filter
+	 * @param bucketBits 2, 4, 8 or 16
+	 * @param vectorSize number of buckets in use, buckets past it are always 0
+	 * @param nbHash
+	 * @return
+	 */
+	static CounterStats scan(BucketStorage storage, int bucketBits, long vectorSize, int nbHash) {
+		return scan(storage, bucketBits, vectorSize, nbHash, 0);
+	}
+
+	/**
+	 * Same as {@link #scan(BucketStorage, int, long, int)} for a filter confining the buckets of
+	 * each key to one block of <code>wordsPerBlock</code> words, e.g.
+	 * {@link BlockedCountingBloomFilter}. The false positive rate of such a filter depends on the
+	 * fill of each block rather than on the overall one: blocks holding more keys than average
+	 * account for most of the false positives, so the rates are computed per block and averaged.
+	 * The k buckets of a key are distinct buckets of its block: with c of the B buckets of a block
+	 * passing, the rate of the block is C(c, k) / C(B, k).
+	 * @param storage
+	 * @param bucketBits
+	 * @param vectorSize
+	 * @param nbHash
+	 * @param wordsPerBlock 0 if the buckets of a key are spread over the whole vector
+	 * @return
+	 */
+	static CounterStats scan(BucketStorage storage, int bucketBits, long vectorSize, int nbHash, int wordsPerBlock) {
+		int bucketBitsShift = Integer.numberOfTrailingZeros(bucketBits);
+		long lowBitMask = LOW_BIT_MASKS[bucketBitsShift - 1];
+		long bucketMaxValue = (1L << bucketBits) - 1;
+		long[] histogram = new long[(int) Math.min(bucketMaxValue, MAX_HISTOGRAM_VALUE) + 1];
+		int lastSlot = histogram.length - 1;
+		int length = storage.length();
+		int blockWords = wordsPerBlock > 0 ? wordsPerBlock : Math.max(length, 1);   // 不分块时整个数组是一块
+
+		double[] blockOvercountRates = null;
+		double[] blockRates = null;   // 块中有c个计数器不小于某个值时，从未插入的key的k个计数器都落在其中的概率
+		if(wordsPerBlock > 0) {
+			int bucketsPerBlock = wordsPerBlock << (6 - bucketBitsShift);
+			blockOvercountRates = new double[histogram.length];
+			blockRates = new double[bucketsPerBlock + 1];
+			for(int c = 0; c <= bucketsPerBlock; c++) {
+				double rate = 1;
+				for(int i = 0; i < nbHash && rate > 0; i++) {
+					rate *= (double) Math.max(c - i, 0) / (bucketsPerBlock - i);
+				}
+				blockRates[c] = rate;
+			}
+		}
+
+		long[] blockHistogram = new long[histogram.length];
+		for(int from = 0; from < length; from += blockWords) {
+			boolean nonZero = false;
+			for(int i = from, to = Math.min(from + blockWords, length); i < to; i++) {
+				long word = storage.get(i);
+				if(word == 0) {
+					continue;
+				}
+
+				// 把每个计数器的各位或到最低位，右移总数不超过bucketBits - 1，不会越过相邻计数器的最低位
+				long folded = word;
+				for(int shift = 1; shift < bucketBits; shift <<= 1) {
+					folded |= folded >>> shift;
+				}
+				for(long nonZeroBits = folded & lowBitMask; nonZeroBits != 0; nonZeroBits &= nonZeroBits - 1) {
+					long value = (word >>> Long.numberOfTrailingZeros(nonZeroBits)) & bucketMaxValue;
+					blockHistogram[value < lastSlot ? (int) value : lastSlot]++;
+				}
+				nonZero = true;
+			}
+			if(!nonZero) {   // 全0的块对各取值的误判率都没有贡献
+				continue;
+			}
+
+			long countAtLeast = 0;
+			for(int value = lastSlot; value > 0; value--) {
+				countAtLeast += blockHistogram[value];
+				histogram[value] += blockHistogram[value];
+				if(blockRates != null) {
+					blockOvercountRates[value] += blockRates[(int) countAtLeast];
+				}
+			}
+			Arrays.fill(blockHistogram, 0);
+		}
+
+		if(blockOvercountRates != null) {
+			int blockNum = length / wordsPerBlock;
+			blockOvercountRates[0] = 1;   // 所有计数器都不小于0
+			for(int value = 1; value < blockOvercountRates.length; value++) {
+				blockOvercountRates[value] = blockNum == 0 ? 0 : blockOvercountRates[value] / blockNum;
+			}
+		}
+		return new CounterStats(vectorSize, nbHash, histogram, blockOvercountRates);
+	}
+
+	/**
+	 * Adds up the statistics of filters with the same number of hash functions and bucket width,
+	 * e.g. the shards of a {@link ShardedCountingFilter}
+	 * @param stats
+	 * @return
+	 */
+	static CounterStats sum(CounterStats[] stats) {
+		long vectorSize = 0;
+		long[] histogram = new long[stats[0].histogram.length];
+		double[] blockOvercountRates = stats[0].blockOvercountRates == null ? null : new double[histogram.length];
+		for(CounterStats s : stats) {
+			vectorSize += s.vectorSize;
+			for(int i = 1; i < histogram.length; i++) {
+				histogram[i] += s.histogram[i];
+			}
+		}
+		if(blockOvercountRates != null && vectorSize > 0) {   // 按各过滤器的大小加权平均
+			for(CounterStats s : stats) {
+				for(int i = 0; i < histogram.length; i++) {
+					blockOvercountRates[i] += s.blockOvercountRates[i] * s.vectorSize / vectorSize;
+				}
+			}
+		}
+		return new CounterStats(vectorSize, stats[0].nbHash, histogram, blockOvercountRates);
+	}
+
+	public long getVectorSize() {
+		return vectorSize;
+	}
+
+	public int getNbHash() {
+		return nbHash;
+	}
+
+	/**
+	 * @return number of buckets which are not 0
+	 */
+	public long getNonZeroCount() {
+		return nonZeroCount;
+	}
+
+	/**
+	 * @return number of buckets holding each value, the last slot also counts the larger values
+	 */
+	public long[] getHistogram() {
+		return Arrays.copyOf(histogram, histogram.length);
+	}
+
+	/**
+	 * @param value
+	 * @return number of buckets holding <code>value</code> or more
+	 */
+	public long getCountAtLeast(int value) {
+		if(value <= 0) {
+			return vectorSize;
+		}
+		long count = 0;
+		for(int i = Math.min(value, histogram.length - 1); i < histogram.length; i++) {
+			count += histogram[i];
+		}
+		return count;
+	}
+
+	/**
+	 * @return fraction of the buckets which are not 0
+	 */
+	public double getFillRatio() {
+		return vectorSize == 0 ? 0 : (double) nonZeroCount / vectorSize;
+	}
+
+	/**
+	 * Estimates the number of distinct keys added, from the fill ratio:
+	 * n = -(m / k) * ln(1 - X / m), m being the vector size, k the number of hash functions and
+	 * X the number of non-zero buckets. Deletes are taken into account as far as they cleared
+	 * buckets.
+	 * @return {@link Double#POSITIVE_INFINITY} once every bucket is non-zero
+	 */
+	public double getEstimatedCardinality() {
+		if(nonZeroCount >= vectorSize) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return -((double) vectorSize / nbHash) * Math.log(1 - getFillRatio());
+	}
+
+	/**
+	 * @return probability that a key never added passes the membership test, i.e. that all of its
+	 * buckets are non-zero: (X / m)^k, or for a blocked filter the average of C(X_b, k) / C(B, k)
+	 * over the blocks, X_b being the non-zero buckets of block b and B the buckets per block
+	 */
+	public double getFalsePositiveRate() {
+		return getOvercountRate(1);
+	}
+
+	/**
+	 * Probability that a key never added already gets an approximate count of <code>count</code>
+	 * or more, e.g. the chance that a new key is refused by a limit of <code>count</code>.
+	 * Values past the histogram are counted as the largest one, so the result is an upper bound
+	 * for counts above 255.
+	 * @param count
+	 * @return (buckets holding count or more / m)^k, or for a blocked filter the average over the
+	 * blocks of C(buckets of the block holding count or more, k) / C(B, k)
+	 */
+	public double getOvercountRate(int count) {
+		if(blockOvercountRates != null) {
+			return blockOvercountRates[Math.max(0, Math.min(count, blockOvercountRates.length - 1))];
+		}
+		return vectorSize == 0 ? 0 : Math.pow((double) getCountAtLeast(count) / vectorSize, nbHash);
+	}
+
+	@Override
+	public String toString() {
+		return "CounterStats [vectorSize=" + vectorSize + ", nbHash=" + nbHash + ", nonZeroCount=" + nonZeroCount
+				+ ", fillRatio=" + getFillRatio() + ", estimatedCardinality=" + getEstimatedCardinality()
+				+ ", falsePositiveRate=" + getFalsePositiveRate() + "]";
+	}
+
+}
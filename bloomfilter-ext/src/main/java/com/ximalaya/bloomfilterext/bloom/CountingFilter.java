@@ -0,0 +1,279 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.ximalaya.bloomfilterext.io.Writable;
+
+/**
+ * 线程安全的计数过滤器，可以统计某个key已插入的近似次数
+ * @author will
+ * @see ThreadSafeCBloomFilter
+ * @see BlockedCountingBloomFilter
+ */
+public interface CountingFilter extends Writable {
+
+	/**
+	 * Adds a key to <i>this</i> filter.
+	 *
+	 * @param key
+	 *            The key to add.
+	 */
+	void add(Key key);
+
+	/**
+	 * Determines wether a specified key belongs to <i>this</i> filter.
+	 *
+	 * @param key
+	 *            The key to test.
+	 * @return boolean True if the specified key belongs to <i>this</i> filter.
+	 *         False otherwise.
+	 */
+	boolean membershipTest(Key key);
+
+	/**
+	 * Calculates an approximate count of the key, i.e. how many times the key
+	 * was added to the filter.
+	 *
+	 * @param key
+	 *            key to be tested
+	 * @return 0 if the key is not present, otherwise a value which is never
+	 *         lower than the real count (barring underflows caused by deletes).
+	 */
+	int approximateCount(Key key);
+
+	/**
+	 * Calculates the approximate count of the UTF-8 encoding of a character
+	 * sequence, without allocating any object.
+	 *
+	 * @param chars
+	 *            character sequence to be tested
+	 * @return the approximate count of the key
+	 */
+	int approximateCount(CharSequence chars);
+
+	/**
+	 * Adds a key to <i>this</i> filter only if its approximate count is below
+	 * <code>limit</code>. Concurrent calls for the same key are serialized, so
+	 * no more than <code>limit</code> of them can succeed.
+	 *
+	 * @param key
+	 *            The key to add.
+	 * @param limit
+	 *            The maximum count the key may reach.
+	 * @return the approximate count of the key after the increment, or -1 if
+	 *         the key has already reached <code>limit</code>.
+	 */
+	int addIfBelow(Key key, int limit);
+
+	/**
+	 * Same as {@link #addIfBelow(Key, int)} for the UTF-8 encoding of a
+	 * character sequence, without allocating any object.
+	 *
+	 * @param chars
+	 *            The character sequence to add.
+	 * @param limit
+	 *            The maximum count the key may reach.
+	 * @return the approximate count of the key after the increment, or -1 if
+	 *         the key has already reached <code>limit</code>.
+	 */
+	int addIfBelow(CharSequence chars, int limit);
+
+	/**
+	 * Adds a batch of keys to <i>this</i> filter, with the same result as
+	 * adding them one by one, but visiting the buckets in a cache friendly
+	 * order.
+	 *
+	 * @param keys
+	 *            The keys to add.
+	 */
+	void batchAdd(Key[] keys);
+
+	/**
+	 * Same as {@link #batchAdd(Key[])} for the UTF-8 encodings of a batch of
+	 * character sequences.
+	 *
+	 * @param keys
+	 *            The character sequences to add.
+	 */
+	void batchAdd(CharSequence[] keys);
+
+	/**
+	 * Calculates the approximate counts of a batch of keys.
+	 *
+	 * @param keys
+	 *            keys to be tested
+	 * @return approximate count of <code>keys[i]</code> at index i
+	 */
+	int[] batchApproximateCount(Key[] keys);
+
+	/**
+	 * Same as {@link #batchApproximateCount(Key[])} for the UTF-8 encodings of
+	 * a batch of character sequences.
+	 *
+	 * @param keys
+	 *            character sequences to be tested
+	 * @return approximate count of <code>keys[i]</code> at index i
+	 */
+	int[] batchApproximateCount(CharSequence[] keys);
+
+	int getVectorSize();
+
+	int getNbHash();
+
+	int getHashType();
+
+	int getHashStrategy();
+
+	/**
+	 * @return width of each bucket in bits, a bucket saturates at
+	 *         <code>(1 &lt;&lt; bucketBits) - 1</code>
+	 */
+	int getBucketBits();
+
+	/**
+	 * @return number of failed CAS on the buckets since <i>this</i> filter was
+	 *         created. Failed updates are retried until they succeed, so this
+	 *         only tells how hot the filter is, no update is lost.
+	 */
+	long getContentionCount();
+
+	/**
+	 * Scans the buckets for the number of non-zero buckets and a histogram
+	 * of their values, from which the number of distinct keys and the
+	 * current false positive rate are estimated. Takes one pass over the
+	 * buckets without blocking concurrent adds, so it is meant for periodic
+	 * monitoring rather than for every add.
+	 *
+	 * @return statistics of the buckets
+	 */
+	CounterStats getCounterStats();
+
+	/**
+	 * @return where the buckets live, see {@link BucketStorage}
+	 */
+	int getStorageType();
+
+	/**
+	 * Releases the buckets of <i>this</i> filter. Off-heap buckets are freed
+	 * immediately, so the caller must make sure no other thread is still
+	 * using the filter. The filter can not be used any more afterwards.
+	 */
+	void clear();
+
+	/**
+	 * Writes the buckets back to their backing file, if any (see
+	 * {@link MappedBucketStorage}).
+	 *
+	 * @throws IOException
+	 */
+	void force() throws IOException;
+
+	/**
+	 * Writes the same bytes as {@link #write(DataOutput)}, but moves the
+	 * buckets in large blocks through a direct buffer instead of one
+	 * {@link DataOutput#writeLong(long)} call per word.
+	 * <p>
+	 * The buckets written are a point-in-time snapshot taken without
+	 * blocking concurrent adds: each add is either written as a whole or not
+	 * at all, see {@link BucketStorage}. {@link #write(DataOutput)} reads the
+	 * live buckets instead.
+	 *
+	 * @param channel
+	 * @throws IOException
+	 */
+	void writeTo(WritableByteChannel channel) throws IOException;
+
+	/**
+	 * Same as {@link #writeTo(WritableByteChannel)}, calling
+	 * <code>listener</code> at the point in time of the snapshot. All the
+	 * buckets are snapshotted at the same point, including those of the
+	 * shards of a {@link ShardedCountingFilter}.
+	 *
+	 * @param channel
+	 * @param listener
+	 *            may be null
+	 * @throws IOException
+	 *             including those thrown by the listener
+	 */
+	void writeTo(WritableByteChannel channel, SnapshotListener listener) throws IOException;
+
+	/**
+	 * Same as {@link #readFields(DataInput)} for what
+	 * {@link #write(DataOutput)} or {@link #writeTo(WritableByteChannel)}
+	 * wrote, reading the buckets in large blocks. Reads exactly the bytes of
+	 * <i>this</i> filter from the channel.
+	 *
+	 * @param channel
+	 * @throws IOException
+	 */
+	void readFrom(ReadableByteChannel channel) throws IOException;
+
+	/**
+	 * Forgets the buckets changed so far, to be called right before
+	 * {@link #write(DataOutput)} when the written file is to be kept up to
+	 * date by {@link #writeDirtyPages(RandomAccessFile, long)}.
+	 */
+	void clearDirtyPages();
+
+	/**
+	 * Writes the pages of buckets changed since the last call (or since
+	 * {@link #clearDirtyPages()}) into a file holding what
+	 * {@link #write(DataOutput)} wrote, in place. The header is not written.
+	 * Only heap and off-heap buckets track dirty pages, see
+	 * {@link BucketStorage#writeDirtyPages(RandomAccessFile, long)}. Like
+	 * {@link #writeTo(WritableByteChannel)}, the pages are written as a
+	 * point-in-time snapshot.
+	 *
+	 * @param file
+	 *            file written by {@link #write(DataOutput)}
+	 * @param offset
+	 *            position in the file where {@link #write(DataOutput)}
+	 *            started
+	 * @return number of pages written
+	 * @throws IOException
+	 *             the file then has to be rewritten as a whole
+	 */
+	int writeDirtyPages(RandomAccessFile file, long offset) throws IOException;
+
+	/**
+	 * Same as {@link #writeDirtyPages(RandomAccessFile, long)}, calling
+	 * <code>listener</code> at the point in time of the snapshot, see
+	 * {@link #writeTo(WritableByteChannel, SnapshotListener)}.
+	 *
+	 * @param file
+	 * @param offset
+	 * @param listener
+	 *            may be null
+	 * @return number of pages written
+	 * @throws IOException
+	 *             including those thrown by the listener, the file then has
+	 *             to be rewritten as a whole
+	 */
+	int writeDirtyPages(RandomAccessFile file, long offset, SnapshotListener listener) throws IOException;
+
+	/**
+	 * Writes everything {@link #write(DataOutput)} writes before the buckets.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	void writeHeader(DataOutput out) throws IOException;
+
+	/**
+	 * Reads a header written by {@link #writeHeader(DataOutput)} and uses
+	 * <code>storage</code> as the buckets, without copying them.
+	 *
+	 * @param in
+	 * @param storage
+	 *            buckets of the filter, its length must match the vector
+	 *            size read from the header
+	 * @throws IOException
+	 */
+	void readHeader(DataInput in, BucketStorage storage) throws IOException;
+
+}
@@ -1,169 +1,227 @@
-package com.ximalaya.bloomfilterext.bloom;
-import java.io.DataInput;
-import java.io.DataOutput;
-import java.io.IOException;
-import java.util.Collection;
-import java.util.List;
-
-import com.ximalaya.bloomfilterext.hash.Hash;
-import com.ximalaya.bloomfilterext.io.Writable;
-
-/**
- * Defines the general behavior of a filter.
- * <p>
- * A filter is a data structure which aims at offering a lossy summary of a set <code>A</code>.  The
- * key idea is to map entries of <code>A</code> (also called <i>keys</i>) into several positions 
- * in a vector through the use of several hash functions.
- * <p>
- * Typically, a filter will be implemented as a Bloom filter (or a Bloom filter extension).
- * <p>
- * It must be extended in order to define the real behavior.
- * 
- * @see Key The general behavior of a key
- * @see HashFunction A hash function
- */
-public abstract class Filter implements Writable {
-  private static final int VERSION = -1; // negative to accommodate for old format 
-  /** The vector size of <i>this</i> filter. */
-  protected int vectorSize;
-
-  /** The hash function used to map a key to several positions in the vector. */
-  protected HashFunction hash;
-
-  /** The number of hash function to consider. */
-  protected int nbHash;
-  
-  /** Type of hashing function to use. */
-  protected int hashType;
-
-  protected Filter() {}
-  
-  /** 
-   * Constructor.
-   * @param vectorSize The vector size of <i>this</i> filter.
-   * @param nbHash The number of hash functions to consider.
-   * @param hashType type of the hashing function (see {@link Hash}).
-   */
-  protected Filter(int vectorSize, int nbHash, int hashType) {
-    this.vectorSize = vectorSize;
-    this.nbHash = nbHash;
-    this.hashType = hashType;
-    this.hash = new HashFunction(this.vectorSize, this.nbHash, this.hashType);
-  }
-
-  /**
-   * Adds a key to <i>this</i> filter.
-   * @param key The key to add.
-   */
-  public abstract void add(Key key);
-
-  /**
-   * Determines wether a specified key belongs to <i>this</i> filter.
-   * @param key The key to test.
-   * @return boolean True if the specified key belongs to <i>this</i> filter.
-   * 		     False otherwise.
-   */
-  public abstract boolean membershipTest(Key key);
-
-  /**
-   * Peforms a logical AND between <i>this</i> filter and a specified filter.
-   * <p>
-   * <b>Invariant</b>: The result is assigned to <i>this</i> filter.
-   * @param filter The filter to AND with.
-   */
-  public abstract void and(Filter filter);
-
-  /**
-   * Peforms a logical OR between <i>this</i> filter and a specified filter.
-   * <p>
-   * <b>Invariant</b>: The result is assigned to <i>this</i> filter.
-   * @param filter The filter to OR with.
-   */
-  public abstract void or(Filter filter);
-
-  /**
-   * Peforms a logical XOR between <i>this</i> filter and a specified filter.
-   * <p>
-   * <b>Invariant</b>: The result is assigned to <i>this</i> filter.
-   * @param filter The filter to XOR with.
-   */
-  public abstract void xor(Filter filter);
-
-  /**
-   * Performs a logical NOT on <i>this</i> filter.
-   * <p>
-   * The result is assigned to <i>this</i> filter.
-   */
-  public abstract void not();
-  
-  /**
-   * Clear all its fields
-   */
-  protected void clear() {
-	  // default empty implementation, sub-class may override it
-  }
-
-  /**
-   * Adds a list of keys to <i>this</i> filter.
-   * @param keys The list of keys.
-   */
-  public void add(List<Key> keys){
-    if(keys == null) {
-      throw new IllegalArgumentException("ArrayList<Key> may not be null");
-    }
-
-    for(Key key: keys) {
-      add(key);
-    }
-  }//end add()
-
-  /**
-   * Adds a collection of keys to <i>this</i> filter.
-   * @param keys The collection of keys.
-   */
-  public void add(Collection<Key> keys){
-    if(keys == null) {
-      throw new IllegalArgumentException("Collection<Key> may not be null");
-    }
-    for(Key key: keys) {
-      add(key);
-    }
-  }//end add()
-
-  /**
-   * Adds an array of keys to <i>this</i> filter.
-   * @param keys The array of keys.
-   */
-  public void add(Key[] keys){
-    if(keys == null) {
-      throw new IllegalArgumentException("Key[] may not be null");
-    }
-    for(int i = 0; i < keys.length; i++) {
-      add(keys[i]);
-    }
-  }//end add()
-  
-  // Writable interface
-  
-  public void write(DataOutput out) throws IOException {
-    out.writeInt(VERSION);
-    out.writeInt(this.nbHash);
-    out.writeByte(this.hashType);
-    out.writeInt(this.vectorSize);
-  }
-
-  public void readFields(DataInput in) throws IOException {
-    int ver = in.readInt();
-    if (ver > 0) { // old unversioned format
-      this.nbHash = ver;
-      this.hashType = Hash.JENKINS_HASH;
-    } else if (ver == VERSION) {
-      this.nbHash = in.readInt();
-      this.hashType = in.readByte();
-    } else {
-      throw new IOException("Unsupported version: " + ver);
-    }
-    this.vectorSize = in.readInt();
-    this.hash = new HashFunction(this.vectorSize, this.nbHash, this.hashType);
-  }
+package com.ximalaya.bloomfilterext.bloom;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import com.ximalaya.bloomfilterext.hash.Hash;
+import com.ximalaya.bloomfilterext.io.Writable;
+
+/**
+ * Defines the general behavior of a filter.
+ * <p>
+ * A filter is a data structure which aims at offering a lossy summary of a set <code>A</code>.  The
+ * key idea is to map entries of <code>A</code> (also called <i>keys</i>) into several positions 
+ * in a vector through the use of several hash functions.
+ * <p>
+ * Typically, a filter will be implemented as a Bloom filter (or a Bloom filter extension).
+ * <p>
+ * It must be extended in order to define the real behavior.
+ * 
+ * @see Key The general behavior of a key
+ * @see HashFunction A hash function
+ */
+public abstract class Filter implements Writable {
+  private static final int VERSION = -1; // negative to accommodate for old format 
+  private static final int HASH_STRATEGY_VERSION = -2; // VERSION followed by the hash strategy
+  private static final int EXTENDED_VERSION = -3; // HASH_STRATEGY_VERSION followed by a subclass extension
+  /** The vector size of <i>this</i> filter. */
+  protected int vectorSize;
+
+  /** The hash function used to map a key to several positions in the vector. */
+  protected HashFunction hash;
+
+  /** The number of hash function to consider. */
+  protected int nbHash;
+  
+  /** Type of hashing function to use. */
+  protected int hashType;
+  
+  /** Strategy used to derive the hashed values (see {@link HashFunction}). */
+  protected int hashStrategy = HashFunction.CHAINED_HASHING;
+
+  protected Filter() {}
+  
+  /** 
+   * Constructor.
+   * @param vectorSize The vector size of <i>this</i> filter.
+   * @param nbHash The number of hash functions to consider.
+   * @param hashType type of the hashing function (see {@link Hash}).
+   */
+  protected Filter(int vectorSize, int nbHash, int hashType) {
+    this(vectorSize, nbHash, hashType, HashFunction.CHAINED_HASHING);
+  }
+  
+  /** 
+   * Constructor.
+   * @param vectorSize The vector size of <i>this</i> filter.
+   * @param nbHash The number of hash functions to consider.
+   * @param hashType type of the hashing function (see {@link Hash}).
+   * @param hashStrategy strategy used to derive the hashed values (see {@link HashFunction}).
+   */
+  protected Filter(int vectorSize, int nbHash, int hashType, int hashStrategy) {
+    this.vectorSize = vectorSize;
+    this.nbHash = nbHash;
+    this.hashType = hashType;
+    this.hashStrategy = hashStrategy;
+    this.hash = new HashFunction(this.vectorSize, this.nbHash, this.hashType, this.hashStrategy);
+  }
+
+  /**
+   * Adds a key to <i>this</i> filter.
+   * @param key The key to add.
+   */
+  public abstract void add(Key key);
+
+  /**
+   * Determines wether a specified key belongs to <i>this</i> filter.
+   * @param key The key to test.
+   * @return boolean True if the specified key belongs to <i>this</i> filter.
+   * 		     False otherwise.
+   */
+  public abstract boolean membershipTest(Key key);
+
+  /**
+   * Peforms a logical AND between <i>this</i> filter and a specified filter.
+   * <p>
+   * <b>Invariant</b>: The result is assigned to <i>this</i> filter.
+   * @param filter The filter to AND with.
+   */
+  public abstract void and(Filter filter);
+
+  /**
+   * Peforms a logical OR between <i>this</i> filter and a specified filter.
+   * <p>
+   * <b>Invariant</b>: The result is assigned to <i>this</i> filter.
+   * @param filter The filter to OR with.
+   */
+  public abstract void or(Filter filter);
+
+  /**
+   * Peforms a logical XOR between <i>this</i> filter and a specified filter.
+   * <p>
+   * <b>Invariant</b>: The result is assigned to <i>this</i> filter.
+   * @param filter The filter to XOR with.
+   */
+  public abstract void xor(Filter filter);
+
+  /**
+   * Performs a logical NOT on <i>this</i> filter.
+   * <p>
+   * The result is assigned to <i>this</i> filter.
+   */
+  public abstract void not();
+  
+  /**
+   * Clear all its fields
+   */
+  protected void clear() {
+	  // default empty implementation, sub-class may override it
+  }
+
+  /**
+   * Adds a list of keys to <i>this</i> filter.
+   * @param keys The list of keys.
+   */
+  public void add(List<Key> keys){
+    if(keys == null) {
+      throw new IllegalArgumentException("ArrayList<Key> may not be null");
+    }
+
+    for(Key key: keys) {
+      add(key);
+    }
+  }//end add()
+
+  /**
+   * Adds a collection of keys to <i>this</i> filter.
+   * @param keys The collection of keys.
+   */
+  public void add(Collection<Key> keys){
+    if(keys == null) {
+      throw new IllegalArgumentException("Collection<Key> may not be null");
+    }
+    for(Key key: keys) {
+      add(key);
+    }
+  }//end add()
+
+  /**
+   * Adds an array of keys to <i>this</i> filter.
+   * @param keys The array of keys.
+   */
+  public void add(Key[] keys){
+    if(keys == null) {
+      throw new IllegalArgumentException("Key[] may not be null");
+    }
+    for(int i = 0; i < keys.length; i++) {
+      add(keys[i]);
+    }
+  }//end add()
+  
+  // Writable interface
+  
+  public void write(DataOutput out) throws IOException {
+    // filters using the chained strategy keep the old format, so that older readers still work
+    boolean withExtension = hasHeaderExtension();
+    boolean withHashStrategy = withExtension || this.hashStrategy != HashFunction.CHAINED_HASHING;
+    out.writeInt(withExtension ? EXTENDED_VERSION : (withHashStrategy ? HASH_STRATEGY_VERSION : VERSION));
+    out.writeInt(this.nbHash);
+    out.writeByte(this.hashType);
+    out.writeInt(this.vectorSize);
+    if (withHashStrategy) {
+      out.writeByte(this.hashStrategy);
+    }
+    if (withExtension) {
+      writeHeaderExtension(out);
+    }
+  }
+  
+  /**
+   * Subclasses which need to persist more settings than the base header return true, in which
+   * case {@link #writeHeaderExtension(DataOutput)} is called at the end of the header. Otherwise the
+   * header keeps the older, shorter format.
+   * @return false by default
+   */
+  protected boolean hasHeaderExtension() {
+    return false;
+  }
+  
+  /**
+   * Writes the settings specific to a subclass at the end of the header.
+   * @param out
+   * @throws IOException
+   */
+  protected void writeHeaderExtension(DataOutput out) throws IOException {
+  }
+  
+  /**
+   * Reads what {@link #writeHeaderExtension(DataOutput)} wrote. Only called for headers having an
+   * extension, subclasses must reset their settings to the defaults before reading other headers.
+   * @param in
+   * @throws IOException
+   */
+  protected void readHeaderExtension(DataInput in) throws IOException {
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    int ver = in.readInt();
+    if (ver > 0) { // old unversioned format
+      this.nbHash = ver;
+      this.hashType = Hash.JENKINS_HASH;
+    } else if (ver == VERSION || ver == HASH_STRATEGY_VERSION || ver == EXTENDED_VERSION) {
+      this.nbHash = in.readInt();
+      this.hashType = in.readByte();
+    } else {
+      throw new IOException("Unsupported version: " + ver);
+    }
+    this.vectorSize = in.readInt();
+    this.hashStrategy = ver == HASH_STRATEGY_VERSION || ver == EXTENDED_VERSION 
+        ? in.readByte() : HashFunction.CHAINED_HASHING;
+    if (ver == EXTENDED_VERSION) {
+      readHeaderExtension(in);
+    }
+    this.hash = new HashFunction(this.vectorSize, this.nbHash, this.hashType, this.hashStrategy);
+  }
 }//end class
\ No newline at end of file
@@ -1,69 +1,203 @@
-package com.ximalaya.bloomfilterext.bloom;
-
-import com.ximalaya.bloomfilterext.hash.Hash;
-
-/**
- * Implements a hash object that returns a certain number of hashed values.
- * 
- * @see Key The general behavior of a key being stored in a filter
- * @see Filter The general behavior of a filter
- */
-public final class HashFunction {
-  /** The number of hashed values. */
-  private int nbHash;
-
-  /** The maximum highest returned value. */
-  private int maxValue;
-
-  /** Hashing algorithm to use. */
-  private Hash hashFunction;
-  
-  /**
-   * Constructor.
-   * <p>
-   * Builds a hash function that must obey to a given maximum number of returned values and a highest value.
-   * @param maxValue The maximum highest returned value.
-   * @param nbHash The number of resulting hashed values.
-   * @param hashType type of the hashing function (see {@link Hash}).
-   */
-  public HashFunction(int maxValue, int nbHash, int hashType) {
-    if (maxValue <= 0) {
-      throw new IllegalArgumentException("maxValue must be > 0");
-    }
-    
-    if (nbHash <= 0) {
-      throw new IllegalArgumentException("nbHash must be > 0");
-    }
-
-    this.maxValue = maxValue;
-    this.nbHash = nbHash;
-    this.hashFunction = Hash.getInstance(hashType);
-    if (this.hashFunction == null)
-      throw new IllegalArgumentException("hashType must be known");
-  }
-
-  /** Clears <i>this</i> hash function. A NOOP */
-  public void clear() {
-  }
-
-  /**
-   * Hashes a specified key into several integers.
-   * @param k The specified key.
-   * @return The array of hashed values.
-   */
-  public int[] hash(Key k){
-      byte[] b = k.getBytes();
-      if (b == null) {
-        throw new NullPointerException("buffer reference is null");
-      }
-      if (b.length == 0) {
-        throw new IllegalArgumentException("key length must be > 0");
-      }
-      int[] result = new int[nbHash];
-      for (int i = 0, initval = 0; i < nbHash; i++) {
-	  initval = hashFunction.hash(b, initval);
-	  result[i] = Math.abs(initval % maxValue);
-      }
-      return result;
-  }
+package com.ximalaya.bloomfilterext.bloom;
+
+import com.ximalaya.bloomfilterext.hash.Hash;
+
+/**
+ * Implements a hash object that returns a certain number of hashed values.
+ * 
+ * @see Key The general behavior of a key being stored in a filter
+ * @see Filter The general behavior of a filter
+ */
+public final class HashFunction {
+  /**
+   * Constant to denote the chained hashing strategy: the hash function is run <code>nbHash</code>
+   * times over the key, each result being the seed of the next run.
+   */
+  public static final int CHAINED_HASHING = 0;
+  /**
+   * Constant to denote the double hashing strategy of Kirsch and Mitzenmacher: the key is hashed
+   * twice, and the i-th value is derived as <code>h1 + i * h2</code>.
+   */
+  public static final int DOUBLE_HASHING = 1;
+
+  /** The number of hashed values. */
+  private int nbHash;
+
+  /** The maximum highest returned value. */
+  private int maxValue;
+
+  /** Hashing algorithm to use. */
+  private Hash hashFunction;
+  
+  /** Strategy used to derive the hashed values. */
+  private int hashStrategy;
+  
+  /** Per-thread buffer holding the UTF-8 encoding of the character sequence being hashed */
+  private static final ThreadLocal<byte[]> UTF8_BUFFER = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[256];
+    }
+  };
+  
+  /**
+   * Constructor.
+   * <p>
+   * Builds a hash function that must obey to a given maximum number of returned values and a highest value.
+   * @param maxValue The maximum highest returned value.
+   * @param nbHash The number of resulting hashed values.
+   * @param hashType type of the hashing function (see {@link Hash}).
+   */
+  public HashFunction(int maxValue, int nbHash, int hashType) {
+    this(maxValue, nbHash, hashType, CHAINED_HASHING);
+  }
+  
+  /**
+   * Constructor.
+   * <p>
+   * Builds a hash function that must obey to a given maximum number of returned values and a highest value.
+   * @param maxValue The maximum highest returned value.
+   * @param nbHash The number of resulting hashed values.
+   * @param hashType type of the hashing function (see {@link Hash}).
+   * @param hashStrategy {@link #CHAINED_HASHING} or {@link #DOUBLE_HASHING}.
+   */
+  public HashFunction(int maxValue, int nbHash, int hashType, int hashStrategy) {
+    if (maxValue <= 0) {
+      throw new IllegalArgumentException("maxValue must be > 0");
+    }
+    
+    if (nbHash <= 0) {
+      throw new IllegalArgumentException("nbHash must be > 0");
+    }
+    
+    if (hashStrategy != CHAINED_HASHING && hashStrategy != DOUBLE_HASHING) {
+      throw new IllegalArgumentException("hashStrategy must be known");
+    }
+
+    this.maxValue = maxValue;
+    this.nbHash = nbHash;
+    this.hashStrategy = hashStrategy;
+    this.hashFunction = Hash.getInstance(hashType);
+    if (this.hashFunction == null)
+      throw new IllegalArgumentException("hashType must be known");
+  }
+
+  /** Clears <i>this</i> hash function. A NOOP */
+  public void clear() {
+  }
+
+  /**
+   * Hashes a specified key into several integers.
+   * @param k The specified key.
+   * @return The array of hashed values.
+   */
+  public int[] hash(Key k){
+      byte[] b = k.getBytes();
+      if (b == null) {
+        throw new NullPointerException("buffer reference is null");
+      }
+      int[] result = new int[nbHash];
+      hash(b, 0, b.length, result);
+      return result;
+  }
+  
+  /**
+   * Hashes the UTF-8 encoding of a character sequence into several integers, without
+   * allocating: the characters are encoded into a buffer confined to the calling thread.
+   * <p>
+   * The result is the same as hashing a {@link Key} built from the UTF-8 bytes of
+   * <code>chars</code>.
+   * @param chars The specified character sequence.
+   * @param result Array receiving the <code>nbHash</code> hashed values.
+   */
+  public void hash(CharSequence chars, int[] result) {
+    if (chars == null) {
+      throw new NullPointerException("chars reference is null");
+    }
+    byte[] buffer = UTF8_BUFFER.get();
+    int maxLength = chars.length() * 3;   // a char never takes more than 3 bytes in UTF-8
+    if (buffer.length < maxLength) {
+      buffer = new byte[Math.max(maxLength, buffer.length << 1)];
+      UTF8_BUFFER.set(buffer);
+    }
+    int length = encodeUTF8(chars, buffer);
+    hash(buffer, 0, length, result);
+  }
+  
+  /**
+   * Hashes a range of bytes into several integers.
+   * @param bytes The specified bytes.
+   * @param offset Index of the first byte to hash.
+   * @param length Number of bytes to hash.
+   * @param result Array receiving the <code>nbHash</code> hashed values.
+   */
+  public void hash(byte[] bytes, int offset, int length, int[] result) {
+      if (length == 0) {
+        throw new IllegalArgumentException("key length must be > 0");
+      }
+      if (result.length < nbHash) {
+        throw new IllegalArgumentException("result length must be >= nbHash");
+      }
+      if (hashStrategy == DOUBLE_HASHING) {
+        int h1 = hashFunction.hash(bytes, offset, length, 0);
+        int h2 = hashFunction.hash(bytes, offset, length, h1);
+        for (int i = 0; i < nbHash; i++) {
+          int combined = h1 + i * h2;
+          if (combined < 0) {
+            combined = ~combined;
+          }
+          result[i] = combined % maxValue;
+        }
+        return;
+      }
+      for (int i = 0, initval = 0; i < nbHash; i++) {
+	  initval = hashFunction.hash(bytes, offset, length, initval);
+	  result[i] = Math.abs(initval % maxValue);
+      }
+  }
+  
+  /** @return The number of hashed values. */
+  public int getNbHash() {
+    return nbHash;
+  }
+  
+  /** @return The strategy used to derive the hashed values. */
+  public int getHashStrategy() {
+    return hashStrategy;
+  }
+  
+  /**
+   * Encodes a character sequence into UTF-8, the same way <code>String.getBytes("UTF-8")</code>
+   * does: unpaired surrogates are replaced with '?'.
+   * @param chars The characters to encode.
+   * @param buffer Buffer of at least <code>3 * chars.length()</code> bytes.
+   * @return The number of bytes written.
+   */
+  private static int encodeUTF8(CharSequence chars, byte[] buffer) {
+    int length = chars.length();
+    int pos = 0;
+    for (int i = 0; i < length; i++) {
+      char c = chars.charAt(i);
+      if (c < 0x80) {
+        buffer[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[pos++] = (byte) (0xc0 | (c >> 6));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+      } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+        buffer[pos++] = (byte) (0xe0 | (c >> 12));
+        buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+      } else if (c <= Character.MAX_HIGH_SURROGATE && i + 1 < length
+          && Character.isLowSurrogate(chars.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+        buffer[pos++] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else {
+        buffer[pos++] = '?';
+      }
+    }
+    return pos;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 基于AtomicLongArray的堆内存储
+ * @author will
+ *
+ */
+final class HeapBucketStorage extends BucketStorage {
+
+	private AtomicLongArray words;
+
+	HeapBucketStorage(int sizeInWords) {
+		this.words = new AtomicLongArray(sizeInWords);
+		trackDirtyPages(sizeInWords);
+	}
+
+	@Override
+	public int length() {
+		return words.length();
+	}
+
+	@Override
+	public long get(int i) {
+		return words.get(i);
+	}
+
+	@Override
+	public void set(int i, long newValue) {
+		preserve(i);
+		words.set(i, newValue);
+		markDirty(i);
+	}
+
+	@Override
+	public boolean compareAndSet(int i, long expect, long update) {
+		preserve(i);
+		if (words.compareAndSet(i, expect, update)) {
+			markDirty(i);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void release() {
+		words = null;   // 交给GC回收
+	}
+
+	@Override
+	public int getStorageType() {
+		return HEAP_STORAGE;
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.util.Arrays;
+
+/**
+ * 批量操作的辅助方法：先算出一批key的全部哈希位置，再按位置排序，使计数器按内存顺序访问，
+ * 相互独立的cache miss可以重叠，落在同一个long上的多个位置只需读（或CAS）一次
+ * @author will
+ *
+ */
+final class KeyBatch {
+
+	private KeyBatch() {
+	}
+
+	/**
+	 * Hashes a batch of keys
+	 *
+	 * @return positions of key i at [i * nbHash, (i + 1) * nbHash)
+	 */
+	static int[] hash(HashFunction hash, Key[] keys, int nbHash) {
+		if (keys == null) {
+			throw new NullPointerException("Key[] may not be null");
+		}
+
+		int[] positions = new int[keys.length * nbHash];
+		int[] h = new int[nbHash];
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == null) {
+				throw new NullPointerException("key can not be null");
+			}
+			byte[] bytes = keys[i].getBytes();
+			hash.hash(bytes, 0, bytes.length, h);
+			System.arraycopy(h, 0, positions, i * nbHash, nbHash);
+		}
+		return positions;
+	}
+
+	/**
+	 * Hashes the UTF-8 encodings of a batch of character sequences
+	 *
+	 * @return positions of key i at [i * nbHash, (i + 1) * nbHash)
+	 */
+	static int[] hash(HashFunction hash, CharSequence[] keys, int nbHash) {
+		if (keys == null) {
+			throw new NullPointerException("CharSequence[] may not be null");
+		}
+
+		int[] positions = new int[keys.length * nbHash];
+		int[] h = new int[nbHash];
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == null) {
+				throw new NullPointerException("key can not be null");
+			}
+			hash.hash(keys[i], h);
+			System.arraycopy(h, 0, positions, i * nbHash, nbHash);
+		}
+		return positions;
+	}
+
+	/**
+	 * Sorts the positions of a batch while remembering which key each of them
+	 * belongs to
+	 *
+	 * @param positions
+	 *            as returned by the hash methods, all non-negative
+	 * @return <code>position &lt;&lt; 32 | keyIndex</code>, in ascending
+	 *         order of position
+	 */
+	static long[] sortByPosition(int[] positions, int nbHash) {
+		long[] sorted = new long[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			sorted[i] = ((long) positions[i] << 32) | (i / nbHash);
+		}
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	static int position(long packed) {
+		return (int) (packed >>> 32);
+	}
+
+	static int keyIndex(long packed) {
+		return (int) packed;
+	}
+
+}
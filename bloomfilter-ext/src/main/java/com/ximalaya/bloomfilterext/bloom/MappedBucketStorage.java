@@ -0,0 +1,185 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sun.misc.Unsafe;
+
+/**
+ * 基于内存映射文件的存储，计数器直接在文件映射区域上原子更新
+ * <p>
+ * The words are stored big-endian, exactly as {@link java.io.DataOutput#writeLong(long)}
+ * writes them, so the mapped region has the same content as the buckets part
+ * of a serialized filter. Persisting is a matter of {@link #force()}, which
+ * only writes the dirty pages back, and reopening is a matter of mapping the
+ * file again.
+ * <p>
+ * Words are CAS-updated through their address, which must be 8-byte aligned:
+ * <code>offset</code> should be a multiple of 8 (mappings start at a page
+ * boundary). The owner must make sure nobody uses the storage any more before
+ * releasing it, see {@link OffHeapBucketStorage}.
+ * @author will
+ *
+ */
+public final class MappedBucketStorage extends BucketStorage {
+
+	private static final Unsafe UNSAFE = OffHeapBucketStorage.UNSAFE;
+
+	/** The file stores big-endian words, they are byte-swapped on little-endian platforms */
+	private static final boolean NEED_SWAP = ByteOrder.nativeOrder() != ByteOrder.BIG_ENDIAN;
+
+	private static final Logger LOG = LoggerFactory.getLogger(MappedBucketStorage.class);
+
+	private final int length;
+
+	private MappedByteBuffer buffer;
+
+	/** Address of the first word, 0 once released */
+	private volatile long address;
+
+	private final AtomicBoolean hasReleased = new AtomicBoolean(false);
+
+	private MappedBucketStorage(MappedByteBuffer buffer, int sizeInWords) {
+		this.buffer = buffer;
+		this.length = sizeInWords;
+		this.address = addressOf(buffer);
+	}
+
+	/**
+	 * Maps <code>sizeInWords</code> words of a file, starting at
+	 * <code>offset</code>. The file is extended with zeros if it is too short.
+	 * @param file the backing file
+	 * @param offset position of the first word in the file, a multiple of 8
+	 * @param sizeInWords number of 64 bit words
+	 * @return the new storage
+	 * @throws IOException
+	 */
+	public static MappedBucketStorage map(File file, long offset, int sizeInWords) throws IOException {
+		if (UNSAFE == null) {
+			throw new UnsupportedOperationException("mapped storage is not available on this JVM");
+		}
+		if ((offset & 7) != 0 || sizeInWords <= 0) {
+			throw new IllegalArgumentException("offset should be a multiple of 8, sizeInWords should > 0");
+		}
+
+		long sizeInBytes = ((long) sizeInWords) << 3;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() < offset + sizeInBytes) {
+				raf.setLength(offset + sizeInBytes);
+			}
+			// 映射建立后即使关闭文件也仍然有效
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, offset, sizeInBytes);
+			return new MappedBucketStorage(buffer, sizeInWords);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static long addressOf(ByteBuffer buffer) {
+		try {
+			long addressOffset = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+			return UNSAFE.getLong(buffer, addressOffset);
+		} catch (NoSuchFieldException e) {
+			throw new UnsupportedOperationException("can not get the address of a mapped buffer", e);
+		}
+	}
+
+	private long addressOf(int i) {
+		long addr = address;
+		if (addr == 0) {
+			throw new IllegalStateException("storage has been released");
+		}
+		return addr + (((long) i) << 3);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public long get(int i) {
+		long value = UNSAFE.getLongVolatile(null, addressOf(i));
+		return NEED_SWAP ? Long.reverseBytes(value) : value;
+	}
+
+	@Override
+	public void set(int i, long newValue) {
+		preserve(i);
+		UNSAFE.putLongVolatile(null, addressOf(i), NEED_SWAP ? Long.reverseBytes(newValue) : newValue);
+	}
+
+	@Override
+	public boolean compareAndSet(int i, long expect, long update) {
+		preserve(i);
+		if (NEED_SWAP) {
+			return UNSAFE.compareAndSwapLong(null, addressOf(i), Long.reverseBytes(expect), Long.reverseBytes(update));
+		}
+		return UNSAFE.compareAndSwapLong(null, addressOf(i), expect, update);
+	}
+
+	/**
+	 * Writes the dirty pages back to the file
+	 */
+	@Override
+	public void force() throws IOException {
+		MappedByteBuffer toForce = buffer;
+		if (toForce == null || address == 0) {
+			throw new IllegalStateException("storage has been released");
+		}
+		toForce.force();
+	}
+
+	/**
+	 * Unmaps the file right away instead of waiting for the GC. The pages which
+	 * are not forced yet are still written back by the operating system.
+	 */
+	@Override
+	public void release() {
+		if (hasReleased.compareAndSet(false, true)) {
+			address = 0;
+			MappedByteBuffer toUnmap = buffer;
+			buffer = null;
+			unmap(toUnmap);
+		}
+	}
+
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			try {   // Java 9+
+				Method invokeCleaner = Unsafe.class.getMethod("invokeCleaner", ByteBuffer.class);
+				invokeCleaner.invoke(UNSAFE, buffer);
+				return;
+			} catch (NoSuchMethodException e) {
+				// Java 8及以前
+			}
+
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			LOG.warn("unmap failed, the mapping will be released by the GC", e);
+		}
+	}
+
+	@Override
+	public int getStorageType() {
+		return MAPPED_STORAGE;
+	}
+
+}
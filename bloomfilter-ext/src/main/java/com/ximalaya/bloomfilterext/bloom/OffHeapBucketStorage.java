@@ -0,0 +1,107 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import sun.misc.Unsafe;
+
+/**
+ * 堆外存储，计数器不占用Java堆，release时立即释放内存
+ * <p>
+ * The words live in memory obtained from {@link Unsafe#allocateMemory(long)}
+ * and are accessed with volatile reads/writes and CAS, just like an
+ * AtomicLongArray. The memory is freed by {@link #release()}, not by the GC,
+ * so the owner must make sure nobody uses the storage any more before
+ * releasing it: any access afterwards throws IllegalStateException on a best
+ * effort basis, but a thread racing with release() may read freed memory.
+ * @author will
+ *
+ */
+final class OffHeapBucketStorage extends BucketStorage {
+
+	static final Unsafe UNSAFE = loadUnsafe();
+
+	private final int length;
+
+	/** Base address of the words, 0 once released */
+	private volatile long address;
+
+	private final AtomicBoolean hasReleased = new AtomicBoolean(false);
+
+	OffHeapBucketStorage(int sizeInWords) {
+		if (sizeInWords < 0) {
+			throw new IllegalArgumentException("sizeInWords should >= 0");
+		}
+
+		this.length = sizeInWords;
+		long sizeInBytes = ((long) sizeInWords) << 3;
+		long addr = UNSAFE.allocateMemory(Math.max(sizeInBytes, 8));   // allocateMemory(0)会返回0
+		UNSAFE.setMemory(addr, sizeInBytes, (byte) 0);
+		this.address = addr;
+		trackDirtyPages(sizeInWords);
+	}
+
+	private static Unsafe loadUnsafe() {
+		try {
+			Field field = Unsafe.class.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			return (Unsafe) field.get(null);
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+
+	static boolean isAvailable() {
+		return UNSAFE != null;
+	}
+
+	private long addressOf(int i) {
+		long addr = address;
+		if (addr == 0) {
+			throw new IllegalStateException("storage has been released");
+		}
+		return addr + (((long) i) << 3);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public long get(int i) {
+		return UNSAFE.getLongVolatile(null, addressOf(i));
+	}
+
+	@Override
+	public void set(int i, long newValue) {
+		preserve(i);
+		UNSAFE.putLongVolatile(null, addressOf(i), newValue);
+		markDirty(i);
+	}
+
+	@Override
+	public boolean compareAndSet(int i, long expect, long update) {
+		preserve(i);
+		if (UNSAFE.compareAndSwapLong(null, addressOf(i), expect, update)) {
+			markDirty(i);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void release() {
+		if (hasReleased.compareAndSet(false, true)) {
+			long addr = address;
+			address = 0;
+			UNSAFE.freeMemory(addr);
+		}
+	}
+
+	@Override
+	public int getStorageType() {
+		return OFF_HEAP_STORAGE;
+	}
+
+}
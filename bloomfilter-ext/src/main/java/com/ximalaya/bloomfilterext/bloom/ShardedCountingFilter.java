@@ -0,0 +1,521 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 分片的线程安全Counting Bloom Filter
+ * <p>
+ * 由N个互相独立的{@link ThreadSafeCBloomFilter}组成，每个分片有自己的计数器存储、addIfBelow锁和CAS冲突计数器。
+ * 一个key先按路由哈希选定一个分片，之后的所有操作都只在这个分片内进行，所以近似计数的语义与单个
+ * ThreadSafeCBloomFilter相同，而不同分片上的写入不会争用同一组锁和同一块内存。
+ * <p>
+ * 路由哈希用同一种哈希算法算出key的第一个哈希值，再经过murmur3的fmix32打散后选分片，所以分片的选择与
+ * 分片内的计数器位置互不相关。
+ * <p>
+ * 序列化格式：Filter头部（vectorSize为总大小）+ 分片数 + 各分片按ThreadSafeCBloomFilter格式依次写入。
+ * 不支持{@link MappedBucketStorage}。
+ * <p>
+ * writeTo和writeDirtyPages对所有分片同时开始快照，然后依次写入各分片，整个过滤器是同一个时间点的快照。
+ * @author will
+ * @see ThreadSafeCBloomFilter
+ */
+public final class ShardedCountingFilter extends Filter implements CountingFilter {
+
+	/** Default number of shards */
+	public static final int DEFAULT_SHARD_NUM = 16;
+
+	/** The shards, a key always goes to the same one */
+	private ThreadSafeCBloomFilter[] shards;
+
+	/** Where the buckets of the shards live, see {@link BucketStorage} */
+	private int storageType = BucketStorage.HEAP_STORAGE;
+
+	/** Computes the routing hash of a key */
+	private HashFunction router;
+
+	/** Per-thread buffer receiving the routing hash of a character sequence key */
+	private final ThreadLocal<int[]> routeBuffer = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	/** Default constructor - use with readFields */
+	public ShardedCountingFilter() {
+	}
+
+	/**
+	 * Constructor - use with readFields
+	 *
+	 * @param storageType
+	 *            where the buckets read by readFields will live (see
+	 *            {@link BucketStorage}).
+	 */
+	public ShardedCountingFilter(int storageType) {
+		this.storageType = storageType;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param vectorSize
+	 *            The total vector size of <i>this</i> filter, each shard gets
+	 *            an equal part of it.
+	 * @param nbHash
+	 *            The number of hash function to consider.
+	 * @param hashType
+	 *            type of the hashing function (see
+	 *            {@link com.ximalaya.bloomfilterext.hash.Hash}).
+	 * @param hashStrategy
+	 *            strategy used by the shards to derive the hashed values (see
+	 *            {@link HashFunction}).
+	 * @param bucketBits
+	 *            width of a bucket: 2, 4, 8 or 16 bits.
+	 * @param shardNum
+	 *            number of shards.
+	 * @param storageType
+	 *            where the buckets live (see {@link BucketStorage}), mapped
+	 *            storage is not supported. Off-heap buckets are only freed by
+	 *            {@link #clear()}.
+	 */
+	public ShardedCountingFilter(int vectorSize, int nbHash, int hashType, int hashStrategy, int bucketBits,
+			int shardNum, int storageType) {
+		super(vectorSize, nbHash, hashType, hashStrategy);
+		if (shardNum <= 0 || shardNum > vectorSize) {
+			throw new IllegalArgumentException("shardNum should be between 1 and vectorSize: " + shardNum);
+		}
+		if (storageType == BucketStorage.MAPPED_STORAGE) {
+			throw new IllegalArgumentException("mapped storage is not supported");
+		}
+
+		int shardVectorSize = getShardVectorSize(vectorSize, shardNum);
+		ThreadSafeCBloomFilter[] newShards = new ThreadSafeCBloomFilter[shardNum];
+		try {
+			for (int i = 0; i < shardNum; i++) {
+				newShards[i] = new ThreadSafeCBloomFilter(shardVectorSize, nbHash, hashType, hashStrategy,
+						bucketBits, storageType);
+			}
+		} catch (RuntimeException e) {
+			clearShards(newShards);
+			throw e;
+		}
+
+		this.shards = newShards;
+		this.storageType = storageType;
+		this.router = new HashFunction(Integer.MAX_VALUE, 1, hashType);
+	}
+
+	/**
+	 * Returns the vector size of each shard
+	 *
+	 * @param vectorSize
+	 *            total vector size
+	 * @param shardNum
+	 * @return
+	 */
+	public static int getShardVectorSize(int vectorSize, int shardNum) {
+		return ((vectorSize - 1) / shardNum) + 1;
+	}
+
+	/**
+	 * Picks the shard of a routing hash: fmix32 of murmur3, then a multiply
+	 * and shift instead of a modulo
+	 */
+	private ThreadSafeCBloomFilter shard(int routeHash) {
+		return shards[shardIndex(routeHash)];
+	}
+
+	private int shardIndex(int routeHash) {
+		int h = routeHash;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return (int) (((h & 0xffffffffL) * shards.length) >>> 32);
+	}
+
+	private ThreadSafeCBloomFilter shard(Key key) {
+		if (key == null) {
+			throw new NullPointerException("key can not be null");
+		}
+
+		int[] h = router.hash(key);
+		router.clear();
+		return shard(h[0]);
+	}
+
+	private ThreadSafeCBloomFilter shard(CharSequence chars) {
+		if (chars == null) {
+			throw new NullPointerException("key can not be null");
+		}
+
+		int[] h = routeBuffer.get();
+		router.hash(chars, h);
+		return shard(h[0]);
+	}
+
+	@Override
+	public void add(Key key) {
+		shard(key).add(key);
+	}
+
+	public int addIfBelow(Key key, int limit) {
+		return shard(key).addIfBelow(key, limit);
+	}
+
+	public int addIfBelow(CharSequence chars, int limit) {
+		return shard(chars).addIfBelow(chars, limit);
+	}
+
+	public void batchAdd(Key[] keys) {
+		int[][] groups = groupByShard(KeyBatch.hash(router, keys, 1));
+		for (int s = 0; s < shards.length; s++) {
+			if (groups[s].length > 0) {
+				shards[s].batchAdd(subArray(keys, groups[s]));
+			}
+		}
+	}
+
+	public void batchAdd(CharSequence[] keys) {
+		int[][] groups = groupByShard(KeyBatch.hash(router, keys, 1));
+		for (int s = 0; s < shards.length; s++) {
+			if (groups[s].length > 0) {
+				shards[s].batchAdd(subArray(keys, groups[s]));
+			}
+		}
+	}
+
+	public int[] batchApproximateCount(Key[] keys) {
+		int[][] groups = groupByShard(KeyBatch.hash(router, keys, 1));
+		int[] res = new int[keys.length];
+		for (int s = 0; s < shards.length; s++) {
+			if (groups[s].length > 0) {
+				scatter(shards[s].batchApproximateCount(subArray(keys, groups[s])), groups[s], res);
+			}
+		}
+		return res;
+	}
+
+	public int[] batchApproximateCount(CharSequence[] keys) {
+		int[][] groups = groupByShard(KeyBatch.hash(router, keys, 1));
+		int[] res = new int[keys.length];
+		for (int s = 0; s < shards.length; s++) {
+			if (groups[s].length > 0) {
+				scatter(shards[s].batchApproximateCount(subArray(keys, groups[s])), groups[s], res);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Groups the keys of a batch by shard
+	 *
+	 * @param routeHashes
+	 *            routing hash of each key
+	 * @return indexes of the keys of shard s at index s
+	 */
+	private int[][] groupByShard(int[] routeHashes) {
+		int[] shardOf = new int[routeHashes.length];
+		int[] counts = new int[shards.length];
+		for (int i = 0; i < routeHashes.length; i++) {
+			shardOf[i] = shardIndex(routeHashes[i]);
+			counts[shardOf[i]]++;
+		}
+
+		int[][] groups = new int[shards.length][];
+		for (int s = 0; s < shards.length; s++) {
+			groups[s] = new int[counts[s]];
+			counts[s] = 0;
+		}
+		for (int i = 0; i < shardOf.length; i++) {
+			groups[shardOf[i]][counts[shardOf[i]]++] = i;
+		}
+		return groups;
+	}
+
+	private static Key[] subArray(Key[] keys, int[] indexes) {
+		Key[] sub = new Key[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			sub[i] = keys[indexes[i]];
+		}
+		return sub;
+	}
+
+	private static CharSequence[] subArray(CharSequence[] keys, int[] indexes) {
+		CharSequence[] sub = new CharSequence[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			sub[i] = keys[indexes[i]];
+		}
+		return sub;
+	}
+
+	private static void scatter(int[] values, int[] indexes, int[] res) {
+		for (int i = 0; i < indexes.length; i++) {
+			res[indexes[i]] = values[i];
+		}
+	}
+
+	/**
+	 * Removes a specified key from <i>this</i> filter.
+	 *
+	 * @param key
+	 *            The key to remove, which must belong to <i>this</i> filter.
+	 */
+	public void delete(Key key) {
+		shard(key).delete(key);
+	}
+
+	@Override
+	public boolean membershipTest(Key key) {
+		return shard(key).membershipTest(key);
+	}
+
+	public int approximateCount(Key key) {
+		return shard(key).approximateCount(key);
+	}
+
+	public int approximateCount(CharSequence chars) {
+		return shard(chars).approximateCount(chars);
+	}
+
+	@Override
+	public void and(Filter filter) {
+		checkSameShape(filter, "and-ed");
+		ShardedCountingFilter other = (ShardedCountingFilter) filter;
+		for (int i = 0; i < shards.length; i++) {
+			shards[i].and(other.shards[i]);
+		}
+	}
+
+	@Override
+	public void or(Filter filter) {
+		checkSameShape(filter, "or-ed");
+		ShardedCountingFilter other = (ShardedCountingFilter) filter;
+		for (int i = 0; i < shards.length; i++) {
+			shards[i].or(other.shards[i]);
+		}
+	}
+
+	private void checkSameShape(Filter filter, String operation) {
+		if (filter == null || !(filter instanceof ShardedCountingFilter)
+				|| filter.vectorSize != this.vectorSize || filter.nbHash != this.nbHash
+				|| ((ShardedCountingFilter) filter).shards.length != this.shards.length) {
+			throw new IllegalArgumentException("filters cannot be " + operation);
+		}
+	}
+
+	@Override
+	public void xor(Filter filter) {
+		throw new UnsupportedOperationException("xor() is undefined for " + this.getClass().getName());
+	}
+
+	@Override
+	public void not() {
+		throw new UnsupportedOperationException("not() is undefined for " + this.getClass().getName());
+	}
+
+	/**
+	 * Releases the buckets of all shards, <i>this</i> filter can not be used
+	 * any more afterwards
+	 */
+	public void clear() {
+		ThreadSafeCBloomFilter[] toClear = this.shards;
+		this.shards = null;
+		clearShards(toClear);
+	}
+
+	private static void clearShards(ThreadSafeCBloomFilter[] toClear) {
+		if (toClear == null) {
+			return;
+		}
+		for (ThreadSafeCBloomFilter shard : toClear) {
+			if (shard != null) {
+				shard.clear();
+			}
+		}
+	}
+
+	public int getVectorSize() {
+		return this.vectorSize;
+	}
+
+	public int getNbHash() {
+		return this.nbHash;
+	}
+
+	public int getHashType() {
+		return this.hashType;
+	}
+
+	public int getHashStrategy() {
+		return this.hashStrategy;
+	}
+
+	public int getStorageType() {
+		return this.storageType;
+	}
+
+	public int getBucketBits() {
+		return shards[0].getBucketBits();
+	}
+
+	public int getShardNum() {
+		return shards.length;
+	}
+
+	public long getContentionCount() {
+		long contentionCount = 0;
+		for (ThreadSafeCBloomFilter shard : shards) {
+			contentionCount += shard.getContentionCount();
+		}
+		return contentionCount;
+	}
+
+	/**
+	 * Sums up the statistics of the shards. Keys are spread evenly over the shards, so the
+	 * estimates of the whole vector hold for each shard as well
+	 */
+	public CounterStats getCounterStats() {
+		CounterStats[] shardStats = new CounterStats[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			shardStats[i] = shards[i].getCounterStats();
+		}
+		return CounterStats.sum(shardStats);
+	}
+
+	public void force() throws IOException {
+		for (ThreadSafeCBloomFilter shard : shards) {
+			shard.force();
+		}
+	}
+
+	public void clearDirtyPages() {
+		for (ThreadSafeCBloomFilter shard : shards) {
+			shard.clearDirtyPages();
+		}
+	}
+
+	public int writeDirtyPages(RandomAccessFile file, long offset) throws IOException {
+		return writeDirtyPages(file, offset, null);
+	}
+
+	public int writeDirtyPages(RandomAccessFile file, long offset, SnapshotListener listener) throws IOException {
+		DataOutputStream header = new DataOutputStream(new ByteArrayOutputStream());
+		super.write(header);
+		long shardOffset = offset + header.size() + 4;   // 外层头部 + 分片数
+		BucketStorage[] storages = new BucketStorage[shards.length];
+		long[] offsets = new long[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			storages[i] = shards[i].getBuckets();
+			offsets[i] = shardOffset + shards[i].getHeaderBytes().length;
+			shardOffset += shards[i].getSerializedSizeInBytes();
+		}
+		return BucketStorage.writeDirtyPages(storages, file, offsets, listener);
+	}
+
+	// Writable
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		super.write(out);
+		out.writeInt(shards.length);
+		for (ThreadSafeCBloomFilter shard : shards) {
+			shard.write(out);
+		}
+	}
+
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		writeTo(channel, null);
+	}
+
+	public void writeTo(WritableByteChannel channel, SnapshotListener listener) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream headerOut = new DataOutputStream(header);
+		super.write(headerOut);
+		headerOut.writeInt(shards.length);
+		BucketStorage.writeFully(channel, ByteBuffer.wrap(header.toByteArray()));
+		BucketStorage[] storages = new BucketStorage[shards.length];
+		byte[][] headers = new byte[shards.length][];
+		for (int i = 0; i < shards.length; i++) {
+			storages[i] = shards[i].getBuckets();
+			headers[i] = shards[i].getHeaderBytes();
+		}
+		BucketStorage.writeTo(storages, headers, channel, listener);
+	}
+
+	/**
+	 * Not supported: the shards are written one after another, there is no
+	 * single header in front of all the buckets
+	 */
+	public void writeHeader(DataOutput out) throws IOException {
+		throw new UnsupportedOperationException("writeHeader() is undefined for " + this.getClass().getName());
+	}
+
+	/**
+	 * Not supported, see {@link #writeHeader(DataOutput)}
+	 */
+	public void readHeader(DataInput in, BucketStorage storage) throws IOException {
+		throw new UnsupportedOperationException("readHeader() is undefined for " + this.getClass().getName());
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		readFields(in, null);
+	}
+
+	public void readFrom(ReadableByteChannel channel) throws IOException {
+		readFields(new DataInputStream(Channels.newInputStream(channel)), channel);   // 不缓冲，只读走头部
+	}
+
+	/**
+	 * Reads the header from <code>in</code>, and the shards from
+	 * <code>channel</code> or, if it is null, from <code>in</code>
+	 */
+	private void readFields(DataInput in, ReadableByteChannel channel) throws IOException {
+		super.readFields(in);
+		int shardNum = in.readInt();
+		if (shardNum <= 0 || shardNum > vectorSize) {
+			throw new IOException("Unsupported shardNum: " + shardNum);
+		}
+
+		int shardVectorSize = getShardVectorSize(vectorSize, shardNum);
+		ThreadSafeCBloomFilter[] newShards = new ThreadSafeCBloomFilter[shardNum];
+		try {
+			for (int i = 0; i < shardNum; i++) {
+				newShards[i] = new ThreadSafeCBloomFilter(storageType);
+				if (channel == null) {
+					newShards[i].readFields(in);
+				} else {
+					newShards[i].readFrom(channel);
+				}
+				if (newShards[i].getVectorSize() != shardVectorSize || newShards[i].getNbHash() != nbHash
+						|| newShards[i].getBucketBits() != newShards[0].getBucketBits()) {
+					throw new IOException("shard " + i + " mismatches the filter header");
+				}
+			}
+		} catch (IOException e) {
+			clearShards(newShards);
+			throw e;
+		} catch (RuntimeException e) {
+			clearShards(newShards);
+			throw e;
+		}
+
+		clearShards(this.shards);
+		this.shards = newShards;
+		this.router = new HashFunction(Integer.MAX_VALUE, 1, hashType);
+	}
+
+}
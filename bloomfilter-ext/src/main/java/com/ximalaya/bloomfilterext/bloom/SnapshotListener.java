@@ -0,0 +1,34 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.io.IOException;
+
+/**
+ * 快照的回调，比如在快照的时间点上切分一份记录了每次更新的日志：快照之前的更新只在旧日志中，之后的只在新日志中
+ * <p>
+ * Passed to {@link CountingFilter#writeTo(java.nio.channels.WritableByteChannel, SnapshotListener)}
+ * and {@link CountingFilter#writeDirtyPages(java.io.RandomAccessFile, long, SnapshotListener)},
+ * both methods are called by the thread writing the snapshot. Updates which
+ * began before {@link #beforeSnapshot()} returned are either in the snapshot
+ * or wait in {@link BucketStorage#beginUpdate()}, the snapshot starts once
+ * those in progress are done and {@link #onSnapshot()} is called right
+ * after, before the waiting updates proceed.
+ * @author will
+ *
+ */
+public interface SnapshotListener {
+
+	/**
+	 * Called right before the snapshot starts, e.g. to hold back the updates
+	 * made outside the filter together with those of the buckets
+	 */
+	void beforeSnapshot();
+
+	/**
+	 * Called once the snapshot has started: every update done so far is in
+	 * the snapshot and none of the later ones is. Always called after
+	 * {@link #beforeSnapshot()}, unless the latter threw an exception.
+	 * @throws IOException the snapshot is then not written
+	 */
+	void onSnapshot() throws IOException;
+
+}
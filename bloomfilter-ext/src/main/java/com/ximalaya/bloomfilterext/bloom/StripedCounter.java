@@ -0,0 +1,100 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器，按线程分散到不同cache line上计数，热点写入时不会在计数器本身上产生冲突。
+ * 可以分成几组分别计数，每组有自己的一套分段
+ * @author will
+ *
+ */
+public final class StripedCounter {
+
+	/** Number of stripes per group, a power of 2 */
+	private static final int STRIPES = 16;
+
+	/** Number of longs in a 64 byte cache line, each stripe takes a line of its own */
+	private static final int PADDING = 8;
+
+	private final int groups;
+
+	/** Stripe i of group g is at index (g * STRIPES + i + 1) * PADDING, so no stripe shares a line with the array header */
+	private final AtomicLongArray cells;
+
+	/**
+	 * Creates a counter with a single group
+	 */
+	public StripedCounter() {
+		this(1);
+	}
+
+	/**
+	 * @param groups
+	 *            number of groups counted separately
+	 */
+	public StripedCounter(int groups) {
+		if (groups <= 0) {
+			throw new IllegalArgumentException("groups must be > 0");
+		}
+		this.groups = groups;
+		this.cells = new AtomicLongArray((groups * STRIPES + 1) * PADDING);
+	}
+
+	/**
+	 * Counts one in group 0 on the stripe of the calling thread
+	 */
+	public void increment() {
+		increment(0);
+	}
+
+	/**
+	 * Counts one in a group on the stripe of the calling thread
+	 *
+	 * @param group
+	 *            the group to count in
+	 * @return the cell counted in, to pass to {@link #decrement(int)}
+	 */
+	public int increment(int group) {
+		int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+		int cell = (group * STRIPES + stripe + 1) * PADDING;
+		cells.getAndIncrement(cell);
+		return cell;
+	}
+
+	/**
+	 * Takes back one counted by {@link #increment(int)}
+	 *
+	 * @param cell
+	 *            returned by {@link #increment(int)}
+	 */
+	public void decrement(int cell) {
+		cells.getAndDecrement(cell);
+	}
+
+	/**
+	 * @return sum of all groups, not a snapshot under concurrent updates but
+	 *         including every update completed before the call
+	 */
+	public long sum() {
+		long sum = 0;
+		for (int g = 0; g < groups; g++) {
+			sum += sum(g);
+		}
+		return sum;
+	}
+
+	/**
+	 * @param group
+	 *            the group to sum
+	 * @return sum of the group, not a snapshot under concurrent updates
+	 */
+	public long sum(int group) {
+		long sum = 0;
+		int first = group * STRIPES + 1;
+		for (int i = first; i < first + STRIPES; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+}
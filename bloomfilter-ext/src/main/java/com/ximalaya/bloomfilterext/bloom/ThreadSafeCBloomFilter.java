@@ -1,330 +1,894 @@
-package com.ximalaya.bloomfilterext.bloom;
-
-import java.io.DataInput;
-import java.io.DataOutput;
-import java.io.IOException;
-import java.util.concurrent.atomic.AtomicLongArray;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-/**
- * 线程安全的CountingBloomFilter
- * @author will
- *
- */
-public final class ThreadSafeCBloomFilter extends Filter {
-	
-	 /** Storage for the counting buckets */
-	  private AtomicLongArray buckets;
-
-	  /** We are using 4bit buckets, so each bucket can count to 15 */
-	  private final static long BUCKET_MAX_VALUE = 15;
-	  
-	  /** Max update retry times */
-	  private final static long MAX_UPDATE_RETRY_TIMES = 6;
-	  
-	  private static final Logger LOG = LoggerFactory.getLogger(AdjustedCountingBloomFilter.class);
-	  
-	  /** Default constructor - use with readFields */
-	  public ThreadSafeCBloomFilter() {}
-	  
-	  /**
-	   * Constructor
-	   * @param vectorSize The vector size of <i>this</i> filter.
-	   * @param nbHash The number of hash function to consider.
-	   * @param hashType type of the hashing function (see
-	   * {@link org.apache.hadoop.util.hash.Hash}).
-	   */
-	  public ThreadSafeCBloomFilter(int vectorSize, int nbHash, int hashType) {
-	    super(vectorSize, nbHash, hashType);
-	    int bucketSize = buckets2words(vectorSize);
-	    buckets = new AtomicLongArray(bucketSize);
-	  }
-
-	  /** returns the number of 64 bit words it would take to hold vectorSize buckets */
-	  private static int buckets2words(int vectorSize) {
-	   return ((vectorSize - 1) >>> 4) + 1;
-	  }
-
-
-	  @Override
-	  public void add(Key key) {
-	    if(key == null) {
-	      throw new NullPointerException("key can not be null");
-	    }
-
-	    int[] h = hash.hash(key);
-	    hash.clear();
-
-	    for(int i = 0; i < nbHash; i++) {
-	      // find the bucket
-	      int wordNum = h[i] >> 4;          // div 16
-	      int bucketShift = (h[i] & 0x0f) << 2;  // (mod 16) * 4
-	      
-	      long bucketMask = 15L << bucketShift;
-	      
-	      boolean hasUpdatedSuccess = false;   // 是否更新成功
-	      int retriedTimes = 0;   // 已重试次数
-	      while(!hasUpdatedSuccess && retriedTimes < MAX_UPDATE_RETRY_TIMES) {
-	    	  long oldVal = buckets.get(wordNum);
-		      long bucketValue = (oldVal & bucketMask) >>> bucketShift;
-		      
-		      // only increment if the count in the bucket is less than BUCKET_MAX_VALUE
-		      if(bucketValue < BUCKET_MAX_VALUE) {
-		        // increment by 1
-		        hasUpdatedSuccess = buckets.compareAndSet(wordNum,
-		        										  oldVal, 
-		        									      (oldVal & ~bucketMask) | ((bucketValue + 1) << bucketShift));
-		      }
-		      
-		      retriedTimes++;
-	      }
-	      
-	      // do log
-	      if(!hasUpdatedSuccess && retriedTimes == MAX_UPDATE_RETRY_TIMES) {
-	    	  LOG.error("collision occurn: add");
-	      }
-	    }
-	  }
-
-	  /**
-	   * Removes a specified key from <i>this</i> counting Bloom filter.
-	   * <p>
-	   * <b>Invariant</b>: nothing happens if the specified key does not belong to <i>this</i> counter Bloom filter.
-	   * @param key The key to remove.
-	   */
-	  public void delete(Key key) {
-	    if(key == null) {
-	      throw new NullPointerException("Key may not be null");
-	    }
-	    if(!membershipTest(key)) {
-	      throw new IllegalArgumentException("Key is not a member");
-	    }
-
-	    int[] h = hash.hash(key);
-	    hash.clear();
-
-	    for(int i = 0; i < nbHash; i++) {
-	      // find the bucket
-	      int wordNum = h[i] >> 4;          // div 16
-	      int bucketShift = (h[i] & 0x0f) << 2;  // (mod 16) * 4
-	      
-	      long bucketMask = 15L << bucketShift;
-	      
-	      boolean hasUpdatedSuccess = false;   // 是否更新成功
-	      int retriedTimes = 0;   // 已重试次数
-	      while(!hasUpdatedSuccess && retriedTimes < MAX_UPDATE_RETRY_TIMES) {
-	    	  long oldVal = buckets.get(wordNum);
-		      long bucketValue = (oldVal & bucketMask) >>> bucketShift;
-		      // only decrement if the count in the bucket is between 0 and BUCKET_MAX_VALUE
-		      if(bucketValue >= 1 && bucketValue < BUCKET_MAX_VALUE) {
-		        // decrement by 1
-		        hasUpdatedSuccess = buckets.compareAndSet(wordNum,
-		        										  oldVal, 
-		        										  (oldVal & ~bucketMask) | ((bucketValue - 1) << bucketShift));
-		      }
-		      
-		      retriedTimes++;
-	      }   // while ends
-	      
-	      // do log
-	      if(!hasUpdatedSuccess && retriedTimes == MAX_UPDATE_RETRY_TIMES) {
-	    	  LOG.error("collision occurn: delete");
-	      }
-	    }
-	  }
-
-	  @Override
-	  public void and(Filter filter) {
-	    if(filter == null
-	        || !(filter instanceof ThreadSafeCBloomFilter)
-	        || filter.vectorSize != this.vectorSize
-	        || filter.nbHash != this.nbHash) {
-	      throw new IllegalArgumentException("filters cannot be and-ed");
-	    }
-	    ThreadSafeCBloomFilter cbf = (ThreadSafeCBloomFilter) filter;
-	    
-	    int sizeInWords = buckets2words(vectorSize);
-	    for(int i = 0; i < sizeInWords; i++) {
-	    	boolean hasUpdatedSuccess = false;   // 是否更新成功
-	    	int retriedTimes = 0;   // 已重试次数
-	    	while(!hasUpdatedSuccess && retriedTimes < MAX_UPDATE_RETRY_TIMES) {
-	    		long oldVal = buckets.get(i);
-	    		hasUpdatedSuccess = buckets.compareAndSet(i, oldVal, oldVal & cbf.buckets.get(i));
-	    	  
-	    		retriedTimes++;
-	    	}   // while ends
-	    	
-		    // do log
-		    if(!hasUpdatedSuccess && retriedTimes == MAX_UPDATE_RETRY_TIMES) {
-		        LOG.error("collision occurn: and");
-		    }
-	    }
-	  }
-
-	  @Override
-	  public boolean membershipTest(Key key) {
-	    if(key == null) {
-	      throw new NullPointerException("Key may not be null");
-	    }
-
-	    int[] h = hash.hash(key);
-	    hash.clear();
-
-	    for(int i = 0; i < nbHash; i++) {
-	      // find the bucket
-	      int wordNum = h[i] >> 4;          // div 16
-	      int bucketShift = (h[i] & 0x0f) << 2;  // (mod 16) * 4
-
-	      long bucketMask = 15L << bucketShift;
-
-	      if((buckets.get(wordNum) & bucketMask) == 0) {
-	        return false;
-	      }
-	    }
-
-	    return true;
-	  }
-
-	  /**
-	   * This method calculates an approximate count of the key, i.e. how many
-	   * times the key was added to the filter. This allows the filter to be
-	   * used as an approximate <code>key -&gt; count</code> map.
-	   * <p>NOTE: due to the bucket size of this filter, inserting the same
-	   * key more than 15 times will cause an overflow at all filter positions
-	   * associated with this key, and it will significantly increase the error
-	   * rate for this and other keys. For this reason the filter can only be
-	   * used to store small count values <code>0 &lt;= N &lt;&lt; 15</code>.
-	   * @param key key to be tested
-	   * @return 0 if the key is not present. Otherwise, a positive value v will
-	   * be returned such that <code>v == count</code> with probability equal to the
-	   * error rate of this filter, and <code>v &gt; count</code> otherwise.
-	   * Additionally, if the filter experienced an underflow as a result of
-	   * {@link #delete(Key)} operation, the return value may be lower than the
-	   * <code>count</code> with the probability of the false negative rate of such
-	   * filter.
-	   */
-	  public int approximateCount(Key key) {
-	    int res = Integer.MAX_VALUE;
-	    int[] h = hash.hash(key);
-	    hash.clear();
-	    for (int i = 0; i < nbHash; i++) {
-	      // find the bucket
-	      int wordNum = h[i] >> 4;          // div 16
-	      int bucketShift = (h[i] & 0x0f) << 2;  // (mod 16) * 4
-	      
-	      long bucketMask = 15L << bucketShift;
-	      long bucketValue = (buckets.get(wordNum) & bucketMask) >>> bucketShift;
-	      if (bucketValue < res) 
-	    	  res = (int)bucketValue;
-	    }
-	    
-	    if (res != Integer.MAX_VALUE) {
-	      return res;
-	    } else {
-	      return 0;
-	    }
-	  }
-
-	  @Override
-	  public void not() {
-	    throw new UnsupportedOperationException("not() is undefined for "
-	        + this.getClass().getName());
-	  }
-
-	  @Override
-	  public void or(Filter filter) {
-	    if(filter == null
-	        || !(filter instanceof Filter)
-	        || filter.vectorSize != this.vectorSize
-	        || filter.nbHash != this.nbHash) {
-	      throw new IllegalArgumentException("filters cannot be or-ed");
-	    }
-
-	    ThreadSafeCBloomFilter cbf = (ThreadSafeCBloomFilter) filter;
-
-	    int sizeInWords = buckets2words(vectorSize);
-	    for(int i = 0; i < sizeInWords; i++) {
-	    	boolean hasUpdatedSuccess = false;   // 是否更新成功
-	    	int retriedTimes = 0;   // 已重试次数
-	    	while(!hasUpdatedSuccess && retriedTimes < MAX_UPDATE_RETRY_TIMES) {
-	    		long oldVal = buckets.get(i);
-	    		hasUpdatedSuccess = buckets.compareAndSet(i, oldVal, oldVal | cbf.buckets.get(i));
-	    		
-	    		retriedTimes++;
-	    	}   // while ends
-	    	
-		    // do log
-		    if(!hasUpdatedSuccess && retriedTimes == MAX_UPDATE_RETRY_TIMES) {
-		    	LOG.error("collision occurn: or");
-		    }
-	    }
-	  }
-
-	  @Override
-	  public void xor(Filter filter) {
-	    throw new UnsupportedOperationException("xor() is undefined for "
-	        + this.getClass().getName());
-	  }
-
-	  @Override
-	  public void clear() {
-		  this.buckets = null;
-	  }
-	  
-	  @Override
-	  public String toString() {
-	    StringBuilder res = new StringBuilder();
-
-	    for(int i = 0; i < vectorSize; i++) {
-	      if(i > 0) {
-	        res.append(" ");
-	      }
-	      
-	      int wordNum = i >> 4;          // div 16
-	      int bucketShift = (i & 0x0f) << 2;  // (mod 16) * 4
-	      
-	      long bucketMask = 15L << bucketShift;
-	      long bucketValue = (buckets.get(wordNum) & bucketMask) >>> bucketShift;
-	      
-	      res.append(bucketValue);
-	    }
-
-	    return res.toString();
-	  }
-
-	  public int getVectorSize() {
-		  return this.vectorSize;
-	  }
-	  
-	  public int getNbHash() {
-		  return this.nbHash;
-	  }
-	  
-	  public int getHashType() {
-		  return this.hashType;
-	  }
-	  
-	  // Writable
-
-	  @Override
-	  public void write(DataOutput out) throws IOException {
-	    super.write(out);
-	    int sizeInWords = buckets2words(vectorSize);
-	    for(int i = 0; i < sizeInWords; i++) {
-	      out.writeLong(buckets.get(i));
-	    }
-	  }
-
-	  @Override
-	  public void readFields(DataInput in) throws IOException {
-	    super.readFields(in);
-	    int sizeInWords = buckets2words(vectorSize);
-	    buckets = new AtomicLongArray(sizeInWords);
-	    for(int i = 0; i < sizeInWords; i++) {
-	    	buckets.set(i, in.readLong());
-	    }
-	  }
-
-}
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * 线程安全的CountingBloomFilter
+ * @author will
+ *
+ */
+public final class ThreadSafeCBloomFilter extends Filter implements CountingFilter {
+	
+	 /** Storage for the counting buckets */
+	  private BucketStorage buckets;
+	  
+	  /** Where the buckets live, see {@link BucketStorage} */
+	  private int storageType = BucketStorage.HEAP_STORAGE;
+
+	  /** Default bucket width: 4bit buckets, so each bucket can count to 15 */
+	  public final static int DEFAULT_BUCKET_BITS = 4;
+	  
+	  /** Widest supported bucket: 16bit buckets, so each bucket can count to 65535 */
+	  public final static int MAX_BUCKET_BITS = 16;
+	  
+	  /** Width of a bucket: 2, 4, 8 or 16 bits */
+	  private int bucketBits;
+	  
+	  /** log2(bucketBits) */
+	  private int bucketBitsShift;
+	  
+	  /** log2(number of buckets in a 64 bit word) */
+	  private int bucketsPerWordShift;
+	  
+	  /** Number of buckets in a 64 bit word - 1 */
+	  private int bucketIndexMask;
+	  
+	  /** Maximum value of a bucket, i.e. 2^bucketBits - 1 */
+	  private long bucketMaxValue;
+	  
+	  /** Number of lock stripes used to serialize conditional increments of the same key */
+	  private final static int INCREASE_LOCK_STRIPES = 1024;
+	  
+	  /** Failed CAS on the buckets, updates retry until they succeed */
+	  private final ContentionCounter contention = new ContentionCounter();
+	  
+	  /** Lock stripes for {@link #addIfBelow(Key, int)}, chosen by the first hashed position of a key */
+	  private final Object[] increaseLocks = newIncreaseLocks();
+	  
+	  /** Per-thread buffer receiving the hashed positions of a character sequence key */
+	  private final ThreadLocal<int[]> positionsBuffer = new ThreadLocal<int[]>() {
+	    @Override
+	    protected int[] initialValue() {
+	      return new int[nbHash];
+	    }
+	  };
+	  
+	  /** Default constructor - use with readFields */
+	  public ThreadSafeCBloomFilter() {
+	    initBucketBits(DEFAULT_BUCKET_BITS);
+	  }
+	  
+	  /**
+	   * Constructor - use with readFields
+	   * @param storageType where the buckets read by readFields will live (see {@link BucketStorage}).
+	   */
+	  public ThreadSafeCBloomFilter(int storageType) {
+	    this();
+	    this.storageType = storageType;
+	  }
+	  
+	  /**
+	   * Constructor
+	   * @param vectorSize The vector size of <i>this</i> filter.
+	   * @param nbHash The number of hash function to consider.
+	   * @param hashType type of the hashing function (see
+	   * {@link org.apache.hadoop.util.hash.Hash}).
+	   */
+	  public ThreadSafeCBloomFilter(int vectorSize, int nbHash, int hashType) {
+	    this(vectorSize, nbHash, hashType, HashFunction.CHAINED_HASHING);
+	  }
+	  
+	  /**
+	   * Constructor
+	   * @param vectorSize The vector size of <i>this</i> filter.
+	   * @param nbHash The number of hash function to consider.
+	   * @param hashType type of the hashing function (see
+	   * {@link org.apache.hadoop.util.hash.Hash}).
+	   * @param hashStrategy strategy used to derive the hashed values (see {@link HashFunction}).
+	   */
+	  public ThreadSafeCBloomFilter(int vectorSize, int nbHash, int hashType, int hashStrategy) {
+	    this(vectorSize, nbHash, hashType, hashStrategy, BucketStorage.HEAP_STORAGE);
+	  }
+	  
+	  /**
+	   * Constructor
+	   * @param vectorSize The vector size of <i>this</i> filter.
+	   * @param nbHash The number of hash function to consider.
+	   * @param hashType type of the hashing function (see
+	   * {@link org.apache.hadoop.util.hash.Hash}).
+	   * @param hashStrategy strategy used to derive the hashed values (see {@link HashFunction}).
+	   * @param storageType where the buckets live (see {@link BucketStorage}). Off-heap buckets are
+	   * only freed by {@link #clear()}.
+	   */
+	  public ThreadSafeCBloomFilter(int vectorSize, int nbHash, int hashType, int hashStrategy, int storageType) {
+	    this(vectorSize, nbHash, hashType, hashStrategy, DEFAULT_BUCKET_BITS, storageType);
+	  }
+	  
+	  /**
+	   * Constructor
+	   * @param vectorSize The vector size of <i>this</i> filter.
+	   * @param nbHash The number of hash function to consider.
+	   * @param hashType type of the hashing function (see
+	   * {@link org.apache.hadoop.util.hash.Hash}).
+	   * @param hashStrategy strategy used to derive the hashed values (see {@link HashFunction}).
+	   * @param bucketBits width of a bucket: 2, 4, 8 or 16 bits, a bucket can count to 2^bucketBits - 1.
+	   * @param storageType where the buckets live (see {@link BucketStorage}). Off-heap buckets are
+	   * only freed by {@link #clear()}.
+	   */
+	  public ThreadSafeCBloomFilter(int vectorSize, int nbHash, int hashType, int hashStrategy, int bucketBits, 
+			  int storageType) {
+	    super(vectorSize, nbHash, hashType, hashStrategy);
+	    initBucketBits(bucketBits);
+	    int bucketSize = buckets2words(vectorSize, bucketsPerWordShift);
+	    this.storageType = storageType;
+	    buckets = BucketStorage.newInstance(storageType, bucketSize);
+	  }
+	  
+	  /**
+	   * Constructor
+	   * @param vectorSize The vector size of <i>this</i> filter.
+	   * @param nbHash The number of hash function to consider.
+	   * @param hashType type of the hashing function (see
+	   * {@link org.apache.hadoop.util.hash.Hash}).
+	   * @param hashStrategy strategy used to derive the hashed values (see {@link HashFunction}).
+	   * @param storage the buckets, which are used as they are, e.g. a {@link MappedBucketStorage}.
+	   */
+	  public ThreadSafeCBloomFilter(int vectorSize, int nbHash, int hashType, int hashStrategy, 
+			  BucketStorage storage) {
+	    this(vectorSize, nbHash, hashType, hashStrategy, DEFAULT_BUCKET_BITS, storage);
+	  }
+	  
+	  /**
+	   * Constructor
+	   * @param vectorSize The vector size of <i>this</i> filter.
+	   * @param nbHash The number of hash function to consider.
+	   * @param hashType type of the hashing function (see
+	   * {@link org.apache.hadoop.util.hash.Hash}).
+	   * @param hashStrategy strategy used to derive the hashed values (see {@link HashFunction}).
+	   * @param bucketBits width of a bucket: 2, 4, 8 or 16 bits.
+	   * @param storage the buckets, which are used as they are, e.g. a {@link MappedBucketStorage}.
+	   */
+	  public ThreadSafeCBloomFilter(int vectorSize, int nbHash, int hashType, int hashStrategy, int bucketBits, 
+			  BucketStorage storage) {
+	    super(vectorSize, nbHash, hashType, hashStrategy);
+	    initBucketBits(bucketBits);
+	    if(storage.length() != buckets2words(vectorSize, bucketsPerWordShift)) {
+	      throw new IllegalArgumentException("storage length mismatches vectorSize: " + vectorSize);
+	    }
+	    this.storageType = storage.getStorageType();
+	    buckets = storage;
+	  }
+
+	  /** returns the number of 64 bit words it would take to hold vectorSize buckets */
+	  private static int buckets2words(int vectorSize, int bucketsPerWordShift) {
+	   return ((vectorSize - 1) >>> bucketsPerWordShift) + 1;
+	  }
+	  
+	  /**
+	   * Returns the number of 64 bit words it would take to hold vectorSize buckets of a given width
+	   * @param vectorSize
+	   * @param bucketBits 2, 4, 8 or 16
+	   * @return
+	   */
+	  public static int getSizeInWords(int vectorSize, int bucketBits) {
+	    return buckets2words(vectorSize, 6 - bitsShift(bucketBits));
+	  }
+	  
+	  /**
+	   * Returns the narrowest bucket width which can count to <code>maxCount</code>
+	   * @param maxCount
+	   * @return 2, 4, 8 or 16
+	   */
+	  public static int getNarrowestBucketBits(int maxCount) {
+	    for(int bits = 2; bits <= MAX_BUCKET_BITS; bits <<= 1) {
+	      if(maxCount <= (1 << bits) - 1) {
+	        return bits;
+	      }
+	    }
+	    throw new IllegalArgumentException("buckets can not count to " + maxCount);
+	  }
+	  
+	  private static int bitsShift(int bucketBits) {
+	    switch(bucketBits) {
+	    case 2: return 1;
+	    case 4: return 2;
+	    case 8: return 3;
+	    case 16: return 4;
+	    default:
+	      throw new IllegalArgumentException("bucketBits should be 2, 4, 8 or 16: " + bucketBits);
+	    }
+	  }
+	  
+	  private void initBucketBits(int bits) {
+	    this.bucketBitsShift = bitsShift(bits);
+	    this.bucketBits = bits;
+	    this.bucketsPerWordShift = 6 - bucketBitsShift;
+	    this.bucketIndexMask = (1 << bucketsPerWordShift) - 1;
+	    this.bucketMaxValue = (1L << bits) - 1;
+	  }
+	  
+	  private static Object[] newIncreaseLocks() {
+	    Object[] locks = new Object[INCREASE_LOCK_STRIPES];
+	    for(int i = 0; i < INCREASE_LOCK_STRIPES; i++) {
+	      locks[i] = new Object();
+	    }
+	    return locks;
+	  }
+
+
+	  @Override
+	  public void add(Key key) {
+	    if(key == null) {
+	      throw new NullPointerException("key can not be null");
+	    }
+
+	    int[] h = hash.hash(key);
+	    hash.clear();
+
+	    BucketStorage storage = buckets;
+	    int ticket = storage.beginUpdate();   // 快照看到这个key的全部计数器都已增1，或者都未增1
+	    try {
+	      for(int i = 0; i < nbHash; i++) {
+	        increaseBucket(h[i]);
+	      }
+	    }
+	    finally {
+	      storage.endUpdate(ticket);
+	    }
+	  }
+	  
+	  /**
+	   * Adds a key to <i>this</i> filter only if its approximate count is below <code>limit</code>.
+	   * <p>
+	   * The key is hashed once: the minimum bucket is read and the buckets are incremented in the
+	   * same pass. Concurrent calls for the same key are serialized, so no more than <code>limit</code>
+	   * of them can succeed.
+	   * @param key The key to add.
+	   * @param limit The maximum count the key may reach.
+	   * @return the approximate count of the key after the increment, or -1 if the key has already
+	   * reached <code>limit</code> and nothing was changed.
+	   */
+	  public int addIfBelow(Key key, int limit) {
+	    if(key == null) {
+	      throw new NullPointerException("key can not be null");
+	    }
+
+	    int[] h = hash.hash(key);
+	    hash.clear();
+
+	    return addIfBelow(h, limit);
+	  }
+	  
+	  /**
+	   * Adds the UTF-8 encoding of a character sequence to <i>this</i> filter only if its
+	   * approximate count is below <code>limit</code>, without allocating any object.
+	   * @param chars The character sequence to add.
+	   * @param limit The maximum count the key may reach.
+	   * @return the approximate count of the key after the increment, or -1 if the key has already
+	   * reached <code>limit</code> and nothing was changed.
+	   * @see #addIfBelow(Key, int)
+	   */
+	  public int addIfBelow(CharSequence chars, int limit) {
+	    return addIfBelow(hashPositions(chars), limit);
+	  }
+	  
+	  private int addIfBelow(int[] h, int limit) {
+	    synchronized(increaseLocks[h[0] & (INCREASE_LOCK_STRIPES - 1)]) {
+	      int count = minBucketValue(h);
+	      if(count >= limit) {
+	        return -1;
+	      }
+
+	      BucketStorage storage = buckets;
+	      int ticket = storage.beginUpdate();
+	      try {
+	        for(int i = 0; i < nbHash; i++) {
+	          increaseBucket(h[i]);
+	        }
+	      }
+	      finally {
+	        storage.endUpdate(ticket);
+	      }
+	      return count + 1;
+	    }
+	  }
+	  
+	  /**
+	   * Hashes the UTF-8 encoding of a character sequence into the buffer of the calling thread
+	   * @param chars
+	   * @return hashed positions, valid until the next call from the same thread
+	   */
+	  private int[] hashPositions(CharSequence chars) {
+	    if(chars == null) {
+	      throw new NullPointerException("key can not be null");
+	    }
+	    
+	    int[] h = positionsBuffer.get();
+	    if(h.length < nbHash) {   // nbHash may have been changed by readFields
+	      h = new int[nbHash];
+	      positionsBuffer.set(h);
+	    }
+	    hash.hash(chars, h);
+	    return h;
+	  }
+	  
+	  /**
+	   * Increments the bucket at the given position by one, unless it has reached bucketMaxValue
+	   * @param position hashed position of the bucket
+	   */
+	  private void increaseBucket(int position) {
+	    // find the bucket
+	    int wordNum = position >>> bucketsPerWordShift;          // div bucketsPerWord
+	    int bucketShift = (position & bucketIndexMask) << bucketBitsShift;  // (mod bucketsPerWord) * bucketBits
+	    
+	    long bucketMask = bucketMaxValue << bucketShift;
+	    
+	    for(int failedTimes = 0; ; failedTimes++) {   // 一直重试直到成功，不丢失计数
+	      long oldVal = buckets.get(wordNum);
+	      long bucketValue = (oldVal & bucketMask) >>> bucketShift;
+	      
+	      // only increment if the count in the bucket is less than bucketMaxValue
+	      if(bucketValue >= bucketMaxValue) {
+	        return;
+	      }
+	      
+	      // increment by 1
+	      if(buckets.compareAndSet(wordNum,
+	    		  				   oldVal, 
+	    		  				   (oldVal & ~bucketMask) | ((bucketValue + 1) << bucketShift))) {
+	        return;
+	      }
+	      
+	      contention.increment();
+	      ContentionCounter.backoff(failedTimes);
+	    }
+	  }
+	  
+	  /**
+	   * Returns the minimum value of the buckets at the given positions
+	   * @param h hashed positions of a key
+	   * @return
+	   */
+	  private int minBucketValue(int[] h) {
+	    int res = Integer.MAX_VALUE;
+	    for (int i = 0; i < nbHash; i++) {
+	      // find the bucket
+	      int wordNum = h[i] >>> bucketsPerWordShift;          // div bucketsPerWord
+	      int bucketShift = (h[i] & bucketIndexMask) << bucketBitsShift;  // (mod bucketsPerWord) * bucketBits
+	      
+	      long bucketMask = bucketMaxValue << bucketShift;
+	      long bucketValue = (buckets.get(wordNum) & bucketMask) >>> bucketShift;
+	      if (bucketValue < res) 
+	    	  res = (int)bucketValue;
+	    }
+	    
+	    if (res != Integer.MAX_VALUE) {
+	      return res;
+	    } else {
+	      return 0;
+	    }
+	  }
+
+	  /**
+	   * Removes a specified key from <i>this</i> counting Bloom filter.
+	   * <p>
+	   * <b>Invariant</b>: nothing happens if the specified key does not belong to <i>this</i> counter Bloom filter.
+	   * @param key The key to remove.
+	   */
+	  public void delete(Key key) {
+	    if(key == null) {
+	      throw new NullPointerException("Key may not be null");
+	    }
+	    if(!membershipTest(key)) {
+	      throw new IllegalArgumentException("Key is not a member");
+	    }
+
+	    int[] h = hash.hash(key);
+	    hash.clear();
+
+	    BucketStorage storage = buckets;
+	    int ticket = storage.beginUpdate();
+	    try {
+	      for(int i = 0; i < nbHash; i++) {
+	        // find the bucket
+	        int wordNum = h[i] >>> bucketsPerWordShift;          // div bucketsPerWord
+	        int bucketShift = (h[i] & bucketIndexMask) << bucketBitsShift;  // (mod bucketsPerWord) * bucketBits
+	      
+	        long bucketMask = bucketMaxValue << bucketShift;
+	      
+	        for(int failedTimes = 0; ; failedTimes++) {   // 一直重试直到成功
+	          long oldVal = buckets.get(wordNum);
+	          long bucketValue = (oldVal & bucketMask) >>> bucketShift;
+	          // only decrement if the count in the bucket is between 0 and bucketMaxValue
+	          if(bucketValue < 1 || bucketValue >= bucketMaxValue) {
+	            break;
+	          }
+		      
+	          // decrement by 1
+	          if(buckets.compareAndSet(wordNum,
+	                                   oldVal, 
+	                                   (oldVal & ~bucketMask) | ((bucketValue - 1) << bucketShift))) {
+	            break;
+	          }
+		      
+	          contention.increment();
+	          ContentionCounter.backoff(failedTimes);
+	        }   // for ends
+	      }
+	    }
+	    finally {
+	      storage.endUpdate(ticket);
+	    }
+	  }
+
+	  @Override
+	  public void and(Filter filter) {
+	    if(filter == null
+	        || !(filter instanceof ThreadSafeCBloomFilter)
+	        || filter.vectorSize != this.vectorSize
+	        || filter.nbHash != this.nbHash
+	        || ((ThreadSafeCBloomFilter) filter).bucketBits != this.bucketBits) {
+	      throw new IllegalArgumentException("filters cannot be and-ed");
+	    }
+	    ThreadSafeCBloomFilter cbf = (ThreadSafeCBloomFilter) filter;
+	    
+	    int sizeInWords = buckets2words(vectorSize, bucketsPerWordShift);
+	    BucketStorage storage = buckets;
+	    int ticket = storage.beginUpdate();   // 快照看到整个操作的结果，或者完全没有看到
+	    try {
+	      for(int i = 0; i < sizeInWords; i++) {
+	      	for(int failedTimes = 0; ; failedTimes++) {   // 一直重试直到成功
+	      		long oldVal = buckets.get(i);
+	      		if(buckets.compareAndSet(i, oldVal, oldVal & cbf.buckets.get(i))) {
+	      			break;
+	      		}
+	    	  
+	      		contention.increment();
+	      		ContentionCounter.backoff(failedTimes);
+	      	}   // for ends
+	      }
+	    }
+	    finally {
+	      storage.endUpdate(ticket);
+	    }
+	  }
+
+	  @Override
+	  public boolean membershipTest(Key key) {
+	    if(key == null) {
+	      throw new NullPointerException("Key may not be null");
+	    }
+
+	    int[] h = hash.hash(key);
+	    hash.clear();
+
+	    for(int i = 0; i < nbHash; i++) {
+	      // find the bucket
+	      int wordNum = h[i] >>> bucketsPerWordShift;          // div bucketsPerWord
+	      int bucketShift = (h[i] & bucketIndexMask) << bucketBitsShift;  // (mod bucketsPerWord) * bucketBits
+
+	      long bucketMask = bucketMaxValue << bucketShift;
+
+	      if((buckets.get(wordNum) & bucketMask) == 0) {
+	        return false;
+	      }
+	    }
+
+	    return true;
+	  }
+
+	  /**
+	   * This method calculates an approximate count of the key, i.e. how many
+	   * times the key was added to the filter. This allows the filter to be
+	   * used as an approximate <code>key -&gt; count</code> map.
+	   * <p>NOTE: due to the bucket size of this filter, inserting the same
+	   * key more than 2^bucketBits - 1 (15 for the default 4bit buckets) times will
+	   * cause an overflow at all filter positions associated with this key, and it
+	   * will significantly increase the error rate for this and other keys. For
+	   * this reason the filter can only be used to store count values below
+	   * {@link #getBucketMaxValue()}.
+	   * @param key key to be tested
+	   * @return 0 if the key is not present. Otherwise, a positive value v will
+	   * be returned such that <code>v == count</code> with probability equal to the
+	   * error rate of this filter, and <code>v &gt; count</code> otherwise.
+	   * Additionally, if the filter experienced an underflow as a result of
+	   * {@link #delete(Key)} operation, the return value may be lower than the
+	   * <code>count</code> with the probability of the false negative rate of such
+	   * filter.
+	   */
+	  public int approximateCount(Key key) {
+	    int[] h = hash.hash(key);
+	    hash.clear();
+	    return minBucketValue(h);
+	  }
+	  
+	  /**
+	   * Calculates the approximate count of the UTF-8 encoding of a character sequence, without
+	   * allocating any object.
+	   * @param chars character sequence to be tested
+	   * @return the approximate count of the key
+	   * @see #approximateCount(Key)
+	   */
+	  public int approximateCount(CharSequence chars) {
+	    return minBucketValue(hashPositions(chars));
+	  }
+	  
+	  /**
+	   * Adds a batch of keys to <i>this</i> filter, with the same result as adding them one by one.
+	   * <p>
+	   * All keys are hashed first, then the buckets are visited in memory order, and the buckets of a
+	   * word are incremented with a single CAS. Keys are not added atomically with respect to
+	   * concurrent readers, same as {@link #add(Key)}.
+	   * @param keys The keys to add.
+	   */
+	  public void batchAdd(Key[] keys) {
+	    increaseBuckets(KeyBatch.hash(hash, keys, nbHash));
+	  }
+	  
+	  /**
+	   * Adds the UTF-8 encodings of a batch of character sequences to <i>this</i> filter.
+	   * @param keys The character sequences to add.
+	   * @see #batchAdd(Key[])
+	   */
+	  public void batchAdd(CharSequence[] keys) {
+	    increaseBuckets(KeyBatch.hash(hash, keys, nbHash));
+	  }
+	  
+	  /**
+	   * Calculates the approximate counts of a batch of keys.
+	   * <p>
+	   * All keys are hashed first, then the buckets are read in memory order, each word once.
+	   * @param keys keys to be tested
+	   * @return approximate count of <code>keys[i]</code> at index i
+	   * @see #approximateCount(Key)
+	   */
+	  public int[] batchApproximateCount(Key[] keys) {
+	    return minBucketValues(KeyBatch.hash(hash, keys, nbHash), keys.length);
+	  }
+	  
+	  /**
+	   * Calculates the approximate counts of the UTF-8 encodings of a batch of character sequences.
+	   * @param keys character sequences to be tested
+	   * @return approximate count of <code>keys[i]</code> at index i
+	   * @see #batchApproximateCount(Key[])
+	   */
+	  public int[] batchApproximateCount(CharSequence[] keys) {
+	    return minBucketValues(KeyBatch.hash(hash, keys, nbHash), keys.length);
+	  }
+	  
+	  /**
+	   * Increments the buckets at the given positions by one each, in memory order
+	   * @param positions hashed positions, sorted in place
+	   */
+	  private void increaseBuckets(int[] positions) {
+	    Arrays.sort(positions);
+	    BucketStorage storage = buckets;
+	    int ticket = storage.beginUpdate();   // 整批作为一次更新，快照不会只包含其中一部分
+	    try {
+	      int start = 0;
+	      while(start < positions.length) {
+	        int wordNum = positions[start] >>> bucketsPerWordShift;
+	        int end = start + 1;
+	        while(end < positions.length && (positions[end] >>> bucketsPerWordShift) == wordNum) {
+	          end++;
+	        }
+	      
+	        for(int failedTimes = 0; ; failedTimes++) {   // 一个long内的多个计数器用一次CAS一起更新
+	          long oldVal = buckets.get(wordNum);
+	          long newVal = oldVal;
+	          for(int i = start; i < end; i++) {
+	            int bucketShift = (positions[i] & bucketIndexMask) << bucketBitsShift;
+	            // only increment if the count in the bucket is less than bucketMaxValue
+	            if(((newVal >>> bucketShift) & bucketMaxValue) < bucketMaxValue) {
+	              newVal += 1L << bucketShift;
+	            }
+	          }
+	        
+	          if(newVal == oldVal || buckets.compareAndSet(wordNum, oldVal, newVal)) {
+	            break;
+	          }
+	        
+	          contention.increment();
+	          ContentionCounter.backoff(failedTimes);
+	        }
+	      
+	        start = end;
+	      }
+	    }
+	    finally {
+	      storage.endUpdate(ticket);
+	    }
+	  }
+	  
+	  /**
+	   * Returns the minimum bucket value of each key of a batch, reading the buckets in memory order
+	   * @param positions hashed positions, nbHash per key
+	   * @param keyNum number of keys
+	   * @return
+	   */
+	  private int[] minBucketValues(int[] positions, int keyNum) {
+	    int[] res = new int[keyNum];
+	    Arrays.fill(res, (int) bucketMaxValue);
+	    
+	    long[] sorted = KeyBatch.sortByPosition(positions, nbHash);
+	    int lastWordNum = -1;
+	    long word = 0;
+	    for(int i = 0; i < sorted.length; i++) {
+	      int position = KeyBatch.position(sorted[i]);
+	      int wordNum = position >>> bucketsPerWordShift;
+	      if(wordNum != lastWordNum) {
+	        word = buckets.get(wordNum);
+	        lastWordNum = wordNum;
+	      }
+	      
+	      int bucketShift = (position & bucketIndexMask) << bucketBitsShift;
+	      int bucketValue = (int) ((word >>> bucketShift) & bucketMaxValue);
+	      int keyIndex = KeyBatch.keyIndex(sorted[i]);
+	      if(bucketValue < res[keyIndex]) {
+	        res[keyIndex] = bucketValue;
+	      }
+	    }
+	    return res;
+	  }
+
+	  @Override
+	  public void not() {
+	    throw new UnsupportedOperationException("not() is undefined for "
+	        + this.getClass().getName());
+	  }
+
+	  @Override
+	  public void or(Filter filter) {
+	    if(filter == null
+	        || !(filter instanceof ThreadSafeCBloomFilter)
+	        || filter.vectorSize != this.vectorSize
+	        || filter.nbHash != this.nbHash
+	        || ((ThreadSafeCBloomFilter) filter).bucketBits != this.bucketBits) {
+	      throw new IllegalArgumentException("filters cannot be or-ed");
+	    }
+
+	    ThreadSafeCBloomFilter cbf = (ThreadSafeCBloomFilter) filter;
+
+	    int sizeInWords = buckets2words(vectorSize, bucketsPerWordShift);
+	    BucketStorage storage = buckets;
+	    int ticket = storage.beginUpdate();   // 快照看到整个操作的结果，或者完全没有看到
+	    try {
+	      for(int i = 0; i < sizeInWords; i++) {
+	      	for(int failedTimes = 0; ; failedTimes++) {   // 一直重试直到成功
+	      		long oldVal = buckets.get(i);
+	      		if(buckets.compareAndSet(i, oldVal, oldVal | cbf.buckets.get(i))) {
+	      			break;
+	      		}
+	    		
+	      		contention.increment();
+	      		ContentionCounter.backoff(failedTimes);
+	      	}   // for ends
+	      }
+	    }
+	    finally {
+	      storage.endUpdate(ticket);
+	    }
+	  }
+
+	  @Override
+	  public void xor(Filter filter) {
+	    throw new UnsupportedOperationException("xor() is undefined for "
+	        + this.getClass().getName());
+	  }
+
+	  /**
+	   * Releases the buckets, <i>this</i> filter can not be used any more afterwards
+	   */
+	  @Override
+	  public void clear() {
+		  BucketStorage toRelease = this.buckets;
+		  this.buckets = null;
+		  if(toRelease != null) {
+			  toRelease.release();
+		  }
+	  }
+	  
+	  @Override
+	  public String toString() {
+	    StringBuilder res = new StringBuilder();
+
+	    for(int i = 0; i < vectorSize; i++) {
+	      if(i > 0) {
+	        res.append(" ");
+	      }
+	      
+	      int wordNum = i >>> bucketsPerWordShift;          // div bucketsPerWord
+	      int bucketShift = (i & bucketIndexMask) << bucketBitsShift;  // (mod bucketsPerWord) * bucketBits
+	      
+	      long bucketMask = bucketMaxValue << bucketShift;
+	      long bucketValue = (buckets.get(wordNum) & bucketMask) >>> bucketShift;
+	      
+	      res.append(bucketValue);
+	    }
+
+	    return res.toString();
+	  }
+
+	  public int getVectorSize() {
+		  return this.vectorSize;
+	  }
+	  
+	  public int getNbHash() {
+		  return this.nbHash;
+	  }
+	  
+	  public int getHashType() {
+		  return this.hashType;
+	  }
+	  
+	  public int getHashStrategy() {
+		  return this.hashStrategy;
+	  }
+	  
+	  public int getStorageType() {
+		  return this.storageType;
+	  }
+	  
+	  public int getBucketBits() {
+		  return this.bucketBits;
+	  }
+	  
+	  public int getBucketMaxValue() {
+		  return (int) this.bucketMaxValue;
+	  }
+	  
+	  public long getContentionCount() {
+		  return contention.sum();
+	  }
+	  
+	  public CounterStats getCounterStats() {
+		  return CounterStats.scan(buckets, bucketBits, vectorSize, nbHash);
+	  }
+	  
+	  public void force() throws IOException {
+		  buckets.force();
+	  }
+	  
+	  public void clearDirtyPages() {
+		  buckets.clearDirtyPages();
+	  }
+	  
+	  public int writeDirtyPages(RandomAccessFile file, long offset) throws IOException {
+		  return writeDirtyPages(file, offset, null);
+	  }
+	  
+	  public int writeDirtyPages(RandomAccessFile file, long offset, SnapshotListener listener) throws IOException {
+		  return BucketStorage.writeDirtyPages(new BucketStorage[] {buckets}, file, 
+				  new long[] {offset + getHeaderSizeInBytes()}, listener);
+	  }
+	  
+	  /**
+	   * @return the buckets, for a {@link ShardedCountingFilter} to snapshot all its shards at once
+	   */
+	  BucketStorage getBuckets() {
+		  return buckets;
+	  }
+	  
+	  /**
+	   * @return number of bytes {@link #write(DataOutput)} writes
+	   * @throws IOException
+	   */
+	  long getSerializedSizeInBytes() throws IOException {
+		  return getHeaderSizeInBytes() + (((long) buckets2words(vectorSize, bucketsPerWordShift)) << 3);
+	  }
+	  
+	  private int getHeaderSizeInBytes() throws IOException {
+		  DataOutputStream out = new DataOutputStream(new ByteArrayOutputStream());
+		  writeHeader(out);
+		  return out.size();
+	  }
+	  
+	  // Writable
+
+	  @Override
+	  public void write(DataOutput out) throws IOException {
+	    writeHeader(out);
+	    int sizeInWords = buckets2words(vectorSize, bucketsPerWordShift);
+	    for(int i = 0; i < sizeInWords; i++) {
+	      out.writeLong(buckets.get(i));
+	    }
+	  }
+
+	  public void writeHeader(DataOutput out) throws IOException {
+	    super.write(out);
+	  }
+	  
+	  public void writeTo(WritableByteChannel channel) throws IOException {
+	    writeTo(channel, null);
+	  }
+	  
+	  public void writeTo(WritableByteChannel channel, SnapshotListener listener) throws IOException {
+	    BucketStorage.writeTo(new BucketStorage[] {buckets}, new byte[][] {getHeaderBytes()}, channel, listener);
+	  }
+	  
+	  /**
+	   * @return what {@link #writeHeader(DataOutput)} writes
+	   * @throws IOException
+	   */
+	  byte[] getHeaderBytes() throws IOException {
+	    ByteArrayOutputStream header = new ByteArrayOutputStream();
+	    writeHeader(new DataOutputStream(header));
+	    return header.toByteArray();
+	  }
+	  
+	  /** Only filters with non default bucket width need the extended header */
+	  @Override
+	  protected boolean hasHeaderExtension() {
+	    return bucketBits != DEFAULT_BUCKET_BITS;
+	  }
+	  
+	  @Override
+	  protected void writeHeaderExtension(DataOutput out) throws IOException {
+	    out.writeByte(bucketBits);
+	  }
+	  
+	  @Override
+	  protected void readHeaderExtension(DataInput in) throws IOException {
+	    try {
+	      initBucketBits(in.readByte());
+	    }
+	    catch(IllegalArgumentException e) {
+	      throw new IOException(e.getMessage());
+	    }
+	  }
+	  
+	  public void readHeader(DataInput in, BucketStorage storage) throws IOException {
+	    initBucketBits(DEFAULT_BUCKET_BITS);   // 旧格式的头部不包含bucketBits
+	    super.readFields(in);
+	    if(storage.length() != buckets2words(vectorSize, bucketsPerWordShift)) {
+	      throw new IOException("storage length mismatches vectorSize: " + vectorSize);
+	    }
+	    if(buckets != null) {
+	      buckets.release();
+	    }
+	    buckets = storage;
+	    storageType = storage.getStorageType();
+	  }
+
+	  @Override
+	  public void readFields(DataInput in) throws IOException {
+	    initBucketBits(DEFAULT_BUCKET_BITS);   // 旧格式的头部不包含bucketBits
+	    super.readFields(in);
+	    int sizeInWords = buckets2words(vectorSize, bucketsPerWordShift);
+	    if(buckets != null) {   // 重复调用readFields时释放旧的存储
+	      buckets.release();
+	    }
+	    buckets = BucketStorage.newInstance(storageType, sizeInWords);
+	    for(int i = 0; i < sizeInWords; i++) {
+	    	buckets.set(i, in.readLong());
+	    }
+	    if(buckets.isTrackingDirtyPages()) {   // 读入的计数器与文件一致
+	      buckets.clearDirtyPages();
+	    }
+	  }
+	  
+	  public void readFrom(ReadableByteChannel channel) throws IOException {
+	    initBucketBits(DEFAULT_BUCKET_BITS);   // 旧格式的头部不包含bucketBits
+	    super.readFields(new DataInputStream(Channels.newInputStream(channel)));   // 不缓冲，只读走头部
+	    int sizeInWords = buckets2words(vectorSize, bucketsPerWordShift);
+	    if(buckets != null) {
+	      buckets.release();
+	    }
+	    buckets = BucketStorage.newInstance(storageType, sizeInWords);
+	    buckets.readFrom(channel);
+	    if(buckets.isTrackingDirtyPages()) {
+	      buckets.clearDirtyPages();
+	    }
+	  }
+
+}
@@ -0,0 +1,68 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+/**
+ * 多字更新的epoch：正在进行的更新按epoch的奇偶和线程分散到不同cache line上计数。
+ * 快照开始时切换epoch，等待切换前开始的更新全部完成，期间新epoch的更新在enter()中等待，
+ * 直到快照发布后调用resume()，所以每次更新要么全部在快照之前，要么全部在快照之后
+ * @author will
+ *
+ */
+final class UpdateEpoch {
+
+	private volatile int epoch;
+
+	/** Updates of the epochs up to this one may proceed */
+	private volatile int resumedEpoch;
+
+	/** Active updates, grouped by epoch parity */
+	private final StripedCounter activeUpdates = new StripedCounter(2);
+
+	/**
+	 * Registers an update of the calling thread in the current epoch, waiting
+	 * for {@link #resume()} if the epoch has just been started by
+	 * {@link #advance()}
+	 * @return the ticket to pass to {@link #exit(int)}
+	 */
+	int enter() {
+		while (true) {
+			int e = epoch;
+			int cell = activeUpdates.increment(e & 1);
+			if (epoch == e) {
+				for (int failedTimes = 0; resumedEpoch - e < 0; failedTimes++) {
+					ContentionCounter.backoff(failedTimes);
+				}
+				return cell;
+			}
+			activeUpdates.decrement(cell);   // advance()在自增前切换了epoch，重新登记到新的epoch
+		}
+	}
+
+	/**
+	 * Unregisters an update
+	 * @param ticket returned by {@link #enter()}
+	 */
+	void exit(int ticket) {
+		activeUpdates.decrement(ticket);
+	}
+
+	/**
+	 * Starts a new epoch and waits until the updates registered in the previous one are done.
+	 * Updates of the new epoch wait until {@link #resume()} is called. Must not be called by
+	 * several threads at once.
+	 */
+	void advance() {
+		int e = epoch;
+		epoch = e + 1;
+		for (int failedTimes = 0; activeUpdates.sum(e & 1) != 0; failedTimes++) {
+			ContentionCounter.backoff(failedTimes);
+		}
+	}
+
+	/**
+	 * Lets the updates of the epoch started by {@link #advance()} proceed
+	 */
+	void resume() {
+		resumedEpoch = epoch;
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import com.ximalaya.bloomfilterext.hash.Hash;
+
+/**
+ * 对比ThreadSafeCBloomFilter和BlockedCountingBloomFilter的吞吐量和误判率，手工运行
+ * @author will
+ *
+ */
+public class BlockedCBFBenchmark {
+	
+	private static final int VECTOR_SIZE = 160000000;
+	private static final int KEY_NUM = 5000000;
+	private static final int[] HASH_NUM_CANDIDATES = new int[] { 8, 20 };
+	
+	public static void main(String[] args) {
+		for(int hashNum: HASH_NUM_CANDIDATES) {
+			run("ThreadSafeCBloomFilter", new ThreadSafeCBloomFilter(VECTOR_SIZE, hashNum, Hash.MURMUR_HASH), hashNum);
+			run("BlockedCountingBloomFilter", new BlockedCountingBloomFilter(VECTOR_SIZE, hashNum, Hash.MURMUR_HASH), 
+					hashNum);
+		}
+	}
+	
+	private static void run(String name, CountingFilter cbf, int hashNum) {
+		StringBuilder keyWord = new StringBuilder();
+		
+		long start = System.nanoTime();
+		for(int i = 0; i < KEY_NUM; i++) {
+			keyWord.setLength(0);
+			keyWord.append("key:").append(i);
+			cbf.addIfBelow(keyWord, 3);
+		}
+		long addNanos = System.nanoTime() - start;
+		
+		start = System.nanoTime();
+		int falsePositiveNum = 0;
+		for(int i = 0; i < KEY_NUM; i++) {
+			keyWord.setLength(0);
+			keyWord.append("absent:").append(i);
+			if(cbf.approximateCount(keyWord) > 0) {
+				falsePositiveNum++;
+			}
+		}
+		long countNanos = System.nanoTime() - start;
+		
+		System.out.println(String.format("%s, hashNum: %d, addIfBelow: %.1f ns/op, approximateCount: %.1f ns/op, " 
+				+ "false positive rate: %.2e", name, hashNum, (double) addNanos / KEY_NUM, 
+				(double) countNanos / KEY_NUM, (double) falsePositiveNum / KEY_NUM));
+	}
+
+}
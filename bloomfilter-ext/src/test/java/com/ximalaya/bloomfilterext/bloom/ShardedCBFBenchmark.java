@@ -0,0 +1,66 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.ximalaya.bloomfilterext.hash.Hash;
+
+/**
+ * 对比多线程同时写入时ThreadSafeCBloomFilter和ShardedCountingFilter的吞吐量，手工运行
+ * @author will
+ *
+ */
+public class ShardedCBFBenchmark {
+	
+	private static final int VECTOR_SIZE = 160000000;
+	private static final int HASH_NUM = 20;
+	private static final int KEY_NUM_PER_THREAD = 1000000;
+	private static final int[] THREAD_NUM_CANDIDATES = new int[] { 1, 2, 4, 8, 16 };
+	
+	public static void main(String[] args) throws InterruptedException {
+		for(int threadNum: THREAD_NUM_CANDIDATES) {
+			run("ThreadSafeCBloomFilter", new ThreadSafeCBloomFilter(VECTOR_SIZE, HASH_NUM, Hash.MURMUR_HASH), 
+					threadNum);
+			run("ShardedCountingFilter", new ShardedCountingFilter(VECTOR_SIZE, HASH_NUM, Hash.MURMUR_HASH, 
+					HashFunction.CHAINED_HASHING, ThreadSafeCBloomFilter.DEFAULT_BUCKET_BITS, 
+					ShardedCountingFilter.DEFAULT_SHARD_NUM, BucketStorage.HEAP_STORAGE), threadNum);
+		}
+	}
+	
+	private static void run(String name, final CountingFilter cbf, int threadNum) throws InterruptedException {
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch endLatch = new CountDownLatch(threadNum);
+		for(int i = 0; i < threadNum; i++) {
+			final int threadIndex = i;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					StringBuilder keyWord = new StringBuilder();
+					try {
+						startLatch.await();
+						for(int j = 0; j < KEY_NUM_PER_THREAD; j++) {
+							keyWord.setLength(0);
+							keyWord.append("user:").append(j % 1000).append(":").append(threadIndex);
+							cbf.addIfBelow(keyWord, 3);
+						}
+					}
+					catch(InterruptedException _) {
+						// swallow
+					}
+					finally {
+						endLatch.countDown();
+					}
+				}
+			}).start();
+		}
+		
+		long start = System.nanoTime();
+		startLatch.countDown();
+		endLatch.await();
+		long nanos = System.nanoTime() - start;
+		
+		System.out.println(String.format("%s, threads: %d, addIfBelow: %.1f Mops/s, contention: %d", name, threadNum, 
+				(double) threadNum * KEY_NUM_PER_THREAD * 1000 / nanos, cbf.getContentionCount()));
+		cbf.clear();
+	}
+
+}
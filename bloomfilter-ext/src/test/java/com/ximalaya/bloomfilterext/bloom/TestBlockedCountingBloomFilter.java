@@ -0,0 +1,202 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.ximalaya.bloomfilterext.hash.Hash;
+
+public class TestBlockedCountingBloomFilter {
+	
+	private static final int VECTOR_SIZE = 1 << 20;
+	private static final int DEFAULT_HASH_NUM = 8;
+	private static final int DEFAULT_HASH_TYPE = Hash.MURMUR_HASH;
+	
+	@Test
+	public void commonTest() {
+		BlockedCountingBloomFilter bcbf = 
+				new BlockedCountingBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		bcbf.add(new Key("jxq".getBytes()));
+		bcbf.add(new Key("jxq".getBytes()));
+		bcbf.add(new Key("jxq".getBytes()));
+		
+		Assert.assertEquals(3, bcbf.approximateCount(new Key("jxq".getBytes())));
+		Assert.assertEquals(0, bcbf.approximateCount(new Key("will".getBytes())));
+		
+		bcbf.delete(new Key("jxq".getBytes()));
+		Assert.assertEquals(2, bcbf.approximateCount(new Key("jxq".getBytes())));
+	}
+	
+	@Test
+	public void saturateTest() {
+		BlockedCountingBloomFilter bcbf = 
+				new BlockedCountingBloomFilter(VECTOR_SIZE, 128, DEFAULT_HASH_TYPE);   // 占满整个块
+		for(int i = 0; i < 20; i++) {
+			bcbf.add(new Key("jxq".getBytes()));
+		}
+		Assert.assertEquals(15, bcbf.approximateCount(new Key("jxq".getBytes())));
+	}
+	
+	@Test
+	public void concurrentAddIfBelowTest() throws InterruptedException {
+		final BlockedCountingBloomFilter bcbf = 
+				new BlockedCountingBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		final int threadNum = 8;
+		final AtomicInteger succeededNum = new AtomicInteger(0);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch endLatch = new CountDownLatch(threadNum);
+		for(int i = 0; i < threadNum; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						startLatch.await();
+						for(int j = 0; j < 100; j++) {
+							if(bcbf.addIfBelow("jxq", 3) > 0) {
+								succeededNum.incrementAndGet();
+							}
+						}
+					}
+					catch(InterruptedException _) {
+						// swallow
+					}
+					finally {
+						endLatch.countDown();
+					}
+				}
+			}).start();
+		}
+		
+		startLatch.countDown();
+		endLatch.await();
+		Assert.assertEquals(3, succeededNum.get());
+		Assert.assertEquals(3, bcbf.approximateCount(new Key("jxq".getBytes())));
+	}
+	
+	@Test
+	public void writeAndReadTest() throws IOException {
+		BlockedCountingBloomFilter bcbf = 
+				new BlockedCountingBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		for(int i = 0; i < 10000; i++) {
+			bcbf.add(new Key(Integer.toString(i).getBytes()));
+		}
+		
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		bcbf.write(new DataOutputStream(bos));
+		Assert.assertEquals(VECTOR_SIZE / 128 * 64 + 13 + 4, bos.size());
+		
+		BlockedCountingBloomFilter restored = new BlockedCountingBloomFilter();
+		restored.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+		Assert.assertEquals(VECTOR_SIZE, restored.getVectorSize());
+		for(int i = 0; i < 10000; i++) {
+			Assert.assertTrue(restored.approximateCount(Integer.toString(i)) >= 1);
+		}
+	}
+	
+	@Test
+	public void setOperationSnapshotTest() throws Exception {
+		// or()和and()各作为一次更新：反复并入once再与空的Filter求与，快照要么是空的，要么与once完全相同
+		final BlockedCountingBloomFilter bcbf = 
+				new BlockedCountingBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		final BlockedCountingBloomFilter once = 
+				new BlockedCountingBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		final BlockedCountingBloomFilter empty = 
+				new BlockedCountingBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		for(int i = 0; i < 10000; i++) {
+			once.add(new Key(Integer.toString(i).getBytes()));
+		}
+		byte[] onceBytes = snapshot(once);
+		byte[] emptyBytes = snapshot(empty);
+		
+		final CountDownLatch endLatch = new CountDownLatch(1);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for(int i = 0; i < 200; i++) {
+					bcbf.or(once);
+					bcbf.and(empty);
+				}
+				endLatch.countDown();
+			}
+		}).start();
+		
+		int snapshotNum = 0;
+		do {
+			byte[] bytes = snapshot(bcbf);
+			Assert.assertTrue(Arrays.equals(emptyBytes, bytes) || Arrays.equals(onceBytes, bytes));
+			snapshotNum++;
+		} while(endLatch.getCount() > 0);
+		Assert.assertTrue(snapshotNum > 0);
+		Assert.assertTrue(Arrays.equals(emptyBytes, snapshot(bcbf)));
+	}
+	
+	private static byte[] snapshot(CountingFilter cbf) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		cbf.writeTo(Channels.newChannel(bos));
+		return bos.toByteArray();
+	}
+	
+	@Test
+	public void batchTest() {
+		BlockedCountingBloomFilter batched = new BlockedCountingBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		BlockedCountingBloomFilter sequential = new BlockedCountingBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		Key[] keys = new Key[5000];
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = new Key(("user:" + (i % 1000)).getBytes());   // 每个key重复5次
+		}
+		
+		batched.batchAdd(keys);
+		for(Key key: keys) {
+			sequential.add(key);
+		}
+		
+		int[] counts = batched.batchApproximateCount(keys);
+		Assert.assertEquals(keys.length, counts.length);
+		for(int i = 0; i < keys.length; i++) {
+			Assert.assertEquals(sequential.approximateCount(keys[i]), counts[i]);
+			Assert.assertEquals(batched.approximateCount(keys[i]), counts[i]);
+		}
+		Assert.assertEquals(5, counts[0]);
+		
+		CharSequence[] keyWords = new CharSequence[] { "jxq", new StringBuilder("jxq"), "will" };
+		batched.batchAdd(keyWords);
+		Assert.assertTrue(java.util.Arrays.equals(new int[] { 2, 2, 1 }, batched.batchApproximateCount(keyWords)));
+	}
+	
+	@Test
+	public void falsePositiveRateTest() {
+		int vectorSize = 1 << 16;
+		BlockedCountingBloomFilter bcbf = 
+				new BlockedCountingBloomFilter(vectorSize, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		int keyNum = (int) (vectorSize * Math.log(2) / DEFAULT_HASH_NUM);   // 整体填充率约为一半
+		for(int i = 0; i < keyNum; i++) {
+			bcbf.add(new Key(("inserted:" + i).getBytes()));
+		}
+		
+		int probeNum = 200000;
+		int falsePositives = 0;
+		for(int i = 0; i < probeNum; i++) {
+			if(bcbf.membershipTest(new Key(("probe:" + i).getBytes()))) {
+				falsePositives++;
+			}
+		}
+		double measured = (double) falsePositives / probeNum;
+		CounterStats stats = bcbf.getCounterStats();
+		double estimated = stats.getFalsePositiveRate();
+		Assert.assertTrue(estimated > measured * 0.8 && estimated < measured * 1.25);
+		// 按整体填充率估计会明显偏低：键数多于平均的块贡献了大部分误判
+		Assert.assertTrue(Math.pow(stats.getFillRatio(), DEFAULT_HASH_NUM) < measured * 0.6);
+		Assert.assertEquals(estimated, stats.getOvercountRate(1), 0);
+		Assert.assertEquals(1.0, stats.getOvercountRate(0), 0);
+	}
+}
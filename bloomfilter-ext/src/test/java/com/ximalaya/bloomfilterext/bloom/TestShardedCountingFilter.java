@@ -0,0 +1,198 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.ximalaya.bloomfilterext.hash.Hash;
+
+public class TestShardedCountingFilter {
+	
+	private static final int VECTOR_SIZE = 1 << 20;
+	private static final int DEFAULT_HASH_NUM = 20;
+	private static final int DEFAULT_HASH_TYPE = Hash.MURMUR_HASH;
+	private static final int SHARD_NUM = 16;
+	
+	private static ShardedCountingFilter newFilter() {
+		return new ShardedCountingFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE, 
+				HashFunction.CHAINED_HASHING, ThreadSafeCBloomFilter.DEFAULT_BUCKET_BITS, SHARD_NUM, 
+				BucketStorage.HEAP_STORAGE);
+	}
+	
+	@Test
+	public void commonTest() {
+		ShardedCountingFilter scf = newFilter();
+		scf.add(new Key("jxq".getBytes()));
+		scf.add(new Key("jxq".getBytes()));
+		Assert.assertEquals(3, scf.addIfBelow("jxq", 3));
+		
+		Assert.assertEquals(3, scf.approximateCount(new Key("jxq".getBytes())));
+		Assert.assertEquals(3, scf.approximateCount("jxq"));
+		Assert.assertEquals(0, scf.approximateCount("will"));
+		Assert.assertEquals(-1, scf.addIfBelow(new Key("jxq".getBytes()), 3));
+		
+		scf.delete(new Key("jxq".getBytes()));
+		Assert.assertEquals(2, scf.approximateCount("jxq"));
+	}
+	
+	@Test
+	public void manyKeysTest() {
+		ShardedCountingFilter scf = newFilter();
+		int keyNum = 16000;
+		for(int i = 0; i < keyNum; i++) {
+			Assert.assertEquals(1, scf.addIfBelow("key:" + i, 3));
+		}
+		for(int i = 0; i < keyNum; i++) {
+			Assert.assertEquals(1, scf.approximateCount(new Key(("key:" + i).getBytes())));
+		}
+	}
+	
+	@Test
+	public void concurrentAddIfBelowTest() throws InterruptedException {
+		final ShardedCountingFilter scf = newFilter();
+		final int threadNum = 8;
+		final AtomicInteger succeededNum = new AtomicInteger(0);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch endLatch = new CountDownLatch(threadNum);
+		for(int i = 0; i < threadNum; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						startLatch.await();
+						for(int j = 0; j < 100; j++) {
+							if(scf.addIfBelow("jxq", 3) > 0) {
+								succeededNum.incrementAndGet();
+							}
+						}
+					}
+					catch(InterruptedException _) {
+						// swallow
+					}
+					finally {
+						endLatch.countDown();
+					}
+				}
+			}).start();
+		}
+		
+		startLatch.countDown();
+		endLatch.await();
+		Assert.assertEquals(3, succeededNum.get());
+		Assert.assertEquals(3, scf.approximateCount("jxq"));
+	}
+	
+	@Test
+	public void writeAndReadTest() throws IOException {
+		ShardedCountingFilter scf = newFilter();
+		for(int i = 0; i < 10000; i++) {
+			scf.add(new Key(Integer.toString(i).getBytes()));
+		}
+		
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		scf.write(new DataOutputStream(bos));
+		int shardVectorSize = ShardedCountingFilter.getShardVectorSize(VECTOR_SIZE, SHARD_NUM);
+		Assert.assertEquals(13 + 4 + SHARD_NUM * (13 + BucketsUtil.vectorSizeToBucketNum(shardVectorSize) * 8), 
+				bos.size());
+		
+		ShardedCountingFilter restored = new ShardedCountingFilter();
+		restored.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+		Assert.assertEquals(VECTOR_SIZE, restored.getVectorSize());
+		Assert.assertEquals(SHARD_NUM, restored.getShardNum());
+		for(int i = 0; i < 10000; i++) {
+			Assert.assertTrue(restored.approximateCount(Integer.toString(i)) >= 1);
+		}
+		restored.clear();
+		
+		// 通道读写与流读写的格式相同
+		ByteArrayOutputStream channelBos = new ByteArrayOutputStream();
+		scf.writeTo(Channels.newChannel(channelBos));
+		Assert.assertTrue(Arrays.equals(bos.toByteArray(), channelBos.toByteArray()));
+		ShardedCountingFilter channelRestored = new ShardedCountingFilter();
+		channelRestored.readFrom(Channels.newChannel(new ByteArrayInputStream(bos.toByteArray())));
+		for(int i = 0; i < 10000; i++) {
+			Assert.assertTrue(channelRestored.approximateCount(Integer.toString(i)) >= 1);
+		}
+		channelRestored.clear();
+	}
+	
+	@Test
+	public void dirtyPagesSnapshotTest() throws IOException {
+		// beforeSnapshot()中落在各个分片上的插入都在快照之内，它们的页必须在这一次写入
+		File file = File.createTempFile("scf", ".dat");
+		file.deleteOnExit();
+		final ShardedCountingFilter scf = newFilter();
+		scf.clearDirtyPages();
+		DataOutputStream dos = new DataOutputStream(new FileOutputStream(file));
+		scf.write(dos);
+		dos.close();
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		int writtenPages = scf.writeDirtyPages(raf, 0, new SnapshotListener() {
+			@Override
+			public void beforeSnapshot() {
+				for(int i = 0; i < 100; i++) {
+					scf.add(new Key(("user:" + i).getBytes()));
+				}
+			}
+			
+			@Override
+			public void onSnapshot() {
+			}
+		});
+		Assert.assertTrue(writtenPages > 1);
+		Assert.assertEquals(0, scf.writeDirtyPages(raf, 0));
+		raf.close();
+		
+		ShardedCountingFilter restored = new ShardedCountingFilter();
+		DataInputStream dis = new DataInputStream(new FileInputStream(file));
+		restored.readFields(dis);
+		dis.close();
+		for(int i = 0; i < 100; i++) {
+			Assert.assertTrue(restored.approximateCount("user:" + i) >= 1);
+		}
+		restored.clear();
+		scf.clear();
+	}
+	
+	@Test
+	public void batchTest() {
+		ShardedCountingFilter batched = newFilter();
+		ShardedCountingFilter sequential = newFilter();
+		Key[] keys = new Key[5000];
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = new Key(("user:" + (i % 1000)).getBytes());   // 每个key重复5次
+		}
+		
+		batched.batchAdd(keys);
+		for(Key key: keys) {
+			sequential.add(key);
+		}
+		
+		int[] counts = batched.batchApproximateCount(keys);
+		Assert.assertEquals(keys.length, counts.length);
+		for(int i = 0; i < keys.length; i++) {
+			Assert.assertEquals(sequential.approximateCount(keys[i]), counts[i]);
+			Assert.assertEquals(batched.approximateCount(keys[i]), counts[i]);
+		}
+		Assert.assertEquals(5, counts[0]);
+		
+		CharSequence[] keyWords = new CharSequence[] { "jxq", new StringBuilder("jxq"), "will" };
+		batched.batchAdd(keyWords);
+		Assert.assertTrue(java.util.Arrays.equals(new int[] { 2, 2, 1 }, batched.batchApproximateCount(keyWords)));
+	}
+}
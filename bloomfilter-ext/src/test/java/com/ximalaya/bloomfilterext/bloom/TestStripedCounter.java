@@ -0,0 +1,55 @@
+package com.ximalaya.bloomfilterext.bloom;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class TestStripedCounter {
+
+	private static final int THREAD_NUM = 8;
+	private static final int INCREMENTS_PER_THREAD = 100000;
+
+	@Test
+	public void testConcurrentIncrement() throws InterruptedException {
+		final StripedCounter counter = new StripedCounter();
+		Thread[] threads = new Thread[THREAD_NUM];
+		for(int i = 0; i < THREAD_NUM; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for(int j = 0; j < INCREMENTS_PER_THREAD; j++) {
+						counter.increment();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(Thread thread: threads) {
+			thread.join();
+		}
+		Assert.assertEquals((long) THREAD_NUM * INCREMENTS_PER_THREAD, counter.sum());
+	}
+
+	@Test
+	public void testGroups() {
+		StripedCounter counter = new StripedCounter(2);
+		int cell = counter.increment(1);
+		counter.increment(1);
+		counter.increment(0);
+		Assert.assertEquals(1, counter.sum(0));
+		Assert.assertEquals(2, counter.sum(1));
+		Assert.assertEquals(3, counter.sum());
+
+		counter.decrement(cell);
+		Assert.assertEquals(1, counter.sum(1));
+		Assert.assertEquals(1, counter.sum(0));
+
+		try {
+			new StripedCounter(0);
+			Assert.fail("groups should be > 0");
+		}
+		catch(IllegalArgumentException _) {
+		}
+	}
+
+}
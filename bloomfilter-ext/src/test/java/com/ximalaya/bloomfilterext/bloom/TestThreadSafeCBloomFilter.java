@@ -1,29 +1,548 @@
-package com.ximalaya.bloomfilterext.bloom;
-
-import java.io.IOException;
-
-import junit.framework.Assert;
-
-import org.junit.Test;
-
-import com.ximalaya.bloomfilterext.hash.Hash;
-
-public class TestThreadSafeCBloomFilter {
-	
-	private static final int VECTOR_SIZE = 1 << 20;
-	private static final int DEFAULT_HASH_NUM = 20;
-	private static final int DEFAULT_HASH_TYPE = Hash.MURMUR_HASH;
-	
-	@Test
-	public void commonTest() throws IOException {
-		ThreadSafeCBloomFilter tscb  = 
-				new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
-		tscb.add(new Key("jxq".getBytes()));
-		tscb.add(new Key("jxq".getBytes()));
-		tscb.add(new Key("jxq".getBytes()));
-		
-		Assert.assertTrue(tscb.approximateCount(new Key("jxq".getBytes())) == 3);
-		Assert.assertTrue(tscb.approximateCount(new Key("will".getBytes())) == 0);
-	}
-
-}
+package com.ximalaya.bloomfilterext.bloom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.ximalaya.bloomfilterext.hash.Hash;
+
+public class TestThreadSafeCBloomFilter {
+	
+	private static final int VECTOR_SIZE = 1 << 20;
+	private static final int DEFAULT_HASH_NUM = 20;
+	private static final int DEFAULT_HASH_TYPE = Hash.MURMUR_HASH;
+	
+	@Test
+	public void commonTest() throws IOException {
+		ThreadSafeCBloomFilter tscb  = 
+				new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		tscb.add(new Key("jxq".getBytes()));
+		tscb.add(new Key("jxq".getBytes()));
+		tscb.add(new Key("jxq".getBytes()));
+		
+		Assert.assertTrue(tscb.approximateCount(new Key("jxq".getBytes())) == 3);
+		Assert.assertTrue(tscb.approximateCount(new Key("will".getBytes())) == 0);
+	}
+	
+	@Test
+	public void addIfBelowTest() {
+		ThreadSafeCBloomFilter tscb  = 
+				new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		Assert.assertEquals(1, tscb.addIfBelow(new Key("jxq".getBytes()), 3));
+		Assert.assertEquals(2, tscb.addIfBelow(new Key("jxq".getBytes()), 3));
+		Assert.assertEquals(3, tscb.addIfBelow(new Key("jxq".getBytes()), 3));
+		Assert.assertEquals(-1, tscb.addIfBelow(new Key("jxq".getBytes()), 3));
+		Assert.assertEquals(3, tscb.approximateCount(new Key("jxq".getBytes())));
+	}
+	
+	@Test
+	public void concurrentAddIfBelowTest() throws InterruptedException {
+		final ThreadSafeCBloomFilter tscb  = 
+				new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		final int threadNum = 8;
+		final AtomicInteger succeededNum = new AtomicInteger(0);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch endLatch = new CountDownLatch(threadNum);
+		for(int i = 0; i < threadNum; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						startLatch.await();
+						for(int j = 0; j < 100; j++) {
+							if(tscb.addIfBelow(new Key("jxq".getBytes()), 3) > 0) {
+								succeededNum.incrementAndGet();
+							}
+						}
+					}
+					catch(InterruptedException _) {
+						// swallow
+					}
+					finally {
+						endLatch.countDown();
+					}
+				}
+			}).start();
+		}
+		
+		startLatch.countDown();
+		endLatch.await();
+		Assert.assertEquals(3, succeededNum.get());
+		Assert.assertEquals(3, tscb.approximateCount(new Key("jxq".getBytes())));
+	}
+	
+	@Test
+	public void concurrentAddTest() throws InterruptedException {
+		final ThreadSafeCBloomFilter tscb  = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, 
+				DEFAULT_HASH_TYPE, HashFunction.CHAINED_HASHING, 16, BucketStorage.HEAP_STORAGE);
+		final int threadNum = 8;
+		final int addTimes = 5000;
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch endLatch = new CountDownLatch(threadNum);
+		for(int i = 0; i < threadNum; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						startLatch.await();
+						for(int j = 0; j < addTimes; j++) {
+							tscb.add(new Key("jxq".getBytes()));
+						}
+					}
+					catch(InterruptedException _) {
+						// swallow
+					}
+					finally {
+						endLatch.countDown();
+					}
+				}
+			}).start();
+		}
+		
+		startLatch.countDown();
+		endLatch.await();
+		// 冲突时一直重试，不会丢失计数
+		Assert.assertEquals(threadNum * addTimes, tscb.approximateCount(new Key("jxq".getBytes())));
+		Assert.assertTrue(tscb.getContentionCount() >= 0);
+	}
+	
+	@Test
+	public void doubleHashingTest() throws IOException {
+		ThreadSafeCBloomFilter tscb  = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, 
+				DEFAULT_HASH_TYPE, HashFunction.DOUBLE_HASHING);
+		tscb.add(new Key("jxq".getBytes()));
+		tscb.add(new Key("jxq".getBytes()));
+		Assert.assertEquals(2, tscb.approximateCount(new Key("jxq".getBytes())));
+		Assert.assertEquals(0, tscb.approximateCount(new Key("will".getBytes())));
+		
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		tscb.write(new DataOutputStream(bos));
+		ThreadSafeCBloomFilter restored = new ThreadSafeCBloomFilter();
+		restored.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+		Assert.assertEquals(HashFunction.DOUBLE_HASHING, restored.getHashStrategy());
+		Assert.assertEquals(2, restored.approximateCount(new Key("jxq".getBytes())));
+	}
+	
+	@Test
+	public void chainedHashingKeepsOldFormatTest() throws IOException {
+		ThreadSafeCBloomFilter tscb  = 
+				new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		tscb.add(new Key("jxq".getBytes()));
+		
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		tscb.write(new DataOutputStream(bos));
+		Assert.assertEquals(BucketsUtil.vectorSizeToBucketNum(VECTOR_SIZE) * 8 + 13, bos.size());
+		
+		ThreadSafeCBloomFilter restored = new ThreadSafeCBloomFilter();
+		restored.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+		Assert.assertEquals(HashFunction.CHAINED_HASHING, restored.getHashStrategy());
+		Assert.assertEquals(1, restored.approximateCount(new Key("jxq".getBytes())));
+	}
+	
+	@Test
+	public void charSequenceKeyTest() throws IOException {
+		ThreadSafeCBloomFilter tscb  = 
+				new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		String[] keyWords = new String[] { "jxq", "toupiao:1:1001", "投票", "\uD83D\uDE00", "\uD800x" };
+		for(String keyWord: keyWords) {
+			Assert.assertEquals(1, tscb.addIfBelow(keyWord, 3));
+			Assert.assertEquals(2, tscb.addIfBelow(new StringBuilder(keyWord), 3));
+			Assert.assertEquals(2, tscb.approximateCount(new Key(keyWord.getBytes("UTF-8"))));
+			Assert.assertEquals(2, tscb.approximateCount(keyWord));
+		}
+	}
+
+	@Test
+	public void offHeapStorageTest() throws IOException {
+		ThreadSafeCBloomFilter tscb  = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, 
+				DEFAULT_HASH_TYPE, HashFunction.CHAINED_HASHING, BucketStorage.OFF_HEAP_STORAGE);
+		Assert.assertEquals(1, tscb.addIfBelow("jxq", 3));
+		Assert.assertEquals(2, tscb.addIfBelow("jxq", 3));
+		Assert.assertEquals(0, tscb.approximateCount("will"));
+		
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		tscb.write(new DataOutputStream(bos));
+		tscb.clear();
+		
+		ThreadSafeCBloomFilter restored = new ThreadSafeCBloomFilter(BucketStorage.OFF_HEAP_STORAGE);
+		restored.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+		Assert.assertEquals(2, restored.approximateCount("jxq"));
+		restored.clear();
+		
+		BucketStorage storage = BucketStorage.newInstance(BucketStorage.OFF_HEAP_STORAGE, 16);
+		Assert.assertTrue(storage.compareAndSet(15, 0, 7));
+		Assert.assertEquals(7, storage.get(15));
+		storage.release();
+		storage.release();
+		try {
+			storage.get(15);
+			Assert.fail("released storage should not be accessible");
+		}
+		catch(IllegalStateException _) {
+			// expected
+		}
+	}
+
+	@Test
+	public void mappedStorageTest() throws IOException {
+		File file = File.createTempFile("tscbf", ".dat");
+		file.deleteOnExit();
+		int sizeInWords = BucketsUtil.vectorSizeToBucketNum(VECTOR_SIZE);
+		MappedBucketStorage storage = MappedBucketStorage.map(file, 64, sizeInWords);
+		ThreadSafeCBloomFilter tscb  = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, 
+				DEFAULT_HASH_TYPE, HashFunction.CHAINED_HASHING, storage);
+		Assert.assertEquals(1, tscb.addIfBelow("jxq", 3));
+		Assert.assertEquals(2, tscb.addIfBelow("jxq", 3));
+		tscb.force();
+		
+		// 映射区域的内容与序列化后的计数器部分完全一致
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		tscb.write(new DataOutputStream(bos));
+		byte[] serialized = bos.toByteArray();
+		byte[] mapped = new byte[sizeInWords * 8];
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		raf.seek(64);
+		raf.readFully(mapped);
+		raf.close();
+		Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(serialized, 13, serialized.length), mapped));
+		
+		ByteArrayOutputStream headerBos = new ByteArrayOutputStream();
+		tscb.writeHeader(new DataOutputStream(headerBos));
+		tscb.clear();
+		
+		ThreadSafeCBloomFilter remapped = new ThreadSafeCBloomFilter(BucketStorage.MAPPED_STORAGE);
+		remapped.readHeader(new DataInputStream(new ByteArrayInputStream(headerBos.toByteArray())), 
+				MappedBucketStorage.map(file, 64, sizeInWords));
+		Assert.assertEquals(2, remapped.approximateCount("jxq"));
+		Assert.assertEquals(3, remapped.addIfBelow("jxq", 3));
+		remapped.clear();
+	}
+
+	@Test
+	public void dirtyPagesTest() throws IOException {
+		File file = File.createTempFile("tscbf", ".dat");
+		file.deleteOnExit();
+		ThreadSafeCBloomFilter tscb  = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		tscb.add(new Key("jxq".getBytes()));
+		tscb.clearDirtyPages();
+		DataOutputStream dos = new DataOutputStream(new FileOutputStream(file));
+		tscb.write(dos);
+		dos.close();
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		Assert.assertEquals(0, tscb.writeDirtyPages(raf, 0));   // 没有修改过的页
+		tscb.add(new Key("will".getBytes()));
+		int writtenPages = tscb.writeDirtyPages(raf, 0);
+		Assert.assertTrue(writtenPages > 0 && writtenPages <= DEFAULT_HASH_NUM);
+		Assert.assertEquals(0, tscb.writeDirtyPages(raf, 0));
+		byte[] updated = new byte[(int) raf.length()];
+		raf.seek(0);
+		raf.readFully(updated);
+		raf.close();
+		
+		// 只写入脏页后的文件与完整序列化的结果一致
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		tscb.write(new DataOutputStream(bos));
+		Assert.assertTrue(Arrays.equals(bos.toByteArray(), updated));
+	}
+
+	@Test
+	public void dirtyPagesSnapshotTest() throws IOException {
+		// beforeSnapshot()中的插入在快照之内，它的页必须在这一次写入
+		File file = File.createTempFile("tscbf", ".dat");
+		file.deleteOnExit();
+		final ThreadSafeCBloomFilter tscb  = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		tscb.clearDirtyPages();
+		DataOutputStream dos = new DataOutputStream(new FileOutputStream(file));
+		tscb.write(dos);
+		dos.close();
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		int writtenPages = tscb.writeDirtyPages(raf, 0, new SnapshotListener() {
+			@Override
+			public void beforeSnapshot() {
+				Assert.assertEquals(1, tscb.addIfBelow("user:42", 3));
+			}
+			
+			@Override
+			public void onSnapshot() {
+			}
+		});
+		Assert.assertTrue(writtenPages > 0);
+		Assert.assertEquals(0, tscb.writeDirtyPages(raf, 0));
+		raf.close();
+		
+		ThreadSafeCBloomFilter restored = new ThreadSafeCBloomFilter();
+		DataInputStream dis = new DataInputStream(new FileInputStream(file));
+		restored.readFields(dis);
+		dis.close();
+		Assert.assertEquals(1, restored.approximateCount("user:42"));
+	}
+
+	@Test
+	public void channelTest() throws IOException {
+		// 16位计数器，计数器部分跨多个1MB的缓冲区
+		ThreadSafeCBloomFilter tscb  = new ThreadSafeCBloomFilter(VECTOR_SIZE * 4, DEFAULT_HASH_NUM, 
+				DEFAULT_HASH_TYPE, HashFunction.CHAINED_HASHING, 16, BucketStorage.HEAP_STORAGE);
+		for(int i = 0; i < 10000; i++) {
+			tscb.add(new Key(("user:" + i).getBytes()));
+		}
+		
+		// writeTo与write写出的字节相同
+		ByteArrayOutputStream streamBos = new ByteArrayOutputStream();
+		tscb.write(new DataOutputStream(streamBos));
+		ByteArrayOutputStream channelBos = new ByteArrayOutputStream();
+		tscb.writeTo(Channels.newChannel(channelBos));
+		byte[] serialized = streamBos.toByteArray();
+		Assert.assertTrue(Arrays.equals(serialized, channelBos.toByteArray()));
+		
+		// readFrom只读走自己的字节
+		byte[] twice = Arrays.copyOf(serialized, serialized.length * 2);
+		System.arraycopy(serialized, 0, twice, serialized.length, serialized.length);
+		ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(twice));
+		for(int i = 0; i < 2; i++) {
+			ThreadSafeCBloomFilter restored = new ThreadSafeCBloomFilter(BucketStorage.OFF_HEAP_STORAGE);
+			restored.readFrom(channel);
+			Assert.assertEquals(16, restored.getBucketBits());
+			Assert.assertEquals(1, restored.approximateCount(new Key("user:1".getBytes())));
+			ByteArrayOutputStream restoredBos = new ByteArrayOutputStream();
+			restored.write(new DataOutputStream(restoredBos));
+			Assert.assertTrue(Arrays.equals(serialized, restoredBos.toByteArray()));
+			restored.clear();
+		}
+	}
+
+	@Test
+	public void snapshotTest() throws Exception {
+		// 只插入一个key，它的每个计数器都是插入次数的固定倍数（哈希位置重复时大于1倍），
+		// 快照只包含某次插入的一部分时倍数关系不成立
+		final ThreadSafeCBloomFilter tscb  = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, 
+				DEFAULT_HASH_TYPE, HashFunction.CHAINED_HASHING, 16, BucketStorage.HEAP_STORAGE);
+		final Key key = new Key("jxq".getBytes());
+		ThreadSafeCBloomFilter once  = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, 
+				DEFAULT_HASH_TYPE, HashFunction.CHAINED_HASHING, 16, BucketStorage.HEAP_STORAGE);
+		once.add(key);
+		int[] multiples = snapshotBuckets(once);
+		
+		final int threadNum = 4;
+		final int addTimes = 10000;
+		final CountDownLatch endLatch = new CountDownLatch(threadNum);
+		for(int i = 0; i < threadNum; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int j = 0; j < addTimes; j++) {
+						tscb.add(key);
+					}
+					endLatch.countDown();
+				}
+			}).start();
+		}
+		
+		int snapshotNum = 0;
+		do {
+			int[] buckets = snapshotBuckets(tscb);
+			int count = -1;
+			for(int i = 0; i < multiples.length; i++) {
+				if(multiples[i] == 0) {
+					continue;
+				}
+				if(count < 0) {
+					count = buckets[i] / multiples[i];
+				}
+				Assert.assertEquals(multiples[i] * count, buckets[i]);
+			}
+			snapshotNum++;
+		} while(endLatch.getCount() > 0);
+		endLatch.await();
+		Assert.assertTrue(snapshotNum > 0);
+		Assert.assertEquals(threadNum * addTimes, tscb.approximateCount(key));
+	}
+	
+	@Test
+	public void setOperationSnapshotTest() throws Exception {
+		// or()和and()各作为一次更新：反复并入once再与空的Filter求与，快照要么是空的，要么与once完全相同
+		final ThreadSafeCBloomFilter tscb = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, 
+				DEFAULT_HASH_TYPE, HashFunction.CHAINED_HASHING, 16, BucketStorage.HEAP_STORAGE);
+		final ThreadSafeCBloomFilter once = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, 
+				DEFAULT_HASH_TYPE, HashFunction.CHAINED_HASHING, 16, BucketStorage.HEAP_STORAGE);
+		final ThreadSafeCBloomFilter empty = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, 
+				DEFAULT_HASH_TYPE, HashFunction.CHAINED_HASHING, 16, BucketStorage.HEAP_STORAGE);
+		for(int i = 0; i < 10000; i++) {
+			once.add(new Key(Integer.toString(i).getBytes()));
+		}
+		byte[] onceBytes = snapshot(once);
+		byte[] emptyBytes = snapshot(empty);
+		
+		final CountDownLatch endLatch = new CountDownLatch(1);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for(int i = 0; i < 200; i++) {
+					tscb.or(once);
+					tscb.and(empty);
+				}
+				endLatch.countDown();
+			}
+		}).start();
+		
+		int snapshotNum = 0;
+		do {
+			byte[] bytes = snapshot(tscb);
+			Assert.assertTrue(Arrays.equals(emptyBytes, bytes) || Arrays.equals(onceBytes, bytes));
+			snapshotNum++;
+		} while(endLatch.getCount() > 0);
+		Assert.assertTrue(snapshotNum > 0);
+		Assert.assertTrue(Arrays.equals(emptyBytes, snapshot(tscb)));
+	}
+	
+	private static byte[] snapshot(CountingFilter cbf) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		cbf.writeTo(Channels.newChannel(bos));
+		return bos.toByteArray();
+	}
+	
+	/** 16位计数器的值，取自writeTo写出的快照 */
+	private static int[] snapshotBuckets(ThreadSafeCBloomFilter tscb) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		tscb.writeTo(Channels.newChannel(bos));
+		int sizeInWords = ThreadSafeCBloomFilter.getSizeInWords(tscb.getVectorSize(), 16);
+		byte[] serialized = bos.toByteArray();
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(serialized, 
+				serialized.length - sizeInWords * 8, sizeInWords * 8));
+		int[] buckets = new int[sizeInWords * 4];
+		for(int i = 0; i < sizeInWords; i++) {
+			long word = in.readLong();
+			for(int j = 0; j < 4; j++) {
+				buckets[i * 4 + j] = (int) ((word >>> (j * 16)) & 0xffff);
+			}
+		}
+		return buckets;
+	}
+
+	@Test
+	public void bucketBitsTest() throws IOException {
+		int[] bucketBitsArray = new int[] { 2, 8, 16 };
+		for(int bucketBits: bucketBitsArray) {
+			ThreadSafeCBloomFilter tscb  = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, 
+					DEFAULT_HASH_TYPE, HashFunction.CHAINED_HASHING, bucketBits, BucketStorage.HEAP_STORAGE);
+			int maxValue = (1 << bucketBits) - 1;
+			Assert.assertEquals(maxValue, tscb.getBucketMaxValue());
+			Assert.assertEquals(bucketBits, ThreadSafeCBloomFilter.getNarrowestBucketBits(maxValue));
+			for(int i = 0; i < maxValue + 2; i++) {
+				tscb.add(new Key("jxq".getBytes()));
+			}
+			Assert.assertEquals(maxValue, tscb.approximateCount(new Key("jxq".getBytes())));
+			Assert.assertEquals(-1, tscb.addIfBelow("jxq", maxValue));
+			Assert.assertEquals(1, tscb.addIfBelow("will", maxValue));
+			Assert.assertEquals(0, tscb.approximateCount("toupiao"));
+			
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			tscb.write(new DataOutputStream(bos));
+			Assert.assertEquals(ThreadSafeCBloomFilter.getSizeInWords(VECTOR_SIZE, bucketBits) * 8 + 15, bos.size());
+			
+			ThreadSafeCBloomFilter restored = new ThreadSafeCBloomFilter();
+			restored.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+			Assert.assertEquals(bucketBits, restored.getBucketBits());
+			Assert.assertEquals(maxValue, restored.approximateCount("jxq"));
+			Assert.assertEquals(1, restored.approximateCount("will"));
+		}
+		
+		Assert.assertEquals(ThreadSafeCBloomFilter.DEFAULT_BUCKET_BITS, ThreadSafeCBloomFilter.getNarrowestBucketBits(15));
+		try {
+			ThreadSafeCBloomFilter.getNarrowestBucketBits(65536);
+			Assert.fail();
+		}
+		catch(IllegalArgumentException _) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void batchTest() {
+		ThreadSafeCBloomFilter batched = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		ThreadSafeCBloomFilter sequential = new ThreadSafeCBloomFilter(VECTOR_SIZE, DEFAULT_HASH_NUM, DEFAULT_HASH_TYPE);
+		Key[] keys = new Key[5000];
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = new Key(("user:" + (i % 1000)).getBytes());   // 每个key重复5次
+		}
+		
+		batched.batchAdd(keys);
+		for(Key key: keys) {
+			sequential.add(key);
+		}
+		
+		int[] counts = batched.batchApproximateCount(keys);
+		Assert.assertEquals(keys.length, counts.length);
+		for(int i = 0; i < keys.length; i++) {
+			Assert.assertEquals(sequential.approximateCount(keys[i]), counts[i]);
+			Assert.assertEquals(batched.approximateCount(keys[i]), counts[i]);
+		}
+		Assert.assertEquals(5, counts[0]);
+		
+		CharSequence[] keyWords = new CharSequence[] { "jxq", new StringBuilder("jxq"), "will" };
+		batched.batchAdd(keyWords);
+		Assert.assertTrue(java.util.Arrays.equals(new int[] { 2, 2, 1 }, batched.batchApproximateCount(keyWords)));
+	}
+	
+	@Test
+	public void counterStatsTest() {
+		java.util.Random random = new java.util.Random(0);
+		for(int bucketBits = 2; bucketBits <= ThreadSafeCBloomFilter.MAX_BUCKET_BITS; bucketBits <<= 1) {
+			int bucketsPerWord = 64 / bucketBits;
+			BucketStorage storage = BucketStorage.newInstance(BucketStorage.HEAP_STORAGE, 1000);
+			long[] histogram = new long[Math.min((1 << bucketBits) - 1, 255) + 1];
+			for(int i = 0; i < storage.length(); i++) {
+				long word = 0;
+				for(int j = 0; j < bucketsPerWord; j++) {   // 一半的计数器为0，其余取随机值
+					long value = random.nextBoolean() ? 0 : random.nextInt(1 << bucketBits);
+					word |= value << (j * bucketBits);
+					histogram[(int) Math.min(value, histogram.length - 1)]++;
+				}
+				storage.set(i, word);
+			}
+			
+			CounterStats stats = CounterStats.scan(storage, bucketBits, storage.length() * bucketsPerWord, 4);
+			Assert.assertTrue(Arrays.equals(histogram, stats.getHistogram()));
+			Assert.assertEquals(storage.length() * bucketsPerWord - histogram[0], stats.getNonZeroCount());
+			storage.release();
+		}
+		
+		ThreadSafeCBloomFilter tscb = new ThreadSafeCBloomFilter(VECTOR_SIZE, 7, DEFAULT_HASH_TYPE);
+		Assert.assertEquals(0, tscb.getCounterStats().getNonZeroCount());
+		int keyNum = 100000;
+		for(int i = 0; i < keyNum; i++) {
+			tscb.add(new Key(("user:" + i).getBytes()));
+		}
+		CounterStats stats = tscb.getCounterStats();
+		Assert.assertEquals(VECTOR_SIZE, stats.getVectorSize());
+		Assert.assertEquals(stats.getNonZeroCount(), stats.getCountAtLeast(1));
+		Assert.assertTrue(Math.abs(stats.getEstimatedCardinality() - keyNum) < keyNum * 0.02);
+		
+		int falsePositives = 0;
+		for(int i = 0; i < keyNum; i++) {
+			if(tscb.membershipTest(new Key(("other:" + i).getBytes()))) {
+				falsePositives++;
+			}
+		}
+		double falsePositiveRate = (double) falsePositives / keyNum;
+		Assert.assertTrue(Math.abs(stats.getFalsePositiveRate() - falsePositiveRate) < stats.getFalsePositiveRate() * 0.2);
+		Assert.assertEquals(stats.getFalsePositiveRate(), stats.getOvercountRate(1), 1e-12);
+		Assert.assertTrue(stats.getOvercountRate(2) < stats.getOvercountRate(1));
+	}
+}
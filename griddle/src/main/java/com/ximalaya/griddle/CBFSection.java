@@ -1,94 +1,325 @@
-package com.ximalaya.griddle;
-
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import com.ximalaya.bloomfilterext.bloom.Key;
-import com.ximalaya.bloomfilterext.bloom.ThreadSafeCBloomFilter;
-
-/**
- * CBF数据区封装类
- * @author will
- *
- */
-public class CBFSection {
-	
-	private ThreadSafeCBloomFilter cbf;
-	
-	/*
-	 * 只有useCount为0并且canGC为true时才可以回收内存
-	 */
-	private AtomicInteger useCount = new AtomicInteger(0);     // 当前正在使用cbf的计数
-	private AtomicBoolean canGC = new AtomicBoolean(false);   // 标记是否GC候选，默认为false
-
-	public CBFSection(ThreadSafeCBloomFilter cbf) {
-		if(cbf == null) {
-			throw new IllegalArgumentException("cbf should not be null");
-		}
-		
-		this.cbf = cbf;   
-	}
-	
-	/**
-	 * 获取cbf
-	 * @return
-	 */
-	public ThreadSafeCBloomFilter getCBF() {
-		return cbf;
-	}
-	
-	/**
-	 * 用户使用计数加1
-	 */
-	public void increaseUseCount() {
-		useCount.incrementAndGet();
-	}
-	
-	/**
-	 * 用户使用计数减1
-	 */
-	public void decreaseUseCount() {
-		useCount.decrementAndGet();
-	}
-	
-	/**
-	 * 获取用户使用计数
-	 * @return
-	 */
-	public int getUseCount() {
-		return useCount.get();
-	}
-	
-	/**
-	 * 设置canGC标记为true，使得在useCount为0时可以清理CBF
-	 */
-	public void markToEnableCanGC() {
-		canGC.set(true);
-	}
-	
-	/**
-	 * 是否可以GC，必须配合useCount一起判断后才能决定是否清理CBF
-	 * @return
-	 */
-	public boolean canGC() {
-		return canGC.get();
-	}
-	
-	/**
-	 * 获取已插入次数
-	 * @param key
-	 * @return
-	 */
-	public int getInsertedCount(Key key) {
-		return cbf.approximateCount(key);
-	}
-	
-	/**
-	 * 往cbf中插入Key
-	 * @param key
-	 */
-	public void insertKey(Key key) {
-		this.cbf.add(key);
-	}
-	
-}
+package com.ximalaya.griddle;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ximalaya.bloomfilterext.bloom.BlockedCountingBloomFilter;
+import com.ximalaya.bloomfilterext.bloom.BucketStorage;
+import com.ximalaya.bloomfilterext.bloom.CountingFilter;
+import com.ximalaya.bloomfilterext.bloom.Key;
+import com.ximalaya.bloomfilterext.bloom.ShardedCountingFilter;
+import com.ximalaya.bloomfilterext.bloom.ThreadSafeCBloomFilter;
+
+/**
+ * CBF数据区封装类
+ * @author will
+ *
+ */
+public class CBFSection {
+	
+	/*
+	 * CBF实现类型
+	 */
+	public static final int THREAD_SAFE_CBF = 0;   // ThreadSafeCBloomFilter，k个计数器分散在整个数组中
+	public static final int BLOCKED_CBF = 1;       // BlockedCountingBloomFilter，k个计数器落在同一个64字节块内
+	public static final int SHARDED_CBF = 2;       // ShardedCountingFilter，key按哈希路由到多个独立的ThreadSafeCBloomFilter分片
+	
+	private CountingFilter cbf;
+	
+	/*
+	 * 只有useCount为0并且canGC为true时才可以回收内存，回收后useCount置为RECYCLED，不能再使用。
+	 * useCount为0时也可以换出（内存不足时释放冷的Griddle，计数器已在Dump文件中），换出后useCount置为EVICTED，同样不能再使用
+	 */
+	private static final int RECYCLED = -1;
+	private static final int EVICTED = -2;
+	private AtomicInteger useCount = new AtomicInteger(0);     // 当前正在使用cbf的计数
+	private AtomicBoolean canGC = new AtomicBoolean(false);   // 标记是否GC候选，默认为false
+
+	public CBFSection(CountingFilter cbf) {
+		if(cbf == null) {
+			throw new IllegalArgumentException("cbf should not be null");
+		}
+		
+		this.cbf = cbf;   
+	}
+	
+	/**
+	 * 获取cbf
+	 * @return
+	 */
+	public CountingFilter getCBF() {
+		return cbf;
+	}
+	
+	/**
+	 * 按类型创建CBF
+	 * @param cbfType THREAD_SAFE_CBF、BLOCKED_CBF或SHARDED_CBF
+	 * @param vectorSize
+	 * @param hashNum
+	 * @param hashType
+	 * @param hashStrategy 对BLOCKED_CBF无效，它固定在块内取哈希位置
+	 * @param storageType 计数器存储位置，见BucketStorage
+	 * @param bucketBits 计数器位宽，BLOCKED_CBF只支持4位
+	 * @param shardNum 分片数，只对SHARDED_CBF有效
+	 * @return
+	 */
+	public static CountingFilter newCBF(int cbfType, int vectorSize, int hashNum, int hashType, int hashStrategy, 
+			int storageType, int bucketBits, int shardNum) {
+		switch(cbfType) {
+		case THREAD_SAFE_CBF:
+			return new ThreadSafeCBloomFilter(vectorSize, hashNum, hashType, hashStrategy, bucketBits, storageType);
+		case BLOCKED_CBF:
+			checkBlockedBucketBits(bucketBits);
+			return new BlockedCountingBloomFilter(vectorSize, hashNum, hashType, storageType);
+		case SHARDED_CBF:
+			return new ShardedCountingFilter(vectorSize, hashNum, hashType, hashStrategy, bucketBits, shardNum, 
+					storageType);
+		default:
+			throw new IllegalArgumentException("unknown cbfType: " + cbfType);
+		}
+	}
+	
+	/**
+	 * 按类型创建使用指定存储（比如MappedBucketStorage）的CBF，SHARDED_CBF不支持
+	 * @param cbfType THREAD_SAFE_CBF或BLOCKED_CBF
+	 * @param vectorSize
+	 * @param hashNum
+	 * @param hashType
+	 * @param hashStrategy 只对THREAD_SAFE_CBF有效
+	 * @param bucketBits 计数器位宽，BLOCKED_CBF只支持4位
+	 * @param storage 长度必须与vectorSize及bucketBits一致
+	 * @return
+	 */
+	public static CountingFilter newCBF(int cbfType, int vectorSize, int hashNum, int hashType, int hashStrategy, 
+			int bucketBits, BucketStorage storage) {
+		switch(cbfType) {
+		case THREAD_SAFE_CBF:
+			return new ThreadSafeCBloomFilter(vectorSize, hashNum, hashType, hashStrategy, bucketBits, storage);
+		case BLOCKED_CBF:
+			checkBlockedBucketBits(bucketBits);
+			return new BlockedCountingBloomFilter(vectorSize, hashNum, hashType, storage);
+		case SHARDED_CBF:
+			throw new IllegalArgumentException("SHARDED_CBF does not support a single storage");
+		default:
+			throw new IllegalArgumentException("unknown cbfType: " + cbfType);
+		}
+	}
+	
+	/**
+	 * 按类型创建用于反序列化的空CBF
+	 * @param cbfType
+	 * @param storageType
+	 * @return
+	 */
+	public static CountingFilter newEmptyCBF(int cbfType, int storageType) {
+		switch(cbfType) {
+		case THREAD_SAFE_CBF:
+			return new ThreadSafeCBloomFilter(storageType);
+		case BLOCKED_CBF:
+			return new BlockedCountingBloomFilter(storageType);
+		case SHARDED_CBF:
+			return new ShardedCountingFilter(storageType);
+		default:
+			throw new IllegalArgumentException("unknown cbfType: " + cbfType);
+		}
+	}
+	
+	/**
+	 * 获取能容纳maxRepeatInsertCount的最窄计数器位宽
+	 * @param cbfType
+	 * @param maxRepeatInsertCount
+	 * @return THREAD_SAFE_CBF和SHARDED_CBF为2/4/8/16，BLOCKED_CBF固定为4
+	 */
+	public static int getNarrowestBucketBits(int cbfType, int maxRepeatInsertCount) {
+		switch(cbfType) {
+		case THREAD_SAFE_CBF:
+		case SHARDED_CBF:
+			return ThreadSafeCBloomFilter.getNarrowestBucketBits(maxRepeatInsertCount);
+		case BLOCKED_CBF:
+			if(maxRepeatInsertCount > (1 << BlockedCountingBloomFilter.BUCKET_BITS) - 1) {
+				throw new IllegalArgumentException("maxRepeatInsertCount of BLOCKED_CBF should <= " 
+						+ ((1 << BlockedCountingBloomFilter.BUCKET_BITS) - 1) + ": " + maxRepeatInsertCount);
+			}
+			return BlockedCountingBloomFilter.BUCKET_BITS;
+		default:
+			throw new IllegalArgumentException("unknown cbfType: " + cbfType);
+		}
+	}
+	
+	private static void checkBlockedBucketBits(int bucketBits) {
+		if(bucketBits != BlockedCountingBloomFilter.BUCKET_BITS) {
+			throw new IllegalArgumentException("BLOCKED_CBF only supports " + BlockedCountingBloomFilter.BUCKET_BITS 
+					+ " bit buckets: " + bucketBits);
+		}
+	}
+	
+	/**
+	 * 用户使用计数加1，如果已被回收或换出则返回false，此时不能再使用cbf
+	 * @return
+	 */
+	public boolean tryIncreaseUseCount() {
+		while(true) {
+			int curUseCount = useCount.get();
+			if(curUseCount < 0) {   // RECYCLED或EVICTED
+				return false;
+			}
+			
+			if(useCount.compareAndSet(curUseCount, curUseCount + 1)) {
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * 用户使用计数减1
+	 */
+	public void decreaseUseCount() {
+		useCount.decrementAndGet();
+	}
+	
+	/**
+	 * 获取用户使用计数，已回收时返回-1，已换出时返回-2
+	 * @return
+	 */
+	public int getUseCount() {
+		return useCount.get();
+	}
+	
+	/**
+	 * 在canGC为true且useCount为0时回收cbf占用的内存（堆外内存会被立即释放），之后tryIncreaseUseCount总是返回false
+	 * @return 回收后（包括之前已回收）返回true，否则返回false
+	 */
+	public boolean recycle() {
+		if(useCount.get() == RECYCLED) {
+			return true;
+		}
+		
+		if(canGC() && useCount.compareAndSet(0, RECYCLED)) {
+			cbf.clear();
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * 是否已回收
+	 * @return
+	 */
+	public boolean hasRecycled() {
+		return useCount.get() == RECYCLED;
+	}
+	
+	/**
+	 * 没有用户使用时标记为已换出，之后tryIncreaseUseCount总是返回false，内存由调用方在确认可以换出后释放
+	 * @return 是否标记成功
+	 */
+	boolean tryEvict() {
+		return useCount.compareAndSet(0, EVICTED);
+	}
+	
+	/**
+	 * 撤销tryEvict()，cbf还没有释放时才可以调用
+	 */
+	void cancelEvict() {
+		useCount.compareAndSet(EVICTED, 0);
+	}
+	
+	/**
+	 * 是否已换出
+	 * @return
+	 */
+	public boolean hasEvicted() {
+		return useCount.get() == EVICTED;
+	}
+	
+	/**
+	 * 设置canGC标记为true，使得在useCount为0时可以清理CBF
+	 */
+	public void markToEnableCanGC() {
+		canGC.set(true);
+	}
+	
+	/**
+	 * 是否可以GC，必须配合useCount一起判断后才能决定是否清理CBF
+	 * @return
+	 */
+	public boolean canGC() {
+		return canGC.get();
+	}
+	
+	/**
+	 * 获取已插入次数
+	 * @param key
+	 * @return
+	 */
+	public int getInsertedCount(Key key) {
+		return cbf.approximateCount(key);
+	}
+	
+	/**
+	 * 获取关键词（按UTF-8编码）已插入次数，不创建任何对象
+	 * @param keyWord
+	 * @return
+	 */
+	public int getInsertedCount(CharSequence keyWord) {
+		return cbf.approximateCount(keyWord);
+	}
+	
+	/**
+	 * 批量获取关键词（按UTF-8编码）已插入次数，先算出所有关键词的哈希值再按内存顺序读取计数器
+	 * @param keyWords
+	 * @return 与keyWords一一对应的已插入次数
+	 */
+	public int[] getInsertedCounts(CharSequence[] keyWords) {
+		return cbf.batchApproximateCount(keyWords);
+	}
+	
+	/**
+	 * 往cbf中插入Key
+	 * @param key
+	 */
+	public void insertKey(Key key) {
+		this.cbf.add(key);
+	}
+	
+	/**
+	 * 只有在已插入次数小于maxInsertCount时才往cbf中插入Key，判断和插入只做一次哈希运算，
+	 * 并且同一个Key的并发插入不会超过maxInsertCount次
+	 * @param key
+	 * @param maxInsertCount
+	 * @return 插入后的已插入次数，如果已达到maxInsertCount则返回-1
+	 */
+	public int insertKeyIfBelow(Key key, int maxInsertCount) {
+		return this.cbf.addIfBelow(key, maxInsertCount);
+	}
+	
+	/**
+	 * 同insertKeyIfBelow(Key, int)，关键词按UTF-8编码，不创建任何对象
+	 * @param keyWord
+	 * @param maxInsertCount
+	 * @return 插入后的已插入次数，如果已达到maxInsertCount则返回-1
+	 */
+	public int insertKeyIfBelow(CharSequence keyWord, int maxInsertCount) {
+		return this.cbf.addIfBelow(keyWord, maxInsertCount);
+	}
+	
+	/**
+	 * 依次对每个关键词调用insertKeyIfBelow(CharSequence, int)，同一批中重复的关键词也按先后顺序计数
+	 * @param keyWords
+	 * @param maxInsertCount
+	 * @return 插入成功的关键词下标
+	 */
+	public BitSet insertKeysIfBelow(CharSequence[] keyWords, int maxInsertCount) {
+		BitSet inserted = new BitSet(keyWords.length);
+		for(int i = 0; i < keyWords.length; i++) {
+			if(this.cbf.addIfBelow(keyWords[i], maxInsertCount) > 0) {
+				inserted.set(i);
+			}
+		}
+		
+		return inserted;
+	}
+	
+}
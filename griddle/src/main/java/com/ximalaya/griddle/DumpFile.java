@@ -0,0 +1,1472 @@
+package com.ximalaya.griddle;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ximalaya.bloomfilterext.bloom.CountingFilter;
+import com.ximalaya.bloomfilterext.bloom.SnapshotListener;
+import com.ximalaya.griddle.util.FileUtil;
+
+/**
+ * 非映射模式下的自描述Dump文件格式，由三部分组成：
+ * <li>文件头：魔数 + 格式版本 + griddleName + maxRepeatInsertCount + cbfType + 计数器位宽 + 创建时间 +
+ * 数据区长度 + 页大小 + 编码 + 持久化级别 + vectorSize + hashNum，最后是以上内容的CRC32。vectorSize和hashNum只有
+ * 创建时单独指定了的Griddle才记录，否则为0，表示沿用全局配置</li>
+ * <li>数据区：cbf.writeTo写入的流格式（CBF头部 + 计数器），与旧格式的整个文件相同。按编码原样写入或分块压缩</li>
+ * <li>校验表：原样写入时为数据区每页（4KB）的CRC32，每页一个int；压缩时为各块压缩后的长度和CRC32，每块两个int</li>
+ * <li>校验日志：只在原样写入的文件只写入脏页的过程中存在，写完后截掉，见writeDirtyPages</li>
+ * 恢复时先并行校验各页（块），校验失败的页（块）只清零其中的计数器并记录日志，其它页照常恢复。
+ * <p>
+ * 压缩编码把数据区按64页（256KB）分块，每块先对全0的8字节字做游程编码：若干组（全0字数 + 非0字数 +
+ * 非0字的内容），字数都是无符号short，不足8字节的结尾原样附在最后；然后用Deflater（BEST_SPEED）压缩。
+ * 各块独立压缩，损坏只影响所在的块。压缩的文件不能只写入脏页，每次Dump都重写整个文件，所以只适合计数器稀疏的Griddle。
+ * <p>
+ * 旧格式的文件以CBF头部的负数版本号开头，不会与魔数混淆
+ * @author will
+ *
+ */
+final class DumpFile {
+
+	private static final int MAGIC = 0x47524444;   // "GRDD"
+	private static final int FORMAT_VERSION = 4;   // 版本1没有编码字段，总是原样写入；版本2没有持久化级别字段；版本3没有vectorSize和hashNum
+
+	static final int RAW_ENCODING = 0;
+	static final int COMPRESSED_ENCODING = 1;
+
+	static final int PAGE_SIZE_IN_BYTE = 4096;
+	private static final int PAGES_PER_BLOCK = 64;            // 压缩编码每块的页数
+
+	private static final int VERIFY_BYTES_PER_TASK = 4 << 20;   // 每个校验任务4MB，小于这个大小的文件在当前线程校验
+	private static final int VERIFY_BYTES_PER_READ = 256 << 10; // 校验时每次读入256KB
+
+	/*
+	 * 所有Griddle共用的校验线程池，空闲60秒后线程退出
+	 */
+	private static final ThreadPoolExecutor VERIFY_EXECUTOR;
+	static {
+		int threadNum = Runtime.getRuntime().availableProcessors();
+		VERIFY_EXECUTOR = new ThreadPoolExecutor(threadNum, threadNum, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable> (), new GriddleManager.DaemonThreadFactory("griddle-verify-"));
+		VERIFY_EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
+	private final String griddleName;
+	private final int maxRepeatInsertCount;
+	private final int cbfType;
+	private final int bucketBits;
+	private final long createTimeMillis;
+	private final long payloadLength;
+	private final int pageSizeInByte;
+	private final int encoding;
+	private final int durability;  // 写入后同步到磁盘的方式，见Griddle.PAGE_CACHE_DURABILITY，版本3以前的文件为-1
+	private final int vectorSize;  // 单独指定的CBF大小，为0时沿用全局配置
+	private final int hashNum;     // 单独指定的哈希次数，为0时沿用全局配置
+	private final byte[] header;   // 序列化后的文件头，包括CRC32
+
+	private int damagedPageCount;     // 读取数据区时校验失败的页数
+	private long nonZeroWordCount = -1;   // 压缩写入或读取数据区时统计的非0字数，-1表示没有统计
+	private long syncNanos;               // 写入后同步到磁盘的耗时
+
+	private static final Logger LOG = LoggerFactory.getLogger(DumpFile.class);
+
+	/**
+	 * @param vectorSize 单独指定的CBF大小，沿用全局配置时为0
+	 * @param hashNum 单独指定的哈希次数，沿用全局配置时为0
+	 */
+	DumpFile(String griddleName, int maxRepeatInsertCount, int cbfType, int bucketBits, long createTimeMillis,
+			long payloadLength, int durability, int vectorSize, int hashNum) {
+		this(griddleName, maxRepeatInsertCount, cbfType, bucketBits, createTimeMillis, payloadLength,
+				PAGE_SIZE_IN_BYTE, RAW_ENCODING, durability, vectorSize, hashNum, FORMAT_VERSION);
+	}
+
+	/**
+	 * @param formatVersion 文件头按这个版本序列化，读取旧版本的文件时文件头长度才与文件中的一致
+	 */
+	private DumpFile(String griddleName, int maxRepeatInsertCount, int cbfType, int bucketBits,
+			long createTimeMillis, long payloadLength, int pageSizeInByte, int encoding, int durability, int vectorSize, 
+			int hashNum, int formatVersion) {
+		this.griddleName = griddleName;
+		this.maxRepeatInsertCount = maxRepeatInsertCount;
+		this.cbfType = cbfType;
+		this.bucketBits = bucketBits;
+		this.createTimeMillis = createTimeMillis;
+		this.payloadLength = payloadLength;
+		this.pageSizeInByte = pageSizeInByte;
+		this.encoding = encoding;
+		this.durability = durability;
+		this.vectorSize = vectorSize;
+		this.hashNum = hashNum;
+		this.header = serializeHeader(formatVersion);
+	}
+
+	private byte[] serializeHeader(int formatVersion) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+		DataOutputStream dos = new DataOutputStream(bos);
+		try {
+			dos.writeInt(MAGIC);
+			dos.writeByte(formatVersion);
+			dos.writeUTF(griddleName);
+			dos.writeInt(maxRepeatInsertCount);
+			dos.writeByte(cbfType);
+			dos.writeByte(bucketBits);
+			dos.writeLong(createTimeMillis);
+			dos.writeLong(payloadLength);
+			dos.writeInt(pageSizeInByte);
+			if(formatVersion > 1) {
+				dos.writeByte(encoding);
+			}
+			if(formatVersion > 2) {
+				dos.writeByte(durability);
+			}
+			if(formatVersion > 3) {
+				dos.writeInt(vectorSize);
+				dos.writeInt(hashNum);
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(bos.toByteArray());
+			dos.writeLong(crc.getValue());
+		}
+		catch(IOException e) {   // ByteArrayOutputStream不会抛出IOException，只有griddleName超过65535字节
+			throw new IllegalArgumentException("griddleName is too long: " + e.getMessage(), e);
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * 读取Dump文件的文件头
+	 * @param file
+	 * @return 旧格式（不带文件头）的文件返回null
+	 * @throws IOException 文件头不完整、CRC32不符或格式版本不支持
+	 */
+	static DumpFile readHeader(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return readHeader(new FilePositionalChannel(raf.getChannel()));
+		}
+		finally {
+			FileUtil.closeQuietly(raf, file.getPath());
+		}
+	}
+
+	/**
+	 * 同readHeader(File)，从channel的位置0读取，比如打包文件中的一个区段
+	 * @param channel
+	 * @return
+	 * @throws IOException
+	 */
+	static DumpFile readHeader(PositionalChannel channel) throws IOException {
+		CRC32 crc = new CRC32();
+		DataInputStream dis = new DataInputStream(new CheckedInputStream(
+				new BufferedInputStream(new PositionalInputStream(channel)), crc));
+		if(channel.size() < 4 || dis.readInt() != MAGIC) {
+			return null;
+		}
+		int formatVersion = dis.readByte();
+		if(formatVersion < 1 || formatVersion > FORMAT_VERSION) {
+			throw new IOException("unsupported dump file format version: " + formatVersion);
+		}
+		String griddleName = dis.readUTF();
+		int maxRepeatInsertCount = dis.readInt();
+		int cbfType = dis.readByte();
+		int bucketBits = dis.readByte();
+		long createTimeMillis = dis.readLong();
+		long payloadLength = dis.readLong();
+		int pageSizeInByte = dis.readInt();
+		int encoding = formatVersion == 1 ? RAW_ENCODING : dis.readByte();
+		int durability = formatVersion < 3 ? -1 : dis.readByte();
+		int vectorSize = formatVersion < 4 ? 0 : dis.readInt();
+		int hashNum = formatVersion < 4 ? 0 : dis.readInt();
+		long checksum = crc.getValue();
+		if(dis.readLong() != checksum) {
+			throw new IOException("checksum of dump file header mismatches");
+		}
+		if(payloadLength < 0 || pageSizeInByte <= 0 || (encoding != RAW_ENCODING && encoding != COMPRESSED_ENCODING)
+		   || (encoding == COMPRESSED_ENCODING && (long) pageSizeInByte * PAGES_PER_BLOCK > 0xffff * 8)
+		   || durability < -1 || durability > Griddle.FULL_SYNC_DURABILITY
+		   || vectorSize < 0 || hashNum < 0 || (vectorSize == 0) != (hashNum == 0)) {
+			throw new IOException("invalid dump file header, payloadLength: " + payloadLength
+					+ ", pageSizeInByte: " + pageSizeInByte + ", encoding: " + encoding + ", durability: " + durability 
+					+ ", vectorSize: " + vectorSize + ", hashNum: " + hashNum);
+		}
+
+		return new DumpFile(griddleName, maxRepeatInsertCount, cbfType, bucketBits, createTimeMillis,
+				payloadLength, pageSizeInByte, encoding, durability, vectorSize, hashNum, formatVersion);
+	}
+
+	/**
+	 * 按新格式把cbf写入channel（从位置0开始）：先写数据区，同时计算各页的CRC32或分块压缩，然后写校验表，最后写文件头，
+	 * 再按持久化级别把文件同步到磁盘（不包括目录项，由调用方在重命名后同步）
+	 * @param channel
+	 * @param cbf
+	 * @param compress 是否压缩数据区
+	 * @param throttle 数据区的写入按它限速
+	 * @param listener 快照的回调，可以为null
+	 * @param syncDurability 实际采用的持久化级别，文件头中仍记录this的级别
+	 * @return 实际写入的文件头，数据区长度以实际写入的为准
+	 * @throws IOException
+	 */
+	DumpFile writeTo(PositionalChannel channel, CountingFilter cbf, boolean compress, IoThrottle throttle, 
+			SnapshotListener listener, int syncDurability) throws IOException {
+		PayloadWriter writer = compress
+				? new CompressingChannel(channel, header.length, throttle, pageSizeInByte * PAGES_PER_BLOCK)
+				: new ChecksumChannel(channel, header.length, throttle, pageSizeInByte);
+		cbf.writeTo(writer, listener);
+		ByteBuffer checksums = writer.finish();
+
+		DumpFile written = new DumpFile(griddleName, maxRepeatInsertCount, cbfType, bucketBits, createTimeMillis,
+				writer.getWrittenBytes(), pageSizeInByte, compress ? COMPRESSED_ENCODING : RAW_ENCODING, durability, 
+				vectorSize, hashNum, FORMAT_VERSION);
+		written.nonZeroWordCount = writer.getNonZeroWordCount();
+		writeFully(channel, checksums, writer.getPosition());
+		writeFully(channel, ByteBuffer.wrap(written.header), 0);
+		written.syncNanos = sync(channel, syncDurability);
+		return written;
+	}
+
+	/**
+	 * 把cbf的脏页写入已有的原样编码的Dump文件，同时更新这些页的CRC32和文件头（maxRepeatInsertCount可能已修改），
+	 * 然后按持久化级别把文件同步到磁盘，耗时记录在this中。
+	 * <p>
+	 * 写入的页先在内存中攒够一组，每组先在校验表之后追加一段校验日志：组内各页的页号、旧CRC32和新CRC32，
+	 * 持久化级别不低于DATA_SYNC时同步到磁盘，然后才写入这些页和校验表。写完后截掉校验日志。中途崩溃时，
+	 * 恢复时与校验表或校验日志中任一CRC32相符的页都视为完好，所以写了一半的脏页不会被整页清零（写了一部分的页除外）。
+	 * 文件长度不再与原样编码时相同，调用方应在下一次Dump时重写整个文件
+	 * @param file 文件头长度和数据区长度必须与this相同
+	 * @param cbf
+	 * @param throttle 所有写入按它限速
+	 * @param listener 快照的回调，可以为null
+	 * @param syncDurability 实际采用的持久化级别
+	 * @return 写入的脏页数
+	 * @throws IOException
+	 */
+	int writeDirtyPages(File file, CountingFilter cbf, IoThrottle throttle, SnapshotListener listener, 
+			int syncDurability) throws IOException {
+		if(encoding != RAW_ENCODING) {
+			throw new IllegalStateException("dirty pages can only be written to raw dump files");
+		}
+
+		PageTrackingFile raf = new PageTrackingFile(file, this, throttle, syncDurability);
+		try {
+			return writeDirtyPages(raf, cbf, listener);
+		}
+		finally {
+			FileUtil.closeQuietly(raf, file.getPath());
+		}
+	}
+
+	/**
+	 * 同writeDirtyPages(File, ...)，写入raf但不关闭
+	 */
+	int writeDirtyPages(PageTrackingFile raf, CountingFilter cbf, SnapshotListener listener) throws IOException {
+		int writtenPages = cbf.writeDirtyPages(raf, getPayloadOffset(), listener);
+		syncNanos = raf.finish();
+		return writtenPages;
+	}
+
+	/**
+	 * 并行校验数据区各页后把数据区读入cbf，校验失败的页中CBF头部以外的字节按0读入。
+	 * 校验失败的页中的CBF头部从长度相同、所在页校验通过的另一个头部复制，没有这样的头部时无法恢复
+	 * @param file
+	 * @param cbf
+	 * @param headerRanges 数据区中CBF头部所在的区间{from, to}，长度相同的区间内容相同（SHARDED_CBF各分片的头部）
+	 * @throws IOException
+	 */
+	void readPayload(File file, CountingFilter cbf, long[][] headerRanges) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			readPayload(new FilePositionalChannel(raf.getChannel()), cbf, headerRanges);
+		}
+		finally {
+			FileUtil.closeQuietly(raf, file.getPath());
+		}
+	}
+
+	/**
+	 * 同readPayload(File, CountingFilter, long[][])，从channel读取，比如打包文件中的一个区段
+	 */
+	void readPayload(PositionalChannel channel, CountingFilter cbf, long[][] headerRanges) throws IOException {
+		cbf.readFrom(openPayload(channel, headerRanges));
+	}
+
+	/**
+	 * 去掉文件头和校验表，把数据区写入legacyFile，即转换为旧格式（映射模式只能使用旧格式），校验失败的页同样清零
+	 * @param file
+	 * @param legacyFile
+	 * @param headerRanges 同readPayload
+	 * @throws IOException
+	 */
+	void writeLegacyFormat(File file, File legacyFile, long[][] headerRanges) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(legacyFile);
+			ReadableByteChannel payload = openPayload(new FilePositionalChannel(raf.getChannel()), headerRanges);
+			FileChannel out = fos.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			while(payload.read(buffer) > 0) {
+				buffer.flip();
+				while(buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+				buffer.clear();
+			}
+		}
+		finally {
+			FileUtil.closeQuietly(raf, file.getPath());
+			FileUtil.closeQuietly(fos, legacyFile.getPath());
+		}
+	}
+
+	private ReadableByteChannel openPayload(PositionalChannel channel, long[][] headerRanges) throws IOException {
+		Units units = encoding == RAW_ENCODING ? readPageUnits(channel) : readBlockUnits(channel);
+		BitSet damagedUnits = verifyUnits(channel, units);
+		if(!damagedUnits.isEmpty()) {
+			int pagesPerUnit = units.unitSize / pageSizeInByte;
+			int pageCount = getUnitCount(pageSizeInByte);
+			for(int u = damagedUnits.nextSetBit(0); u >= 0; u = damagedUnits.nextSetBit(u + 1)) {
+				damagedPageCount += Math.min(pagesPerUnit, pageCount - u * pagesPerUnit);
+			}
+			LOG.error("{} of {} pages of dump file of griddle [{}] are damaged and restored as 0: {}",
+					new Object[] {damagedPageCount, pageCount, griddleName,
+								  StringUtils.abbreviate(damagedUnits.toString(), 256)});
+		}
+
+		PayloadChannel payload = new PayloadChannel(channel, units, damagedUnits, headerRanges);
+		for(int i = 0; i < headerRanges.length; i++) {
+			if(units.isDamaged(headerRanges[i], damagedUnits)) {
+				payload.headers[i] = readReplicaHeader(payload, headerRanges, i, damagedUnits);
+			}
+		}
+		nonZeroWordCount = 0;   // 由payload统计
+		return payload;
+	}
+
+	/**
+	 * 原样编码：每页是一个校验单元，校验表紧接数据区
+	 */
+	private Units readPageUnits(PositionalChannel channel) throws IOException {
+		int pageCount = getUnitCount(pageSizeInByte);
+		long fileLength = getPayloadOffset() + payloadLength + 4L * pageCount;
+		if(channel.size() < fileLength) {
+			throw new EOFException("dump file size " + channel.size() + " mismatches " + fileLength + " in header");
+		}
+
+		Units units = new Units(pageSizeInByte, pageCount);
+		ByteBuffer checksumBuffer = ByteBuffer.allocate(4 * pageCount);
+		readFully(channel, checksumBuffer, getPayloadOffset() + payloadLength);
+		checksumBuffer.flip();
+		for(int p = 0; p < pageCount; p++) {
+			units.offsets[p] = getPayloadOffset() + (long) p * pageSizeInByte;
+			units.lengths[p] = getUnitLength(p, pageSizeInByte);
+			units.checksums[p] = checksumBuffer.getInt();
+		}
+		if(channel.size() > fileLength) {   // 只写入脏页时中途崩溃，留下了校验日志
+			readChecksumJournal(channel, fileLength, units);
+		}
+		return units;
+	}
+
+	/**
+	 * 读取校验表之后的校验日志，其中的旧CRC32和新CRC32都作为对应页的可接受的CRC32。日志由若干段组成，
+	 * 每段格式为：页数（int） + 每页的页号、旧CRC32和新CRC32（各一个int） + 以上内容的CRC32（int），
+	 * 不完整或CRC32不符的一段及之后的内容被忽略，这一段的页还没有开始写入
+	 */
+	private void readChecksumJournal(PositionalChannel channel, long journalOffset, Units units) throws IOException {
+		long journalLength = channel.size() - journalOffset;
+		if(journalLength > Integer.MAX_VALUE) {
+			throw new IOException("checksum journal of dump file is too large: " + journalLength);
+		}
+		ByteBuffer journal = ByteBuffer.allocate((int) journalLength);
+		readFully(channel, journal, journalOffset);
+		journal.flip();
+
+		int pageCount = units.checksums.length;
+		int entryCount = 0;
+		CRC32 crc = new CRC32();
+		while(journal.remaining() >= 8) {
+			int start = journal.position();
+			int count = journal.getInt();
+			if(count <= 0 || count > (journal.remaining() - 4) / 12) {
+				break;
+			}
+			crc.reset();
+			crc.update(journal.array(), start, 4 + 12 * count);
+			if(journal.getInt(start + 4 + 12 * count) != (int) crc.getValue()) {
+				break;
+			}
+			for(int i = 0; i < count; i++) {
+				int p = journal.getInt();
+				int oldChecksum = journal.getInt();
+				int newChecksum = journal.getInt();
+				if(p >= 0 && p < pageCount) {
+					units.addAlternativeChecksum(p, oldChecksum);
+					units.addAlternativeChecksum(p, newChecksum);
+				}
+			}
+			journal.getInt();
+			entryCount += count;
+		}
+		LOG.warn("dump file of griddle [{}] has an unfinished dirty page write, {} pages are verified against its "
+				+ "checksum journal", griddleName, entryCount);
+	}
+
+	/**
+	 * 压缩编码：每块是一个校验单元，各块的长度和CRC32在文件末尾
+	 */
+	private Units readBlockUnits(PositionalChannel channel) throws IOException {
+		int blockSize = pageSizeInByte * PAGES_PER_BLOCK;
+		int blockCount = getUnitCount(blockSize);
+		long indexOffset = channel.size() - 8L * blockCount;
+		if(indexOffset < getPayloadOffset()) {
+			throw new EOFException("dump file size " + channel.size() + " is too small for " + blockCount + " blocks");
+		}
+
+		Units units = new Units(blockSize, blockCount);
+		ByteBuffer indexBuffer = ByteBuffer.allocate(8 * blockCount);
+		readFully(channel, indexBuffer, indexOffset);
+		indexBuffer.flip();
+		long offset = getPayloadOffset();
+		for(int b = 0; b < blockCount; b++) {
+			units.offsets[b] = offset;
+			units.lengths[b] = indexBuffer.getInt();
+			units.checksums[b] = indexBuffer.getInt();
+			if(units.lengths[b] < 0) {
+				throw new IOException("invalid length " + units.lengths[b] + " of block " + b + " of dump file");
+			}
+			offset += units.lengths[b];
+		}
+		if(offset != indexOffset) {
+			throw new IOException("blocks of dump file end at " + offset + ", index starts at " + indexOffset);
+		}
+		return units;
+	}
+
+	private byte[] readReplicaHeader(PayloadChannel payload, long[][] headerRanges, int index, BitSet damagedUnits)
+			throws IOException {
+		long length = headerRanges[index][1] - headerRanges[index][0];
+		for(long[] range: headerRanges) {
+			if(range[1] - range[0] == length && !payload.units.isDamaged(range, damagedUnits)) {
+				return payload.readRange(range[0], (int) length);
+			}
+		}
+		throw new IOException("cbf header at " + headerRanges[index][0] + " of dump file is damaged");
+	}
+
+	/**
+	 * 校验各单元的CRC32，文件较大时在校验线程池中并行校验
+	 * @return 校验失败的单元
+	 */
+	private BitSet verifyUnits(final PositionalChannel channel, final Units units) throws IOException {
+		int unitCount = units.offsets.length;
+		if(unitCount == 0 || units.getBytes(0, unitCount) <= VERIFY_BYTES_PER_TASK) {
+			return verifyUnits(channel, units, 0, unitCount);
+		}
+
+		List<Future<BitSet>> futures = new ArrayList<Future<BitSet>> ();
+		for(int from = 0; from < unitCount; ) {
+			int to = from + 1;
+			while(to < unitCount && units.getBytes(from, to + 1) <= VERIFY_BYTES_PER_TASK) {
+				to++;
+			}
+			final int fromUnit = from;
+			final int toUnit = to;
+			futures.add(VERIFY_EXECUTOR.submit(new Callable<BitSet>() {
+				@Override
+				public BitSet call() throws IOException {
+					return verifyUnits(channel, units, fromUnit, toUnit);
+				}
+			}));
+			from = to;
+		}
+
+		BitSet damagedUnits = new BitSet();
+		boolean interrupted = false;
+		for(Future<BitSet> future: futures) {
+			while(true) {
+				try {
+					damagedUnits.or(future.get());
+					break;
+				}
+				catch(InterruptedException _) {
+					interrupted = true;   // 等所有任务结束，否则任务可能在文件关闭后才读取
+				}
+				catch(ExecutionException e) {
+					if(e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IllegalStateException("verify dump file failed", e.getCause());
+				}
+			}
+		}
+
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return damagedUnits;
+	}
+
+	/**
+	 * 校验[fromUnit, toUnit)，各单元在文件中连续存放，每次读入不超过VERIFY_BYTES_PER_READ字节的若干个完整单元
+	 */
+	private static BitSet verifyUnits(PositionalChannel channel, Units units, int fromUnit, int toUnit) throws IOException {
+		BitSet damagedUnits = new BitSet();
+		ByteBuffer buffer = ByteBuffer.allocate(VERIFY_BYTES_PER_READ);
+		CRC32 crc = new CRC32();
+		for(int from = fromUnit; from < toUnit; ) {
+			int to = from + 1;
+			while(to < toUnit && units.getBytes(from, to + 1) <= VERIFY_BYTES_PER_READ) {
+				to++;
+			}
+			int bytes = (int) units.getBytes(from, to);
+			if(bytes > buffer.capacity()) {   // 压缩后变大的块
+				buffer = ByteBuffer.allocate(bytes);
+			}
+			buffer.clear();
+			buffer.limit(bytes);
+			readFully(channel, buffer, units.offsets[from]);
+			for(int u = from, pos = 0; u < to; pos += units.lengths[u], u++) {
+				crc.reset();
+				crc.update(buffer.array(), pos, units.lengths[u]);
+				if(!units.matches(u, (int) crc.getValue())) {
+					damagedUnits.set(u);
+				}
+			}
+			from = to;
+		}
+		return damagedUnits;
+	}
+
+	/**
+	 * 按持久化级别把channel写入的内容同步到磁盘：DATA_SYNC只同步数据（fdatasync），FULL_SYNC同时同步文件元数据（fsync）
+	 * @param channel
+	 * @param durability
+	 * @return 同步的耗时，不同步时为0
+	 * @throws IOException
+	 */
+	private static long sync(PositionalChannel channel, int durability) throws IOException {
+		if(durability != Griddle.DATA_SYNC_DURABILITY && durability != Griddle.FULL_SYNC_DURABILITY) {
+			return 0;
+		}
+
+		long startNanos = System.nanoTime();
+		channel.force(durability == Griddle.FULL_SYNC_DURABILITY);
+		return System.nanoTime() - startNanos;
+	}
+
+	private static void readFully(PositionalChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int readBytes = channel.read(buffer, position);
+			if(readBytes < 0) {
+				throw new EOFException("dump file ends at " + position);
+			}
+			position += readBytes;
+		}
+	}
+
+	private static void writeFully(PositionalChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * 向buffer追加一个int，空间不足时换成两倍大小的buffer
+	 * @return 追加后的buffer
+	 */
+	private static ByteBuffer putInt(ByteBuffer buffer, int value) {
+		if(buffer.remaining() < 4) {
+			ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+			buffer.flip();
+			larger.put(buffer);
+			buffer = larger;
+		}
+		return buffer.putInt(value);
+	}
+
+	/**
+	 * 从dumpFileName中解析griddleName，Dump文件名构成规则见GriddleManager.buildDumpFileName，
+	 * 从右边解析，所以griddleName可以包含"."
+	 * @param dumpFileName
+	 * @return 不是Dump文件名时返回null
+	 */
+	static String parseGriddleName(String dumpFileName) {
+		int dot = getMaxRepeatInsertCountDot(dumpFileName);
+		return dot > 0 ? dumpFileName.substring(0, dot) : null;
+	}
+
+	/**
+	 * 从dumpFileName中解析创建Griddle时的maxRepeatInsertCount，之后修改的值记录在新格式的文件头中
+	 * @param dumpFileName 必须是parseGriddleName不返回null的文件名
+	 * @return
+	 */
+	static int parseMaxRepeatInsertCount(String dumpFileName) {
+		int dot = getMaxRepeatInsertCountDot(dumpFileName);
+		return Integer.parseInt(dumpFileName.substring(dot + 1,
+				dumpFileName.length() - FileUtil.getDumpFileFormatSuffix().length()));
+	}
+
+	private static int getMaxRepeatInsertCountDot(String dumpFileName) {
+		String suffix = FileUtil.getDumpFileFormatSuffix();
+		if(!dumpFileName.endsWith(suffix)) {
+			return -1;
+		}
+
+		int end = dumpFileName.length() - suffix.length();
+		int dot = dumpFileName.lastIndexOf('.', end - 1);
+		if(dot < 0 || dot == end - 1) {
+			return -1;
+		}
+		for(int i = dot + 1; i < end; i++) {
+			if(!Character.isDigit(dumpFileName.charAt(i))) {
+				return -1;
+			}
+		}
+		return dot;
+	}
+
+	private int getUnitCount(int unitSize) {
+		return (int) ((payloadLength + unitSize - 1) / unitSize);
+	}
+
+	private int getUnitLength(int unit, int unitSize) {
+		return (int) Math.min(unitSize, payloadLength - (long) unit * unitSize);
+	}
+
+	long getPayloadOffset() {
+		return header.length;
+	}
+
+	/**
+	 * 获取原样编码时的文件大小
+	 * @return
+	 */
+	long getRawFileLength() {
+		return getPayloadOffset() + payloadLength + 4L * getUnitCount(pageSizeInByte);
+	}
+
+	String getGriddleName() {
+		return griddleName;
+	}
+
+	int getMaxRepeatInsertCount() {
+		return maxRepeatInsertCount;
+	}
+
+	int getCbfType() {
+		return cbfType;
+	}
+
+	int getBucketBits() {
+		return bucketBits;
+	}
+
+	long getCreateTimeMillis() {
+		return createTimeMillis;
+	}
+
+	long getPayloadLength() {
+		return payloadLength;
+	}
+
+	boolean isCompressed() {
+		return encoding == COMPRESSED_ENCODING;
+	}
+
+	/**
+	 * @return 文件头中记录的持久化级别，版本3以前的文件没有记录，返回-1
+	 */
+	int getDurability() {
+		return durability;
+	}
+
+	/**
+	 * @return 文件头中记录的单独指定的CBF大小，沿用全局配置或版本4以前的文件返回0
+	 */
+	int getVectorSize() {
+		return vectorSize;
+	}
+
+	/**
+	 * @return 文件头中记录的单独指定的哈希次数，沿用全局配置或版本4以前的文件返回0
+	 */
+	int getHashNum() {
+		return hashNum;
+	}
+
+	/**
+	 * @return writeTo或writeDirtyPages写入后同步到磁盘的耗时，单位为纳秒
+	 */
+	long getSyncNanos() {
+		return syncNanos;
+	}
+
+	int getDamagedPageCount() {
+		return damagedPageCount;
+	}
+
+	/**
+	 * 获取数据区中非0字（8字节）的比例，读完数据区或压缩写入后才有统计
+	 * @return 没有统计时返回-1
+	 */
+	double getFillRatio() {
+		if(nonZeroWordCount < 0) {
+			return -1;
+		}
+		return payloadLength == 0 ? 0 : nonZeroWordCount / (double) ((payloadLength + 7) >>> 3);
+	}
+
+	/**
+	 * 数据区的校验单元：原样编码时为页，压缩编码时为块
+	 */
+	private static class Units {
+
+		final int unitSize;       // 每个单元对应的数据区字节数
+		final long[] offsets;     // 在文件中的位置
+		final int[] lengths;      // 在文件中的长度
+		final int[] checksums;
+		private Map<Integer, int[]> alternativeChecksums;   // 校验日志中的CRC32，没有校验日志时为null
+
+		Units(int unitSize, int unitCount) {
+			this.unitSize = unitSize;
+			this.offsets = new long[unitCount];
+			this.lengths = new int[unitCount];
+			this.checksums = new int[unitCount];
+		}
+
+		void addAlternativeChecksum(int unit, int checksum) {
+			if(alternativeChecksums == null) {
+				alternativeChecksums = new HashMap<Integer, int[]> ();
+			}
+			int[] checksums = alternativeChecksums.get(unit);
+			checksums = checksums == null ? new int[1] : Arrays.copyOf(checksums, checksums.length + 1);
+			checksums[checksums.length - 1] = checksum;
+			alternativeChecksums.put(unit, checksums);
+		}
+
+		/**
+		 * 单元的CRC32是否与校验表或校验日志中的相符，由多个校验线程同时调用，读取校验日志之后不再修改
+		 */
+		boolean matches(int unit, int checksum) {
+			if(checksum == checksums[unit]) {
+				return true;
+			}
+			int[] alternatives = alternativeChecksums == null ? null : alternativeChecksums.get(unit);
+			if(alternatives != null) {
+				for(int alternative: alternatives) {
+					if(checksum == alternative) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * [fromUnit, toUnit)在文件中的总长度
+		 */
+		long getBytes(int fromUnit, int toUnit) {
+			return offsets[toUnit - 1] + lengths[toUnit - 1] - offsets[fromUnit];
+		}
+
+		boolean isDamaged(long[] range, BitSet damagedUnits) {
+			int fromUnit = (int) (range[0] / unitSize);
+			int toUnit = (int) ((range[1] - 1) / unitSize);
+			int u = damagedUnits.nextSetBit(fromUnit);
+			return u >= 0 && u <= toUnit;
+		}
+
+	}
+
+	/**
+	 * 数据区的写入方式
+	 */
+	private static abstract class PayloadWriter implements WritableByteChannel {
+
+		private final PositionalChannel channel;
+		protected final IoThrottle throttle;
+		protected long writtenBytes;   // 写入的数据区字节数（压缩前）
+		private long position;         // 下一次写入channel的位置
+		private boolean closed;
+
+		PayloadWriter(PositionalChannel channel, long position, IoThrottle throttle) {
+			this.channel = channel;
+			this.position = position;
+			this.throttle = throttle;
+		}
+
+		/**
+		 * 数据区写完后调用
+		 * @return 要写在数据区之后的校验表
+		 * @throws IOException
+		 */
+		abstract ByteBuffer finish() throws IOException;
+
+		long getWrittenBytes() {
+			return writtenBytes;
+		}
+
+		/**
+		 * @return 写入channel的内容的结尾
+		 */
+		long getPosition() {
+			return position;
+		}
+
+		/**
+		 * 把buffer写入channel中已写入的内容之后
+		 */
+		protected void append(ByteBuffer buffer) throws IOException {
+			int length = buffer.remaining();
+			writeFully(channel, buffer, position);
+			position += length;
+		}
+
+		/**
+		 * @return 统计的非0字数，不统计时返回-1
+		 */
+		long getNonZeroWordCount() {
+			return -1;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return !closed;
+		}
+
+		/**
+		 * 不关闭channel
+		 */
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+	}
+
+	/**
+	 * 原样写入数据区，同时按页计算CRC32
+	 */
+	private static class ChecksumChannel extends PayloadWriter {
+
+		private final int pageSizeInByte;
+		private final CRC32 crc = new CRC32();
+		private final byte[] bytes = new byte[64 * 1024];
+		private ByteBuffer checksums = ByteBuffer.allocate(1024);
+
+		ChecksumChannel(PositionalChannel channel, long position, IoThrottle throttle, int pageSizeInByte) {
+			super(channel, position, throttle);
+			this.pageSizeInByte = pageSizeInByte;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			ByteBuffer duplicate = src.duplicate();
+			while(duplicate.hasRemaining()) {
+				int pageRemaining = pageSizeInByte - (int) (writtenBytes % pageSizeInByte);
+				int length = Math.min(Math.min(duplicate.remaining(), bytes.length), pageRemaining);
+				duplicate.get(bytes, 0, length);
+				crc.update(bytes, 0, length);
+				writtenBytes += length;
+				if(length == pageRemaining) {
+					checksums = putInt(checksums, (int) crc.getValue());
+					crc.reset();
+				}
+			}
+
+			int length = src.remaining();
+			throttle.acquire(length);
+			append(src);
+			return length;
+		}
+
+		@Override
+		ByteBuffer finish() {
+			if(writtenBytes % pageSizeInByte != 0) {   // 最后一页不满
+				checksums = putInt(checksums, (int) crc.getValue());
+			}
+			checksums.flip();
+			return checksums;
+		}
+
+	}
+
+	/**
+	 * 把数据区分块压缩后写入，同时统计非0字数
+	 */
+	private static class CompressingChannel extends PayloadWriter {
+
+		private final byte[] block;
+		private final ByteBuffer blockView;
+		private int blockLength;
+		private byte[] encoded;      // 游程编码的结果
+		private byte[] compressed;   // Deflater压缩的结果
+		private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		private final CRC32 crc = new CRC32();
+		private ByteBuffer index = ByteBuffer.allocate(1024);
+		private long nonZeroWordCount;
+
+		CompressingChannel(PositionalChannel channel, long position, IoThrottle throttle, int blockSize) {
+			super(channel, position, throttle);
+			this.block = new byte[blockSize];
+			this.blockView = ByteBuffer.wrap(block);
+			this.encoded = new byte[blockSize + blockSize / 4 + 16];
+			this.compressed = new byte[blockSize / 4];
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			int length = src.remaining();
+			while(src.hasRemaining()) {
+				int toCopy = Math.min(src.remaining(), block.length - blockLength);
+				src.get(block, blockLength, toCopy);
+				blockLength += toCopy;
+				writtenBytes += toCopy;
+				if(blockLength == block.length) {
+					writeBlock();
+				}
+			}
+			return length;
+		}
+
+		private void writeBlock() throws IOException {
+			int encodedLength = encode();
+
+			deflater.reset();
+			deflater.setInput(encoded, 0, encodedLength);
+			deflater.finish();
+			int compressedLength = 0;
+			while(!deflater.finished()) {
+				if(compressedLength == compressed.length) {
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				}
+				compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+			}
+
+			crc.reset();
+			crc.update(compressed, 0, compressedLength);
+			index = putInt(index, compressedLength);
+			index = putInt(index, (int) crc.getValue());
+			ByteBuffer buffer = ByteBuffer.wrap(compressed, 0, compressedLength);
+			throttle.acquire(compressedLength);
+			append(buffer);
+			blockLength = 0;
+		}
+
+		/**
+		 * 对block做游程编码，结果写入encoded
+		 * @return 编码后的长度
+		 */
+		private int encode() {
+			int words = blockLength >>> 3;
+			int pos = 0;
+			for(int i = 0; i < words; ) {
+				int zeroStart = i;
+				while(i < words && blockView.getLong(i << 3) == 0) {
+					i++;
+				}
+				int literalStart = i;
+				while(i < words && blockView.getLong(i << 3) != 0) {
+					i++;
+				}
+				nonZeroWordCount += i - literalStart;
+
+				pos = putShort(pos, literalStart - zeroStart);
+				pos = putShort(pos, i - literalStart);
+				System.arraycopy(block, literalStart << 3, encoded, pos, (i - literalStart) << 3);
+				pos += (i - literalStart) << 3;
+			}
+
+			int tailLength = blockLength - (words << 3);
+			System.arraycopy(block, words << 3, encoded, pos, tailLength);
+			for(int i = words << 3; i < blockLength; i++) {
+				if(block[i] != 0) {
+					nonZeroWordCount++;
+					break;
+				}
+			}
+			return pos + tailLength;
+		}
+
+		private int putShort(int pos, int value) {
+			encoded[pos] = (byte) (value >>> 8);
+			encoded[pos + 1] = (byte) value;
+			return pos + 2;
+		}
+
+		@Override
+		ByteBuffer finish() throws IOException {
+			if(blockLength > 0) {
+				writeBlock();
+			}
+			deflater.end();
+			index.flip();
+			return index;
+		}
+
+		@Override
+		long getNonZeroWordCount() {
+			return nonZeroWordCount;
+		}
+
+	}
+
+	/**
+	 * 顺序读取数据区（压缩编码时逐块解压），校验失败的单元中CBF头部读为复制的头部，其它字节读为0；
+	 * 同时统计非0字数
+	 */
+	private class PayloadChannel implements ReadableByteChannel {
+
+		private final PositionalChannel channel;
+		private final Units units;
+		private final BitSet damagedUnits;
+		private final long[][] headerRanges;
+		private final byte[][] headers;   // 校验失败的单元中的CBF头部的内容，其它为null
+		private long position;            // 相对数据区开头的位置
+
+		/*
+		 * 压缩编码时当前解压的块
+		 */
+		private int decodedBlock = -1;
+		private byte[] decoded;
+		private byte[] encoded;
+		private Inflater inflater;
+
+		private boolean pendingNonZero;   // 当前字中已读的部分是否非0
+		private boolean closed;
+
+		PayloadChannel(PositionalChannel channel, Units units, BitSet damagedUnits, long[][] headerRanges) {
+			this.channel = channel;
+			this.units = units;
+			this.damagedUnits = damagedUnits;
+			this.headerRanges = headerRanges;
+			this.headers = new byte[headerRanges.length][];
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			if(position >= payloadLength) {
+				if(inflater != null) {
+					inflater.end();
+					inflater = null;
+				}
+				return -1;
+			}
+
+			int start = dst.position();
+			int readBytes;
+			if(encoding == RAW_ENCODING) {
+				ByteBuffer view = dst.duplicate();
+				view.limit(start + (int) Math.min(dst.remaining(), payloadLength - position));
+				readBytes = channel.read(view, getPayloadOffset() + position);
+				if(readBytes <= 0) {
+					return readBytes < 0 ? -1 : 0;
+				}
+			}
+			else {
+				int block = (int) (position / units.unitSize);
+				decodeBlock(block);
+				int offset = (int) (position - (long) block * units.unitSize);
+				readBytes = Math.min(dst.remaining(), getUnitLength(block, units.unitSize) - offset);
+				dst.put(decoded, offset, readBytes);
+				dst.position(start);
+			}
+
+			int fromUnit = (int) (position / units.unitSize);
+			int toUnit = (int) ((position + readBytes - 1) / units.unitSize);
+			for(int u = damagedUnits.nextSetBit(fromUnit); u >= 0 && u <= toUnit; u = damagedUnits.nextSetBit(u + 1)) {
+				long from = Math.max(position, (long) u * units.unitSize);
+				long to = Math.min(position + readBytes, (long) u * units.unitSize + getUnitLength(u, units.unitSize));
+				for(long i = from; i < to; i++) {
+					dst.put(start + (int) (i - position), getDamagedByte(i));
+				}
+			}
+
+			countNonZeroWords(dst, start, readBytes);
+			dst.position(start + readBytes);
+			position += readBytes;
+			return readBytes;
+		}
+
+		/**
+		 * 读取数据区中[from, from + length)的字节，不影响顺序读取的位置和统计
+		 */
+		byte[] readRange(long from, int length) throws IOException {
+			byte[] bytes = new byte[length];
+			if(encoding == RAW_ENCODING) {
+				readFully(channel, ByteBuffer.wrap(bytes), getPayloadOffset() + from);
+				return bytes;
+			}
+
+			for(int pos = 0; pos < length; ) {
+				int block = (int) ((from + pos) / units.unitSize);
+				decodeBlock(block);
+				int offset = (int) (from + pos - (long) block * units.unitSize);
+				int toCopy = Math.min(length - pos, getUnitLength(block, units.unitSize) - offset);
+				System.arraycopy(decoded, offset, bytes, pos, toCopy);
+				pos += toCopy;
+			}
+			return bytes;
+		}
+
+		/**
+		 * 把第block块解压到decoded，校验失败的块解压为全0
+		 */
+		private void decodeBlock(int block) throws IOException {
+			if(decodedBlock == block) {
+				return;
+			}
+			if(decoded == null) {
+				decoded = new byte[units.unitSize];
+				encoded = new byte[units.unitSize + units.unitSize / 4 + 16];
+				inflater = new Inflater();
+			}
+
+			decodedBlock = -1;
+			int blockLength = getUnitLength(block, units.unitSize);
+			if(damagedUnits.get(block)) {
+				Arrays.fill(decoded, 0, blockLength, (byte) 0);
+				decodedBlock = block;
+				return;
+			}
+
+			byte[] compressed = new byte[units.lengths[block]];
+			readFully(channel, ByteBuffer.wrap(compressed), units.offsets[block]);
+			inflater.reset();
+			inflater.setInput(compressed);
+			int encodedLength = 0;
+			try {
+				while(!inflater.finished()) {
+					if(encodedLength == encoded.length) {
+						encoded = Arrays.copyOf(encoded, encoded.length * 2);
+					}
+					int inflated = inflater.inflate(encoded, encodedLength, encoded.length - encodedLength);
+					if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						throw new IOException("block " + block + " of dump file is truncated");
+					}
+					encodedLength += inflated;
+				}
+			}
+			catch(DataFormatException e) {
+				throw new IOException("block " + block + " of dump file is corrupted: " + e.getMessage(), e);
+			}
+
+			decode(encodedLength, blockLength, block);
+			decodedBlock = block;
+		}
+
+		/**
+		 * 游程解码，格式见类注释
+		 */
+		private void decode(int encodedLength, int blockLength, int block) throws IOException {
+			int words = blockLength >>> 3;
+			int pos = 0;
+			int w = 0;
+			while(w < words) {
+				if(pos + 4 > encodedLength) {
+					throw new IOException("block " + block + " of dump file is corrupted");
+				}
+				int zeroWords = ((encoded[pos] & 0xff) << 8) | (encoded[pos + 1] & 0xff);
+				int literalWords = ((encoded[pos + 2] & 0xff) << 8) | (encoded[pos + 3] & 0xff);
+				pos += 4;
+				if(w + zeroWords + literalWords > words || pos + (literalWords << 3) > encodedLength) {
+					throw new IOException("block " + block + " of dump file is corrupted");
+				}
+				Arrays.fill(decoded, w << 3, (w + zeroWords) << 3, (byte) 0);
+				w += zeroWords;
+				System.arraycopy(encoded, pos, decoded, w << 3, literalWords << 3);
+				pos += literalWords << 3;
+				w += literalWords;
+			}
+
+			int tailLength = blockLength - (words << 3);
+			if(pos + tailLength != encodedLength) {
+				throw new IOException("block " + block + " of dump file is corrupted");
+			}
+			System.arraycopy(encoded, pos, decoded, words << 3, tailLength);
+		}
+
+		private byte getDamagedByte(long position) {
+			for(int i = 0; i < headerRanges.length; i++) {
+				if(headerRanges[i][0] <= position && position < headerRanges[i][1]) {
+					return headers[i][(int) (position - headerRanges[i][0])];
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * 按数据区中的8字节对齐统计非0字
+		 */
+		private void countNonZeroWords(ByteBuffer buffer, int start, int length) {
+			long pos = position;
+			int i = start;
+			int end = start + length;
+			while(i < end) {
+				if((pos & 7) == 0 && end - i >= 8) {
+					if(buffer.getLong(i) != 0) {
+						nonZeroWordCount++;
+					}
+					i += 8;
+					pos += 8;
+					continue;
+				}
+
+				pendingNonZero |= buffer.get(i) != 0;
+				i++;
+				pos++;
+				if((pos & 7) == 0 || pos == payloadLength) {
+					if(pendingNonZero) {
+						nonZeroWordCount++;
+					}
+					pendingNonZero = false;
+				}
+			}
+		}
+
+		@Override
+		public boolean isOpen() {
+			return !closed;
+		}
+
+		/**
+		 * 不关闭channel
+		 */
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+	}
+
+	/**
+	 * 从位置0开始顺序读取channel，用来解析文件头
+	 */
+	private static class PositionalInputStream extends InputStream {
+
+		private final PositionalChannel channel;
+		private long position;
+
+		PositionalInputStream(PositionalChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0) {
+				return 0;
+			}
+			int readBytes = channel.read(ByteBuffer.wrap(b, off, len), position);
+			if(readBytes > 0) {
+				position += readBytes;
+			}
+			return readBytes;
+		}
+
+	}
+
+	/**
+	 * 记录CountingFilter.writeDirtyPages写入了数据区的哪些页（按校验页计），
+	 * writeDirtyPages通过seek和write(byte[], int, int)写入。所有写入按throttle限速
+	 */
+	/**
+	 * 只写入脏页时使用的文件：cbf写入数据区的内容先在内存中按页合并（没有写满的页先读入原来的内容），
+	 * 攒够FLUSH_PAGES页后先追加校验日志，再写入这些页和校验表，见writeDirtyPages
+	 */
+	static class PageTrackingFile extends RandomAccessFile {
+
+		private static final int FLUSH_PAGES = 1024;   // 每组的页数，4KB的页为4MB
+
+		private final DumpFile dumpFile;
+		private final long payloadOffset;
+		private final long checksumOffset;
+		private final long journalOffset;
+		private final IoThrottle throttle;
+		private final int syncDurability;
+		private final PositionalChannel channel = new FilePositionalChannel(getChannel());
+		private final SortedMap<Integer, byte[]> pages = new TreeMap<Integer, byte[]> ();   // 还没写入的页
+		private long journalLength;
+		private long syncNanos;
+
+		PageTrackingFile(File file, DumpFile dumpFile, IoThrottle throttle, int syncDurability) 
+				throws FileNotFoundException {
+			super(file, "rw");
+			this.dumpFile = dumpFile;
+			this.payloadOffset = dumpFile.getPayloadOffset();
+			this.checksumOffset = payloadOffset + dumpFile.payloadLength;
+			this.journalOffset = dumpFile.getRawFileLength();
+			this.throttle = throttle;
+			this.syncDurability = syncDurability;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b) throws IOException {
+			write(b, 0, b.length);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			long from = getFilePointer() - payloadOffset;
+			if(from < 0 || from + len > dumpFile.payloadLength) {
+				throw new IOException("write [" + from + ", " + (from + len) + ") out of payload of dump file");
+			}
+
+			int pageSizeInByte = dumpFile.pageSizeInByte;
+			while(len > 0) {
+				int p = (int) (from / pageSizeInByte);
+				int pos = (int) (from - (long) p * pageSizeInByte);
+				byte[] page = getPage(p);
+				int n = Math.min(len, page.length - pos);
+				System.arraycopy(b, off, page, pos, n);
+				from += n;
+				off += n;
+				len -= n;
+			}
+			if(pages.size() >= FLUSH_PAGES) {
+				flush();
+			}
+			seek(payloadOffset + from);
+		}
+
+		private byte[] getPage(int p) throws IOException {
+			byte[] page = pages.get(p);
+			if(page == null) {
+				page = new byte[dumpFile.getUnitLength(p, dumpFile.pageSizeInByte)];
+				DumpFile.readFully(channel, ByteBuffer.wrap(page), getPagePosition(p));
+				pages.put(p, page);
+			}
+			return page;
+		}
+
+		private long getPagePosition(int p) {
+			return payloadOffset + (long) p * dumpFile.pageSizeInByte;
+		}
+
+		/**
+		 * 写入攒下的页：先追加校验日志并按持久化级别同步，再写入各页，最后写入校验表
+		 * @throws IOException
+		 */
+		void flush() throws IOException {
+			if(pages.isEmpty()) {
+				return;
+			}
+
+			int count = pages.size();
+			ByteBuffer journal = ByteBuffer.allocate(4 + 12 * count + 4);
+			ByteBuffer checksum = ByteBuffer.allocate(4);
+			int[] newChecksums = new int[count];
+			CRC32 crc = new CRC32();
+			journal.putInt(count);
+			int i = 0;
+			for(Map.Entry<Integer, byte[]> entry: pages.entrySet()) {
+				checksum.clear();
+				DumpFile.readFully(channel, checksum, checksumOffset + 4L * entry.getKey());
+				crc.reset();
+				crc.update(entry.getValue());
+				newChecksums[i] = (int) crc.getValue();
+				journal.putInt(entry.getKey()).putInt(checksum.getInt(0)).putInt(newChecksums[i]);
+				i++;
+			}
+			crc.reset();
+			crc.update(journal.array(), 0, journal.position());
+			journal.putInt((int) crc.getValue());
+			writeJournal(journal.array());
+
+			writePages(pages);
+			writeChecksums(pages.keySet(), newChecksums);
+			pages.clear();
+		}
+
+		void writeJournal(byte[] journal) throws IOException {
+			writeAt(journalOffset + journalLength, journal);
+			journalLength += journal.length;
+			syncNanos += sync(channel, syncDurability);
+		}
+
+		void writePages(SortedMap<Integer, byte[]> pages) throws IOException {
+			for(Map.Entry<Integer, byte[]> entry: pages.entrySet()) {
+				writeAt(getPagePosition(entry.getKey()), entry.getValue());
+			}
+		}
+
+		void writeChecksums(Set<Integer> pageIndexes, int[] checksums) throws IOException {
+			ByteBuffer checksum = ByteBuffer.allocate(4);
+			int i = 0;
+			for(int p: pageIndexes) {
+				checksum.putInt(0, checksums[i++]);
+				writeAt(checksumOffset + 4L * p, checksum.array());
+			}
+		}
+
+		private void writeAt(long position, byte[] b) throws IOException {
+			throttle.acquire(b.length);
+			writeFully(channel, ByteBuffer.wrap(b), position);
+		}
+
+		/**
+		 * 写入剩余的页和文件头，同步后截掉校验日志并再次同步
+		 * @return 同步到磁盘的总耗时
+		 * @throws IOException
+		 */
+		long finish() throws IOException {
+			flush();
+			writeAt(0, dumpFile.header);
+			syncNanos += sync(channel, syncDurability);   // 截掉校验日志之前，写入的页和校验表必须已在磁盘上
+			if(journalLength > 0) {
+				setLength(journalOffset);
+				syncNanos += sync(channel, syncDurability);
+			}
+			return syncNanos;
+		}
+
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,88 @@
+package com.ximalaya.griddle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 打包文件中一个区段（extent）的视图：位置0对应段文件中的base，DumpFile可以像读写单独的Dump文件一样读写它。
+ * 只读视图的大小固定为区段长度；可写视图从空开始，大小为写到的最远位置。段文件由PackStore管理和关闭
+ * @author will
+ *
+ */
+final class ExtentChannel implements PositionalChannel {
+
+	private final FileChannel segment;
+	private final long base;
+	private final boolean writable;
+	private long size;
+
+	private ExtentChannel(FileChannel segment, long base, long size, boolean writable) {
+		this.segment = segment;
+		this.base = base;
+		this.size = size;
+		this.writable = writable;
+	}
+
+	/**
+	 * @param segment
+	 * @param base 区段在段文件中的位置
+	 * @param length 区段长度
+	 * @return 只读视图
+	 */
+	static ExtentChannel forRead(FileChannel segment, long base, long length) {
+		return new ExtentChannel(segment, base, length, false);
+	}
+
+	/**
+	 * @param segment
+	 * @param base 区段在段文件中的位置，之后的内容都可以被覆盖
+	 * @return 可写视图
+	 */
+	static ExtentChannel forWrite(FileChannel segment, long base) {
+		return new ExtentChannel(segment, base, 0, true);
+	}
+
+	@Override
+	public int read(ByteBuffer dst, long position) throws IOException {
+		if(position >= size) {
+			return -1;
+		}
+
+		int limit = dst.limit();
+		if(dst.remaining() > size - position) {   // 不读出区段
+			dst.limit(dst.position() + (int) (size - position));
+		}
+		try {
+			return segment.read(dst, base + position);
+		}
+		finally {
+			dst.limit(limit);
+		}
+	}
+
+	@Override
+	public int write(ByteBuffer src, long position) throws IOException {
+		if(!writable) {
+			throw new IOException("extent is read only");
+		}
+
+		int writtenBytes = segment.write(src, base + position);
+		size = Math.max(size, position + writtenBytes);
+		return writtenBytes;
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * 同步整个段文件
+	 */
+	@Override
+	public void force(boolean metaData) throws IOException {
+		segment.force(metaData);
+	}
+
+}
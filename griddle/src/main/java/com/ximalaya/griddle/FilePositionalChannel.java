@@ -0,0 +1,40 @@
+package com.ximalaya.griddle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 单独的Dump文件，直接读写FileChannel。不关闭FileChannel，由打开文件的一方关闭
+ * @author will
+ *
+ */
+final class FilePositionalChannel implements PositionalChannel {
+
+	private final FileChannel channel;
+
+	FilePositionalChannel(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	@Override
+	public int read(ByteBuffer dst, long position) throws IOException {
+		return channel.read(dst, position);
+	}
+
+	@Override
+	public int write(ByteBuffer src, long position) throws IOException {
+		return channel.write(src, position);
+	}
+
+	@Override
+	public long size() throws IOException {
+		return channel.size();
+	}
+
+	@Override
+	public void force(boolean metaData) throws IOException {
+		channel.force(metaData);
+	}
+
+}
@@ -1,515 +1,1676 @@
-package com.ximalaya.griddle;
-
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import org.apache.commons.lang3.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.ximalaya.bloomfilterext.bloom.Key;
-import com.ximalaya.bloomfilterext.bloom.ThreadSafeCBloomFilter;
-import com.ximalaya.griddle.exception.DumpFileFailedException;
-import com.ximalaya.griddle.exception.RecycleGriddleFailedException;
-import com.ximalaya.griddle.util.FileUtil;
-
-/**
- * 过滤器类，基于Counting Bloom Filter算法实现
- * @author will
- *
- */
-public class Griddle {
-	
-	private int maxRepeatInsertCount;   // 最多可以重复插入同一个条目多少次
-	private int vectorSize;             // 预计总条目数
-	private int hashNum;
-	private int hashType;
-	
-	private String dumpFileDir;
-	private String dumpFileName;
-	private int fileSizeInByte;
-	
-	private volatile CBFSection cbfSection;   // CBF数据区，包装了一个Counting Bloom Filter实现类对象
-
-	private AtomicBoolean hasRecycled = new AtomicBoolean(false);   // 是否已被回收
-	private static final int RECYCLE_RETRY_TIMES = 3;              // 回收重试次数
-	private static final int RENMAE_RETRY_TIMES = 3;               // 重命名文件重试次数
-	
-	private static final Logger LOG = LoggerFactory.getLogger(Griddle.class);
-	
-	
-	/*
-	 * ------------------------------------------------------
-	 * 构造函数
-	 * ------------------------------------------------------
-	 */
-	
-	private Griddle(int maxRepeatInsertCount, int vectorSize, int hashNum, int hashType, 
-			String dumpFileDir, String dumpFileName) {
-		if(maxRepeatInsertCount <= 0
-		   || vectorSize <= 0
-		   || hashNum <= 0
-		   || hashType < 0
-		   || StringUtils.isEmpty(dumpFileDir)
-		   || StringUtils.isEmpty(dumpFileName)) {
-			throw new IllegalArgumentException("all int type constructor params for " 
-					+ "CBFBasedFilter should > 0 (hashType >= 0), dumpFileDir and dumpFileName should not empty");
-		}
-		
-		this.maxRepeatInsertCount = maxRepeatInsertCount;
-		this.vectorSize = vectorSize;
-		this.hashNum = hashNum;
-		this.hashType = hashType;
-		
-		this.dumpFileDir = dumpFileDir;
-		this.dumpFileName = dumpFileName;
-		this.fileSizeInByte = getCaculatedFileSizeInByte(this.vectorSize);
-		
-		this.cbfSection = createNewCBFSection();
-	}
-	
-	private Griddle(int maxRepeatInsertCount, int vectorSize, int hashNum, int hashType, 
-			String dumpFileDir, String dumpFileName, ThreadSafeCBloomFilter cbf) {
-		if(maxRepeatInsertCount <= 0
-		   || vectorSize <= 0
-		   || hashNum <= 0
-		   || hashType <= 0
-		   || StringUtils.isEmpty(dumpFileDir)
-		   || StringUtils.isEmpty(dumpFileName)
-		   || cbf == null) {
-			throw new IllegalArgumentException("all int type constructor params for " 
-					+ "CBFBasedFilter should > 0, dumpFileDir and dumpFileName should not be empty, " 
-					+ "cbf should not be null");
-		}
-		
-		this.maxRepeatInsertCount = maxRepeatInsertCount;
-		this.vectorSize = vectorSize;
-		this.hashNum = hashNum;
-		this.hashType = hashType;
-		
-		this.dumpFileDir = dumpFileDir;
-		this.dumpFileName = dumpFileName;
-		this.fileSizeInByte = getCaculatedFileSizeInByte(this.vectorSize);
-		
-		this.cbfSection = createNewCBFSection(cbf);
-	}
-	
-	
-	/*
-	 * ------------------------------------------------------
-	 * 使用Counting Bloom Filter的相关方法 
-	 * ------------------------------------------------------
-	 */
-	
-	/**
-	 * 插入Key到Counting Bloom Filter中，如果Key为空或者已达到最大重复插入次数返回false表示插入失败，
-	 * 否则返回true表示插入成功
-	 * @param keyWord   待添加的关键词
-	 * @return true（插入Key成功） or false（插入Key失败）
-	 */
-	public boolean add(String keyWord) {
-		/*
-		 * GriddleManager中已校验了keyWord非空，所以这里不重复校验
-		 * if(StringUtils.isEmpty(keyWord)) {
-			return false;
-		}*/
-		return insertKey(cbfSection, new Key(keyWord.getBytes()));
-	}
-	
-	/**
-	 * 获取某个keyWord已重复插入的次数
-	 * @param keyWord
-	 * @return
-	 */
-	public int getRepeatedInsertCount(String keyWord) {
-		return getInsertedCount(cbfSection, new Key(keyWord.getBytes()));
-	}
-	
-	/**
-	 * 标记Griddle为可以回收，外部调用这个接口
-	 */
-	public void markToRecycle() {
-		cbfSection.markToEnableCanGC();
-	}
-	
-	/**
-	 * 真正的回收方法：释放CBF占用内存，并删除对应的磁盘文件
-	 */
-	public void recycle() {
-		if(hasRecycled()) {   // 不要重复进行回收
-//			throw new RecycleGriddleFailedException("duplicate recycle griddle: " + getDumpFileName());
-			return;
-		}
-		
-		/*
-		 * 必须同时满足canGC为true且useCount为0才可以回收
-		 */
-		if(cbfSection.canGC() && cbfSection.getUseCount() == 0) {
-			LOG.debug("recycle griddle: {}", getDumpFileName());
-			cbfSection = null;   // 释放cbfSection占用的内存
-			
-			int retriedTimes = 0;
-			Throwable throwable = null;
-			while(retriedTimes < RECYCLE_RETRY_TIMES) {   // 删除文件失败则重试
-				String toDeleteDumpFilePath = getFullDumpFilePath(this.dumpFileDir, this.dumpFileName);
-				File dumpFile = new File(toDeleteDumpFilePath);
-				try {
-					/*
-					 * 删除对应的磁盘Dump文件
-					 */
-					FileUtil.deleteFile(dumpFile);
-					break;
-				}
-				catch(Exception e) {
-					retriedTimes++;
-					LOG.error(String.format("delete dump file [%s] failed, has retried times: %d", 
-											toDeleteDumpFilePath,
-											retriedTimes), 
-							  e);
-					throwable = e;
-				}
-			}
-			
-			if(retriedTimes == RECYCLE_RETRY_TIMES) {   // 重试后仍失败则抛出异常
-				throw new RecycleGriddleFailedException(String.format("recycle failed after exhaust retry times, griddleName: %s", 
-																		getDumpFileName()), 
-														 throwable);
-			}
-			
-			setHasRecycled();   // 标记当前Griddle为已被回收
-		}
-	}
-	
-	/**
-	 * 创建CBFSection对象
-	 * @return
-	 */
-	private CBFSection createNewCBFSection() {
-		return new CBFSection(new ThreadSafeCBloomFilter(this.vectorSize, this.hashNum, this.hashType));
-	}
-	
-	/**
-	 * 创建CBFSection对象重载方法
-	 * @param cbf
-	 * @return
-	 */
-	private CBFSection createNewCBFSection(ThreadSafeCBloomFilter cbf) {
-		return new CBFSection(cbf);
-	}
-	
-	/**
-	 * 往CBFSection中插入Key，如果未达到最大重复插入次数，则允许插入并返回true；返回返回false。
-	 * 操作前后分别进行计数增1和减1
-	 * @param section
-	 * @param key
-	 * @return
-	 */
-	private boolean insertKey(CBFSection section, Key key) {
-		section.increaseUseCount();
-		
-		if(section.getInsertedCount(key) >= getMaxRepeatInsertCount()) {
-			section.decreaseUseCount();
-			return false;
-		}
-		
-		section.insertKey(key);
-		section.decreaseUseCount();
-		return true;
-	}
-	
-	private int getInsertedCount(CBFSection section, Key key) {
-		section.increaseUseCount();
-		int insertedCount = section.getInsertedCount(key);
-		section.decreaseUseCount();
-		return insertedCount;
-	}
-	
-	
-	/*
-	 * ------------------------------------------------------
-	 * Dump CBF相关方法
-	 * ------------------------------------------------------
-	 */
-	
-	/**
-	 * Dump CBF到磁盘文件，始终只Dump包含最新数据的CBF
-	 */
-	public void dumpCBFToDisk() {
-		String dumpFilePath = getFullDumpFilePath(dumpFileDir, dumpFileName);
-		String tmpDumpFilePath = dumpFilePath + ".tmp";
-		int tmpFileIndex = 0;
-		while(FileUtil.isFileExist(tmpDumpFilePath)) {
-			tmpDumpFilePath = dumpFilePath + ".tmp." + tmpFileIndex;
-			tmpFileIndex++;
-		}
-		
-		LOG.debug("dump cbf to file [{}]", dumpFilePath);
-		
-		File oldDumpFile = new File(dumpFilePath);
-		File tmpDumpFile = new File(tmpDumpFilePath);
-		ThreadSafeCBloomFilter cbf = this.cbfSection.getCBF();
-		FileOutputStream fos = null;
-		BufferedOutputStream bos = null;
-		DataOutputStream dos = null;
-		try {
-			fos = new FileOutputStream(tmpDumpFile);
-			bos = new BufferedOutputStream(fos);
-			dos = new DataOutputStream(bos);
-			cbf.write(dos);
-			dos.flush();   // 刷到磁盘
-		} catch (IOException e) {
-			String errorMsg = "dump CBF to file [" + dumpFilePath + "] failed: " + e.getMessage();
-			LOG.error(errorMsg, e);
-			throw new DumpFileFailedException(errorMsg, e);
-		} finally {
-			if(dos != null) {
-				try {
-					dos.close();
-				}
-				catch(IOException e) {
-					LOG.error("close dos failed: " + tmpDumpFilePath);
-				}
-			}
-			
-			if(bos != null) {
-				try {
-					bos.close();
-				}
-				catch(IOException e) {
-					LOG.error("close bos failed: " + tmpDumpFilePath);
-				}
-			}
-			
-			if(fos != null) {
-				try {
-					fos.close();
-				}
-				catch(IOException e) {
-					LOG.error("close fos failed: " + tmpDumpFilePath);
-				}
-			}
-		}
-		
-		FileUtil.deleteFile(oldDumpFile);
-
-		int retriedTimes = 0;
-		while(retriedTimes < RENMAE_RETRY_TIMES) {
-			boolean renameResult = FileUtil.renameFile(tmpDumpFile, oldDumpFile);
-			if(renameResult) {   // 重命名成功
-				break;
-			}
-			
-			retriedTimes++;
-			
-			try {
-				Thread.sleep(200);
-			}
-			catch(InterruptedException _) {
-				// swallow
-			}
-		}
-		
-		if(retriedTimes == RENMAE_RETRY_TIMES) {   // 重命名失败
-			String errorMsg = "dump CBF to file [" + dumpFilePath + "] failed: rename failed";
-			LOG.error(errorMsg);
-			throw new DumpFileFailedException(errorMsg);
-		}
-	}
-	
-	/**
-	 * 从磁盘文件恢复Griddle对象或在发生异常时从头开始构建Griddle对象，异常情况包括下面几种：
-	 * <li>对应的Dump文件不存在</li>
-	 * <li>传入的全局CBF配置属性与从Dump文件中恢复的CBF的属性值不一致</li>
-	 * <li>从Dump文件恢复发生异常</li>
-	 * @param maxRepeatInsertCount
-	 * @param vectorSize
-	 * @param hashNum
-	 * @param hashType
-	 * @param dumpFileDir
-	 * @param dumpFileName
-	 * @return
-	 */
-	public static Griddle restoreFromDumpFileOrConstructFromGroundIfException(int maxRepeatInsertCount, 
-			int vectorSize, int hashNum, int hashType, String dumpFileDir, String dumpFileName) {
-		if(maxRepeatInsertCount <= 0
-		   || vectorSize <= 0
-		   || hashNum <= 0
-		   || hashType < 0
-		   || StringUtils.isEmpty(dumpFileDir)
-		   || StringUtils.isEmpty(dumpFileName)) {
-			throw new IllegalArgumentException("all int type parameters should > 0 (hashType >= 0), " 
-					+ "dumpFileDir & dumpFileName should not empty");
-		}
-		
-		Griddle griddle = null;
-		String dumpFilePath = getFullDumpFilePath(dumpFileDir, dumpFileName);
-		if(FileUtil.isFileExist(dumpFilePath)) {   // 存在对应的Dump文件，则尝试从Dump文件恢复Griddle对象
-			LOG.info("try to restore Griddle from dump file: {}", dumpFilePath);
-			
-			FileInputStream fis = null;
-			BufferedInputStream bis = null;
-			DataInputStream dis = null;
-			ThreadSafeCBloomFilter cbf = new ThreadSafeCBloomFilter();
-			try {
-				fis = new FileInputStream(new File(dumpFilePath));
-				bis = new BufferedInputStream(fis);
-				dis = new DataInputStream(bis);
-				cbf.readFields(dis);
-				if(cbf.getVectorSize() != vectorSize 
-				   || cbf.getNbHash() != hashNum 
-				   || cbf.getHashType() != hashType) {   // 如果从Dump文件恢复出的CBF配置和现在传入的配置不一致，则由零构建
-					griddle = constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, dumpFileDir, 
-							dumpFileName);
-				}
-				else {
-					griddle = new Griddle(maxRepeatInsertCount, vectorSize, hashNum, hashType, dumpFileDir, 
-							dumpFileName, cbf);
-				}
-			} catch (Exception e) {
-				LOG.error("restore Griddle from file [" + dumpFilePath + "] failed, to construct from ground on", e);
-				
-				// 恢复发生异常，则也从零开始新建
-				griddle = constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, dumpFileDir, 
-						dumpFileName);
-			} finally {
-				if(dis != null) {
-					try {
-						dis.close();
-					}
-					catch(IOException e) {
-						LOG.error("close dis failed: " + dumpFilePath);
-					}
-				}
-				
-				if(bis != null) {
-					try {
-						bis.close();
-					}
-					catch(IOException e) {
-						LOG.error("close bis failed: " + dumpFilePath);
-					}
-				}
-				
-				if(fis != null) {
-					try {
-						fis.close();
-					}
-					catch(IOException e) {
-						LOG.error("close fis failed: " + dumpFilePath);
-					}
-				}
-			}
-		}
-		else {   // 不存在Dump文件则从零开始构建
-			LOG.info("doesn't exist dump file: {}, construct CBFBaseFilter from ground on: ",
-					 dumpFileName);
-			
-			griddle = constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, dumpFileDir, 
-					dumpFileName);
-		}
-		
-		return griddle;
-	}
-	
-	public static Griddle constructFromGround(int maxRepeatInsertCount, int vectorSize, int hashNum, 
-			int hashType, String dumpFileDir, String dumpFileName) {
-		if(maxRepeatInsertCount <= 0
-		   || vectorSize <= 0
-		   || hashNum <= 0
-		   || hashType < 0
-		   || StringUtils.isEmpty(dumpFileDir)
-		   || StringUtils.isEmpty(dumpFileName)) {
-			throw new IllegalArgumentException("all int type parameters should > 0 (hashType >= 0), " 
-					+ "dumpFileDir & dumpFileName should not empty");
-		}
-		
-		return new Griddle(maxRepeatInsertCount, vectorSize, hashNum, hashType, dumpFileDir, dumpFileName);
-	}
-	
-	private final static String getFullDumpFilePath(String dumpFileDir, String dumpFileName) {
-		StringBuilder filePathBuilder = new StringBuilder();
-		filePathBuilder.append(dumpFileDir);
-		if(!dumpFileDir.endsWith(File.separator)) {
-			filePathBuilder.append(File.separator);
-		}
-		filePathBuilder.append(dumpFileName);
-		
-		return filePathBuilder.toString();
-	}
-	
-	/**
-	 * 获取预期的文件大小（单位：字节）
-	 * 计算方法参考AdjustedCountingBloomFilter的序列化反序列化方法
-	 * @return
-	 */
-	private final static int getCaculatedFileSizeInByte(int vectorSize) {
-		return ( ( (vectorSize - 1) >>> 4 ) + 1 ) * 8 + 13;
-	}
-	
-	
-	/*
-	 * ------------------------------------------------------
-	 * Getters/Setters
-	 * ------------------------------------------------------
-	 */
-
-	public int getMaxRepeatInsertCount() {
-		return maxRepeatInsertCount;
-	}
-
-	public void setMaxRepeatInsertCount(int maxRepeatInsertCount) {
-		this.maxRepeatInsertCount = maxRepeatInsertCount;
-	}
-
-	public int getVectorSize() {
-		return vectorSize;
-	}
-
-	public void setVectorSize(int vectorSize) {
-		this.vectorSize = vectorSize;
-	}
-
-	public int getHashNum() {
-		return hashNum;
-	}
-
-	public void setHashNum(int hashNum) {
-		this.hashNum = hashNum;
-	}
-
-	public int getHashType() {
-		return hashType;
-	}
-
-	public void setHashType(int hashType) {
-		this.hashType = hashType;
-	}
-	
-	public String getDumpFileName() {
-		return dumpFileName;
-	}
-	
-	public int getFileSizeInByte() {
-		return fileSizeInByte;
-	}
-	
-	public CBFSection getCBFSection() {
-		return cbfSection;
-	}
-	
-	public boolean hasRecycled() {
-		return hasRecycled.get();
-	}
-	
-	public void setHasRecycled() {
-		hasRecycled.set(true);
-	}
-	
+package com.ximalaya.griddle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ximalaya.bloomfilterext.bloom.BlockedCountingBloomFilter;
+import com.ximalaya.bloomfilterext.bloom.BucketStorage;
+import com.ximalaya.bloomfilterext.bloom.CounterStats;
+import com.ximalaya.bloomfilterext.bloom.CountingFilter;
+import com.ximalaya.bloomfilterext.bloom.HashFunction;
+import com.ximalaya.bloomfilterext.bloom.MappedBucketStorage;
+import com.ximalaya.bloomfilterext.bloom.ShardedCountingFilter;
+import com.ximalaya.bloomfilterext.bloom.SnapshotListener;
+import com.ximalaya.bloomfilterext.bloom.StripedCounter;
+import com.ximalaya.bloomfilterext.bloom.ThreadSafeCBloomFilter;
+import com.ximalaya.griddle.exception.DumpFileFailedException;
+import com.ximalaya.griddle.exception.GriddleEvictedException;
+import com.ximalaya.griddle.exception.RecycleGriddleFailedException;
+import com.ximalaya.griddle.exception.WalWriteFailedException;
+import com.ximalaya.griddle.util.FileUtil;
+
+/**
+ * 过滤器类，基于Counting Bloom Filter算法实现
+ * @author will
+ *
+ */
+public class Griddle {
+	
+	/*
+	 * Dump文件的持久化级别：写入后同步到磁盘的方式，级别越高掉电后丢失的越少，Dump线程等待的时间也越长
+	 */
+	public static final int PAGE_CACHE_DURABILITY = 0;   // 不同步，由操作系统择机写回，掉电可能丢失最近的Dump甚至留下空文件
+	public static final int DATA_SYNC_DURABILITY = 1;    // 重命名前同步文件数据（fdatasync），掉电后Dump文件总是完整的，但可能是上一次的
+	public static final int FULL_SYNC_DURABILITY = 2;    // 同时同步文件元数据和目录项（fsync文件和目录），掉电后保留最近一次成功的Dump
+	
+	private int maxRepeatInsertCount;   // 最多可以重复插入同一个条目多少次
+	private int vectorSize;             // 预计总条目数
+	private int hashNum;
+	private int hashType;
+	private int hashStrategy;           // 哈希值生成策略，见HashFunction
+	private int cbfType;                // CBF实现类型，见CBFSection
+	private int storageType;            // 计数器存储位置，见BucketStorage
+	private int bucketBits;             // 计数器位宽，决定maxRepeatInsertCount的上限
+	private int shardNum;               // 分片数，只对CBFSection.SHARDED_CBF有效
+	private boolean customGeometry;     // vectorSize和hashNum是否创建时单独指定，是则记录在Dump文件中，恢复时沿用而不随全局配置变化
+	
+	private String griddleName;        // 从dumpFileName解析，记录在Dump文件头中
+	private long createTimeMillis;     // 创建时间，从Dump文件恢复时沿用文件头中记录的时间
+	private int damagedPageCount;      // 从Dump文件恢复时校验失败并清零的页数
+	
+	private String dumpFileDir;
+	private String dumpFileName;
+	private long fileSizeInByte;       // Dump文件中CBF流格式部分（新格式的数据区）的大小
+	
+	private volatile CBFSection cbfSection;   // CBF数据区，包装了一个Counting Bloom Filter实现类对象
+	
+	/*
+	 * Dump文件与内存中的CBF相比只差脏页（上次Dump之后修改过的4KB页）时为true，此时定时Dump只需把脏页写入Dump文件，
+	 * 写入量与这段时间的投票量相关而与vectorSize无关。从原样编码的Dump文件无损恢复或完整Dump成功后为true，
+	 * 写入脏页失败后为false。压缩的Dump文件不能只写入脏页，所以总是false
+	 */
+	private volatile boolean dumpFileInSync;
+	
+	/*
+	 * 计数器中非0字（8字节）的比例，压缩Dump或从新格式的Dump文件恢复时统计。低于compressionFillRatio时压缩Dump，
+	 * 否则原样Dump以便只写入脏页。原样Dump时不统计，比例除删除外只增不减，所以原样Dump后直到重启都不再压缩
+	 */
+	private volatile double fillRatio;
+	private volatile double compressionFillRatio;   // 为0时不压缩
+	
+	private WriteAheadLog wal;   // 预写日志，未启用时为null
+	private volatile PackStore packStore;   // 打包存储，为null时Dump到单独的Dump文件
+	private volatile int lastAccessEpoch;   // 最近一次被访问时GriddleManager的访问周期，用于换出最久未访问的Griddle
+	
+	/*
+	 * 修改计数（成功的插入、修改maxRepeatInsertCount等），与上次Dump成功时的计数相同说明Dump文件已包含所有修改，
+	 * 定时Dump可以跳过。新建、从Dump文件恢复时有页校验失败、重放了WAL等Dump文件落后于内存的情况下先计一次修改
+	 */
+	private final StripedCounter modificationCounter = new StripedCounter();   // 只增不减，先后两次sum()相等说明这段时间内没有修改
+	private volatile long dumpedModificationCount;
+	
+	private volatile int dumpDurability;           // 持久化级别，记录在Dump文件头中
+	private boolean dumpDurabilityRestored;        // dumpDurability是否从Dump文件头恢复
+	private volatile long syncCount;               // Dump后同步到磁盘的次数
+	private volatile long syncMicros;              // Dump后同步到磁盘的累计耗时
+	private volatile long lastSyncMicros;          // 最近一次同步的耗时
+	
+	private final Object dumpMutex = new Object();   // 同一个Griddle的Dump互斥锁
+
+	private AtomicBoolean hasRecycled = new AtomicBoolean(false);   // 是否已被回收
+	private static final int RECYCLE_RETRY_TIMES = 3;              // 回收重试次数
+	private static final int RENMAE_RETRY_TIMES = 3;               // 重命名文件重试次数
+	
+	/*
+	 * 映射模式（storageType为BucketStorage.MAPPED_STORAGE）下Dump文件头部区域的大小，计数器从这里开始，
+	 * 保证按8字节（实际是64字节）对齐以便CAS。头部区域先按原格式写入CBF头部，然后补0，最后12字节依次为
+	 * 单独指定的vectorSize、hashNum（沿用全局配置时都为0）和cbfType
+	 */
+	private static final int MAPPED_HEADER_SIZE_IN_BYTE = 64;
+	
+	private static final Logger LOG = LoggerFactory.getLogger(Griddle.class);
+	
+	
+	/*
+	 * ------------------------------------------------------
+	 * 构造函数
+	 * ------------------------------------------------------
+	 */
+	
+	private Griddle(int maxRepeatInsertCount, int vectorSize, int hashNum, int hashType, int hashStrategy, 
+			int cbfType, int storageType, int bucketBits, int shardNum, boolean customGeometry, String dumpFileDir, 
+			String dumpFileName, WalWriter walWriter) {
+		if(maxRepeatInsertCount <= 0
+		   || vectorSize <= 0
+		   || hashNum <= 0
+		   || hashType < 0
+		   || StringUtils.isEmpty(dumpFileDir)
+		   || StringUtils.isEmpty(dumpFileName)) {
+			throw new IllegalArgumentException("all int type constructor params for " 
+					+ "CBFBasedFilter should > 0 (hashType >= 0), dumpFileDir and dumpFileName should not empty");
+		}
+		
+		this.maxRepeatInsertCount = maxRepeatInsertCount;
+		this.vectorSize = vectorSize;
+		this.hashNum = hashNum;
+		this.hashType = hashType;
+		this.hashStrategy = getEffectiveHashStrategy(cbfType, hashStrategy);
+		this.cbfType = cbfType;
+		this.storageType = storageType;
+		this.bucketBits = bucketBits;
+		this.shardNum = shardNum;
+		this.customGeometry = customGeometry;
+		checkMaxRepeatInsertCount(maxRepeatInsertCount, bucketBits);
+		checkStorageType(cbfType, storageType);
+		
+		this.griddleName = getGriddleName(dumpFileName);
+		this.createTimeMillis = System.currentTimeMillis();
+		this.fillRatio = 0;   // 计数器全为0
+		this.dumpFileDir = dumpFileDir;
+		this.dumpFileName = dumpFileName;
+		this.fileSizeInByte = getCaculatedFileSizeInByte(this.vectorSize, this.hashStrategy, this.cbfType, 
+				this.storageType, this.bucketBits, this.shardNum);
+		
+		this.cbfSection = createNewCBFSection();
+		this.modificationCounter.increment();   // Dump文件还不存在
+		initWriteAheadLog(walWriter);
+	}
+	
+	/**
+	 * 从Dump文件恢复
+	 * @param savedDumpFile 新格式Dump文件的文件头，旧格式时为null
+	 */
+	private Griddle(int maxRepeatInsertCount, int vectorSize, int hashNum, int hashType, int hashStrategy, 
+			int cbfType, int storageType, int shardNum, boolean customGeometry, String dumpFileDir, String dumpFileName, 
+			CountingFilter cbf, DumpFile savedDumpFile, WalWriter walWriter) {
+		if(maxRepeatInsertCount <= 0
+		   || vectorSize <= 0
+		   || hashNum <= 0
+		   || hashType <= 0
+		   || StringUtils.isEmpty(dumpFileDir)
+		   || StringUtils.isEmpty(dumpFileName)
+		   || cbf == null) {
+			throw new IllegalArgumentException("all int type constructor params for " 
+					+ "CBFBasedFilter should > 0, dumpFileDir and dumpFileName should not be empty, " 
+					+ "cbf should not be null");
+		}
+		
+		this.maxRepeatInsertCount = maxRepeatInsertCount;
+		this.vectorSize = vectorSize;
+		this.hashNum = hashNum;
+		this.hashType = hashType;
+		this.hashStrategy = getEffectiveHashStrategy(cbfType, hashStrategy);
+		this.cbfType = cbfType;
+		this.storageType = storageType;
+		this.bucketBits = cbf.getBucketBits();   // 以Dump文件中记录的位宽为准
+		this.shardNum = shardNum;
+		this.customGeometry = customGeometry;
+		checkMaxRepeatInsertCount(maxRepeatInsertCount, this.bucketBits);
+		
+		this.griddleName = getGriddleName(dumpFileName);
+		this.createTimeMillis = savedDumpFile != null ? savedDumpFile.getCreateTimeMillis() : System.currentTimeMillis();
+		this.damagedPageCount = savedDumpFile != null ? savedDumpFile.getDamagedPageCount() : 0;
+		this.fillRatio = savedDumpFile != null ? savedDumpFile.getFillRatio() : 1;   // 旧格式没有统计，按稠密处理
+		this.dumpDurabilityRestored = savedDumpFile != null && savedDumpFile.getDurability() >= 0;
+		this.dumpDurability = dumpDurabilityRestored ? savedDumpFile.getDurability() : PAGE_CACHE_DURABILITY;
+		this.dumpFileDir = dumpFileDir;
+		this.dumpFileName = dumpFileName;
+		this.fileSizeInByte = getCaculatedFileSizeInByte(this.vectorSize, this.hashStrategy, this.cbfType, 
+				this.storageType, this.bucketBits, this.shardNum);
+		
+		this.cbfSection = createNewCBFSection(cbf);
+		// 计数器刚从Dump文件读入，旧格式、压缩的文件或有页校验失败时下一次Dump重写整个文件
+		this.dumpFileInSync = savedDumpFile != null && !savedDumpFile.isCompressed() && this.damagedPageCount == 0;
+		if(savedDumpFile == null || this.damagedPageCount > 0) {   // 旧格式的文件也要尽快重写为新格式
+			this.modificationCounter.increment();
+		}
+		initWriteAheadLog(walWriter);
+	}
+	
+	/**
+	 * 启用WAL时重放上次Dump之后的插入（Dump文件不存在或已丢弃时也重放）。
+	 * 映射模式不使用WAL：进程崩溃时已修改的页仍在操作系统的页缓存中，会被写回Dump文件，重放会重复计数
+	 * @param walWriter 为null时不启用WAL
+	 */
+	private void initWriteAheadLog(WalWriter walWriter) {
+		if(walWriter == null) {
+			return;
+		}
+		if(this.storageType == BucketStorage.MAPPED_STORAGE) {
+			LOG.info("griddle [{}] uses mapped storage, wal is not needed", dumpFileName);
+			return;
+		}
+		
+		this.wal = new WriteAheadLog(getFullDumpFilePath(this.dumpFileDir, this.dumpFileName), walWriter);
+		if(wal.replay(cbfSection.getCBF()) > 0) {
+			this.modificationCounter.increment();
+		}
+	}
+	
+	
+	/*
+	 * ------------------------------------------------------
+	 * 使用Counting Bloom Filter的相关方法 
+	 * ------------------------------------------------------
+	 */
+	
+	/**
+	 * 插入Key到Counting Bloom Filter中，如果Key为空或者已达到最大重复插入次数返回false表示插入失败，
+	 * 否则返回true表示插入成功
+	 * @param keyWord   待添加的关键词
+	 * @return true（插入Key成功） or false（插入Key失败）
+	 */
+	public boolean add(String keyWord) {
+		/*
+		 * GriddleManager中已校验了keyWord非空，所以这里不重复校验
+		 * if(StringUtils.isEmpty(keyWord)) {
+			return false;
+		}*/
+		return insertKey(cbfSection, keyWord);
+	}
+	
+	/**
+	 * 获取某个keyWord已重复插入的次数
+	 * @param keyWord
+	 * @return
+	 */
+	public int getRepeatedInsertCount(String keyWord) {
+		return getInsertedCount(cbfSection, keyWord);
+	}
+	
+	/**
+	 * 批量插入关键词，整批只做一次使用计数加减，语义同逐个调用add(String)
+	 * @param keyWords
+	 * @return 插入成功的关键词下标
+	 * @throws WalWriteFailedException 启用WAL时记录写入失败，插入已生效但要到下一次Dump后才能持久化
+	 */
+	public BitSet add(CharSequence[] keyWords) {
+		acquire(cbfSection);
+		try {
+			WriteAheadLog wal = this.wal;
+			if(wal == null) {
+				BitSet inserted = cbfSection.insertKeysIfBelow(keyWords, getMaxRepeatInsertCount());
+				if(!inserted.isEmpty()) {
+					modificationCounter.increment();
+				}
+				return inserted;
+			}
+			
+			BitSet inserted;
+			WriteAheadLog.Batch batch;
+			wal.beginUpdate();   // 插入和追加记录之间不会切分WAL
+			try {
+				inserted = cbfSection.insertKeysIfBelow(keyWords, getMaxRepeatInsertCount());
+				List<CharSequence> insertedKeyWords = new ArrayList<CharSequence> (inserted.cardinality());
+				for(int i = inserted.nextSetBit(0); i >= 0; i = inserted.nextSetBit(i + 1)) {
+					insertedKeyWords.add(keyWords[i]);
+				}
+				batch = wal.appendWithoutWait(insertedKeyWords);
+			}
+			finally {
+				wal.endUpdate();
+			}
+			if(!inserted.isEmpty()) {
+				modificationCounter.increment();
+			}
+			wal.awaitDurable(batch);   // 整批记录落盘后才返回
+			return inserted;
+		}
+		finally {
+			cbfSection.decreaseUseCount();
+		}
+	}
+	
+	/**
+	 * 批量获取关键词已重复插入的次数，整批只做一次使用计数加减
+	 * @param keyWords
+	 * @return 与keyWords一一对应的已插入次数
+	 */
+	public int[] getRepeatedInsertCount(CharSequence[] keyWords) {
+		acquire(cbfSection);
+		try {
+			return cbfSection.getInsertedCounts(keyWords);
+		}
+		finally {
+			cbfSection.decreaseUseCount();
+		}
+	}
+	
+	/**
+	 * 扫描计数器，统计非0计数器数和计数器取值的直方图，据此估计已插入的不同关键词数和误判率。
+	 * 要遍历所有计数器（只细看非0的字），适合定期监控而不是每次插入时调用
+	 * @return
+	 */
+	public CounterStats getCounterStats() {
+		CBFSection section = this.cbfSection;
+		acquire(section);
+		try {
+			return section.getCBF().getCounterStats();
+		}
+		finally {
+			section.decreaseUseCount();
+		}
+	}
+	
+	/**
+	 * 标记Griddle为可以回收，外部调用这个接口
+	 */
+	public void markToRecycle() {
+		cbfSection.markToEnableCanGC();
+		ensureNotEvicted();   // 换出时看到标记而放弃，或者这里看到已换出
+	}
+	
+	/**
+	 * 真正的回收方法：释放CBF占用内存，并删除对应的磁盘文件
+	 */
+	public void recycle() {
+		if(hasRecycled()) {   // 不要重复进行回收
+//			throw new RecycleGriddleFailedException("duplicate recycle griddle: " + getDumpFileName());
+			return;
+		}
+		
+		/*
+		 * 必须同时满足canGC为true且useCount为0才可以回收，回收时立即释放CBF占用的内存（包括堆外内存），
+		 * 之后对该Griddle的读写都会失败
+		 */
+		if(cbfSection.recycle()) {
+			LOG.debug("recycle griddle: {}", getDumpFileName());
+			
+			int retriedTimes = 0;
+			Throwable throwable = null;
+			while(retriedTimes < RECYCLE_RETRY_TIMES) {   // 删除文件失败则重试
+				String toDeleteDumpFilePath = getFullDumpFilePath(this.dumpFileDir, this.dumpFileName);
+				File dumpFile = new File(toDeleteDumpFilePath);
+				try {
+					/*
+					 * 删除对应的磁盘Dump文件
+					 */
+					FileUtil.deleteFile(dumpFile);
+					if(wal != null) {
+						wal.delete();
+					}
+					if(packStore != null) {
+						packStore.remove(this.dumpFileName);
+					}
+					break;
+				}
+				catch(Exception e) {
+					retriedTimes++;
+					LOG.error(String.format("delete dump file [%s] failed, has retried times: %d", 
+											toDeleteDumpFilePath,
+											retriedTimes), 
+							  e);
+					throwable = e;
+				}
+			}
+			
+			if(retriedTimes == RECYCLE_RETRY_TIMES) {   // 重试后仍失败则抛出异常
+				throw new RecycleGriddleFailedException(String.format("recycle failed after exhaust retry times, griddleName: %s", 
+																		getDumpFileName()), 
+														 throwable);
+			}
+			
+			setHasRecycled();   // 标记当前Griddle为已被回收
+		}
+	}
+	
+	/**
+	 * 创建CBFSection对象
+	 * @return
+	 */
+	private CBFSection createNewCBFSection() {
+		if(this.storageType == BucketStorage.MAPPED_STORAGE) {
+			return new CBFSection(createMappedCBF());
+		}
+		
+		return new CBFSection(CBFSection.newCBF(this.cbfType, this.vectorSize, this.hashNum, this.hashType, 
+				this.hashStrategy, this.storageType, this.bucketBits, this.shardNum));
+	}
+	
+	/**
+	 * 映射模式下新建Dump文件并映射到内存，计数器初始全为0（稀疏文件，不需要写入）
+	 * @return
+	 */
+	private CountingFilter createMappedCBF() {
+		String dumpFilePath = getFullDumpFilePath(this.dumpFileDir, this.dumpFileName);
+		File dumpFile = new File(dumpFilePath);
+		FileUtil.deleteFile(dumpFile);   // 丢弃配置不一致或已损坏的旧文件
+		
+		MappedBucketStorage storage = null;
+		RandomAccessFile raf = null;
+		try {
+			storage = MappedBucketStorage.map(dumpFile, MAPPED_HEADER_SIZE_IN_BYTE, 
+					getCaculatedSizeInWords(this.vectorSize, this.cbfType, this.bucketBits));
+			CountingFilter cbf = CBFSection.newCBF(this.cbfType, this.vectorSize, this.hashNum, this.hashType, 
+					this.hashStrategy, this.bucketBits, storage);
+			
+			ByteArrayOutputStream headerBos = new ByteArrayOutputStream(MAPPED_HEADER_SIZE_IN_BYTE);
+			DataOutputStream headerDos = new DataOutputStream(headerBos);
+			cbf.writeHeader(headerDos);
+			headerDos.flush();
+			raf = new RandomAccessFile(dumpFile, "rw");
+			raf.write(headerBos.toByteArray());
+			raf.seek(MAPPED_HEADER_SIZE_IN_BYTE - 12);
+			raf.writeInt(this.customGeometry ? this.vectorSize : 0);
+			raf.writeInt(this.customGeometry ? this.hashNum : 0);
+			raf.writeInt(this.cbfType);
+			raf.getFD().sync();
+			return cbf;
+		} catch (IOException e) {
+			if(storage != null) {
+				storage.release();
+			}
+			
+			String errorMsg = "create mapped dump file [" + dumpFilePath + "] failed: " + e.getMessage();
+			LOG.error(errorMsg, e);
+			throw new DumpFileFailedException(errorMsg, e);
+		} finally {
+			FileUtil.closeQuietly(raf, dumpFilePath);
+		}
+	}
+	
+	/**
+	 * 映射模式下从Dump文件恢复CBF：只读取头部，计数器直接映射到内存，不需要读取整个文件
+	 * @param dumpFile
+	 * @param vectorSize
+	 * @param cbfType
+	 * @param bucketBits 按文件大小确定的计数器位宽
+	 * @return 如果Dump文件中记录的cbfType与传入的不一致则返回null
+	 * @throws IOException
+	 */
+	private static CountingFilter restoreMappedCBF(File dumpFile, int vectorSize, int cbfType, int bucketBits) 
+			throws IOException {
+		byte[] header = new byte[MAPPED_HEADER_SIZE_IN_BYTE];
+		RandomAccessFile raf = new RandomAccessFile(dumpFile, "r");
+		try {
+			raf.readFully(header);
+		} finally {
+			FileUtil.closeQuietly(raf, dumpFile.getPath());
+		}
+		
+		if(ByteBuffer.wrap(header).getInt(MAPPED_HEADER_SIZE_IN_BYTE - 4) != cbfType) {
+			return null;
+		}
+		
+		MappedBucketStorage storage = MappedBucketStorage.map(dumpFile, MAPPED_HEADER_SIZE_IN_BYTE, 
+				getCaculatedSizeInWords(vectorSize, cbfType, bucketBits));
+		CountingFilter cbf = CBFSection.newEmptyCBF(cbfType, BucketStorage.MAPPED_STORAGE);
+		try {
+			cbf.readHeader(new DataInputStream(new ByteArrayInputStream(header)), storage);
+		} catch (IOException e) {
+			storage.release();
+			throw e;
+		}
+		return cbf;
+	}
+	
+	/**
+	 * 读取映射格式的Dump文件头部区域中记录的单独指定的vectorSize和hashNum
+	 * @param dumpFile
+	 * @param cbfType
+	 * @return {vectorSize, hashNum}，不是cbfType的映射格式文件（流格式的文件大小不是8的倍数）或沿用全局配置时返回null
+	 * @throws IOException
+	 */
+	private static int[] readMappedGeometry(File dumpFile, int cbfType) throws IOException {
+		if(cbfType == CBFSection.SHARDED_CBF 
+		   || dumpFile.length() < MAPPED_HEADER_SIZE_IN_BYTE 
+		   || dumpFile.length() % 8 != 0) {
+			return null;
+		}
+		
+		byte[] header = new byte[MAPPED_HEADER_SIZE_IN_BYTE];
+		RandomAccessFile raf = new RandomAccessFile(dumpFile, "r");
+		try {
+			raf.readFully(header);
+		} finally {
+			FileUtil.closeQuietly(raf, dumpFile.getPath());
+		}
+		
+		ByteBuffer buffer = ByteBuffer.wrap(header);
+		int vectorSize = buffer.getInt(MAPPED_HEADER_SIZE_IN_BYTE - 12);
+		int hashNum = buffer.getInt(MAPPED_HEADER_SIZE_IN_BYTE - 8);
+		if(buffer.getInt(MAPPED_HEADER_SIZE_IN_BYTE - 4) != cbfType || vectorSize <= 0 || hashNum <= 0) {
+			return null;
+		}
+		return new int[] {vectorSize, hashNum};
+	}
+	
+	/**
+	 * 把单独指定的vectorSize和hashNum写入映射格式的Dump文件的头部区域，比如从新格式转换而来的文件
+	 * @param dumpFile
+	 * @param vectorSize
+	 * @param hashNum
+	 * @throws IOException
+	 */
+	private static void writeMappedGeometry(File dumpFile, int vectorSize, int hashNum) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(dumpFile, "rw");
+		try {
+			raf.seek(MAPPED_HEADER_SIZE_IN_BYTE - 12);
+			raf.writeInt(vectorSize);
+			raf.writeInt(hashNum);
+			raf.getFD().sync();
+		} finally {
+			FileUtil.closeQuietly(raf, dumpFile.getPath());
+		}
+	}
+	
+	/**
+	 * 创建CBFSection对象重载方法
+	 * @param cbf
+	 * @return
+	 */
+	private CBFSection createNewCBFSection(CountingFilter cbf) {
+		return new CBFSection(cbf);
+	}
+	
+	/**
+	 * 往CBFSection中插入Key，如果未达到最大重复插入次数，则允许插入并返回true；返回返回false。
+	 * 判断是否达到最大重复插入次数和插入是一次原子操作，操作前后分别进行计数增1和减1。
+	 * 关键词统一按UTF-8编码后哈希，保证各节点结果一致，并且整个过程不创建任何对象
+	 * @param section
+	 * @param keyWord
+	 * @return
+	 * @throws IllegalStateException Griddle已被回收
+	 * @throws WalWriteFailedException 启用WAL时记录写入失败，插入已生效但要到下一次Dump后才能持久化
+	 */
+	private boolean insertKey(CBFSection section, CharSequence keyWord) {
+		acquire(section);
+		try {
+			WriteAheadLog wal = this.wal;
+			if(wal == null) {
+				int insertedCount = section.insertKeyIfBelow(keyWord, getMaxRepeatInsertCount());
+				if(insertedCount > 0) {
+					modificationCounter.increment();
+				}
+				return insertedCount > 0;
+			}
+			
+			int insertedCount;
+			WriteAheadLog.Batch batch = null;
+			wal.beginUpdate();   // 插入和追加记录之间不会切分WAL
+			try {
+				insertedCount = section.insertKeyIfBelow(keyWord, getMaxRepeatInsertCount());
+				if(insertedCount > 0) {
+					batch = wal.appendWithoutWait(keyWord);
+				}
+			}
+			finally {
+				wal.endUpdate();
+			}
+			if(insertedCount > 0) {
+				modificationCounter.increment();
+			}
+			wal.awaitDurable(batch);   // 记录落盘后才返回，保证崩溃后不丢失
+			return insertedCount > 0;
+		}
+		finally {
+			section.decreaseUseCount();
+		}
+	}
+	
+	private int getInsertedCount(CBFSection section, CharSequence keyWord) {
+		acquire(section);
+		try {
+			return section.getInsertedCount(keyWord);
+		}
+		finally {
+			section.decreaseUseCount();
+		}
+	}
+	
+	/**
+	 * 使用计数加1，保证使用期间cbf不会被回收
+	 * @param section
+	 * @throws IllegalStateException Griddle已被回收
+	 */
+	private void acquire(CBFSection section) {
+		if(!section.tryIncreaseUseCount()) {
+			ensureNotEvicted();
+			throw new IllegalStateException("griddle has been recycled: " + getDumpFileName());
+		}
+	}
+	
+	/**
+	 * @throws GriddleEvictedException Griddle已被换出，需要通过GriddleManager重新获取
+	 */
+	private void ensureNotEvicted() {
+		if(cbfSection.hasEvicted()) {
+			throw new GriddleEvictedException("griddle has been evicted: " + getDumpFileName());
+		}
+	}
+	
+	
+	/*
+	 * ------------------------------------------------------
+	 * Dump CBF相关方法
+	 * ------------------------------------------------------
+	 */
+	
+	/**
+	 * Dump CBF到磁盘文件，始终只Dump包含最新数据的CBF。启用WAL时，Dump总是完全同步到磁盘，成功后删除快照之前的WAL记录。
+	 * 同一个Griddle的Dump互斥，不同Griddle可以并行Dump
+	 */
+	public void dumpCBFToDisk() {
+		dumpCBFToDisk(IoThrottle.UNLIMITED);
+	}
+	
+	/**
+	 * 同dumpCBFToDisk()，写入按throttle限速（映射模式由操作系统写回脏页，不限速）
+	 * @param throttle
+	 */
+	void dumpCBFToDisk(IoThrottle throttle) {
+		synchronized (dumpMutex) {
+			if(cbfSection.hasEvicted()) {   // Dump文件和WAL已由换入后的新对象使用
+				return;
+			}
+			long modificationCount = modificationCounter.sum();   // 在取快照之前读取，之后的修改留给下一次Dump
+			WriteAheadLog wal = this.wal;
+			WriteAheadLog.Cut cut = wal != null ? wal.newCut() : null;   // 在快照的时间点切分WAL
+			
+			PackStore packStore = this.packStore;
+			if(packStore != null) {
+				writeCBFToPack(packStore, throttle, cut);   // 失败时抛出异常，保留WAL记录
+			}
+			else {
+				writeCBFToDisk(throttle, cut);
+			}
+			dumpedModificationCount = modificationCount;
+			
+			if(cut != null && cut.getGeneration() >= 0) {   // 切分出的记录都已包含在同步到磁盘的Dump中
+				final int generation = cut.getGeneration();
+				if(packStore != null) {   // 区段在索引写入磁盘后才生效
+					final WriteAheadLog committedWal = wal;
+					packStore.runAfterCommit(new Runnable() {
+						@Override
+						public void run() {
+							committedWal.truncate(generation);
+						}
+					});
+				}
+				else {
+					wal.truncate(generation);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * 上次Dump成功之后是否有修改，没有修改时Dump文件已是最新的
+	 * @return
+	 */
+	public boolean isModifiedSinceLastDump() {
+		return modificationCounter.sum() != dumpedModificationCount;
+	}
+	
+	/**
+	 * 标记为已修改，下一次Dump不会跳过，比如需要写到另一种存储或另一个段文件
+	 */
+	void markModified() {
+		modificationCounter.increment();
+	}
+	
+	/**
+	 * 换出：Dump文件已是最新且没有用户使用时释放计数器占用的内存，之后对该对象的访问抛出GriddleEvictedException，
+	 * 由GriddleManager从Dump文件重新恢复。调用前应先Dump，打包模式下还应先写入索引
+	 * @return 是否已换出，换出后Dump文件又落后（Dump之后有修改）或有用户正在使用时返回false，可以稍后重试
+	 */
+	boolean evict() {
+		synchronized (dumpMutex) {
+			CBFSection section = this.cbfSection;
+			if(!section.tryEvict()) {
+				return false;
+			}
+			
+			/*
+			 * 修改在释放使用计数之前计入modificationCounter，所以标记换出后没有修改就说明Dump文件已包含所有修改。
+			 * 上一次Dump的WAL记录还没删除时（打包模式下索引还没写入）不能换出，否则换入时会重复重放
+			 */
+			WriteAheadLog wal = this.wal;
+			if(isModifiedSinceLastDump() || section.canGC() || (wal != null && wal.hasRotatedRecords())) {   // 待回收的不换出
+				section.cancelEvict();
+				return false;
+			}
+			
+			if(wal != null) {
+				wal.close();
+			}
+			section.getCBF().clear();   // 堆外内存和映射立即释放，堆内存在对象不再被引用后回收
+			LOG.debug("evict griddle [{}]", dumpFileName);
+			return true;
+		}
+	}
+	
+	/**
+	 * 记录一次访问，同一个访问周期内只写一次
+	 * @param accessEpoch GriddleManager当前的访问周期
+	 */
+	void touch(int accessEpoch) {
+		if(lastAccessEpoch != accessEpoch) {
+			lastAccessEpoch = accessEpoch;
+		}
+	}
+	
+	int getLastAccessEpoch() {
+		return lastAccessEpoch;
+	}
+	
+	/**
+	 * 之后的Dump追加到打包存储中（启用打包存储时由GriddleManager设置）
+	 * @param packStore
+	 */
+	void usePackStore(PackStore packStore) {
+		this.packStore = packStore;
+	}
+	
+	/**
+	 * 把CBF作为一个完整的区段追加到打包存储，没有脏页写入：每次都是顺序追加，适合大量小Griddle。
+	 * 区段在packStore.commit()后才写入索引，迁移前的单独的Dump文件也在那之后删除
+	 * @param packStore
+	 * @param throttle
+	 * @param listener 快照的回调，可以为null
+	 */
+	private void writeCBFToPack(PackStore packStore, IoThrottle throttle, SnapshotListener listener) {
+		CBFSection section = this.cbfSection;
+		if(!section.tryIncreaseUseCount()) {   // 已被回收则不再Dump
+			LOG.debug("griddle [{}] has been recycled, skip dump", dumpFileName);
+			return;
+		}
+		
+		LOG.debug("dump cbf of griddle [{}] to pack store", dumpFileName);
+		DumpFile dumpFile = new DumpFile(griddleName, maxRepeatInsertCount, cbfType, bucketBits, createTimeMillis, 
+				fileSizeInByte, dumpDurability, customGeometry ? vectorSize : 0, customGeometry ? hashNum : 0);
+		boolean compress = fillRatio < compressionFillRatio;
+		PackStore.Appender appender = null;
+		try {
+			appender = packStore.append(dumpFileName);
+			DumpFile written = dumpFile.writeTo(appender.getChannel(), section.getCBF(), compress, throttle, 
+					listener, getSyncDurability());
+			appender.commit();
+			if(compress) {
+				fillRatio = written.getFillRatio();
+			}
+			recordSync(getSyncDurability(), written.getSyncNanos());
+		} catch (IOException e) {
+			String errorMsg = "dump CBF of [" + dumpFileName + "] to pack store failed: " + e.getMessage();
+			LOG.error(errorMsg, e);
+			throw new DumpFileFailedException(errorMsg, e);
+		} finally {
+			if(appender != null) {
+				appender.abort();   // 已提交时不做任何事
+			}
+			section.decreaseUseCount();
+		}
+		
+		final File legacyDumpFile = new File(getFullDumpFilePath(dumpFileDir, dumpFileName));
+		if(legacyDumpFile.exists()) {   // 从单独的Dump文件迁移过来
+			packStore.runAfterCommit(new Runnable() {
+				@Override
+				public void run() {
+					LOG.info("delete dump file [{}], migrated to pack store", legacyDumpFile.getPath());
+					FileUtil.deleteFile(legacyDumpFile);
+				}
+			});
+		}
+	}
+	
+	private void writeCBFToDisk(IoThrottle throttle, SnapshotListener listener) {
+		if(this.storageType == BucketStorage.MAPPED_STORAGE) {   // 映射模式下计数器就在Dump文件中，只需把脏页刷到磁盘
+			forceMappedCBF();
+			return;
+		}
+		
+		String dumpFilePath = getFullDumpFilePath(dumpFileDir, dumpFileName);
+		DumpFile dumpFile = new DumpFile(griddleName, maxRepeatInsertCount, cbfType, bucketBits, createTimeMillis, 
+				fileSizeInByte, dumpDurability, customGeometry ? vectorSize : 0, customGeometry ? hashNum : 0);
+		if(dumpFileInSync && new File(dumpFilePath).length() == dumpFile.getRawFileLength()) {   // 只写入脏页
+			dumpDirtyPagesToDisk(dumpFilePath, dumpFile, throttle, listener);
+			return;
+		}
+		
+		String tmpDumpFilePath = dumpFilePath + ".tmp";
+		int tmpFileIndex = 0;
+		while(FileUtil.isFileExist(tmpDumpFilePath)) {
+			tmpDumpFilePath = dumpFilePath + ".tmp." + tmpFileIndex;
+			tmpFileIndex++;
+		}
+		
+		LOG.debug("dump cbf to file [{}]", dumpFilePath);
+		
+		File oldDumpFile = new File(dumpFilePath);
+		File tmpDumpFile = new File(tmpDumpFilePath);
+		CBFSection section = this.cbfSection;
+		if(!section.tryIncreaseUseCount()) {   // 已被回收则不再Dump
+			LOG.debug("griddle [{}] has been recycled, skip dump", dumpFileName);
+			return;
+		}
+		
+		CountingFilter cbf = section.getCBF();
+		FileOutputStream fos = null;
+		boolean compress = fillRatio < compressionFillRatio;
+		long syncNanos;
+		try {
+			fos = new FileOutputStream(tmpDumpFile);
+			dumpFileInSync = false;   // 脏页被清除后，写入失败时旧Dump文件已缺少这些修改
+			cbf.clearDirtyPages();   // 之后的修改留给下一次Dump写入
+			// 计数器经直接内存缓冲区成块写入数据区，数据区格式与cbf.write(DataOutput)相同
+			DumpFile written = dumpFile.writeTo(new FilePositionalChannel(fos.getChannel()), cbf, compress, throttle, 
+					listener, getSyncDurability());
+			syncNanos = written.getSyncNanos();
+			if(written.getPayloadLength() != fileSizeInByte) {   // 之后按文件大小判断能否只写入脏页
+				LOG.warn("griddle [{}] wrote {} bytes of cbf, {} expected", 
+						 new Object[] {dumpFileName, written.getPayloadLength(), fileSizeInByte});
+			}
+			if(compress) {
+				fillRatio = written.getFillRatio();
+				LOG.debug("griddle [{}] dumped compressed, fillRatio: {}", dumpFileName, fillRatio);
+			}
+		} catch (IOException e) {
+			String errorMsg = "dump CBF to file [" + dumpFilePath + "] failed: " + e.getMessage();
+			LOG.error(errorMsg, e);
+			throw new DumpFileFailedException(errorMsg, e);
+		} finally {
+			section.decreaseUseCount();
+			
+			if(fos != null) {
+				try {
+					fos.close();
+				}
+				catch(IOException e) {
+					LOG.error("close fos failed: " + tmpDumpFilePath);
+				}
+			}
+		}
+		
+		if(!replaceFile(tmpDumpFile, oldDumpFile)) {   // 重命名失败
+			String errorMsg = "dump CBF to file [" + dumpFilePath + "] failed: rename failed";
+			LOG.error(errorMsg);
+			throw new DumpFileFailedException(errorMsg);
+		}
+		
+		dumpFileInSync = !compress;
+		if(getSyncDurability() == FULL_SYNC_DURABILITY) {   // 重命名写在目录项中，同步目录后才不会在掉电后丢失
+			long startNanos = System.nanoTime();
+			try {
+				if(!FileUtil.syncDirectory(new File(dumpFileDir))) {
+					LOG.debug("sync dump file dir [{}] is not supported", dumpFileDir);
+				}
+			} catch (IOException e) {
+				String errorMsg = "sync dump file dir [" + dumpFileDir + "] failed: " + e.getMessage();
+				LOG.error(errorMsg, e);
+				throw new DumpFileFailedException(errorMsg, e);
+			}
+			syncNanos += System.nanoTime() - startNanos;
+		}
+		recordSync(getSyncDurability(), syncNanos);
+	}
+	
+	/**
+	 * 把上次Dump之后修改过的页直接写入已有的Dump文件，同时更新这些页的CRC32和文件头，失败时下一次Dump会重写整个文件
+	 * @param dumpFilePath
+	 * @param dumpFile 当前的文件头
+	 * @param throttle
+	 * @param listener 快照的回调，可以为null
+	 */
+	private void dumpDirtyPagesToDisk(String dumpFilePath, DumpFile dumpFile, IoThrottle throttle, 
+			SnapshotListener listener) {
+		CBFSection section = this.cbfSection;
+		if(!section.tryIncreaseUseCount()) {   // 已被回收则不再Dump
+			LOG.debug("griddle [{}] has been recycled, skip dump", dumpFileName);
+			return;
+		}
+		
+		try {
+			// 脏页在快照的时间点取出，与WAL的切分点相同，切分出的记录都已包含在写入的页中，Dump之后可以删除
+			int writtenPages = dumpFile.writeDirtyPages(new File(dumpFilePath), section.getCBF(), throttle, 
+					listener, getSyncDurability());
+			LOG.debug("dump {} dirty pages of cbf to file [{}]", writtenPages, dumpFilePath);
+			recordSync(getSyncDurability(), dumpFile.getSyncNanos());
+		} catch (IOException e) {
+			dumpFileInSync = false;
+			String errorMsg = "dump dirty pages of CBF to file [" + dumpFilePath + "] failed: " + e.getMessage();
+			LOG.error(errorMsg, e);
+			throw new DumpFileFailedException(errorMsg, e);
+		} finally {
+			section.decreaseUseCount();
+		}
+	}
+	
+	/**
+	 * 实际采用的持久化级别：启用WAL时Dump成功后会删除切分出的WAL记录，所以Dump必须完全同步到磁盘，
+	 * 否则掉电后这些记录既不在WAL中也不在Dump文件中
+	 * @return
+	 */
+	int getSyncDurability() {
+		return wal != null ? FULL_SYNC_DURABILITY : dumpDurability;
+	}
+	
+	/**
+	 * 记录一次Dump后同步到磁盘的耗时，在dumpMutex内调用
+	 * @param durability
+	 * @param syncNanos
+	 */
+	private void recordSync(int durability, long syncNanos) {
+		if(durability == PAGE_CACHE_DURABILITY) {
+			return;
+		}
+		
+		lastSyncMicros = syncNanos / 1000;
+		syncMicros += lastSyncMicros;
+		syncCount++;
+		LOG.debug("griddle [{}] synced dump file in {} us, durability: {}", 
+				  new Object[] {dumpFileName, lastSyncMicros, durability});
+	}
+	
+	/**
+	 * 映射模式下把已修改的计数器刷到Dump文件
+	 */
+	private void forceMappedCBF() {
+		CBFSection section = this.cbfSection;
+		if(!section.tryIncreaseUseCount()) {   // 已被回收则不再Dump
+			LOG.debug("griddle [{}] has been recycled, skip dump", dumpFileName);
+			return;
+		}
+		
+		try {
+			LOG.debug("force mapped cbf of griddle [{}]", dumpFileName);
+			section.getCBF().force();
+		} catch (IOException e) {
+			String errorMsg = "force mapped CBF of [" + dumpFileName + "] failed: " + e.getMessage();
+			LOG.error(errorMsg, e);
+			throw new DumpFileFailedException(errorMsg, e);
+		} finally {
+			section.decreaseUseCount();
+		}
+	}
+	
+	/**
+	 * 用tmpFile替换targetFile。先直接重命名（POSIX系统上原子地替换，任何时候都有一个完整的targetFile），
+	 * 失败时（比如Windows上targetFile已存在）先删除targetFile再重命名，失败时重试
+	 * @param tmpFile
+	 * @param targetFile
+	 * @return 是否替换成功
+	 */
+	private static boolean replaceFile(File tmpFile, File targetFile) {
+		if(FileUtil.renameFile(tmpFile, targetFile)) {
+			return true;
+		}
+		FileUtil.deleteFile(targetFile);
+
+		int retriedTimes = 0;
+		while(retriedTimes < RENMAE_RETRY_TIMES) {
+			boolean renameResult = FileUtil.renameFile(tmpFile, targetFile);
+			if(renameResult) {   // 重命名成功
+				return true;
+			}
+			
+			retriedTimes++;
+			
+			try {
+				Thread.sleep(200);
+			}
+			catch(InterruptedException _) {
+				// swallow
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * storageType在映射模式和其它模式之间修改过时，转换Dump文件格式，计数器部分保持不变：
+	 * <li>流格式：CBF头部 + 计数器</li>
+	 * <li>映射格式：CBF头部补0到MAPPED_HEADER_SIZE_IN_BYTE字节（最后4字节为cbfType） + 计数器</li>
+	 * @param dumpFile
+	 * @param vectorSize
+	 * @param hashStrategy
+	 * @param cbfType
+	 * @param storageType 当前的storageType
+	 * @param bucketBits
+	 * @return 文件大小符合另一种格式并且转换成功时返回true，SHARDED_CBF没有映射格式，总是返回false
+	 * @throws IOException
+	 */
+	private static boolean convertDumpFileIfStorageTypeChanged(File dumpFile, int vectorSize, int hashStrategy, 
+			int cbfType, int storageType, int bucketBits) throws IOException {
+		if(cbfType == CBFSection.SHARDED_CBF) {
+			return false;
+		}
+		
+		boolean toMapped = storageType == BucketStorage.MAPPED_STORAGE;
+		int otherStorageType = toMapped ? BucketStorage.HEAP_STORAGE : BucketStorage.MAPPED_STORAGE;
+		if(dumpFile.length() != getCaculatedFileSizeInByte(vectorSize, hashStrategy, cbfType, otherStorageType, 
+				bucketBits, 1)) {
+			return false;
+		}
+		
+		LOG.info("storageType has changed, convert dump file [{}], toMapped: {}", dumpFile.getPath(), toMapped);
+		
+		int headerSizeInByte = getCaculatedHeaderSizeInByte(hashStrategy, cbfType, bucketBits);
+		File tmpFile = new File(dumpFile.getPath() + ".convert");
+		DataInputStream dis = null;
+		DataOutputStream dos = null;
+		try {
+			dis = new DataInputStream(new BufferedInputStream(new FileInputStream(dumpFile)));
+			dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			
+			byte[] header = new byte[headerSizeInByte];
+			dis.readFully(header);
+			dos.write(header);
+			if(toMapped) {
+				dos.write(new byte[MAPPED_HEADER_SIZE_IN_BYTE - headerSizeInByte - 4]);
+				dos.writeInt(cbfType);
+			}
+			else {
+				dis.readFully(new byte[MAPPED_HEADER_SIZE_IN_BYTE - headerSizeInByte - 4]);
+				if(dis.readInt() != cbfType) {   // 另一种cbfType的映射文件
+					return false;
+				}
+			}
+			
+			byte[] buffer = new byte[64 * 1024];
+			int readBytes;
+			while((readBytes = dis.read(buffer)) > 0) {
+				dos.write(buffer, 0, readBytes);
+			}
+			dos.flush();
+		} finally {
+			FileUtil.closeQuietly(dis, dumpFile.getPath());
+			FileUtil.closeQuietly(dos, tmpFile.getPath());
+		}
+		
+		return replaceFile(tmpFile, dumpFile);
+	}
+	
+	/**
+	 * 从磁盘文件恢复Griddle对象或在发生异常时从头开始构建Griddle对象，异常情况包括下面几种：
+	 * <li>对应的Dump文件不存在</li>
+	 * <li>传入的全局CBF配置属性（Dump文件中记录了单独指定的vectorSize和hashNum时以记录的为准）与从Dump文件中恢复的
+	 * CBF的属性值不一致</li>
+	 * <li>Dump文件大小与预期不一致（例如cbfType已修改，或计数器位宽比bucketBits窄）</li>
+	 * <li>从Dump文件恢复发生异常，包括新格式的文件头损坏</li>
+	 * 新格式的Dump文件中只有校验失败的页被清零，不会因此从头构建
+	 * @param maxRepeatInsertCount 创建时的值，新格式的Dump文件头中记录的值优先
+	 * @param vectorSize 全局配置，Dump文件中记录的单独指定的值优先，Dump文件不存在或已损坏时只能按全局配置新建
+	 * @param hashNum 同vectorSize
+	 * @param hashType
+	 * @param hashStrategy
+	 * @param cbfType
+	 * @param storageType
+	 * @param bucketBits 新建时使用的计数器位宽，Dump文件中的计数器更宽时沿用Dump文件的位宽
+	 * @param shardNum
+	 * @param dumpFileDir
+	 * @param dumpFileName
+	 * @param walWriter 不为null时启用WAL：恢复后重放上次Dump之后的插入，每次成功的插入都先写入WAL
+	 * @return
+	 */
+	public static Griddle restoreFromDumpFileOrConstructFromGroundIfException(int maxRepeatInsertCount, 
+			int vectorSize, int hashNum, int hashType, int hashStrategy, int cbfType, int storageType, 
+			int bucketBits, int shardNum, String dumpFileDir, String dumpFileName, WalWriter walWriter) {
+		if(maxRepeatInsertCount <= 0
+		   || vectorSize <= 0
+		   || hashNum <= 0
+		   || hashType < 0
+		   || StringUtils.isEmpty(dumpFileDir)
+		   || StringUtils.isEmpty(dumpFileName)) {
+			throw new IllegalArgumentException("all int type parameters should > 0 (hashType >= 0), " 
+					+ "dumpFileDir & dumpFileName should not empty");
+		}
+		checkStorageType(cbfType, storageType);
+		
+		Griddle griddle = null;
+		boolean customGeometry = false;
+		String dumpFilePath = getFullDumpFilePath(dumpFileDir, dumpFileName);
+		if(FileUtil.isFileExist(dumpFilePath)) {   // 存在对应的Dump文件，则尝试从Dump文件恢复Griddle对象
+			LOG.info("try to restore Griddle from dump file: {}", dumpFilePath);
+			
+			FileInputStream fis = null;
+			File dumpFile = new File(dumpFilePath);
+			int effectiveHashStrategy = getEffectiveHashStrategy(cbfType, hashStrategy);
+			CountingFilter cbf = null;
+			try {
+				DumpFile savedDumpFile = DumpFile.readHeader(dumpFile);
+				int[] savedGeometry = savedDumpFile != null 
+						? (savedDumpFile.getVectorSize() > 0 
+								? new int[] {savedDumpFile.getVectorSize(), savedDumpFile.getHashNum()} : null) 
+						: readMappedGeometry(dumpFile, cbfType);
+				if(savedGeometry != null) {   // 创建时单独指定的大小，不随全局配置变化
+					vectorSize = savedGeometry[0];
+					hashNum = savedGeometry[1];
+					customGeometry = true;
+				}
+				
+				if(savedDumpFile != null && storageType == BucketStorage.MAPPED_STORAGE) {   // 映射模式只能使用旧格式
+					LOG.info("convert dump file [{}] to legacy format for mapped storage", dumpFilePath);
+					File legacyFile = new File(dumpFilePath + ".convert");
+					savedDumpFile.writeLegacyFormat(dumpFile, legacyFile, getHeaderRanges(vectorSize, 
+							effectiveHashStrategy, cbfType, savedDumpFile.getBucketBits(), shardNum));
+					if(!replaceFile(legacyFile, dumpFile)) {
+						throw new IOException("rename converted dump file failed");
+					}
+					maxRepeatInsertCount = savedDumpFile.getMaxRepeatInsertCount();
+					savedDumpFile = null;
+				}
+				
+				int dumpBucketBits;
+				if(savedDumpFile != null) {   // 新格式的文件头记录了cbfType、计数器位宽和最新的maxRepeatInsertCount
+					if(savedDumpFile.getCbfType() != cbfType) {
+						LOG.info("cbfType of dump file [{}] mismatches current config, construct from ground on", dumpFilePath);
+						return constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, hashStrategy, 
+								cbfType, storageType, bucketBits, shardNum, customGeometry, dumpFileDir, dumpFileName, walWriter);
+					}
+					
+					dumpBucketBits = savedDumpFile.getBucketBits();
+					maxRepeatInsertCount = savedDumpFile.getMaxRepeatInsertCount();
+					cbf = CBFSection.newEmptyCBF(cbfType, storageType);
+					savedDumpFile.readPayload(dumpFile, cbf, getHeaderRanges(vectorSize, effectiveHashStrategy, cbfType, 
+							dumpBucketBits, shardNum));   // 并行校验各页后读入，校验失败的页清零
+				}
+				else {
+					/*
+					 * 不同cbfType的Dump文件格式不同，但头部可能被另一种实现误读，所以先按文件大小判断，
+					 * 同时确定Dump文件的计数器位宽
+					 */
+					dumpBucketBits = getDumpBucketBits(dumpFile, vectorSize, effectiveHashStrategy, cbfType, 
+							storageType, bucketBits, shardNum);
+					if(dumpBucketBits < 0) {
+						LOG.info("size of dump file [{}] mismatches current config, construct from ground on", dumpFilePath);
+						return constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, hashStrategy, 
+								cbfType, storageType, bucketBits, shardNum, customGeometry, dumpFileDir, dumpFileName, walWriter);
+					}
+					
+					if(storageType == BucketStorage.MAPPED_STORAGE) {   // 映射模式下直接映射Dump文件
+						cbf = restoreMappedCBF(dumpFile, vectorSize, cbfType, dumpBucketBits);
+						if(cbf != null && customGeometry) {   // 从新格式转换而来的文件还没有记录
+							writeMappedGeometry(dumpFile, vectorSize, hashNum);
+						}
+					}
+					else {
+						cbf = CBFSection.newEmptyCBF(cbfType, storageType);
+						fis = new FileInputStream(dumpFile);
+						cbf.readFrom(fis.getChannel());   // 计数器经直接内存缓冲区成块读入
+					}
+				}
+				
+				if(cbf == null) {   // 映射文件属于另一种cbfType
+					griddle = constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, hashStrategy, 
+							cbfType, storageType, bucketBits, shardNum, customGeometry, dumpFileDir, dumpFileName, walWriter);
+				}
+				else if(cbf.getVectorSize() != vectorSize 
+				   || cbf.getNbHash() != hashNum 
+				   || cbf.getHashType() != hashType
+				   || cbf.getHashStrategy() != effectiveHashStrategy
+				   || cbf.getBucketBits() != dumpBucketBits) {   // 如果从Dump文件恢复出的CBF配置和现在传入的配置不一致，则由零构建
+					cbf.clear();   // 及时释放（可能是堆外的）内存
+					griddle = constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, hashStrategy, 
+							cbfType, storageType, bucketBits, shardNum, customGeometry, dumpFileDir, dumpFileName, walWriter);
+				}
+				else {
+					griddle = new Griddle(maxRepeatInsertCount, vectorSize, hashNum, hashType, hashStrategy, 
+							cbfType, storageType, shardNum, customGeometry, dumpFileDir, dumpFileName, cbf, savedDumpFile, walWriter);
+				}
+			} catch (Exception e) {
+				LOG.error("restore Griddle from file [" + dumpFilePath + "] failed, to construct from ground on", e);
+				
+				if(cbf != null) {
+					cbf.clear();
+				}
+				
+				// 恢复发生异常，则也从零开始新建
+				griddle = constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, hashStrategy, 
+						cbfType, storageType, bucketBits, shardNum, customGeometry, dumpFileDir, dumpFileName, walWriter);
+			} finally {
+				if(fis != null) {
+					try {
+						fis.close();
+					}
+					catch(IOException e) {
+						LOG.error("close fis failed: " + dumpFilePath);
+					}
+				}
+			}
+		}
+		else {   // 不存在Dump文件则从零开始构建
+			LOG.info("doesn't exist dump file: {}, construct CBFBaseFilter from ground on: ",
+					 dumpFileName);
+			
+			griddle = constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, hashStrategy, 
+					cbfType, storageType, bucketBits, shardNum, dumpFileDir, dumpFileName, walWriter);
+		}
+		
+		return griddle;
+	}
+	
+	/**
+	 * 从打包存储中的区段恢复Griddle，区段的格式与新格式的Dump文件相同，判断和处理同restoreFromDumpFileOrConstructFromGroundIfException。
+	 * 不支持映射模式（区段不能单独映射）
+	 * @param packStore 只从中读取，之后是否Dump到打包存储由usePackStore()决定
+	 * @return
+	 */
+	static Griddle restoreFromPackExtentOrConstructFromGroundIfException(int maxRepeatInsertCount, 
+			int vectorSize, int hashNum, int hashType, int hashStrategy, int cbfType, int storageType, 
+			int bucketBits, int shardNum, String dumpFileDir, String dumpFileName, PackStore packStore, 
+			WalWriter walWriter) {
+		if(storageType == BucketStorage.MAPPED_STORAGE) {
+			throw new IllegalArgumentException("pack store doesn't support mapped storage");
+		}
+		checkStorageType(cbfType, storageType);
+		
+		PositionalChannel channel = packStore.openExtent(dumpFileName);
+		if(channel == null) {
+			LOG.info("doesn't exist extent of {} in pack store, construct CBFBaseFilter from ground on", dumpFileName);
+			return constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, hashStrategy, 
+					cbfType, storageType, bucketBits, shardNum, dumpFileDir, dumpFileName, walWriter);
+		}
+		
+		LOG.info("try to restore Griddle from pack extent: {}", dumpFileName);
+		int effectiveHashStrategy = getEffectiveHashStrategy(cbfType, hashStrategy);
+		boolean customGeometry = false;
+		CountingFilter cbf = null;
+		try {
+			DumpFile savedDumpFile = DumpFile.readHeader(channel);
+			if(savedDumpFile == null) {
+				throw new IOException("extent is not in dump file format");
+			}
+			if(savedDumpFile.getVectorSize() > 0) {   // 创建时单独指定的大小，不随全局配置变化
+				vectorSize = savedDumpFile.getVectorSize();
+				hashNum = savedDumpFile.getHashNum();
+				customGeometry = true;
+			}
+			if(savedDumpFile.getCbfType() != cbfType) {
+				LOG.info("cbfType of pack extent [{}] mismatches current config, construct from ground on", dumpFileName);
+				return constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, hashStrategy, 
+						cbfType, storageType, bucketBits, shardNum, customGeometry, dumpFileDir, dumpFileName, walWriter);
+			}
+			
+			int dumpBucketBits = savedDumpFile.getBucketBits();
+			cbf = CBFSection.newEmptyCBF(cbfType, storageType);
+			savedDumpFile.readPayload(channel, cbf, getHeaderRanges(vectorSize, effectiveHashStrategy, cbfType, 
+					dumpBucketBits, shardNum));
+			if(cbf.getVectorSize() != vectorSize 
+			   || cbf.getNbHash() != hashNum 
+			   || cbf.getHashType() != hashType
+			   || cbf.getHashStrategy() != effectiveHashStrategy
+			   || cbf.getBucketBits() != dumpBucketBits) {
+				cbf.clear();
+				return constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, hashStrategy, 
+						cbfType, storageType, bucketBits, shardNum, customGeometry, dumpFileDir, dumpFileName, walWriter);
+			}
+			return new Griddle(savedDumpFile.getMaxRepeatInsertCount(), vectorSize, hashNum, hashType, hashStrategy, 
+					cbfType, storageType, shardNum, customGeometry, dumpFileDir, dumpFileName, cbf, savedDumpFile, walWriter);
+		} catch (Exception e) {
+			LOG.error("restore Griddle from pack extent [" + dumpFileName + "] failed, to construct from ground on", e);
+			
+			if(cbf != null) {
+				cbf.clear();
+			}
+			return constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, hashStrategy, 
+					cbfType, storageType, bucketBits, shardNum, customGeometry, dumpFileDir, dumpFileName, walWriter);
+		}
+	}
+	
+	public static Griddle constructFromGround(int maxRepeatInsertCount, int vectorSize, int hashNum, 
+			int hashType, int hashStrategy, int cbfType, int storageType, int bucketBits, int shardNum, 
+			String dumpFileDir, String dumpFileName, WalWriter walWriter) {
+		return constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, hashStrategy, cbfType, 
+				storageType, bucketBits, shardNum, false, dumpFileDir, dumpFileName, walWriter);
+	}
+	
+	/**
+	 * 同constructFromGround，vectorSize和hashNum可以是创建时单独指定的
+	 * @param customGeometry vectorSize和hashNum是否单独指定，是则记录在Dump文件中，恢复时沿用而不随全局配置变化
+	 */
+	static Griddle constructFromGround(int maxRepeatInsertCount, int vectorSize, int hashNum, int hashType, 
+			int hashStrategy, int cbfType, int storageType, int bucketBits, int shardNum, boolean customGeometry, 
+			String dumpFileDir, String dumpFileName, WalWriter walWriter) {
+		if(maxRepeatInsertCount <= 0
+		   || vectorSize <= 0
+		   || hashNum <= 0
+		   || hashType < 0
+		   || StringUtils.isEmpty(dumpFileDir)
+		   || StringUtils.isEmpty(dumpFileName)) {
+			throw new IllegalArgumentException("all int type parameters should > 0 (hashType >= 0), " 
+					+ "dumpFileDir & dumpFileName should not empty");
+		}
+		
+		return new Griddle(maxRepeatInsertCount, vectorSize, hashNum, hashType, hashStrategy, cbfType, 
+				storageType, bucketBits, shardNum, customGeometry, dumpFileDir, dumpFileName, walWriter);
+	}
+	
+	private final static String getFullDumpFilePath(String dumpFileDir, String dumpFileName) {
+		StringBuilder filePathBuilder = new StringBuilder();
+		filePathBuilder.append(dumpFileDir);
+		if(!dumpFileDir.endsWith(File.separator)) {
+			filePathBuilder.append(File.separator);
+		}
+		filePathBuilder.append(dumpFileName);
+		
+		return filePathBuilder.toString();
+	}
+	
+	/**
+	 * 获取预期的文件大小（单位：字节）
+	 * 计算方法参考ThreadSafeCBloomFilter和BlockedCountingBloomFilter的序列化反序列化方法
+	 * @return
+	 */
+	static long getCaculatedFileSizeInByte(int vectorSize, int hashStrategy, int cbfType, 
+			int storageType, int bucketBits, int shardNum) {
+		if(cbfType == CBFSection.SHARDED_CBF) {   // 外层头部 + 分片数 + 各分片按ThreadSafeCBloomFilter的流格式依次写入
+			int shardVectorSize = ShardedCountingFilter.getShardVectorSize(vectorSize, shardNum);
+			return getCaculatedHeaderSizeInByte(hashStrategy, cbfType, ThreadSafeCBloomFilter.DEFAULT_BUCKET_BITS) + 4 
+					+ shardNum * getCaculatedFileSizeInByte(shardVectorSize, hashStrategy, CBFSection.THREAD_SAFE_CBF, 
+							BucketStorage.HEAP_STORAGE, bucketBits, 1);
+		}
+		
+		int headerSizeInByte = storageType == BucketStorage.MAPPED_STORAGE 
+				? MAPPED_HEADER_SIZE_IN_BYTE : getCaculatedHeaderSizeInByte(hashStrategy, cbfType, bucketBits);
+		return ((long) getCaculatedSizeInWords(vectorSize, cbfType, bucketBits) << 3) + headerSizeInByte;
+	}
+	
+	/**
+	 * 获取CBF序列化后头部的大小（单位：字节）
+	 * @return
+	 */
+	private final static int getCaculatedHeaderSizeInByte(int hashStrategy, int cbfType, int bucketBits) {
+		if(bucketBits != ThreadSafeCBloomFilter.DEFAULT_BUCKET_BITS) {   // 扩展头部：哈希策略和位宽各一个字节
+			return 15;
+		}
+		int headerSizeInByte = hashStrategy == HashFunction.CHAINED_HASHING ? 13 : 14;   // 非链式哈希策略多写一个字节
+		if(cbfType == CBFSection.BLOCKED_CBF) {   // 头部后多写一个int表示块大小
+			headerSizeInByte += 4;
+		}
+		return headerSizeInByte;
+	}
+	
+	/**
+	 * 获取计数器占用的long个数
+	 * @return
+	 */
+	private final static int getCaculatedSizeInWords(int vectorSize, int cbfType, int bucketBits) {
+		if(cbfType == CBFSection.BLOCKED_CBF) {   // 按128个计数器（8个long）一块向上取整
+			return ( ( (vectorSize - 1) >>> 7 ) + 1 ) * 8;
+		}
+		return ThreadSafeCBloomFilter.getSizeInWords(vectorSize, bucketBits);
+	}
+	
+	/**
+	 * 按文件大小确定Dump文件的计数器位宽：从bucketBits开始依次尝试更宽的位宽（计数器更宽的旧文件仍可容纳当前的
+	 * maxRepeatInsertCount），文件大小只符合另一种storageType的格式时先转换文件格式
+	 * @return Dump文件的计数器位宽，文件大小不符合任何一种位宽时返回-1
+	 * @throws IOException
+	 */
+	private static int getDumpBucketBits(File dumpFile, int vectorSize, int hashStrategy, int cbfType, 
+			int storageType, int bucketBits, int shardNum) throws IOException {
+		int maxBucketBits = cbfType == CBFSection.BLOCKED_CBF ? bucketBits : ThreadSafeCBloomFilter.MAX_BUCKET_BITS;
+		for(int bits = bucketBits; bits <= maxBucketBits; bits <<= 1) {
+			if(dumpFile.length() == getCaculatedFileSizeInByte(vectorSize, hashStrategy, cbfType, storageType, bits, 
+					shardNum)
+			   || convertDumpFileIfStorageTypeChanged(dumpFile, vectorSize, hashStrategy, cbfType, storageType, bits)) {
+				return bits;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * BlockedCountingBloomFilter在块内自行选取哈希位置，不使用hashStrategy
+	 * @return
+	 */
+	private final static int getEffectiveHashStrategy(int cbfType, int hashStrategy) {
+		return cbfType == CBFSection.BLOCKED_CBF ? HashFunction.CHAINED_HASHING : hashStrategy;
+	}
+	
+	/**
+	 * 获取流格式中CBF头部所在的字节区间{from, to}，SHARDED_CBF包括外层头部和各分片的头部
+	 * @return
+	 */
+	static long[][] getHeaderRanges(int vectorSize, int hashStrategy, int cbfType, int bucketBits, 
+			int shardNum) {
+		if(cbfType != CBFSection.SHARDED_CBF) {
+			return new long[][] { {0, getCaculatedHeaderSizeInByte(hashStrategy, cbfType, bucketBits)} };
+		}
+		
+		int outerHeaderSizeInByte = getCaculatedHeaderSizeInByte(hashStrategy, cbfType, 
+				ThreadSafeCBloomFilter.DEFAULT_BUCKET_BITS) + 4;
+		long shardFileSizeInByte = getCaculatedFileSizeInByte(ShardedCountingFilter.getShardVectorSize(vectorSize, 
+				shardNum), hashStrategy, CBFSection.THREAD_SAFE_CBF, BucketStorage.HEAP_STORAGE, bucketBits, 1);
+		int shardHeaderSizeInByte = getCaculatedHeaderSizeInByte(hashStrategy, CBFSection.THREAD_SAFE_CBF, bucketBits);
+		long[][] headerRanges = new long[shardNum + 1][];
+		headerRanges[0] = new long[] {0, outerHeaderSizeInByte};
+		for(int i = 0; i < shardNum; i++) {
+			long shardOffset = outerHeaderSizeInByte + i * shardFileSizeInByte;
+			headerRanges[i + 1] = new long[] {shardOffset, shardOffset + shardHeaderSizeInByte};
+		}
+		return headerRanges;
+	}
+	
+	/**
+	 * 不符合Dump文件名构成规则时（直接调用constructFromGround等）以dumpFileName作为griddleName
+	 */
+	private static String getGriddleName(String dumpFileName) {
+		String griddleName = DumpFile.parseGriddleName(dumpFileName);
+		return griddleName != null ? griddleName : dumpFileName;
+	}
+	
+	
+	/*
+	 * ------------------------------------------------------
+	 * Getters/Setters
+	 * ------------------------------------------------------
+	 */
+
+	public int getMaxRepeatInsertCount() {
+		return maxRepeatInsertCount;
+	}
+
+	public void setMaxRepeatInsertCount(int maxRepeatInsertCount) {
+		checkMaxRepeatInsertCount(maxRepeatInsertCount, this.bucketBits);
+		this.maxRepeatInsertCount = maxRepeatInsertCount;
+		modificationCounter.increment();   // 新的值记录在Dump文件头中
+		ensureNotEvicted();   // 与evict()相互可见：要么换出时看到这次修改而放弃，要么这里看到已换出
+	}
+	
+	/**
+	 * SHARDED_CBF的各分片分别序列化，没有可以整体映射的计数器区域，所以不支持映射模式
+	 */
+	private static void checkStorageType(int cbfType, int storageType) {
+		if(cbfType == CBFSection.SHARDED_CBF && storageType == BucketStorage.MAPPED_STORAGE) {
+			throw new IllegalArgumentException("SHARDED_CBF does not support MAPPED_STORAGE");
+		}
+	}
+	
+	/**
+	 * 校验单独指定的vectorSize和hashNum能否用于这种cbfType、位宽和storageType
+	 * @throws IllegalArgumentException 不能使用时
+	 */
+	static void checkGeometry(int vectorSize, int hashNum, int cbfType, int storageType, int bucketBits, 
+			int shardNum) {
+		if(vectorSize <= 0 || hashNum <= 0) {
+			throw new IllegalArgumentException("vectorSize and hashNum should > 0: " + vectorSize + ", " + hashNum);
+		}
+		if(hashNum > getMaxHashNum(cbfType)) {
+			throw new IllegalArgumentException("hashNum of cbfType " + cbfType + " should <= " + getMaxHashNum(cbfType) 
+					+ ": " + hashNum);
+		}
+		if(cbfType == CBFSection.SHARDED_CBF && vectorSize < shardNum) {
+			throw new IllegalArgumentException("vectorSize of SHARDED_CBF should >= shardNum " + shardNum + ": " 
+					+ vectorSize);
+		}
+		long sizeInByte = (long) getCaculatedSizeInWords(vectorSize, cbfType, bucketBits) << 3;
+		if(storageType == BucketStorage.MAPPED_STORAGE && sizeInByte > Integer.MAX_VALUE) {   // 一次映射不能超过2GB
+			throw new IllegalArgumentException("vectorSize " + vectorSize + " of " + bucketBits 
+					+ " bit buckets exceeds 2GB, which MAPPED_STORAGE can't map");
+		}
+	}
+	
+	/**
+	 * @param cbfType
+	 * @return 每个key的哈希位置数的上限，BLOCKED_CBF的k个计数器是同一块内不同的计数器
+	 */
+	static int getMaxHashNum(int cbfType) {
+		return cbfType == CBFSection.BLOCKED_CBF ? BlockedCountingBloomFilter.MAX_NB_HASH : Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * 计数器达到(1 << bucketBits) - 1后不再增长，所以maxRepeatInsertCount不能超过这个值
+	 */
+	private static void checkMaxRepeatInsertCount(int maxRepeatInsertCount, int bucketBits) {
+		if(maxRepeatInsertCount > (1 << bucketBits) - 1) {
+			throw new IllegalArgumentException("maxRepeatInsertCount " + maxRepeatInsertCount + " exceeds the max value of " 
+					+ bucketBits + " bit buckets");
+		}
+	}
+
+	public int getVectorSize() {
+		return vectorSize;
+	}
+
+	public void setVectorSize(int vectorSize) {
+		this.vectorSize = vectorSize;
+	}
+
+	public int getHashNum() {
+		return hashNum;
+	}
+
+	public void setHashNum(int hashNum) {
+		this.hashNum = hashNum;
+	}
+
+	public int getHashType() {
+		return hashType;
+	}
+
+	public void setHashType(int hashType) {
+		this.hashType = hashType;
+	}
+	
+	public int getHashStrategy() {
+		return hashStrategy;
+	}
+	
+	public void setHashStrategy(int hashStrategy) {
+		this.hashStrategy = hashStrategy;
+	}
+	
+	public int getCbfType() {
+		return cbfType;
+	}
+	
+	public int getStorageType() {
+		return storageType;
+	}
+	
+	public int getBucketBits() {
+		return bucketBits;
+	}
+	
+	public int getShardNum() {
+		return shardNum;
+	}
+	
+	/**
+	 * 获取CBF更新时CAS失败的次数，用于观察热点写入的冲突程度（失败后会一直重试，不会丢失计数）
+	 * @return
+	 */
+	public long getContentionCount() {
+		return cbfSection.getCBF().getContentionCount();
+	}
+	
+	public String getDumpFileName() {
+		return dumpFileName;
+	}
+	
+	public long getCreateTimeMillis() {
+		return createTimeMillis;
+	}
+	
+	/**
+	 * 获取最近一次统计的非0计数器字（8字节）的比例
+	 * @return
+	 */
+	public double getFillRatio() {
+		return fillRatio;
+	}
+	
+	public double getCompressionFillRatio() {
+		return compressionFillRatio;
+	}
+	
+	/**
+	 * 设置压缩Dump的阈值：统计的非0字比例低于该值时Dump文件压缩，压缩的Dump文件不能只写入脏页，每次Dump都重写整个文件
+	 * @param compressionFillRatio 0到1之间，为0时不压缩
+	 */
+	public void setCompressionFillRatio(double compressionFillRatio) {
+		if(compressionFillRatio < 0 || compressionFillRatio > 1) {
+			throw new IllegalArgumentException("compressionFillRatio should be in [0, 1]");
+		}
+		this.compressionFillRatio = compressionFillRatio;
+	}
+	
+	public int getDumpDurability() {
+		return dumpDurability;
+	}
+	
+	/**
+	 * 设置Dump文件的持久化级别，下一次Dump起生效，并记录在Dump文件头中（映射模式的Dump文件没有文件头，
+	 * 映射模式下总是把脏页同步到磁盘，不区分级别）
+	 * @param dumpDurability PAGE_CACHE_DURABILITY、DATA_SYNC_DURABILITY或FULL_SYNC_DURABILITY
+	 */
+	public void setDumpDurability(int dumpDurability) {
+		checkDumpDurability(dumpDurability);
+		if(this.dumpDurability != dumpDurability) {
+			this.dumpDurability = dumpDurability;
+			modificationCounter.increment();   // 新的值记录在Dump文件头中
+			ensureNotEvicted();
+		}
+	}
+	
+	static void checkDumpDurability(int dumpDurability) {
+		if(dumpDurability < PAGE_CACHE_DURABILITY || dumpDurability > FULL_SYNC_DURABILITY) {
+			throw new IllegalArgumentException("dumpDurability should be in [" + PAGE_CACHE_DURABILITY + ", " 
+					+ FULL_SYNC_DURABILITY + "]");
+		}
+	}
+	
+	/**
+	 * @return 持久化级别是否从Dump文件头恢复，否则应设置为默认级别
+	 */
+	boolean isDumpDurabilityRestored() {
+		return dumpDurabilityRestored;
+	}
+	
+	/**
+	 * 获取Dump后同步到磁盘（包括同步目录）的次数，PAGE_CACHE_DURABILITY不同步，不计入
+	 * @return
+	 */
+	public long getSyncCount() {
+		return syncCount;
+	}
+	
+	/**
+	 * 获取Dump后同步到磁盘的累计耗时，除以getSyncCount()即平均每次Dump为持久化级别付出的代价
+	 * @return 单位为微秒
+	 */
+	public long getSyncMicros() {
+		return syncMicros;
+	}
+	
+	/**
+	 * @return 最近一次同步的耗时，单位为微秒
+	 */
+	public long getLastSyncMicros() {
+		return lastSyncMicros;
+	}
+	
+	/**
+	 * 获取从Dump文件恢复时CRC32校验失败的页数，这些页中的计数器已清零，下一次Dump会重写整个文件
+	 * @return
+	 */
+	public int getDamagedPageCount() {
+		return damagedPageCount;
+	}
+	
+	public long getFileSizeInByte() {
+		return fileSizeInByte;
+	}
+	
+	public CBFSection getCBFSection() {
+		return cbfSection;
+	}
+	
+	public boolean hasRecycled() {
+		return hasRecycled.get();
+	}
+	
+	public void setHasRecycled() {
+		hasRecycled.set(true);
+	}
+	
 }
\ No newline at end of file
@@ -1,500 +1,1630 @@
-package com.ximalaya.griddle;
-
-import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import org.apache.commons.lang3.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.BeansException;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.ApplicationContext;
-import org.springframework.context.ApplicationContextAware;
-import org.springframework.context.SmartLifecycle;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
-import org.springframework.context.support.AbstractApplicationContext;
-import org.springframework.scheduling.concurrent.ScheduledExecutorFactoryBean;
-import org.springframework.scheduling.concurrent.ScheduledExecutorTask;
-
-import com.ximalaya.griddle.util.FileUtil;
-
-/**
- * 过滤器管理类
- * @author will
- *
- */
-@Configuration
-public class GriddleManager implements SmartLifecycle, ApplicationContextAware {
-	
-	/*
-	 * 全局配置，在griddle-config.properties中配置
-	 */
-	private static String dumpFileDir;               // Dump文件目录
-	private static long dumpFileIntervalMillis;      // 定时Dump时间间隔，单位为毫秒
-	private static long recycleGriddleCheckMillis;   // 定时检查是否可回收Griddle的时间间隔 
-	private static int vectorSize;                   // 预计每种过滤器插入最大次数
-	private static int hashType;                     // 哈希函数类型，1-MurMur Hash，0-Jekins Hash
-	private static int hashNum;                      // 重复进行哈希运算次数
-	
-	private static Map<String, Griddle> griddleMap = new ConcurrentHashMap<String, Griddle> ();   // Griddle名称到Griddle对象的映射
-	
-	private static AtomicBoolean hasStarted = new AtomicBoolean(false);
-	private static AtomicBoolean isRunning = new AtomicBoolean(false);
-	private static AtomicBoolean handoffRecyleGriddles = new AtomicBoolean(false);   // 等待回收Griddles
-	
-	private static final Object accessDumpFileMutex = new Object();   // 访问Dump文件的互斥锁
-	
-	private static final Logger LOG = LoggerFactory.getLogger(GriddleManager.class);
-	
-	
-	/*
-	 * ------------------------------------------------------
-	 * 全局配置属性Setters
-	 * ------------------------------------------------------
-	 */
-	@Autowired
-	public void setDumpFileDir(
-			@Value("${griddle.config.dumpFileDir}") String dumpFileDir) {
-		GriddleManager.dumpFileDir = dumpFileDir;
-		File dumpFileDirectory = new File(dumpFileDir);
-		if(!dumpFileDirectory.exists() || !dumpFileDirectory.isDirectory()) {
-			boolean createDirResult = dumpFileDirectory.mkdirs();
-			if(!createDirResult) {
-				throw new RuntimeException(String.format("create dump file dir failed: %s", dumpFileDir));
-			}
-		}
-	}
-	
-	@Autowired
-	public void setDumpFileIntervalMillis(
-			@Value("${griddle.config.dumpFileIntervalMillis}") long dumpFileIntervalMillis) {
-		GriddleManager.dumpFileIntervalMillis = dumpFileIntervalMillis;
-	}
-	
-	@Autowired
-	public void setRecycleGriddleCheckMillis(
-			@Value("${griddle.config.recycleGriddleCheckMillis}") long recycleGriddleCheckMillis) {
-		GriddleManager.recycleGriddleCheckMillis = recycleGriddleCheckMillis;
-	}
-	
-	@Autowired
-	public void setVectorSize(
-			@Value("${griddle.config.vectorSize}") int vectorSize) {
-		GriddleManager.vectorSize = vectorSize;
-	}
-	
-	@Autowired
-	public void setHashType(
-			@Value("${griddle.config.hashType:1}") int hashType) {
-		GriddleManager.hashType = hashType;
-	}
-	
-	@Autowired
-	public void setHashNum(
-			@Value("${griddle.config.hashNum:20}") int hashNum) {
-		GriddleManager.hashNum = hashNum;
-	}
-	
-	
-	/*
-	 * ------------------------------------------------------
-	 * SmartLifecycle和ApplicationContextAware接口方法实现
-	 * ------------------------------------------------------
-	 */
-	
-	@Override
-	public void setApplicationContext(ApplicationContext applicationContext)
-			throws BeansException {
-		((AbstractApplicationContext) applicationContext).registerShutdownHook();   // 注册ShutDownHook，以使Spring容器关闭时会调用stop()
-		
-		LOG.info("register shutdown hook success");
-	}
-	
-	@Override
-	public void start() {
-		LOG.info("GriddleManager starting...");
-		
-		// 读取dumpFileDir目录下的所有Dump文件，并设置griddleMap
-		List<String> dumpFileNameList = FileUtil.listFiles(dumpFileDir);
-		if(!dumpFileNameList.isEmpty()) {
-			for(String dumpFileName: dumpFileNameList) {
-				String[] segments = dumpFileName.split("\\.");
-				if(segments != null && segments.length == 3) {
-					String curGriddleName = segments[0];
-					int curMaxRepeatInsertCount = Integer.parseInt(segments[1]);
-					
-					Griddle griddle = null;
-					synchronized (accessDumpFileMutex) {
-						griddle = Griddle.restoreFromDumpFileOrConstructFromGroundIfException(curMaxRepeatInsertCount, 
-																				   vectorSize,
-																				   hashNum,
-																				   hashType, 
-																				   dumpFileDir,
-																			 	   dumpFileName);
-					}
-					
-					griddleMap.put(curGriddleName, griddle);
-				}
-			}
-		}
-		
-		isRunning.set(true);
-		hasStarted.set(true);
-		
-		LOG.info("GriddleManager has started");
-	}
-
-	@Override
-	public void stop() {
-		LOG.info("GriddleManager stop");
-		
-		if(isRunning.get()) {
-			isRunning.set(false);
-			
-			// 关闭定时调度任务（不需要，会自动调用）
-			
-			// 如果当前还有回收Griddle任务在运行则等待
-			while(handoffRecyleGriddles.get()) {
-				try {
-					Thread.sleep(100);
-				}
-				catch(InterruptedException _) {
-					// swallow it
-				}
-			}
-			
-			// 最后再做一次Griddle回收
-			LOG.info("on stop, recycle griddles for the last time...");
-			recycleGriddles();
-			
-			// 最后Dump一次CBF到硬盘文件
-			LOG.info("on stop, dump cbfs to disk files for the last time...");
-			dumpCBFsToDisk();
-		}
-	}
-
-	@Override
-	public boolean isRunning() {
-		return isRunning.get();
-	}
-
-	@Override
-	public int getPhase() {
-		return -1;
-	}
-
-
-	@Override
-	public boolean isAutoStartup() {
-		return true;
-	}
-
-	@Override
-	public void stop(Runnable callback) {
-		LOG.info("GriddleManager stop Runnable");
-		
-		this.stop();
-		callback.run();
-	}
-	
-	
-	/*
-	 * ------------------------------------------------------
-	 * Getters/Setters
-	 * ------------------------------------------------------
-	 */
-	
-	public String getDumpFileDir() {
-		return dumpFileDir;
-	}
-	
-	public long getDumpFileIntervalMillis() {
-		return dumpFileIntervalMillis;
-	}
-
-	public int getVectorSize() {
-		return vectorSize;
-	}
-
-	public int getHashType() {
-		return hashType;
-	}
-
-	public int getHashNum() {
-		return hashNum;
-	}
-
-	
-	/*
-	 * ------------------------------------------------------
-	 * 对外接口
-	 * ------------------------------------------------------
-	 */
-	
-	/**
-	 * 由调用方在运行期间动态添加Griddle
-	 * @param griddleName Griddle的唯一标识名称
-	 * @param maxRepeatInsertCount 最大可重复插入次数
-	 */
-	public static void addGriddle(String griddleName, int maxRepeatInsertCount) {
-		if(StringUtils.isEmpty(griddleName) || maxRepeatInsertCount <= 0) {
-			throw new IllegalArgumentException("griddleName should not empty, maxRepeatInsertCount should > 0");
-		}
-		
-		ensureHasStarted();
-		if(griddleMap.containsKey(griddleName)) {
-			throw new IllegalStateException("griddleMap already contains griddle for name: " + griddleName);
-		}
-		
-		String dumpFileName = buildDumpFileName(griddleName, maxRepeatInsertCount);
-		Griddle griddle = Griddle.constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, 
-				dumpFileDir, dumpFileName);
-		griddleMap.put(griddleName, griddle);
-	}
-	
-	/**
-	 * 运行期间更新Griddle的maxRepeatInsertCount值
-	 * @param griddleName
-	 * @param newMaxRepeatInsertCount
-	 */
-	public static void updateMaxRepeatInsertCount(String griddleName, int newMaxRepeatInsertCount) {
-		if(StringUtils.isEmpty(griddleName) || newMaxRepeatInsertCount <= 0) {
-			throw new IllegalArgumentException("griddleName should not empty, newMaxRepeatInsertCount should > 0");
-		}
-		
-		ensureHasStarted();
-		ensureGriddleAlreadyExist(griddleName);
-		
-		griddleMap.get(griddleName).setMaxRepeatInsertCount(newMaxRepeatInsertCount);
-	}
-	
-	/**
-	 * 将某个Griddle内某个关键词的插入次数增1
-	 * @param griddleName Griddle唯一标识名称（应用内全局唯一）
-	 * @param keyWord 关键词
-	 * @return
-	 */
-	public static boolean increaseInsertCountByOne(String griddleName, String keyWord) {
-		if(StringUtils.isEmpty(griddleName) || StringUtils.isEmpty(keyWord)) {
-			throw new IllegalArgumentException("gridleName & keyWord should not empty");
-		}
-		
-		ensureHasStarted();
-		ensureGriddleAlreadyExist(griddleName);
-		
-		Griddle griddle = griddleMap.get(griddleName);
-		return griddle.add(keyWord);
-	}
-	
-	/**
-	 * 获取Griddle内某个关键词已经重复插入的次数
-	 * @param griddleName Griddle唯一标识名称（应用内全局唯一）
-	 * @param keyWord 关键词
-	 * @return 如果参数非法则返回-1，其他情况返回已重复插入次数
-	 */
-	public static int getHasInsertedCount(String griddleName, String keyWord) {
-		if(StringUtils.isEmpty(griddleName) || StringUtils.isEmpty(keyWord)) {
-			return -1;
-		}
-		
-		ensureHasStarted();
-		ensureGriddleAlreadyExist(griddleName);
-		
-		Griddle griddle = griddleMap.get(griddleName);
-		return griddle.getRepeatedInsertCount(keyWord);
-	}
-	
-	/**
-	 * 获取活跃Griddle的名称列表，活跃指该Griddle还没有被回收
-	 * @return
-	 */
-	public static List<String> getActiveGriddleNameList() {
-		List<String> activeGriddleNameList = new ArrayList<String> ();
-		for(String griddleName: griddleMap.keySet()) {
-			Griddle curGriddle = griddleMap.get(griddleName);
-			if(!curGriddle.hasRecycled()) {
-				activeGriddleNameList.add(griddleName);
-			}
-		}
-		
-		return activeGriddleNameList;
-	}
-	
-	/**
-	 * 由客户端主动标记“可回收Griddle对象占用的内存以及删除对应的磁盘Dump文件”
-	 * @param griddleName Griddle唯一标识名称（应用内全局唯一）
-	 */
-	public static void markToRecycleGriddle(String griddleName) {
-		if(StringUtils.isEmpty(griddleName)) {
-			throw new IllegalArgumentException("griddleName should not empty");
-		}
-		
-		LOG.info("mark to recycle griddle: {}", griddleName);
-		
-		ensureHasStarted();
-		ensureGriddleAlreadyExist(griddleName);
-		
-		Griddle griddle = griddleMap.get(griddleName);
-		griddle.markToRecycle();   // 注意是标记Griddle为可回收，而不是立即回收
-	}
-	
-	
-	/*
-	 * 其它辅助方法
-	 */
-	
-	/**
-	 * 确保GriddleManager已启动
-	 */
-	private static void ensureHasStarted() {
-		if (!hasStarted.get()) {
-			throw new IllegalStateException("haven't started GriddleManager yet");
-		}
-	}
-	
-	/**
-	 * 确保Griddle已存在于griddleMap中
-	 */
-	private static void ensureGriddleAlreadyExist(String griddleName) {
-		if(!griddleMap.containsKey(griddleName)) {
-			throw new IllegalArgumentException("griddleMap doesn't contains griddle: " + griddleName 
-					+ ", you may need use addGriddle to add Griddle to griddleMap");
-		}
-	}
-	
-	/**
-	 * Dump CBF到磁盘文件
-	 */
-	private void dumpCBFsToDisk() {
-		synchronized (accessDumpFileMutex) {
-			for(Griddle griddle: griddleMap.values()) {
-				try {
-					griddle.dumpCBFToDisk();
-				}
-				catch(Exception ex) {
-					LOG.error("dump CBF to disk file failed: [" + griddle.getDumpFileName() + "]", ex);
-				}
-			}
-		}
-	}
-	
-	/**
-	 * 回收所有可以回收的Griddle
-	 */
-	private void recycleGriddles() {
-		handoffRecyleGriddles.set(true);
-		
-		for(Entry<String, Griddle> entry: griddleMap.entrySet()) {
-			Griddle curGriddle = entry.getValue();
-			try {
-				curGriddle.recycle();
-			}
-			catch(Exception ex) {
-				LOG.error("recycle griddle failed", ex);
-			}
-		}
-		
-		List<String> toRemoveGriddleNameList = new ArrayList<String> ();
-		for(String griddleName: griddleMap.keySet()) {
-			Griddle curGriddle = griddleMap.get(griddleName);
-			if(curGriddle.hasRecycled()) {
-				toRemoveGriddleNameList.add(griddleName);
-			}
-		}
-		
-		for(String toRemoveGriddleName: toRemoveGriddleNameList) {
-			griddleMap.remove(toRemoveGriddleName);
-		}
-		
-		handoffRecyleGriddles.set(false);
-	}
-	
-	/**
-	 * Dump文件名构成规则：griddleName + "." + maxRepeatInsertCount + ".dat"，比如1.3.dat
-	 * @param griddleName
-	 * @param maxRepeatInsertCount
-	 * @return
-	 */
-	private static String buildDumpFileName(String griddleName, int maxRepeatInsertCount) {
-		StringBuilder dumpFileNameBuilder = new StringBuilder();
-		dumpFileNameBuilder.append(griddleName);
-		dumpFileNameBuilder.append(".");
-		dumpFileNameBuilder.append(maxRepeatInsertCount);
-		dumpFileNameBuilder.append(FileUtil.getDumpFileFormatSuffix());
-		
-		return dumpFileNameBuilder.toString();
-	}
-	
-	/*
-	 * ------------------------------------------------------------------
-	 * 定时调度任务
-	 * ------------------------------------------------------------------
-	 */
-	
-	@Bean
-	public ScheduledExecutorFactoryBean scheduledExecutorFactoryBean() {
-		ScheduledExecutorFactoryBean scheduledFactoryBean = new ScheduledExecutorFactoryBean();
-		scheduledFactoryBean
-				.setScheduledExecutorTasks(
-					new ScheduledExecutorTask[] { 
-						dumpCBFToFileSchedule(),
-						recycleGriddleSchedule()
-					}
-				 );
-		
-		return scheduledFactoryBean;
-	}
-	
-	@Bean
-	public ScheduledExecutorTask dumpCBFToFileSchedule() {
-		ScheduledExecutorTask scheduledTask = new ScheduledExecutorTask();
-        scheduledTask.setDelay(5000);
-        scheduledTask.setPeriod(dumpFileIntervalMillis);
-        scheduledTask.setRunnable(new DumpCBFToDiskTask());
-        
-        return scheduledTask;
-	}
-	
-	@Bean
-	public ScheduledExecutorTask recycleGriddleSchedule() {
-		ScheduledExecutorTask scheduledTask = new ScheduledExecutorTask();
-        scheduledTask.setDelay(2000);
-        scheduledTask.setPeriod(recycleGriddleCheckMillis);
-        scheduledTask.setRunnable(new RecycleGriddleTask());
-        
-        return scheduledTask;
-	}
-	
-	/**
-	 * 定时Dump内存中的CBF到硬盘文件任务
-	 * @author will
-	 *
-	 */
-	private class DumpCBFToDiskTask implements Runnable {
-
-		@Override
-		public void run() {
-			LOG.info("schedule dump cbfs to disk files...");
-			dumpCBFsToDisk();
-		}
-		
-	}
-	
-	private class RecycleGriddleTask implements Runnable {
-
-		@Override
-		public void run() {
-			LOG.info("schedule recycle griddles...");
-			recycleGriddles();
-		}
-		
-	}
-	
+package com.ximalaya.griddle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.scheduling.concurrent.ScheduledExecutorFactoryBean;
+import org.springframework.scheduling.concurrent.ScheduledExecutorTask;
+
+import com.ximalaya.bloomfilterext.bloom.BucketStorage;
+import com.ximalaya.bloomfilterext.bloom.CounterStats;
+import com.ximalaya.griddle.exception.GriddleEvictedException;
+import com.ximalaya.griddle.util.FileUtil;
+
+/**
+ * 过滤器管理类
+ * @author will
+ *
+ */
+@Configuration
+public class GriddleManager implements SmartLifecycle, ApplicationContextAware {
+	
+	/*
+	 * 全局配置，在griddle-config.properties中配置
+	 */
+	private static String dumpFileDir;               // Dump文件目录
+	private static long dumpFileIntervalMillis;      // 定时Dump时间间隔，单位为毫秒
+	private static long recycleGriddleCheckMillis;   // 定时检查是否可回收Griddle的时间间隔 
+	private static int vectorSize;                   // 预计每种过滤器插入最大次数
+	private static int hashType;                     // 哈希函数类型，1-MurMur Hash，0-Jekins Hash
+	private static int hashNum;                      // 重复进行哈希运算次数
+	private static int hashStrategy;                 // 哈希值生成策略，0-链式多次哈希，1-双重哈希（只需两次哈希运算）
+	private static int cbfType;                      // CBF实现类型，0-ThreadSafeCBloomFilter，1-BlockedCountingBloomFilter（按cache line分块），2-ShardedCountingFilter（按key分片）
+	private static int storageType;                  // 计数器存储位置，0-堆内存，1-堆外内存（不占用Java堆，回收时立即释放）
+	private static int shardNum;                     // cbfType为2时的分片数
+	private static boolean walEnabled;               // 是否启用WAL，启用后每次成功的插入先写入WAL再返回，崩溃后不丢失
+	private static long walSyncIntervalMillis;       // WAL每批写入并fsync前等待更多记录的时间，单位为毫秒
+	private static int dumpParallelism;              // 同时Dump的Griddle数，1表示在调度线程中依次Dump
+	private static int restoreParallelism;           // 启动时同时恢复的Griddle数
+	private static boolean lazyRestore;              // 是否延迟恢复，启用后start()不等待恢复完成，Griddle在后台或首次访问时加载
+	private static double dumpCompressionFillRatio;  // 非0计数器字的比例低于该值时压缩Dump文件，为0时不压缩
+	private static long dumpSpreadMillis;            // 每轮定时Dump中各Griddle的开始时间错开分布在该时间窗口内，为0时同时开始
+	private static long dumpBytesPerSecond;          // 定时Dump每秒最多写入的字节数，为0时不限速
+	private static int dumpDurability;               // 默认的Dump文件持久化级别，见Griddle.PAGE_CACHE_DURABILITY
+	private static boolean packStoreEnabled;         // 是否把所有Griddle的Dump追加到少数几个打包段文件中，而不是每个Griddle一个Dump文件
+	private static long packSegmentBytes;            // 打包段文件超过该大小后不再追加
+	private static long memoryBudgetBytes;           // 常驻内存的计数器总大小上限，超过时换出最久未访问的Griddle，为0时不限制
+	
+	private static WalWriter walWriter;              // WAL写线程，未启用WAL时为null
+	private static ExecutorService dumpExecutor;     // Dump线程池，dumpParallelism为1时为null
+	private static IoThrottle dumpThrottle = IoThrottle.UNLIMITED;   // 定时Dump共用的限速器
+	private static volatile PackStore packStore;     // 打包存储，未启用且没有待迁移的打包文件时为null
+	private static volatile int accessEpoch;         // 访问周期，每次检查换出时加1，Griddle记录最近一次被访问的周期
+	private static final AtomicLong evictedCount = new AtomicLong();   // 累计换出次数
+	private static final Random dumpJitterRandom = new Random();
+	private static volatile long lastDumpCycleMillis;   // 最近一轮Dump所有Griddle的耗时，单位为毫秒
+	
+	private static ConcurrentMap<String, Griddle> griddleMap = new ConcurrentHashMap<String, Griddle> ();   // Griddle名称到Griddle对象的映射
+	private static ConcurrentMap<String, FutureTask<Griddle>> loadingGriddleMap = new ConcurrentHashMap<String, FutureTask<Griddle>> ();   // 正在恢复的Griddle名称到恢复任务的映射，恢复完成后移入griddleMap
+	
+	private static AtomicBoolean hasStarted = new AtomicBoolean(false);
+	private static AtomicBoolean isRunning = new AtomicBoolean(false);
+	private static AtomicBoolean handoffRecyleGriddles = new AtomicBoolean(false);   // 等待回收Griddles
+	
+	private static final Logger LOG = LoggerFactory.getLogger(GriddleManager.class);
+	
+	
+	/*
+	 * ------------------------------------------------------
+	 * 全局配置属性Setters
+	 * ------------------------------------------------------
+	 */
+	@Autowired
+	public void setDumpFileDir(
+			@Value("${griddle.config.dumpFileDir}") String dumpFileDir) {
+		GriddleManager.dumpFileDir = dumpFileDir;
+		File dumpFileDirectory = new File(dumpFileDir);
+		if(!dumpFileDirectory.exists() || !dumpFileDirectory.isDirectory()) {
+			boolean createDirResult = dumpFileDirectory.mkdirs();
+			if(!createDirResult) {
+				throw new RuntimeException(String.format("create dump file dir failed: %s", dumpFileDir));
+			}
+		}
+	}
+	
+	@Autowired
+	public void setDumpFileIntervalMillis(
+			@Value("${griddle.config.dumpFileIntervalMillis}") long dumpFileIntervalMillis) {
+		GriddleManager.dumpFileIntervalMillis = dumpFileIntervalMillis;
+	}
+	
+	@Autowired
+	public void setRecycleGriddleCheckMillis(
+			@Value("${griddle.config.recycleGriddleCheckMillis}") long recycleGriddleCheckMillis) {
+		GriddleManager.recycleGriddleCheckMillis = recycleGriddleCheckMillis;
+	}
+	
+	@Autowired
+	public void setVectorSize(
+			@Value("${griddle.config.vectorSize}") int vectorSize) {
+		GriddleManager.vectorSize = vectorSize;
+	}
+	
+	@Autowired
+	public void setHashType(
+			@Value("${griddle.config.hashType:1}") int hashType) {
+		GriddleManager.hashType = hashType;
+	}
+	
+	@Autowired
+	public void setHashNum(
+			@Value("${griddle.config.hashNum:20}") int hashNum) {
+		GriddleManager.hashNum = hashNum;
+	}
+	
+	@Autowired
+	public void setHashStrategy(
+			@Value("${griddle.config.hashStrategy:0}") int hashStrategy) {
+		GriddleManager.hashStrategy = hashStrategy;
+	}
+	
+	@Autowired
+	public void setCbfType(
+			@Value("${griddle.config.cbfType:0}") int cbfType) {
+		GriddleManager.cbfType = cbfType;
+	}
+	
+	@Autowired
+	public void setStorageType(
+			@Value("${griddle.config.storageType:0}") int storageType) {
+		GriddleManager.storageType = storageType;
+	}
+	
+	@Autowired
+	public void setShardNum(
+			@Value("${griddle.config.shardNum:16}") int shardNum) {
+		GriddleManager.shardNum = shardNum;
+	}
+	
+	@Autowired
+	public void setDumpParallelism(
+			@Value("${griddle.config.dumpParallelism:1}") int dumpParallelism) {
+		if(dumpParallelism <= 0) {
+			throw new IllegalArgumentException("dumpParallelism should > 0");
+		}
+		GriddleManager.dumpParallelism = dumpParallelism;
+	}
+	
+	@Autowired
+	public void setRestoreParallelism(
+			@Value("${griddle.config.restoreParallelism:1}") int restoreParallelism) {
+		if(restoreParallelism <= 0) {
+			throw new IllegalArgumentException("restoreParallelism should > 0");
+		}
+		GriddleManager.restoreParallelism = restoreParallelism;
+	}
+	
+	@Autowired
+	public void setLazyRestore(
+			@Value("${griddle.config.lazyRestore:false}") boolean lazyRestore) {
+		GriddleManager.lazyRestore = lazyRestore;
+	}
+	
+	@Autowired
+	public void setDumpCompressionFillRatio(
+			@Value("${griddle.config.dumpCompressionFillRatio:0}") double dumpCompressionFillRatio) {
+		if(dumpCompressionFillRatio < 0 || dumpCompressionFillRatio > 1) {
+			throw new IllegalArgumentException("dumpCompressionFillRatio should be in [0, 1]");
+		}
+		GriddleManager.dumpCompressionFillRatio = dumpCompressionFillRatio;
+	}
+	
+	@Autowired
+	public void setDumpSpreadMillis(
+			@Value("${griddle.config.dumpSpreadMillis:0}") long dumpSpreadMillis) {
+		if(dumpSpreadMillis < 0) {
+			throw new IllegalArgumentException("dumpSpreadMillis should >= 0");
+		}
+		GriddleManager.dumpSpreadMillis = dumpSpreadMillis;
+	}
+	
+	@Autowired
+	public void setDumpBytesPerSecond(
+			@Value("${griddle.config.dumpBytesPerSecond:0}") long dumpBytesPerSecond) {
+		if(dumpBytesPerSecond < 0) {
+			throw new IllegalArgumentException("dumpBytesPerSecond should >= 0");
+		}
+		GriddleManager.dumpBytesPerSecond = dumpBytesPerSecond;
+	}
+	
+	@Autowired
+	public void setDumpDurability(
+			@Value("${griddle.config.dumpDurability:0}") int dumpDurability) {
+		Griddle.checkDumpDurability(dumpDurability);
+		GriddleManager.dumpDurability = dumpDurability;
+	}
+	
+	@Autowired
+	public void setPackStoreEnabled(
+			@Value("${griddle.config.packStoreEnabled:false}") boolean packStoreEnabled) {
+		GriddleManager.packStoreEnabled = packStoreEnabled;
+	}
+	
+	@Autowired
+	public void setPackSegmentBytes(
+			@Value("${griddle.config.packSegmentBytes:1073741824}") long packSegmentBytes) {
+		if(packSegmentBytes <= 0) {
+			throw new IllegalArgumentException("packSegmentBytes should > 0");
+		}
+		GriddleManager.packSegmentBytes = packSegmentBytes;
+	}
+	
+	@Autowired
+	public void setMemoryBudgetBytes(
+			@Value("${griddle.config.memoryBudgetBytes:0}") long memoryBudgetBytes) {
+		if(memoryBudgetBytes < 0) {
+			throw new IllegalArgumentException("memoryBudgetBytes should >= 0");
+		}
+		GriddleManager.memoryBudgetBytes = memoryBudgetBytes;
+	}
+	
+	@Autowired
+	public void setWalEnabled(
+			@Value("${griddle.config.walEnabled:false}") boolean walEnabled) {
+		GriddleManager.walEnabled = walEnabled;
+	}
+	
+	@Autowired
+	public void setWalSyncIntervalMillis(
+			@Value("${griddle.config.walSyncIntervalMillis:0}") long walSyncIntervalMillis) {
+		GriddleManager.walSyncIntervalMillis = walSyncIntervalMillis;
+	}
+	
+	
+	/*
+	 * ------------------------------------------------------
+	 * SmartLifecycle和ApplicationContextAware接口方法实现
+	 * ------------------------------------------------------
+	 */
+	
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext)
+			throws BeansException {
+		((AbstractApplicationContext) applicationContext).registerShutdownHook();   // 注册ShutDownHook，以使Spring容器关闭时会调用stop()
+		
+		LOG.info("register shutdown hook success");
+	}
+	
+	@Override
+	public void start() {
+		LOG.info("GriddleManager starting...");
+		
+		if(walEnabled) {
+			walWriter = new WalWriter(walSyncIntervalMillis);
+			walWriter.start();
+		}
+		
+		if(dumpParallelism > 1) {
+			dumpExecutor = Executors.newFixedThreadPool(dumpParallelism, new DaemonThreadFactory("griddle-dump-"));
+		}
+		dumpThrottle = new IoThrottle(dumpBytesPerSecond);
+		
+		// 读取dumpFileDir目录下的所有Dump文件（启用WAL时包括只有WAL文件、还没有Dump过的），同名Griddle以后列出的为准
+		Set<String> dumpFileNameSet = new LinkedHashSet<String> ();
+		boolean hasPackFiles = false;
+		for(String fileName: FileUtil.listFiles(dumpFileDir)) {
+			String walDumpFileName = WriteAheadLog.getDumpFileName(fileName);
+			if(PackStore.isPackFile(fileName)) {
+				hasPackFiles = true;
+			}
+			else if(walDumpFileName == null) {
+				dumpFileNameSet.add(fileName);
+			}
+			else if(walEnabled) {
+				dumpFileNameSet.add(walDumpFileName);
+			}
+		}
+		Map<String, String> dumpFileNameByGriddle = new LinkedHashMap<String, String> ();
+		for(String dumpFileName: dumpFileNameSet) {
+			String griddleName = DumpFile.parseGriddleName(dumpFileName);
+			if(griddleName != null) {
+				dumpFileNameByGriddle.put(griddleName, dumpFileName);
+			}
+		}
+		Set<String> packedGriddleNames = openPackStore(hasPackFiles, dumpFileNameByGriddle);
+		
+		// 每个Griddle一个恢复任务，先登记到loadingGriddleMap，再交给恢复线程池
+		List<FutureTask<Griddle>> restoreTasks = new ArrayList<FutureTask<Griddle>> (dumpFileNameByGriddle.size());
+		for(Entry<String, String> entry: dumpFileNameByGriddle.entrySet()) {
+			FutureTask<Griddle> restoreTask = newRestoreTask(entry.getKey(), entry.getValue(), 
+					packedGriddleNames.contains(entry.getKey()));
+			loadingGriddleMap.put(entry.getKey(), restoreTask);
+			restoreTasks.add(restoreTask);
+		}
+		if(!restoreTasks.isEmpty()) {
+			long startMillis = System.currentTimeMillis();
+			ExecutorService restoreExecutor = Executors.newFixedThreadPool(Math.min(restoreParallelism, restoreTasks.size()), 
+					new DaemonThreadFactory("griddle-restore-"));
+			for(FutureTask<Griddle> restoreTask: restoreTasks) {
+				restoreExecutor.execute(restoreTask);
+			}
+			restoreExecutor.shutdown();   // 已提交的任务执行完后线程退出
+			
+			if(lazyRestore) {
+				LOG.info("restoring {} griddles in background, restoreParallelism: {}", restoreTasks.size(), restoreParallelism);
+			}
+			else {
+				for(FutureTask<Griddle> restoreTask: restoreTasks) {
+					awaitRestore(restoreTask);
+				}
+				LOG.info("restore {} griddles in {} ms, restoreParallelism: {}", 
+						new Object[] { restoreTasks.size(), System.currentTimeMillis() - startMillis, restoreParallelism });
+			}
+		}
+		
+		isRunning.set(true);
+		hasStarted.set(true);
+		
+		LOG.info("GriddleManager has started");
+	}
+
+	@Override
+	public void stop() {
+		LOG.info("GriddleManager stop");
+		
+		if(isRunning.get()) {
+			isRunning.set(false);
+			
+			// 关闭定时调度任务（不需要，会自动调用）
+			
+			// 如果当前还有回收Griddle任务在运行则等待
+			while(handoffRecyleGriddles.get()) {
+				try {
+					Thread.sleep(100);
+				}
+				catch(InterruptedException _) {
+					// swallow it
+				}
+			}
+			
+			// 最后再做一次Griddle回收
+			LOG.info("on stop, recycle griddles for the last time...");
+			recycleGriddles();
+			
+			// 最后Dump一次CBF到硬盘文件
+			LOG.info("on stop, dump cbfs to disk files for the last time...");
+			dumpCBFsToDisk(false);   // 尽快完成，不错开也不限速
+			
+			if(dumpExecutor != null) {
+				dumpExecutor.shutdown();
+			}
+			
+			if(walWriter != null) {
+				walWriter.shutdown();
+			}
+			
+			if(packStore != null) {
+				packStore.close();
+				packStore = null;
+			}
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return isRunning.get();
+	}
+
+	@Override
+	public int getPhase() {
+		return -1;
+	}
+
+
+	@Override
+	public boolean isAutoStartup() {
+		return true;
+	}
+
+	@Override
+	public void stop(Runnable callback) {
+		LOG.info("GriddleManager stop Runnable");
+		
+		this.stop();
+		callback.run();
+	}
+	
+	
+	/*
+	 * ------------------------------------------------------
+	 * Getters/Setters
+	 * ------------------------------------------------------
+	 */
+	
+	public String getDumpFileDir() {
+		return dumpFileDir;
+	}
+	
+	public long getDumpFileIntervalMillis() {
+		return dumpFileIntervalMillis;
+	}
+
+	public int getVectorSize() {
+		return vectorSize;
+	}
+
+	public int getHashType() {
+		return hashType;
+	}
+
+	public int getHashNum() {
+		return hashNum;
+	}
+	
+	public int getHashStrategy() {
+		return hashStrategy;
+	}
+	
+	public int getCbfType() {
+		return cbfType;
+	}
+	
+	public int getStorageType() {
+		return storageType;
+	}
+	
+	public int getShardNum() {
+		return shardNum;
+	}
+	
+	public boolean isWalEnabled() {
+		return walEnabled;
+	}
+	
+	public long getWalSyncIntervalMillis() {
+		return walSyncIntervalMillis;
+	}
+	
+	public int getDumpParallelism() {
+		return dumpParallelism;
+	}
+	
+	public long getDumpSpreadMillis() {
+		return dumpSpreadMillis;
+	}
+	
+	public long getDumpBytesPerSecond() {
+		return dumpBytesPerSecond;
+	}
+	
+	public int getDumpDurability() {
+		return dumpDurability;
+	}
+	
+	public boolean isPackStoreEnabled() {
+		return packStoreEnabled;
+	}
+	
+	public long getPackSegmentBytes() {
+		return packSegmentBytes;
+	}
+	
+	public long getMemoryBudgetBytes() {
+		return memoryBudgetBytes;
+	}
+	
+	/**
+	 * 常驻内存的Griddle计数器总大小，不包括已换出和还没恢复的Griddle
+	 * @return 单位为字节
+	 */
+	public static long getResidentGriddleBytes() {
+		long residentBytes = 0;
+		for(Griddle griddle: griddleMap.values()) {
+			residentBytes += griddle.getFileSizeInByte();
+		}
+		return residentBytes;
+	}
+	
+	/**
+	 * 因超过memoryBudgetBytes累计换出Griddle的次数，增长很快说明预算过小，Griddle在反复换出换入
+	 * @return
+	 */
+	public static long getEvictedCount() {
+		return evictedCount.get();
+	}
+	
+	/**
+	 * 定时Dump因dumpBytesPerSecond限速累计等待的时间，持续增长说明限速过低，Dump跟不上修改
+	 * @return 单位为毫秒
+	 */
+	public long getDumpThrottledMillis() {
+		return dumpThrottle.getThrottledMillis();
+	}
+	
+	/**
+	 * 最近一轮Dump所有Griddle的耗时，可以据此调整dumpParallelism
+	 * @return 单位为毫秒，还没有Dump过时为0
+	 */
+	public long getLastDumpCycleMillis() {
+		return lastDumpCycleMillis;
+	}
+
+	
+	/*
+	 * ------------------------------------------------------
+	 * 对外接口
+	 * ------------------------------------------------------
+	 */
+	
+	/**
+	 * 由调用方在运行期间动态添加Griddle，Dump文件使用默认的持久化级别dumpDurability
+	 * @param griddleName Griddle的唯一标识名称
+	 * @param maxRepeatInsertCount 最大可重复插入次数，计数器位宽按能容纳该值的最窄位宽选取
+	 */
+	public static void addGriddle(String griddleName, int maxRepeatInsertCount) {
+		addGriddle(griddleName, maxRepeatInsertCount, dumpDurability);
+	}
+	
+	/**
+	 * 由调用方在运行期间动态添加Griddle，并指定Dump文件的持久化级别
+	 * @param griddleName Griddle的唯一标识名称
+	 * @param maxRepeatInsertCount 最大可重复插入次数，计数器位宽按能容纳该值的最窄位宽选取
+	 * @param dumpDurability Griddle.PAGE_CACHE_DURABILITY、DATA_SYNC_DURABILITY或FULL_SYNC_DURABILITY，
+	 * 记录在Dump文件头中，重启后仍然有效
+	 */
+	public static void addGriddle(String griddleName, int maxRepeatInsertCount, int dumpDurability) {
+		addGriddle(griddleName, maxRepeatInsertCount, dumpDurability, vectorSize, hashNum, false);
+	}
+	
+	/**
+	 * 由调用方在运行期间动态添加Griddle，按预计插入的不同key数和期望的误判率计算该Griddle的vectorSize和hashNum，
+	 * 不使用全局配置。参与人数少的活动因此只占用很少的内存，每次插入的哈希运算也更少
+	 * @param griddleName Griddle的唯一标识名称
+	 * @param maxRepeatInsertCount 最大可重复插入次数，计数器位宽按能容纳该值的最窄位宽选取
+	 * @param expectedKeyCount 预计插入的不同key数，超出后误判率随之升高
+	 * @param falsePositiveRate 期望的误判率，大于0小于1。cbfType为1时实际误判率更高，hashNum也不超过128
+	 */
+	public static void addGriddle(String griddleName, int maxRepeatInsertCount, long expectedKeyCount, 
+			double falsePositiveRate) {
+		addGriddle(griddleName, maxRepeatInsertCount, dumpDurability, expectedKeyCount, falsePositiveRate);
+	}
+	
+	/**
+	 * 同addGriddle(griddleName, maxRepeatInsertCount, expectedKeyCount, falsePositiveRate)，并指定Dump文件的持久化级别
+	 */
+	public static void addGriddle(String griddleName, int maxRepeatInsertCount, int dumpDurability, 
+			long expectedKeyCount, double falsePositiveRate) {
+		int optimalVectorSize = getOptimalVectorSize(expectedKeyCount, falsePositiveRate);
+		addGriddle(griddleName, maxRepeatInsertCount, dumpDurability, optimalVectorSize, 
+				getOptimalHashNum(expectedKeyCount, optimalVectorSize, cbfType), true);
+	}
+	
+	/**
+	 * 由调用方在运行期间动态添加Griddle，并单独指定该Griddle的vectorSize和hashNum，不使用全局配置
+	 * @param griddleName Griddle的唯一标识名称
+	 * @param maxRepeatInsertCount 最大可重复插入次数，计数器位宽按能容纳该值的最窄位宽选取
+	 * @param dumpDurability Dump文件的持久化级别，同addGriddle(griddleName, maxRepeatInsertCount, dumpDurability)
+	 * @param vectorSize 计数器个数
+	 * @param hashNum 每个key的哈希位置数
+	 */
+	public static void addGriddle(String griddleName, int maxRepeatInsertCount, int dumpDurability, int vectorSize, 
+			int hashNum) {
+		addGriddle(griddleName, maxRepeatInsertCount, dumpDurability, vectorSize, hashNum, true);
+	}
+	
+	/**
+	 * @param customGeometry vectorSize和hashNum是否单独指定，是则记录在Dump文件中，重启后沿用而不随全局配置变化
+	 */
+	private static void addGriddle(String griddleName, int maxRepeatInsertCount, int dumpDurability, 
+			int vectorSize, int hashNum, boolean customGeometry) {
+		if(StringUtils.isEmpty(griddleName) || maxRepeatInsertCount <= 0) {
+			throw new IllegalArgumentException("griddleName should not empty, maxRepeatInsertCount should > 0");
+		}
+		Griddle.checkDumpDurability(dumpDurability);
+		int bucketBits = CBFSection.getNarrowestBucketBits(cbfType, maxRepeatInsertCount);
+		Griddle.checkGeometry(vectorSize, hashNum, cbfType, storageType, bucketBits, shardNum);
+		
+		ensureHasStarted();
+		if(griddleMap.containsKey(griddleName) || loadingGriddleMap.containsKey(griddleName)) {
+			throw new IllegalStateException("griddleMap already contains griddle for name: " + griddleName);
+		}
+		
+		String dumpFileName = buildDumpFileName(griddleName, maxRepeatInsertCount);
+		Griddle griddle = Griddle.constructFromGround(maxRepeatInsertCount, vectorSize, hashNum, hashType, 
+				hashStrategy, cbfType, storageType, bucketBits, shardNum, customGeometry, dumpFileDir, dumpFileName, 
+				walWriter);
+		griddle.setCompressionFillRatio(dumpCompressionFillRatio);
+		griddle.setDumpDurability(dumpDurability);
+		if(packStoreEnabled) {
+			griddle.usePackStore(packStore);
+		}
+		griddle.touch(accessEpoch);
+		griddleMap.put(griddleName, griddle);
+	}
+	
+	/**
+	 * 运行期间更新Griddle的Dump文件持久化级别，下一次Dump起生效。新值写入Dump文件头，重启后仍然有效
+	 * （映射模式的Dump文件没有文件头，重启后恢复为默认的dumpDurability）
+	 * @param griddleName
+	 * @param newDumpDurability
+	 */
+	public static void updateDumpDurability(String griddleName, final int newDumpDurability) {
+		if(StringUtils.isEmpty(griddleName)) {
+			throw new IllegalArgumentException("griddleName should not empty");
+		}
+		
+		ensureHasStarted();
+		callExistingGriddle(griddleName, new GriddleCall<Void> () {
+			@Override
+			public Void call(Griddle griddle) {
+				griddle.setDumpDurability(newDumpDurability);
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * 获取某个持久化级别下Dump后同步到磁盘的平均耗时，按当前使用该级别的Griddle统计，用来评估各级别的代价
+	 * @param dumpDurability
+	 * @return 单位为微秒，还没有同步过时为0
+	 */
+	public static long getAverageDumpSyncMicros(int dumpDurability) {
+		Griddle.checkDumpDurability(dumpDurability);
+		
+		long syncCount = 0;
+		long syncMicros = 0;
+		for(Griddle griddle: griddleMap.values()) {
+			if(griddle.getDumpDurability() == dumpDurability) {
+				syncCount += griddle.getSyncCount();
+				syncMicros += griddle.getSyncMicros();
+			}
+		}
+		return syncCount == 0 ? 0 : syncMicros / syncCount;
+	}
+	
+	/**
+	 * 运行期间更新Griddle的maxRepeatInsertCount值，新值不能超过Griddle计数器位宽能表示的最大值。
+	 * 新值在下一次Dump时写入Dump文件头，重启后仍然有效（映射模式的Dump文件没有文件头，重启后恢复为创建时的值）
+	 * @param griddleName
+	 * @param newMaxRepeatInsertCount
+	 */
+	public static void updateMaxRepeatInsertCount(String griddleName, final int newMaxRepeatInsertCount) {
+		if(StringUtils.isEmpty(griddleName) || newMaxRepeatInsertCount <= 0) {
+			throw new IllegalArgumentException("griddleName should not empty, newMaxRepeatInsertCount should > 0");
+		}
+		
+		ensureHasStarted();
+		callExistingGriddle(griddleName, new GriddleCall<Void> () {
+			@Override
+			public Void call(Griddle griddle) {
+				griddle.setMaxRepeatInsertCount(newMaxRepeatInsertCount);
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * 将某个Griddle内某个关键词的插入次数增1
+	 * @param griddleName Griddle唯一标识名称（应用内全局唯一）
+	 * @param keyWord 关键词
+	 * @return
+	 */
+	public static boolean increaseInsertCountByOne(String griddleName, final String keyWord) {
+		if(StringUtils.isEmpty(griddleName) || StringUtils.isEmpty(keyWord)) {
+			throw new IllegalArgumentException("gridleName & keyWord should not empty");
+		}
+		
+		ensureHasStarted();
+		
+		return callExistingGriddle(griddleName, new GriddleCall<Boolean> () {
+			@Override
+			public Boolean call(Griddle griddle) {
+				return griddle.add(keyWord);
+			}
+		});
+	}
+	
+	/**
+	 * 批量将某个Griddle内多个关键词的插入次数增1，Griddle只查找一次，整批只做一次使用计数加减。
+	 * 同一批中重复的关键词按先后顺序计数
+	 * @param griddleName Griddle唯一标识名称（应用内全局唯一）
+	 * @param keyWords 关键词
+	 * @return 插入成功（即未达到最大次数限制）的关键词下标
+	 */
+	public static BitSet increaseInsertCountByOne(String griddleName, String[] keyWords) {
+		if(StringUtils.isEmpty(griddleName)) {
+			throw new IllegalArgumentException("gridleName should not empty");
+		}
+		ensureKeyWordsNotEmpty(keyWords);
+		
+		ensureHasStarted();
+		
+		return addToExistingGriddle(griddleName, keyWords);
+	}
+	
+	/**
+	 * 批量将多个Griddle内的关键词插入次数增1，第i个关键词属于第i个Griddle。每个Griddle只查找一次，
+	 * 整批只做一次使用计数加减；各Griddle的关键词按原先后顺序计数
+	 * @param griddleNames Griddle唯一标识名称，与keyWords一一对应
+	 * @param keyWords 关键词
+	 * @return 插入成功（即未达到最大次数限制）的下标
+	 */
+	public static BitSet increaseInsertCountByOne(String[] griddleNames, String[] keyWords) {
+		Map<String, List<Integer>> indexesByGriddle = groupByGriddle(griddleNames, keyWords);
+		
+		ensureHasStarted();
+		
+		BitSet inserted = new BitSet(keyWords.length);
+		for(Entry<String, List<Integer>> entry: indexesByGriddle.entrySet()) {
+			List<Integer> indexes = entry.getValue();
+			BitSet griddleInserted = addToExistingGriddle(entry.getKey(), subArray(keyWords, indexes));
+			for(int i = griddleInserted.nextSetBit(0); i >= 0; i = griddleInserted.nextSetBit(i + 1)) {
+				inserted.set(indexes.get(i));
+			}
+		}
+		
+		return inserted;
+	}
+	
+	/**
+	 * 获取Griddle内某个关键词已经重复插入的次数
+	 * @param griddleName Griddle唯一标识名称（应用内全局唯一）
+	 * @param keyWord 关键词
+	 * @return 如果参数非法则返回-1，其他情况返回已重复插入次数
+	 */
+	public static int getHasInsertedCount(String griddleName, final String keyWord) {
+		if(StringUtils.isEmpty(griddleName) || StringUtils.isEmpty(keyWord)) {
+			return -1;
+		}
+		
+		ensureHasStarted();
+		
+		return callExistingGriddle(griddleName, new GriddleCall<Integer> () {
+			@Override
+			public Integer call(Griddle griddle) {
+				return griddle.getRepeatedInsertCount(keyWord);
+			}
+		});
+	}
+	
+	/**
+	 * 批量获取某个Griddle内多个关键词已经重复插入的次数，Griddle只查找一次，
+	 * 先算出所有关键词的哈希值再按内存顺序读取计数器
+	 * @param griddleName Griddle唯一标识名称（应用内全局唯一）
+	 * @param keyWords 关键词
+	 * @return 与keyWords一一对应的已重复插入次数
+	 */
+	public static int[] getHasInsertedCount(String griddleName, String[] keyWords) {
+		if(StringUtils.isEmpty(griddleName)) {
+			throw new IllegalArgumentException("gridleName should not empty");
+		}
+		ensureKeyWordsNotEmpty(keyWords);
+		
+		ensureHasStarted();
+		
+		return getRepeatedInsertCountOfExistingGriddle(griddleName, keyWords);
+	}
+	
+	/**
+	 * 批量获取多个Griddle内关键词已经重复插入的次数，第i个关键词属于第i个Griddle，每个Griddle只查找一次
+	 * @param griddleNames Griddle唯一标识名称，与keyWords一一对应
+	 * @param keyWords 关键词
+	 * @return 与keyWords一一对应的已重复插入次数
+	 */
+	public static int[] getHasInsertedCount(String[] griddleNames, String[] keyWords) {
+		Map<String, List<Integer>> indexesByGriddle = groupByGriddle(griddleNames, keyWords);
+		
+		ensureHasStarted();
+		
+		int[] counts = new int[keyWords.length];
+		for(Entry<String, List<Integer>> entry: indexesByGriddle.entrySet()) {
+			List<Integer> indexes = entry.getValue();
+			int[] griddleCounts = getRepeatedInsertCountOfExistingGriddle(entry.getKey(), subArray(keyWords, indexes));
+			for(int i = 0; i < griddleCounts.length; i++) {
+				counts[indexes.get(i)] = griddleCounts[i];
+			}
+		}
+		
+		return counts;
+	}
+	
+	/**
+	 * 扫描某个Griddle的计数器，得到填充率、计数器取值的直方图等统计，可以据此在误判开始影响用户之前扩容或拆分。
+	 * 每次调用都遍历一遍计数器，适合定期监控
+	 * @param griddleName Griddle唯一标识名称（应用内全局唯一）
+	 * @return
+	 */
+	public static CounterStats getCounterStats(String griddleName) {
+		if(StringUtils.isEmpty(griddleName)) {
+			throw new IllegalArgumentException("griddleName should not empty");
+		}
+		
+		ensureHasStarted();
+		return callExistingGriddle(griddleName, new GriddleCall<CounterStats> () {
+			@Override
+			public CounterStats call(Griddle griddle) {
+				return griddle.getCounterStats();
+			}
+		});
+	}
+	
+	/**
+	 * 按填充率估计某个Griddle已插入的不同关键词数，接近或超过创建时预计的数量时误判率会迅速升高
+	 * @param griddleName Griddle唯一标识名称（应用内全局唯一）
+	 * @return 所有计数器都非0时为Double.POSITIVE_INFINITY
+	 */
+	public static double getEstimatedCardinality(String griddleName) {
+		return getCounterStats(griddleName).getEstimatedCardinality();
+	}
+	
+	/**
+	 * 估计某个Griddle当前的误判率：从未插入过的关键词已被计满maxRepeatInsertCount次、从而被
+	 * increaseInsertCountByOne拒绝的概率，即每个哈希位置的计数器都不小于maxRepeatInsertCount的概率。
+	 * cbfType为1时一个关键词的计数器都在同一块内，按各块的计数器分别计算后取平均
+	 * @param griddleName Griddle唯一标识名称（应用内全局唯一）
+	 * @return
+	 */
+	public static double getFalsePositiveRate(String griddleName) {
+		if(StringUtils.isEmpty(griddleName)) {
+			throw new IllegalArgumentException("griddleName should not empty");
+		}
+		
+		ensureHasStarted();
+		return callExistingGriddle(griddleName, new GriddleCall<Double> () {
+			@Override
+			public Double call(Griddle griddle) {
+				return griddle.getCounterStats().getOvercountRate(griddle.getMaxRepeatInsertCount());
+			}
+		});
+	}
+	
+	/**
+	 * 获取活跃Griddle的名称列表，活跃指该Griddle还没有被回收，包括正在延迟恢复的Griddle
+	 * @return
+	 */
+	public static List<String> getActiveGriddleNameList() {
+		List<String> activeGriddleNameList = new ArrayList<String> (loadingGriddleMap.keySet());
+		for(String griddleName: griddleMap.keySet()) {
+			Griddle curGriddle = griddleMap.get(griddleName);
+			if(curGriddle != null && !curGriddle.hasRecycled() && !loadingGriddleMap.containsKey(griddleName)) {   // 正在换出时两边都有
+				activeGriddleNameList.add(griddleName);
+			}
+		}
+		
+		return activeGriddleNameList;
+	}
+	
+	/**
+	 * 由客户端主动标记“可回收Griddle对象占用的内存以及删除对应的磁盘Dump文件”
+	 * @param griddleName Griddle唯一标识名称（应用内全局唯一）
+	 */
+	public static void markToRecycleGriddle(String griddleName) {
+		if(StringUtils.isEmpty(griddleName)) {
+			throw new IllegalArgumentException("griddleName should not empty");
+		}
+		
+		LOG.info("mark to recycle griddle: {}", griddleName);
+		
+		ensureHasStarted();
+		
+		callExistingGriddle(griddleName, new GriddleCall<Void> () {
+			@Override
+			public Void call(Griddle griddle) {
+				griddle.markToRecycle();   // 注意是标记Griddle为可回收，而不是立即回收
+				return null;
+			}
+		});
+	}
+	
+	
+	/*
+	 * 其它辅助方法
+	 */
+	
+	/**
+	 * 确保GriddleManager已启动
+	 */
+	private static void ensureHasStarted() {
+		if (!hasStarted.get()) {
+			throw new IllegalStateException("haven't started GriddleManager yet");
+		}
+	}
+	
+	/**
+	 * 获取griddleMap中的Griddle，已加载时只查找一次；正在恢复（包括已换出）时等待恢复完成。
+	 * 返回的Griddle在使用前可能被换出，此时抛出GriddleEvictedException，调用方应重新获取
+	 * @throws IllegalArgumentException griddleMap中不存在该Griddle
+	 */
+	private static Griddle getExistingGriddle(String griddleName) {
+		Griddle griddle = griddleMap.get(griddleName);
+		if(griddle == null) {
+			griddle = awaitLoadingGriddle(griddleName);
+		}
+		if(griddle == null) {
+			throw new IllegalArgumentException("griddleMap doesn't contains griddle: " + griddleName 
+					+ ", you may need use addGriddle to add Griddle to griddleMap");
+		}
+		
+		griddle.touch(accessEpoch);
+		return griddle;
+	}
+	
+	/**
+	 * 对griddleMap中的Griddle执行call，Griddle在查找之后被换出时重新查找（换入）后再执行
+	 * @throws IllegalArgumentException griddleMap中不存在该Griddle
+	 */
+	private static <T> T callExistingGriddle(String griddleName, GriddleCall<T> call) {
+		while(true) {
+			try {
+				return call.call(getExistingGriddle(griddleName));
+			}
+			catch(GriddleEvictedException _) {
+				// 查找之后被换出，重新查找时换入
+			}
+		}
+	}
+	
+	private static BitSet addToExistingGriddle(String griddleName, final String[] keyWords) {
+		return callExistingGriddle(griddleName, new GriddleCall<BitSet> () {
+			@Override
+			public BitSet call(Griddle griddle) {
+				return griddle.add(keyWords);
+			}
+		});
+	}
+	
+	private static int[] getRepeatedInsertCountOfExistingGriddle(String griddleName, final String[] keyWords) {
+		return callExistingGriddle(griddleName, new GriddleCall<int[]> () {
+			@Override
+			public int[] call(Griddle griddle) {
+				return griddle.getRepeatedInsertCount(keyWords);
+			}
+		});
+	}
+	
+	/**
+	 * 等待正在恢复的Griddle，恢复任务还没开始时在当前线程执行
+	 * @return 不在恢复中也不在griddleMap中时返回null
+	 */
+	private static Griddle awaitLoadingGriddle(String griddleName) {
+		FutureTask<Griddle> restoreTask = loadingGriddleMap.get(griddleName);
+		if(restoreTask == null) {
+			return griddleMap.get(griddleName);   // 恢复任务先放入griddleMap再移出loadingGriddleMap，所以这里能找到刚恢复完的Griddle
+		}
+		
+		restoreTask.run();   // 已在恢复线程中执行或已完成时立即返回
+		return awaitRestore(restoreTask);
+	}
+	
+	/**
+	 * 等待恢复任务完成，不响应中断
+	 * @throws IllegalStateException 恢复失败
+	 */
+	private static Griddle awaitRestore(FutureTask<Griddle> restoreTask) {
+		boolean interrupted = false;
+		try {
+			while(true) {
+				try {
+					return restoreTask.get();
+				}
+				catch(InterruptedException _) {
+					interrupted = true;
+				}
+				catch(ExecutionException ex) {
+					throw new IllegalStateException("restore griddle failed", ex.getCause());
+				}
+			}
+		}
+		finally {
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * 从Dump文件或打包存储中的区段恢复Griddle（失败时重新构造），完成后放入griddleMap
+	 */
+	private static FutureTask<Griddle> newRestoreTask(final String griddleName, final String dumpFileName, 
+			final boolean fromPack) {
+		return new FutureTask<Griddle> (new Callable<Griddle>() {
+			@Override
+			public Griddle call() {
+				try {
+					return restore(griddleName, dumpFileName, fromPack);
+				}
+				catch(RuntimeException ex) {   // 延迟恢复时由访问该Griddle的调用方收到IllegalStateException
+					LOG.error("restore griddle failed: [" + dumpFileName + "]", ex);
+					throw ex;
+				}
+			}
+		}) {
+			@Override
+			protected void set(Griddle griddle) {
+				super.set(griddle);
+				loadingGriddleMap.remove(griddleName, this);   // 恢复后可能已被换出并登记了新的换入任务，只移除自己
+			}
+		};
+	}
+	
+	private static Griddle restore(String griddleName, String dumpFileName, boolean fromPack) {
+		int maxRepeatInsertCount = DumpFile.parseMaxRepeatInsertCount(dumpFileName);   // 新格式的Dump文件头中的值优先
+		int bucketBits = CBFSection.getNarrowestBucketBits(cbfType, maxRepeatInsertCount);
+		Griddle griddle = fromPack
+				? Griddle.restoreFromPackExtentOrConstructFromGroundIfException(maxRepeatInsertCount, vectorSize, hashNum, 
+						hashType, hashStrategy, cbfType, storageType, bucketBits, shardNum, dumpFileDir, dumpFileName, 
+						packStore, walWriter)
+				: Griddle.restoreFromDumpFileOrConstructFromGroundIfException(maxRepeatInsertCount, 
+																		   vectorSize,
+																		   hashNum,
+																		   hashType, 
+																		   hashStrategy, 
+																		   cbfType, 
+																		   storageType, 
+																		   bucketBits, 
+																		   shardNum, 
+																		   dumpFileDir,
+																	 	   dumpFileName, 
+																	 	   walWriter);
+		griddle.setCompressionFillRatio(dumpCompressionFillRatio);
+		if(!griddle.isDumpDurabilityRestored()) {   // 新格式的Dump文件头中的值优先
+			griddle.setDumpDurability(dumpDurability);
+		}
+		if(packStoreEnabled) {
+			griddle.usePackStore(packStore);
+		}
+		if(fromPack != packStoreEnabled) {   // 从另一种存储恢复，下一次Dump迁移到当前的存储
+			griddle.markModified();
+		}
+		griddle.touch(accessEpoch);
+		griddleMap.put(griddleName, griddle);   // 恢复任务完成后再移出loadingGriddleMap
+		return griddle;
+	}
+	
+	/**
+	 * 启用打包存储，或者目录下有之前启用时留下的打包文件时，打开打包存储并把其中的Griddle加入恢复列表。
+	 * 同一个Griddle既有单独的Dump文件又在打包存储中时以当前使用的存储为准，另一份直接丢弃
+	 * @param hasPackFiles dumpFileDir下是否有打包文件
+	 * @param dumpFileNameByGriddle 目录下的Dump文件，打包存储中的Griddle加入其中
+	 * @return 从打包存储恢复的Griddle名称
+	 */
+	private static Set<String> openPackStore(boolean hasPackFiles, Map<String, String> dumpFileNameByGriddle) {
+		Set<String> packedGriddleNames = new HashSet<String> ();
+		if(!packStoreEnabled && !hasPackFiles) {
+			return packedGriddleNames;
+		}
+		if(storageType == BucketStorage.MAPPED_STORAGE) {   // 区段不能单独映射
+			throw new IllegalStateException(packStoreEnabled ? "packStoreEnabled doesn't support mapped storageType" 
+					: "found pack files in [" + dumpFileDir + "], restore them with a non-mapped storageType first");
+		}
+		
+		PackStore store;
+		try {
+			store = PackStore.open(new File(dumpFileDir), packSegmentBytes);
+		}
+		catch(IOException e) {
+			throw new IllegalStateException("open pack store in [" + dumpFileDir + "] failed", e);
+		}
+		for(String dumpFileName: store.getDumpFileNames()) {
+			String griddleName = DumpFile.parseGriddleName(dumpFileName);
+			if(griddleName == null) {
+				continue;
+			}
+			
+			String fileDumpFileName = dumpFileNameByGriddle.get(griddleName);
+			if(packStoreEnabled) {
+				if(fileDumpFileName != null) {
+					LOG.info("griddle [{}] is in pack store, delete stale dump file [{}]", griddleName, fileDumpFileName);
+					FileUtil.deleteFile(new File(dumpFileDir, fileDumpFileName));
+				}
+				dumpFileNameByGriddle.put(griddleName, dumpFileName);
+				packedGriddleNames.add(griddleName);
+			}
+			else if(fileDumpFileName == null) {   // 还没有迁移到单独的Dump文件
+				dumpFileNameByGriddle.put(griddleName, dumpFileName);
+				packedGriddleNames.add(griddleName);
+			}
+			else {
+				store.remove(dumpFileName);
+			}
+		}
+		packStore = store;
+		return packedGriddleNames;
+	}
+	
+	/**
+	 * 写入打包存储的索引，本轮Dump或回收之后调用。迁移回单独的Dump文件时，打包存储清空后关闭
+	 * @param durability 索引文件的持久化级别
+	 * @return 是否成功（没有打包存储时也返回true）
+	 */
+	private static boolean commitPackStore(int durability) {
+		PackStore store = packStore;
+		if(store == null) {
+			return true;
+		}
+		
+		try {
+			if(store.commit(durability) && !packStoreEnabled) {
+				LOG.info("all griddles have been migrated out of pack store, close it");
+				packStore = null;
+				store.close();
+			}
+			return true;
+		}
+		catch(IOException e) {
+			LOG.error("commit pack store index failed, retry on next dump", e);
+			return false;
+		}
+	}
+	
+	/**
+	 * 确保批量接口的关键词都非空
+	 */
+	private static void ensureKeyWordsNotEmpty(String[] keyWords) {
+		if(keyWords == null) {
+			throw new IllegalArgumentException("keyWords should not be null");
+		}
+		for(String keyWord: keyWords) {
+			if(StringUtils.isEmpty(keyWord)) {
+				throw new IllegalArgumentException("keyWord should not empty");
+			}
+		}
+	}
+	
+	/**
+	 * 把关键词下标按所属Griddle分组，校验参数
+	 * @param griddleNames
+	 * @param keyWords
+	 * @return Griddle名称到其关键词下标（升序）的映射
+	 */
+	private static Map<String, List<Integer>> groupByGriddle(String[] griddleNames, String[] keyWords) {
+		ensureKeyWordsNotEmpty(keyWords);
+		if(griddleNames == null || griddleNames.length != keyWords.length) {
+			throw new IllegalArgumentException("griddleNames should have the same length as keyWords");
+		}
+		
+		Map<String, List<Integer>> indexesByGriddle = new HashMap<String, List<Integer>> ();
+		for(int i = 0; i < griddleNames.length; i++) {
+			if(StringUtils.isEmpty(griddleNames[i])) {
+				throw new IllegalArgumentException("gridleName should not empty");
+			}
+			
+			List<Integer> indexes = indexesByGriddle.get(griddleNames[i]);
+			if(indexes == null) {
+				indexes = new ArrayList<Integer> ();
+				indexesByGriddle.put(griddleNames[i], indexes);
+			}
+			indexes.add(i);
+		}
+		
+		return indexesByGriddle;
+	}
+	
+	private static String[] subArray(String[] keyWords, List<Integer> indexes) {
+		String[] sub = new String[indexes.size()];
+		for(int i = 0; i < sub.length; i++) {
+			sub[i] = keyWords[indexes.get(i)];
+		}
+		
+		return sub;
+	}
+	
+	/**
+	 * Dump CBF到磁盘文件，跳过上次Dump之后没有修改的Griddle：dumpParallelism大于1时分发到Dump线程池并等待全部完成，
+	 * 否则依次Dump。每个Griddle的Dump由Griddle自己互斥，不同Griddle之间互不阻塞
+	 * @param scheduled 是否为定时Dump，定时Dump时各Griddle的开始时间错开分布在dumpSpreadMillis内，写入按dumpBytesPerSecond限速
+	 */
+	private void dumpCBFsToDisk(boolean scheduled) {
+		long startMillis = System.currentTimeMillis();
+		relocateSparsePackSegments();
+		List<Griddle> griddles = new ArrayList<Griddle> (griddleMap.size());
+		int indexDurability = Griddle.PAGE_CACHE_DURABILITY;   // 打包存储的索引按本轮Dump中最高的持久化级别写入
+		for(Griddle griddle: griddleMap.values()) {
+			if(griddle.isModifiedSinceLastDump()) {
+				griddles.add(griddle);
+				indexDurability = Math.max(indexDurability, griddle.getSyncDurability());
+			}
+		}
+		int skippedCount = griddleMap.size() - griddles.size();
+		
+		long[] startOffsets = null;   // 各Griddle相对本轮开始的Dump时间，单位为毫秒
+		if(scheduled && dumpSpreadMillis > 0 && griddles.size() > 1) {
+			startOffsets = getDumpStartOffsets(griddles);
+		}
+		IoThrottle throttle = scheduled ? dumpThrottle : IoThrottle.UNLIMITED;
+		
+		ExecutorService executor = dumpExecutor;
+		List<Future<?>> futures = new ArrayList<Future<?>> (griddles.size());
+		boolean interrupted = false;
+		for(int i = 0; i < griddles.size(); i++) {
+			if(startOffsets != null && !interrupted) {
+				interrupted = !sleepUntil(startMillis + startOffsets[i]);   // 被中断时剩下的Griddle立即Dump
+			}
+			
+			final Griddle griddle = griddles.get(i);
+			final IoThrottle griddleThrottle = throttle;
+			Future<?> future = null;
+			if(executor != null && !executor.isShutdown()) {   // stop()中的最后一次Dump线程池可能已关闭
+				try {
+					future = executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							dumpCBFToDisk(griddle, griddleThrottle);
+						}
+					});
+				}
+				catch(RejectedExecutionException _) {
+					// 错开等待期间线程池被关闭，在当前线程中Dump
+				}
+			}
+			if(future != null) {
+				futures.add(future);
+			}
+			else {
+				dumpCBFToDisk(griddle, throttle);
+			}
+		}
+		
+		for(Future<?> future: futures) {
+			while(true) {
+				try {
+					future.get();
+					break;
+				}
+				catch(InterruptedException _) {
+					interrupted = true;   // 等本轮Dump全部完成再恢复中断状态
+				}
+				catch(ExecutionException ex) {
+					LOG.error("dump task failed", ex.getCause());
+					break;
+				}
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		commitPackStore(indexDurability);
+		
+		lastDumpCycleMillis = System.currentTimeMillis() - startMillis;
+		LOG.info("dump {} griddles (skip {} unmodified) in {} ms, dumpParallelism: {}", 
+				new Object[] { griddles.size(), skippedCount, lastDumpCycleMillis, dumpParallelism });
+	}
+	
+	/**
+	 * 把dumpSpreadMillis平均分成griddles.size()段，每个Griddle在自己那一段内随机选一个开始时间。
+	 * 按Dump文件名的哈希值排序后再分段，同一个Griddle每轮大致落在同一段，两次Dump的间隔基本稳定
+	 * @param griddles 排序后的顺序即Dump的顺序
+	 * @return 与griddles一一对应的开始时间，单位为毫秒，递增
+	 */
+	private static long[] getDumpStartOffsets(List<Griddle> griddles) {
+		Collections.sort(griddles, new Comparator<Griddle> () {
+			@Override
+			public int compare(Griddle g1, Griddle g2) {
+				int h1 = g1.getDumpFileName().hashCode();
+				int h2 = g2.getDumpFileName().hashCode();
+				return h1 < h2 ? -1 : (h1 == h2 ? 0 : 1);
+			}
+		});
+		
+		long[] startOffsets = new long[griddles.size()];
+		double slotMillis = (double) dumpSpreadMillis / griddles.size();
+		for(int i = 0; i < startOffsets.length; i++) {
+			startOffsets[i] = (long) ((i + dumpJitterRandom.nextDouble()) * slotMillis);
+		}
+		return startOffsets;
+	}
+	
+	/**
+	 * 等待到指定时间，GriddleManager停止时不再等待
+	 * @param untilMillis
+	 * @return 是否没有被中断
+	 */
+	private static boolean sleepUntil(long untilMillis) {
+		long waitMillis;
+		while(isRunning.get() && (waitMillis = untilMillis - System.currentTimeMillis()) > 0) {
+			try {
+				Thread.sleep(Math.min(waitMillis, 100));   // 分段等待，以便及时发现停止
+			}
+			catch(InterruptedException _) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return 是否Dump成功
+	 */
+	private static boolean dumpCBFToDisk(Griddle griddle, IoThrottle throttle) {
+		try {
+			griddle.dumpCBFToDisk(throttle);
+		}
+		catch(Exception ex) {
+			LOG.error("dump CBF to disk file failed: [" + griddle.getDumpFileName() + "]", ex);
+			return false;
+		}
+		
+		PackStore store = packStore;
+		if(store != null && !packStoreEnabled) {   // 已迁移到单独的Dump文件，commitPackStore()后生效
+			store.remove(griddle.getDumpFileName());
+		}
+		return true;
+	}
+	
+	/**
+	 * 打包段文件中有效区段比例过低时，把其中的Griddle标记为已修改，本轮Dump把它们追加到其它段文件，旧的段文件随后删除
+	 */
+	private static void relocateSparsePackSegments() {
+		PackStore store = packStore;
+		if(store == null || !packStoreEnabled) {
+			return;
+		}
+		
+		List<String> dumpFileNames = store.getGriddlesToRelocate();
+		if(dumpFileNames.isEmpty()) {
+			return;
+		}
+		Set<String> toRelocate = new HashSet<String> (dumpFileNames);
+		for(Griddle griddle: griddleMap.values()) {
+			if(toRelocate.contains(griddle.getDumpFileName())) {
+				griddle.markModified();
+			}
+		}
+		LOG.info("relocate {} griddles out of sparse pack segments", toRelocate.size());
+	}
+	
+	/**
+	 * 回收所有可以回收的Griddle
+	 */
+	private void recycleGriddles() {
+		handoffRecyleGriddles.set(true);
+		
+		for(Entry<String, Griddle> entry: griddleMap.entrySet()) {
+			Griddle curGriddle = entry.getValue();
+			try {
+				curGriddle.recycle();
+			}
+			catch(Exception ex) {
+				LOG.error("recycle griddle failed", ex);
+			}
+		}
+		
+		List<String> toRemoveGriddleNameList = new ArrayList<String> ();
+		for(String griddleName: griddleMap.keySet()) {
+			Griddle curGriddle = griddleMap.get(griddleName);
+			if(curGriddle.hasRecycled()) {
+				toRemoveGriddleNameList.add(griddleName);
+			}
+		}
+		
+		PackStore store = packStore;
+		for(String toRemoveGriddleName: toRemoveGriddleNameList) {
+			Griddle removedGriddle = griddleMap.remove(toRemoveGriddleName);
+			if(store != null && removedGriddle != null) {   // 文件模式下可能还没有迁移出打包存储
+				store.remove(removedGriddle.getDumpFileName());
+			}
+		}
+		if(!toRemoveGriddleNameList.isEmpty()) {
+			commitPackStore(dumpDurability);
+		}
+		
+		if(isRunning.get()) {   // 停止时不再换出
+			evictColdGriddles();
+		}
+		
+		handoffRecyleGriddles.set(false);
+	}
+	
+	/**
+	 * 常驻内存的计数器总大小超过memoryBudgetBytes时，按最近一次访问的周期从旧到新换出Griddle，直到不超过预算。
+	 * 上一个周期（两次检查之间）访问过的Griddle不换出。换出的Griddle登记到loadingGriddleMap，下次访问时从Dump文件换入
+	 */
+	static void evictColdGriddles() {
+		int endedEpoch = accessEpoch;
+		accessEpoch = endedEpoch + 1;   // 只在回收调度线程中修改
+		if(memoryBudgetBytes <= 0) {
+			return;
+		}
+		
+		long residentBytes = 0;
+		List<Entry<String, Griddle>> coldGriddles = new ArrayList<Entry<String, Griddle>> ();
+		for(Entry<String, Griddle> entry: griddleMap.entrySet()) {
+			residentBytes += entry.getValue().getFileSizeInByte();
+			if(entry.getValue().getLastAccessEpoch() != endedEpoch) {
+				coldGriddles.add(entry);
+			}
+		}
+		if(residentBytes <= memoryBudgetBytes) {
+			return;
+		}
+		
+		Collections.sort(coldGriddles, new Comparator<Entry<String, Griddle>> () {
+			@Override
+			public int compare(Entry<String, Griddle> e1, Entry<String, Griddle> e2) {
+				int a1 = e1.getValue().getLastAccessEpoch();
+				int a2 = e2.getValue().getLastAccessEpoch();
+				return a1 < a2 ? -1 : (a1 == a2 ? 0 : 1);
+			}
+		});
+		long startMillis = System.currentTimeMillis();
+		int evicted = 0;
+		for(Entry<String, Griddle> entry: coldGriddles) {
+			if(residentBytes <= memoryBudgetBytes || !isRunning.get()) {
+				break;
+			}
+			if(evictGriddle(entry.getKey(), entry.getValue())) {
+				residentBytes -= entry.getValue().getFileSizeInByte();
+				evicted++;
+			}
+		}
+		evictedCount.addAndGet(evicted);
+		LOG.info("evict {} cold griddles in {} ms, resident {} bytes, memoryBudgetBytes: {}", 
+				new Object[] { evicted, System.currentTimeMillis() - startMillis, residentBytes, memoryBudgetBytes });
+	}
+	
+	/**
+	 * 换出一个Griddle：有修改时先Dump（按dumpBytesPerSecond限速），打包模式下写入索引，再释放计数器。
+	 * 先登记换入任务再从griddleMap移除，访问该Griddle的线程总能找到其中一个
+	 * @return 是否已换出，Dump失败、正在使用或Dump之后又有修改时返回false
+	 */
+	private static boolean evictGriddle(String griddleName, Griddle griddle) {
+		if(storageType == BucketStorage.MAPPED_STORAGE 
+		   && (griddle.getMaxRepeatInsertCount() != DumpFile.parseMaxRepeatInsertCount(griddle.getDumpFileName())
+		       || griddle.getDumpDurability() != dumpDurability)) {   // 映射模式的Dump文件没有文件头，换入后会丢失修改过的值
+			return false;
+		}
+		if(griddle.isModifiedSinceLastDump() && !dumpCBFToDisk(griddle, dumpThrottle)) {
+			return false;
+		}
+		if(!commitPackStore(griddle.getSyncDurability())) {   // 换入时不能再重放已Dump的WAL记录
+			return false;
+		}
+		
+		FutureTask<Griddle> restoreTask = newRestoreTask(griddleName, griddle.getDumpFileName(), packStoreEnabled);
+		loadingGriddleMap.put(griddleName, restoreTask);
+		if(!griddle.evict()) {
+			loadingGriddleMap.remove(griddleName, restoreTask);
+			return false;
+		}
+		griddleMap.remove(griddleName, griddle);   // 只移除自己，不移除已替换它的Griddle
+		LOG.debug("evict griddle [{}], it will be restored on next access", griddleName);
+		return true;
+	}
+	
+	/**
+	 * 按Bloom Filter的最优大小计算vectorSize：m = -n * ln(p) / (ln2)^2，
+	 * cbfType为2时不小于shardNum（每个分片至少一个计数器）
+	 * @param expectedKeyCount n
+	 * @param falsePositiveRate p
+	 * @return
+	 */
+	static int getOptimalVectorSize(long expectedKeyCount, double falsePositiveRate) {
+		if(expectedKeyCount <= 0 || !(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+			throw new IllegalArgumentException("expectedKeyCount should > 0, falsePositiveRate should be in (0, 1): " 
+					+ expectedKeyCount + ", " + falsePositiveRate);
+		}
+		
+		double optimalVectorSize = Math.ceil(-expectedKeyCount * Math.log(falsePositiveRate) 
+				/ (Math.log(2) * Math.log(2)));
+		if(optimalVectorSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("vectorSize for " + expectedKeyCount + " keys at false positive rate " 
+					+ falsePositiveRate + " exceeds " + Integer.MAX_VALUE);
+		}
+		return Math.max((int) optimalVectorSize, cbfType == CBFSection.SHARDED_CBF ? shardNum : 1);
+	}
+	
+	/**
+	 * 按vectorSize计算最优的hashNum：k = m / n * ln2，至少为1，不超过cbfType的上限（误判率极低时k会很大）
+	 * @param expectedKeyCount n
+	 * @param vectorSize m
+	 * @param cbfType
+	 * @return
+	 */
+	static int getOptimalHashNum(long expectedKeyCount, int vectorSize, int cbfType) {
+		long optimalHashNum = Math.max(1, Math.round((double) vectorSize / expectedKeyCount * Math.log(2)));
+		return (int) Math.min(optimalHashNum, Griddle.getMaxHashNum(cbfType));
+	}
+	
+	/**
+	 * Dump文件名构成规则：griddleName + "." + maxRepeatInsertCount + ".dat"，比如1.3.dat。
+	 * 之后修改的maxRepeatInsertCount记录在Dump文件头中，文件名不变
+	 * @param griddleName
+	 * @param maxRepeatInsertCount
+	 * @return
+	 */
+	private static String buildDumpFileName(String griddleName, int maxRepeatInsertCount) {
+		StringBuilder dumpFileNameBuilder = new StringBuilder();
+		dumpFileNameBuilder.append(griddleName);
+		dumpFileNameBuilder.append(".");
+		dumpFileNameBuilder.append(maxRepeatInsertCount);
+		dumpFileNameBuilder.append(FileUtil.getDumpFileFormatSuffix());
+		
+		return dumpFileNameBuilder.toString();
+	}
+	
+	/*
+	 * ------------------------------------------------------------------
+	 * 定时调度任务
+	 * ------------------------------------------------------------------
+	 */
+	
+	@Bean
+	public ScheduledExecutorFactoryBean scheduledExecutorFactoryBean() {
+		ScheduledExecutorFactoryBean scheduledFactoryBean = new ScheduledExecutorFactoryBean();
+		scheduledFactoryBean
+				.setScheduledExecutorTasks(
+					new ScheduledExecutorTask[] { 
+						dumpCBFToFileSchedule(),
+						recycleGriddleSchedule()
+					}
+				 );
+		
+		return scheduledFactoryBean;
+	}
+	
+	@Bean
+	public ScheduledExecutorTask dumpCBFToFileSchedule() {
+		ScheduledExecutorTask scheduledTask = new ScheduledExecutorTask();
+        scheduledTask.setDelay(5000);
+        scheduledTask.setPeriod(dumpFileIntervalMillis);
+        scheduledTask.setRunnable(new DumpCBFToDiskTask());
+        
+        return scheduledTask;
+	}
+	
+	@Bean
+	public ScheduledExecutorTask recycleGriddleSchedule() {
+		ScheduledExecutorTask scheduledTask = new ScheduledExecutorTask();
+        scheduledTask.setDelay(2000);
+        scheduledTask.setPeriod(recycleGriddleCheckMillis);
+        scheduledTask.setRunnable(new RecycleGriddleTask());
+        
+        return scheduledTask;
+	}
+	
+	/**
+	 * 定时Dump内存中的CBF到硬盘文件任务
+	 * @author will
+	 *
+	 */
+	private class DumpCBFToDiskTask implements Runnable {
+
+		@Override
+		public void run() {
+			LOG.info("schedule dump cbfs to disk files...");
+			dumpCBFsToDisk(true);
+		}
+		
+	}
+	
+	/**
+	 * Dump和恢复线程工厂，线程为守护线程，不阻止JVM退出
+	 * @author will
+	 *
+	 */
+	static class DaemonThreadFactory implements ThreadFactory {
+		
+		private final String namePrefix;
+		private final AtomicInteger threadNumber = new AtomicInteger(0);
+		
+		DaemonThreadFactory(String namePrefix) {
+			this.namePrefix = namePrefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+		
+	}
+	
+	/**
+	 * 对查找到的Griddle执行的操作，被换出时抛出GriddleEvictedException，由callExistingGriddle重新查找后再执行
+	 */
+	private interface GriddleCall<T> {
+		
+		T call(Griddle griddle);
+		
+	}
+	
+	private class RecycleGriddleTask implements Runnable {
+
+		@Override
+		public void run() {
+			LOG.info("schedule recycle griddles...");
+			recycleGriddles();
+		}
+		
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+package com.ximalaya.griddle;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dump写入的限速器（令牌桶）：按每秒字节数发放令牌，所有Dump线程共用一个实例。空闲时最多积攒BURST_MILLIS的令牌，
+ * 一次申请超过现有令牌时先透支，调用线程等到透支的部分补足后再写入，所以单次写入可以大于桶的容量
+ * @author will
+ *
+ */
+final class IoThrottle {
+
+	static final IoThrottle UNLIMITED = new IoThrottle(0);   // 不限速
+
+	private static final long BURST_MILLIS = 100;   // 桶的容量，按发放令牌的时间计
+
+	private final long bytesPerSecond;   // 为0时不限速
+	private final long maxTokens;
+	private long tokens;
+	private long lastRefillNanos;
+
+	private final AtomicLong throttledNanos = new AtomicLong();   // 累计等待令牌的时间
+
+	IoThrottle(long bytesPerSecond) {
+		if(bytesPerSecond < 0) {
+			throw new IllegalArgumentException("bytesPerSecond should >= 0");
+		}
+		this.bytesPerSecond = bytesPerSecond;
+		this.maxTokens = Math.max(bytesPerSecond * BURST_MILLIS / 1000, 1);
+		this.tokens = maxTokens;
+		this.lastRefillNanos = System.nanoTime();
+	}
+
+	/**
+	 * 写入bytes字节前调用，令牌不足时等待。等待期间被中断时不再等待，恢复中断状态后返回
+	 * @param bytes
+	 */
+	void acquire(long bytes) {
+		if(bytesPerSecond == 0 || bytes <= 0) {
+			return;
+		}
+
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			long elapsedNanos = now - lastRefillNanos;
+			if(elapsedNanos > 0) {
+				long refill = (long) (elapsedNanos / 1e9 * bytesPerSecond);
+				if(refill > 0) {   // 不足一个字节的时间留到下一次
+					tokens = Math.min(tokens + refill, maxTokens);
+					lastRefillNanos = now;
+				}
+			}
+			tokens -= bytes;
+			waitNanos = tokens >= 0 ? 0 : (long) (-tokens * 1e9 / bytesPerSecond);
+		}
+
+		if(waitNanos > 0) {
+			throttledNanos.addAndGet(waitNanos);
+			try {
+				Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+			}
+			catch(InterruptedException _) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * @return 累计因限速等待的时间，单位为毫秒
+	 */
+	long getThrottledMillis() {
+		return throttledNanos.get() / 1000000;
+	}
+
+}
@@ -0,0 +1,705 @@
+package com.ximalaya.griddle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ximalaya.griddle.util.FileUtil;
+
+/**
+ * 打包存储：所有Griddle的Dump写入同一个目录下的少数几个段文件，每次Dump在段文件末尾追加一个区段（extent），
+ * 区段的内容与单独的Dump文件完全相同（见DumpFile）。索引文件记录每个Griddle最新的区段，启动时只需读取索引，
+ * Dump时只有顺序追加，不再为每个Griddle创建、重命名和删除文件。
+ * <p>
+ * 每个区段前有一个帧头：魔数 + 序号 + dumpFileName + 区段长度 + 以上内容的CRC32，索引文件丢失或损坏时扫描
+ * 各段文件的帧头重建索引，同一个Griddle以序号最大的区段为准。
+ * <p>
+ * 索引是提交点：区段写完后只更新内存中的索引，commit()把索引写入临时文件后重命名，之后才执行登记的提交后动作
+ * （删除迁移前的Dump文件、删除已包含在区段中的WAL记录），并删除不再有有效区段的段文件。
+ * 每个追加者独占一个段文件，并行Dump时同时有多个段文件在追加；段文件超过segmentBytes后不再追加，
+ * 其中有效区段的比例低于COMPACT_LIVE_RATIO时，getGriddlesToRelocate()返回其中的Griddle，
+ * 它们在下一次Dump时被追加到新的段文件，旧的段文件随之整个删除
+ * @author will
+ *
+ */
+final class PackStore {
+
+	static final String INDEX_FILE_NAME = "griddle.pack.idx";
+	private static final String SEGMENT_FILE_PREFIX = "griddle.pack.";
+	private static final String SEGMENT_FILE_SUFFIX = ".seg";
+
+	private static final int INDEX_MAGIC = 0x4752504b;    // "GRPK"
+	private static final int INDEX_VERSION = 1;
+	private static final int EXTENT_MAGIC = 0x47524558;   // "GREX"
+
+	private static final double COMPACT_LIVE_RATIO = 0.5;
+
+	private final File dir;
+	private final long segmentBytes;
+
+	/*
+	 * 以下字段由this保护
+	 */
+	private final Map<String, Extent> extents = new HashMap<String, Extent> ();   // dumpFileName到最新区段的映射
+	private final Map<Integer, Segment> segments = new TreeMap<Integer, Segment> ();
+	private final LinkedList<Segment> idleSegments = new LinkedList<Segment> ();   // 可以继续追加、没有追加者的段文件
+	private final List<Runnable> afterCommitActions = new ArrayList<Runnable> ();
+	private int nextSegmentId;
+	private long nextSeq;
+	private boolean indexDirty;
+
+	private final Object commitMutex = new Object();
+
+	private static final Logger LOG = LoggerFactory.getLogger(PackStore.class);
+
+	private PackStore(File dir, long segmentBytes) {
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+	}
+
+	/**
+	 * @param fileName
+	 * @return 是否为打包存储的索引文件或段文件
+	 */
+	static boolean isPackFile(String fileName) {
+		return fileName.equals(INDEX_FILE_NAME) || fileName.equals(INDEX_FILE_NAME + ".tmp")
+				|| parseSegmentId(fileName) >= 0;
+	}
+
+	/**
+	 * 打开dir下的打包存储：读取索引文件，没有索引文件或索引文件损坏时扫描所有段文件重建索引。
+	 * 各段文件截断到最后一个有效区段的结尾，丢弃崩溃或放弃时留下的未提交内容，之后的追加紧接着有效区段，
+	 * 重建索引时扫描帧头不会在这些内容处中断
+	 * @param dir
+	 * @param segmentBytes 段文件超过该大小后不再追加
+	 * @return
+	 * @throws IOException
+	 */
+	static PackStore open(File dir, long segmentBytes) throws IOException {
+		PackStore store = new PackStore(dir, segmentBytes);
+		File indexFile = new File(dir, INDEX_FILE_NAME);
+		boolean loaded = false;
+		if(indexFile.exists()) {
+			try {
+				store.readIndex(indexFile);
+				loaded = true;
+			}
+			catch(IOException e) {
+				LOG.error("read pack index [" + indexFile.getPath() + "] failed, rebuild it from segments", e);
+				store.closeSegments();
+			}
+		}
+		if(!loaded) {
+			store.scanSegments();
+		}
+
+		synchronized (store) {
+			for(Segment segment: store.segments.values()) {
+				if(segment.length < segmentBytes) {
+					store.idleSegments.add(segment);
+				}
+			}
+			store.indexDirty = !loaded;
+		}
+		LOG.info("open pack store in [{}], {} extents in {} segments",
+				new Object[] {dir.getPath(), store.extents.size(), store.segments.size()});
+		return store;
+	}
+
+	/**
+	 * @return 所有有区段的Griddle的dumpFileName
+	 */
+	synchronized Set<String> getDumpFileNames() {
+		return new TreeSet<String> (extents.keySet());
+	}
+
+	/**
+	 * 打开某个Griddle最新区段的只读视图
+	 * @param dumpFileName
+	 * @return 没有区段时返回null
+	 */
+	synchronized PositionalChannel openExtent(String dumpFileName) {
+		Extent extent = extents.get(dumpFileName);
+		if(extent == null) {
+			return null;
+		}
+		return ExtentChannel.forRead(segments.get(extent.segmentId).channel, extent.offset, extent.length);
+	}
+
+	/**
+	 * 开始追加一个区段，之后必须调用返回对象的commit()或abort()
+	 * @param dumpFileName
+	 * @return
+	 * @throws IOException
+	 */
+	Appender append(String dumpFileName) throws IOException {
+		Segment segment;
+		long seq;
+		synchronized (this) {
+			segment = idleSegments.poll();
+			if(segment == null) {
+				segment = createSegment(nextSegmentId++);
+				segments.put(segment.id, segment);
+			}
+			seq = nextSeq++;
+		}
+		return new Appender(segment, seq, dumpFileName);
+	}
+
+	/**
+	 * 删除某个Griddle的区段（Griddle被回收或已迁移到单独的Dump文件），commit()后生效
+	 * @param dumpFileName
+	 */
+	synchronized void remove(String dumpFileName) {
+		Extent extent = extents.remove(dumpFileName);
+		if(extent != null) {
+			segments.get(extent.segmentId).liveBytes -= extent.length;
+			indexDirty = true;
+		}
+	}
+
+	/**
+	 * 登记一个在索引下一次写入磁盘之后执行的动作
+	 * @param action
+	 */
+	synchronized void runAfterCommit(Runnable action) {
+		afterCommitActions.add(action);
+	}
+
+	/**
+	 * 返回所在段文件中有效区段比例过低的Griddle，它们重新Dump后旧的段文件就可以删除
+	 * @return dumpFileName列表
+	 */
+	synchronized List<String> getGriddlesToRelocate() {
+		List<Integer> sparseSegmentIds = new ArrayList<Integer> ();
+		for(Segment segment: segments.values()) {
+			if(segment.length >= segmentBytes && segment.liveBytes > 0
+			   && segment.liveBytes < segment.length * COMPACT_LIVE_RATIO) {
+				sparseSegmentIds.add(segment.id);
+			}
+		}
+
+		List<String> dumpFileNames = new ArrayList<String> ();
+		if(!sparseSegmentIds.isEmpty()) {
+			for(Extent extent: extents.values()) {
+				if(sparseSegmentIds.contains(extent.segmentId)) {
+					dumpFileNames.add(extent.dumpFileName);
+				}
+			}
+		}
+		return dumpFileNames;
+	}
+
+	/**
+	 * 索引有变化时写入索引文件（临时文件 + 重命名），然后执行登记的提交后动作，删除没有有效区段的段文件
+	 * @param durability 索引文件的持久化级别，见Griddle.PAGE_CACHE_DURABILITY
+	 * @return 打包存储是否已空（没有任何区段，索引文件和段文件都已删除）
+	 * @throws IOException 写入索引失败，提交后动作保留到下一次
+	 */
+	boolean commit(int durability) throws IOException {
+		synchronized (commitMutex) {   // 各次提交依次写入同一个临时文件
+			return commitIndex(durability);
+		}
+	}
+
+	private boolean commitIndex(int durability) throws IOException {
+		byte[] index;
+		List<Runnable> actions;
+		List<Segment> deadSegments = new ArrayList<Segment> ();
+		boolean empty;
+		synchronized (this) {
+			if(!indexDirty && afterCommitActions.isEmpty()) {
+				return false;
+			}
+			/*
+			 * 与索引在同一个锁内确定要删除的段文件，写入的索引不会引用它们，之后的追加也不会再选中它们
+			 */
+			for(Iterator<Segment> it = segments.values().iterator(); it.hasNext(); ) {
+				Segment segment = it.next();
+				if(segment.liveBytes == 0 && !segment.appending) {
+					it.remove();
+					idleSegments.remove(segment);
+					deadSegments.add(segment);
+				}
+			}
+			index = serializeIndex();
+			actions = new ArrayList<Runnable> (afterCommitActions);
+			afterCommitActions.clear();
+			indexDirty = false;
+			empty = extents.isEmpty() && segments.isEmpty();
+		}
+
+		File indexFile = new File(dir, INDEX_FILE_NAME);
+		try {
+			writeIndex(indexFile, index, durability);
+		}
+		catch(IOException e) {   // 磁盘上的旧索引可能还引用这些段文件，保留到下一次
+			synchronized (this) {
+				afterCommitActions.addAll(0, actions);
+				indexDirty = true;
+				for(Segment segment: deadSegments) {
+					segments.put(segment.id, segment);
+					if(segment.length < segmentBytes) {
+						idleSegments.add(segment);
+					}
+				}
+			}
+			throw e;
+		}
+
+		for(Runnable action: actions) {
+			try {
+				action.run();
+			}
+			catch(RuntimeException e) {
+				LOG.error("run pack after-commit action failed", e);
+			}
+		}
+
+		for(Segment segment: deadSegments) {
+			LOG.info("delete pack segment [{}], no live extents left", segment.file.getName());
+			FileUtil.closeQuietly(segment.raf, segment.file.getPath());
+			FileUtil.deleteFile(segment.file);
+		}
+		if(empty) {
+			FileUtil.deleteFile(indexFile);
+		}
+		return empty;
+	}
+
+	/**
+	 * 关闭所有段文件，之前应先commit()
+	 */
+	synchronized void close() {
+		closeSegments();
+	}
+
+	private void closeSegments() {
+		for(Segment segment: segments.values()) {
+			FileUtil.closeQuietly(segment.raf, segment.file.getPath());
+		}
+		segments.clear();
+		idleSegments.clear();
+		extents.clear();
+	}
+
+	private Segment createSegment(int id) throws IOException {
+		File file = new File(dir, SEGMENT_FILE_PREFIX + id + SEGMENT_FILE_SUFFIX);
+		LOG.info("create pack segment [{}]", file.getName());
+		return new Segment(id, file);
+	}
+
+	private static int parseSegmentId(String fileName) {
+		if(!fileName.startsWith(SEGMENT_FILE_PREFIX) || !fileName.endsWith(SEGMENT_FILE_SUFFIX)) {
+			return -1;
+		}
+		String id = fileName.substring(SEGMENT_FILE_PREFIX.length(), fileName.length() - SEGMENT_FILE_SUFFIX.length());
+		if(id.isEmpty() || id.length() > 9) {
+			return -1;
+		}
+		for(int i = 0; i < id.length(); i++) {
+			if(!Character.isDigit(id.charAt(i))) {
+				return -1;
+			}
+		}
+		return Integer.parseInt(id);
+	}
+
+	/*
+	 * ------------------------------------------------------
+	 * 索引文件：魔数 + 版本 + nextSegmentId + nextSeq + 区段数 + 各区段（dumpFileName + 段号 + 位置 + 长度 + 序号），
+	 * 最后是以上内容的CRC32
+	 * ------------------------------------------------------
+	 */
+
+	private byte[] serializeIndex() {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(64 + 64 * extents.size());
+		DataOutputStream dos = new DataOutputStream(bos);
+		try {
+			dos.writeInt(INDEX_MAGIC);
+			dos.writeByte(INDEX_VERSION);
+			dos.writeInt(nextSegmentId);
+			dos.writeLong(nextSeq);
+			dos.writeInt(extents.size());
+			for(Extent extent: extents.values()) {
+				dos.writeUTF(extent.dumpFileName);
+				dos.writeInt(extent.segmentId);
+				dos.writeLong(extent.offset);
+				dos.writeLong(extent.length);
+				dos.writeLong(extent.seq);
+			}
+			CRC32 crc = new CRC32();
+			crc.update(bos.toByteArray());
+			dos.writeLong(crc.getValue());
+		}
+		catch(IOException e) {   // ByteArrayOutputStream不会抛出IOException
+			throw new IllegalStateException(e);
+		}
+		return bos.toByteArray();
+	}
+
+	private void writeIndex(File indexFile, byte[] index, int durability) throws IOException {
+		File tmpFile = new File(dir, INDEX_FILE_NAME + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmpFile);
+		try {
+			fos.write(index);
+			if(durability != Griddle.PAGE_CACHE_DURABILITY) {
+				fos.getChannel().force(durability == Griddle.FULL_SYNC_DURABILITY);
+			}
+		}
+		finally {
+			FileUtil.closeQuietly(fos, tmpFile.getPath());
+		}
+
+		if(!FileUtil.renameFile(tmpFile, indexFile)) {   // Windows上目标文件存在时重命名失败
+			FileUtil.deleteFile(indexFile);
+			if(!FileUtil.renameFile(tmpFile, indexFile)) {
+				throw new IOException("rename pack index [" + tmpFile.getPath() + "] failed");
+			}
+		}
+		if(durability == Griddle.FULL_SYNC_DURABILITY) {
+			FileUtil.syncDirectory(dir);
+		}
+	}
+
+	private void readIndex(File indexFile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+		byte[] index;
+		try {
+			if(raf.length() > Integer.MAX_VALUE) {
+				throw new IOException("pack index is too large: " + raf.length());
+			}
+			index = new byte[(int) raf.length()];
+			raf.readFully(index);
+		}
+		finally {
+			FileUtil.closeQuietly(raf, indexFile.getPath());
+		}
+
+		if(index.length < 8) {
+			throw new EOFException("pack index is truncated");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(index, 0, index.length - 8);
+		if(ByteBuffer.wrap(index, index.length - 8, 8).getLong() != crc.getValue()) {
+			throw new IOException("checksum of pack index mismatches");
+		}
+
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(index, 0, index.length - 8));
+		if(dis.readInt() != INDEX_MAGIC || dis.readByte() != INDEX_VERSION) {
+			throw new IOException("invalid pack index magic or version");
+		}
+		int segmentId = dis.readInt();
+		long seq = dis.readLong();
+		int extentCount = dis.readInt();
+		Map<String, Extent> loaded = new HashMap<String, Extent> ();
+		for(int i = 0; i < extentCount; i++) {
+			Extent extent = new Extent(dis.readUTF(), dis.readInt(), dis.readLong(), dis.readLong(), dis.readLong());
+			loaded.put(extent.dumpFileName, extent);
+		}
+
+		synchronized (this) {
+			nextSegmentId = segmentId;
+			nextSeq = seq;
+			for(Extent extent: loaded.values()) {
+				Segment segment = segments.get(extent.segmentId);
+				if(segment == null) {
+					File file = new File(dir, SEGMENT_FILE_PREFIX + extent.segmentId + SEGMENT_FILE_SUFFIX);
+					if(!file.exists()) {
+						LOG.error("pack segment [{}] of griddle [{}] is missing", file.getName(), extent.dumpFileName);
+						continue;
+					}
+					segment = new Segment(extent.segmentId, file);
+					segments.put(segment.id, segment);
+				}
+				if(extent.offset + extent.length > segment.length) {
+					LOG.error("extent of griddle [{}] exceeds pack segment [{}]", extent.dumpFileName, segment.file.getName());
+					continue;
+				}
+				segment.liveBytes += extent.length;
+				extents.put(extent.dumpFileName, extent);
+			}
+			
+			/*
+			 * 索引是提交点：最后一个索引中的区段之后的内容（包括帧头完整但还没写入索引的区段）都没有提交，
+			 * 不被索引引用的段文件也是如此（提交前新建的，或提交后还没删除的）
+			 */
+			Map<Integer, Long> committedLengths = new HashMap<Integer, Long> ();
+			for(Extent extent: extents.values()) {
+				Long committedLength = committedLengths.get(extent.segmentId);
+				if(committedLength == null || committedLength < extent.offset + extent.length) {
+					committedLengths.put(extent.segmentId, extent.offset + extent.length);
+				}
+			}
+			for(Segment segment: segments.values()) {
+				Long committedLength = committedLengths.get(segment.id);
+				segment.truncate(committedLength == null ? 0 : committedLength);
+			}
+			for(String fileName: FileUtil.listFiles(dir.getPath())) {
+				int id = parseSegmentId(fileName);
+				if(id >= 0 && !segments.containsKey(id)) {
+					LOG.info("delete pack segment [{}], not referenced by pack index", fileName);
+					FileUtil.deleteFile(new File(dir, fileName));
+					nextSegmentId = Math.max(nextSegmentId, id + 1);   // 删除失败时也不再使用这个段号
+				}
+			}
+		}
+	}
+
+	/**
+	 * 扫描dir下所有段文件的帧头重建索引，每个段文件扫描到第一个不完整或校验失败的帧为止
+	 * @throws IOException
+	 */
+	private synchronized void scanSegments() throws IOException {
+		for(String fileName: FileUtil.listFiles(dir.getPath())) {
+			int id = parseSegmentId(fileName);
+			if(id < 0) {
+				continue;
+			}
+
+			Segment segment = new Segment(id, new File(dir, fileName));
+			segments.put(id, segment);
+			nextSegmentId = Math.max(nextSegmentId, id + 1);
+			int scanned = 0;
+			long pos = 0;
+			for(; pos < segment.length; scanned++) {
+				Extent extent = readFrame(segment, pos);
+				if(extent == null) {
+					break;
+				}
+				Extent existing = extents.get(extent.dumpFileName);
+				if(existing == null || existing.seq < extent.seq) {
+					extents.put(extent.dumpFileName, extent);
+				}
+				nextSeq = Math.max(nextSeq, extent.seq + 1);
+				pos = extent.offset + extent.length;
+			}
+			segment.truncate(pos);   // 第一个不完整或校验失败的帧及之后的内容
+			LOG.info("scanned {} extents in pack segment [{}]", scanned, fileName);
+		}
+
+		for(Extent extent: extents.values()) {
+			segments.get(extent.segmentId).liveBytes += extent.length;
+		}
+	}
+
+	/**
+	 * 帧头：魔数（int） + 序号（long） + dumpFileName（UTF） + 区段长度（long） + 以上内容的CRC32（int）
+	 */
+	private static byte[] serializeFrame(long seq, String dumpFileName, long length) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(32 + dumpFileName.length());
+		DataOutputStream dos = new DataOutputStream(bos);
+		try {
+			dos.writeInt(EXTENT_MAGIC);
+			dos.writeLong(seq);
+			dos.writeUTF(dumpFileName);
+			dos.writeLong(length);
+			CRC32 crc = new CRC32();
+			crc.update(bos.toByteArray());
+			dos.writeInt((int) crc.getValue());
+		}
+		catch(IOException e) {   // ByteArrayOutputStream不会抛出IOException，只有dumpFileName超过65535字节
+			throw new IllegalArgumentException("dumpFileName is too long: " + e.getMessage(), e);
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * @return 帧头及其区段都完整时返回区段，否则返回null
+	 */
+	private static Extent readFrame(Segment segment, long pos) throws IOException {
+		ByteBuffer fixed = ByteBuffer.allocate(14);   // 魔数 + 序号 + dumpFileName的长度
+		if(!readFully(segment.channel, fixed, pos) || fixed.getInt(0) != EXTENT_MAGIC) {
+			return null;
+		}
+		int nameLength = fixed.getShort(12) & 0xffff;
+		ByteBuffer rest = ByteBuffer.allocate(nameLength + 12);
+		if(!readFully(segment.channel, rest, pos + fixed.capacity())) {
+			return null;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(fixed.array());
+		crc.update(rest.array(), 0, nameLength + 8);
+		if(rest.getInt(nameLength + 8) != (int) crc.getValue()) {
+			return null;
+		}
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(rest.array(), 0, nameLength + 8));
+		byte[] nameBytes = new byte[nameLength + 2];
+		nameBytes[0] = (byte) (nameLength >>> 8);
+		nameBytes[1] = (byte) nameLength;
+		dis.readFully(nameBytes, 2, nameLength);
+		String dumpFileName = new DataInputStream(new ByteArrayInputStream(nameBytes)).readUTF();
+		long length = dis.readLong();
+		long offset = pos + fixed.capacity() + rest.capacity();
+		if(length < 0 || offset + length > segment.length) {
+			return null;
+		}
+		return new Extent(dumpFileName, segment.id, offset, length, fixed.getLong(4));
+	}
+
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int readBytes = channel.read(buffer, position);
+			if(readBytes < 0) {
+				return false;
+			}
+			position += readBytes;
+		}
+		return true;
+	}
+
+	/**
+	 * 正在进行的一次追加，独占一个段文件
+	 */
+	final class Appender {
+
+		private final Segment segment;
+		private final long seq;
+		private final String dumpFileName;
+		private final int frameLength;
+		private final ExtentChannel channel;
+		private boolean finished;
+
+		private Appender(Segment segment, long seq, String dumpFileName) {
+			this.segment = segment;
+			this.seq = seq;
+			this.dumpFileName = dumpFileName;
+			this.frameLength = serializeFrame(seq, dumpFileName, 0).length;
+			this.channel = ExtentChannel.forWrite(segment.channel, segment.length + frameLength);
+			segment.appending = true;
+		}
+
+		/**
+		 * @return 写入区段内容的channel，位置0为区段开始
+		 */
+		PositionalChannel getChannel() {
+			return channel;
+		}
+
+		/**
+		 * 写入帧头，把区段登记为该Griddle最新的区段，commit()后写入索引文件
+		 * @throws IOException
+		 */
+		void commit() throws IOException {
+			long length = channel.size();
+			ByteBuffer frame = ByteBuffer.wrap(serializeFrame(seq, dumpFileName, length));
+			long pos = segment.length;
+			while(frame.hasRemaining()) {
+				pos += segment.channel.write(frame, pos);
+			}
+
+			Extent extent = new Extent(dumpFileName, segment.id, segment.length + frameLength, length, seq);
+			synchronized (PackStore.this) {
+				segment.length += frameLength + length;
+				segment.liveBytes += length;
+				Extent old = extents.put(dumpFileName, extent);
+				if(old != null) {
+					segments.get(old.segmentId).liveBytes -= old.length;
+				}
+				indexDirty = true;
+				release();
+			}
+		}
+
+		/**
+		 * 放弃这次追加，已写入的内容会被之后的追加覆盖
+		 */
+		void abort() {
+			synchronized (PackStore.this) {
+				if(!finished) {
+					release();
+				}
+			}
+		}
+
+		private void release() {
+			finished = true;
+			segment.appending = false;
+			if(segment.length < segmentBytes) {
+				idleSegments.addFirst(segment);   // 优先追加到同一个段文件，保持顺序写入
+			}
+		}
+
+	}
+
+	/**
+	 * 段文件
+	 */
+	private static final class Segment {
+
+		final int id;
+		final File file;
+		final RandomAccessFile raf;
+		final FileChannel channel;
+		long length;        // 已提交的区段的结尾，下一次追加的位置，打开时截断到这里
+		long liveBytes;     // 索引中的区段的总长度
+		boolean appending;
+
+		Segment(int id, File file) throws IOException {
+			this.id = id;
+			this.file = file;
+			this.raf = new RandomAccessFile(file, "rw");
+			this.channel = raf.getChannel();
+			this.length = raf.length();
+		}
+		
+		/**
+		 * 截掉已提交的区段之后的内容，之后从committedLength处追加
+		 * @param committedLength
+		 * @throws IOException
+		 */
+		void truncate(long committedLength) throws IOException {
+			if(length > committedLength) {
+				LOG.warn("truncate pack segment [{}] from {} to {} bytes, drop uncommitted content", 
+						new Object[] {file.getName(), length, committedLength});
+				channel.truncate(committedLength);
+			}
+			length = committedLength;
+		}
+
+	}
+
+	/**
+	 * 区段在段文件中的位置
+	 */
+	private static final class Extent {
+
+		final String dumpFileName;
+		final int segmentId;
+		final long offset;   // 区段内容（不含帧头）的位置
+		final long length;
+		final long seq;
+
+		Extent(String dumpFileName, int segmentId, long offset, long length, long seq) {
+			this.dumpFileName = dumpFileName;
+			this.segmentId = segmentId;
+			this.offset = offset;
+			this.length = length;
+			this.seq = seq;
+		}
+
+	}
+
+}
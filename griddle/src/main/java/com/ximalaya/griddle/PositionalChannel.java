@@ -0,0 +1,41 @@
+package com.ximalaya.griddle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * DumpFile读写的存储：只按位置读写，没有当前位置，也不由DumpFile关闭。
+ * 单独的Dump文件用FilePositionalChannel，打包文件中的区段用ExtentChannel
+ * @author will
+ *
+ */
+interface PositionalChannel {
+
+	/**
+	 * 从position开始读入dst，同FileChannel.read(ByteBuffer, long)
+	 * @param dst
+	 * @param position
+	 * @return 读入的字节数，position不小于size()时返回-1
+	 * @throws IOException
+	 */
+	int read(ByteBuffer dst, long position) throws IOException;
+
+	/**
+	 * 把src写到position开始的位置，同FileChannel.write(ByteBuffer, long)
+	 * @param src
+	 * @param position
+	 * @return 写入的字节数
+	 * @throws IOException
+	 */
+	int write(ByteBuffer src, long position) throws IOException;
+
+	long size() throws IOException;
+
+	/**
+	 * 把写入的内容同步到磁盘
+	 * @param metaData 是否同时同步文件元数据
+	 * @throws IOException
+	 */
+	void force(boolean metaData) throws IOException;
+
+}
@@ -0,0 +1,142 @@
+package com.ximalaya.griddle;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * WAL的写线程，所有Griddle共用：有待写入记录的WriteAheadLog排队等待，写线程每次把一个WriteAheadLog攒下的记录
+ * 作为一批写入并fsync（group commit），然后唤醒等待这批记录落盘的插入线程
+ * @author will
+ *
+ */
+public final class WalWriter implements Runnable {
+
+	private final long syncIntervalMillis;   // 每批写入前等待更多记录的时间，0表示写线程空闲时立即写入
+
+	private final BlockingQueue<WriteAheadLog> pendingWals = new LinkedBlockingQueue<WriteAheadLog> ();   // 有待写入记录的WAL
+
+	private final Object runningMutex = new Object();
+	private boolean running;
+	private Thread writerThread;
+
+	private static final Logger LOG = LoggerFactory.getLogger(WalWriter.class);
+
+	/**
+	 * @param syncIntervalMillis 每批写入前等待更多记录的时间，越大每次fsync包含的记录越多，插入等待的时间也越长
+	 */
+	public WalWriter(long syncIntervalMillis) {
+		if(syncIntervalMillis < 0) {
+			throw new IllegalArgumentException("syncIntervalMillis should >= 0");
+		}
+
+		this.syncIntervalMillis = syncIntervalMillis;
+	}
+
+	/**
+	 * 启动写线程
+	 */
+	public void start() {
+		synchronized (runningMutex) {
+			if(running) {
+				return;
+			}
+
+			running = true;
+			writerThread = new Thread(this, "griddle-wal-writer");
+			writerThread.setDaemon(true);
+			writerThread.start();
+		}
+
+		LOG.info("wal writer started, syncIntervalMillis: {}", syncIntervalMillis);
+	}
+
+	/**
+	 * 停止写线程，并在当前线程写入剩余的记录。之后的记录由插入线程自己写入
+	 */
+	public void shutdown() {
+		Thread thread;
+		synchronized (runningMutex) {
+			if(!running) {
+				return;
+			}
+
+			running = false;
+			thread = writerThread;
+			writerThread = null;
+		}
+
+		thread.interrupt();
+		try {
+			thread.join();
+		}
+		catch(InterruptedException _) {
+			Thread.currentThread().interrupt();
+		}
+
+		commitPendingWals();
+
+		LOG.info("wal writer stopped");
+	}
+
+	/**
+	 * WriteAheadLog有了待写入的记录，交给写线程写入；写线程已停止时在当前线程写入
+	 * @param wal
+	 */
+	void schedule(WriteAheadLog wal) {
+		synchronized (runningMutex) {
+			if(running) {
+				pendingWals.offer(wal);
+				return;
+			}
+		}
+
+		wal.commit();
+	}
+
+	@Override
+	public void run() {
+		while(isRunning()) {
+			WriteAheadLog wal = null;
+			try {
+				wal = pendingWals.take();
+				if(syncIntervalMillis > 0) {   // 等待更多记录一起写入
+					Thread.sleep(syncIntervalMillis);
+				}
+			}
+			catch(InterruptedException _) {
+				// 由shutdown()唤醒，队列中剩余的记录由shutdown()写入
+			}
+
+			try {
+				if(wal != null) {
+					wal.commit();
+					commitPendingWals();
+				}
+			}
+			catch(RuntimeException e) {
+				LOG.error("commit wal failed", e);
+			}
+		}
+	}
+
+	private boolean isRunning() {
+		synchronized (runningMutex) {
+			return running;
+		}
+	}
+
+	private void commitPendingWals() {
+		WriteAheadLog wal;
+		while((wal = pendingWals.poll()) != null) {
+			wal.commit();
+		}
+	}
+
+	public long getSyncIntervalMillis() {
+		return syncIntervalMillis;
+	}
+
+}
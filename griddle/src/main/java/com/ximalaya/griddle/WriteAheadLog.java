@@ -0,0 +1,598 @@
+package com.ximalaya.griddle;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ximalaya.bloomfilterext.bloom.CountingFilter;
+import com.ximalaya.bloomfilterext.bloom.SnapshotListener;
+import com.ximalaya.griddle.exception.WalWriteFailedException;
+import com.ximalaya.griddle.util.FileUtil;
+
+/**
+ * 一个Griddle的预写日志（WAL），记录上次Dump之后每次成功的插入，崩溃重启后在Dump文件的基础上重放，不丢失任何插入。
+ * <p>
+ * 文件由若干批记录组成，每批格式为：payload长度（int） + payload的CRC32（long） + payload，payload是这批
+ * 关键词按DataOutput.writeUTF依次写入的结果，每个关键词表示一次增1。崩溃时最后一批可能只写了一部分，
+ * 重放时遇到不完整或CRC不符的一批即停止并截掉。写入失败时同样截掉写了一部分的一批，之后的批次不会写在它后面。
+ * <p>
+ * Dump的快照开始时切分WAL（见newCut()）：当前文件改名为.wal.old.N（N为递增的切分序号），快照之前的记录都在
+ * 这个文件中，之后的记录都在新的.wal文件中。插入线程在更新计数器和追加记录期间持有切分锁的读锁，快照开始前后
+ * 持有写锁，所以切分正好落在快照的时间点上，每次插入只会在Dump文件和新WAL中的一处。Dump同步到磁盘后调用truncate()
+ * 删除切分出的文件；Dump失败时旧文件保留，下一次Dump成功后一并删除
+ * @author will
+ *
+ */
+final class WriteAheadLog {
+
+	private static final String WAL_FILE_SUFFIX = ".wal";
+	private static final String OLD_WAL_FILE_SUFFIX = ".wal.old.";   // 后接切分序号
+
+	private static final int LIVE_GENERATION = -1;   // 写入.wal文件的批次的切分序号
+
+	private static final int REPLAY_BATCH_SIZE = 4096;   // 重放时每次batchAdd的关键词数
+
+	private final File walFile;
+	private final String oldWalFilePrefix;
+	private final WalWriter walWriter;
+
+	/*
+	 * 切分锁：插入线程在更新计数器和追加记录期间持有读锁，切分时持有写锁，所以切分不会落在两者之间
+	 */
+	private final ReentrantReadWriteLock cutLock = new ReentrantReadWriteLock();
+
+	/*
+	 * 插入线程把记录追加到当前批次，写线程把待写入的批次依次写入文件
+	 */
+	private final Object bufferMutex = new Object();
+	private Batch currentBatch = new Batch();
+	private final List<Batch> pendingBatches = new ArrayList<Batch> ();   // 切分时留下的、要写入旧文件的批次
+	private boolean scheduled;   // 是否已交给写线程
+
+	private final Object fileMutex = new Object();
+	private FileOutputStream fos;   // 当前WAL文件，延迟打开
+	private long walValidLength;    // 当前WAL文件中完整批次的结尾
+	private boolean walTorn;        // 当前WAL文件结尾是否有写入失败后没能截掉的不完整批次，截掉之前不能再写入
+	private int nextGeneration;     // 下一次切分的序号
+	private final SortedSet<Integer> oldGenerations = new TreeSet<Integer> ();   // 还没删除的旧文件的切分序号
+
+	private static final Logger LOG = LoggerFactory.getLogger(WriteAheadLog.class);
+
+	WriteAheadLog(String dumpFilePath, WalWriter walWriter) {
+		this.walFile = new File(dumpFilePath + WAL_FILE_SUFFIX);
+		this.oldWalFilePrefix = walFile.getName() + ".old.";
+		this.walWriter = walWriter;
+	}
+
+	/**
+	 * 如果fileName是WAL文件名，返回对应的Dump文件名，否则返回null
+	 * @param fileName
+	 * @return
+	 */
+	static String getDumpFileName(String fileName) {
+		if(fileName.endsWith(WAL_FILE_SUFFIX)) {
+			return fileName.substring(0, fileName.length() - WAL_FILE_SUFFIX.length());
+		}
+		int index = fileName.lastIndexOf(OLD_WAL_FILE_SUFFIX);
+		if(index > 0 && parseGeneration(fileName.substring(index + OLD_WAL_FILE_SUFFIX.length())) >= 0) {
+			return fileName.substring(0, index);
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param s
+	 * @return s表示的切分序号，不是非负整数时返回-1
+	 */
+	private static int parseGeneration(String s) {
+		if(s.isEmpty() || s.length() > 9) {
+			return -1;
+		}
+		for(int i = 0; i < s.length(); i++) {
+			if(s.charAt(i) < '0' || s.charAt(i) > '9') {
+				return -1;
+			}
+		}
+		return Integer.parseInt(s);
+	}
+
+	private File getOldWalFile(int generation) {
+		return new File(walFile.getParentFile(), oldWalFilePrefix + generation);
+	}
+
+	/**
+	 * 更新计数器之前调用，追加记录之后调用endUpdate()
+	 */
+	void beginUpdate() {
+		cutLock.readLock().lock();
+	}
+
+	void endUpdate() {
+		cutLock.readLock().unlock();
+	}
+
+	/**
+	 * 追加一次增1的记录，在beginUpdate()和endUpdate()之间调用，之后在endUpdate()之后调用awaitDurable()等待它落盘
+	 * @param keyWord
+	 * @return 记录所在的批次
+	 */
+	Batch appendWithoutWait(CharSequence keyWord) {
+		boolean toSchedule;
+		Batch batch;
+		synchronized (bufferMutex) {
+			batch = currentBatch;
+			try {
+				batch.dos.writeUTF(keyWord.toString());
+			}
+			catch(IOException e) {   // 关键词超过65535字节，ByteArrayOutputStream不会抛出其它IOException
+				throw new IllegalArgumentException("keyWord is too long for wal: " + e.getMessage(), e);
+			}
+			toSchedule = !scheduled;
+			scheduled = true;
+		}
+
+		if(toSchedule) {
+			walWriter.schedule(this);
+		}
+		return batch;
+	}
+
+	/**
+	 * 追加多次增1的记录，同appendWithoutWait(CharSequence)，整批只需等待一次
+	 * @param keyWords
+	 * @return 最后一条记录所在的批次，keyWords为空时返回null
+	 */
+	Batch appendWithoutWait(List<CharSequence> keyWords) {
+		Batch batch = null;
+		for(CharSequence keyWord: keyWords) {
+			batch = appendWithoutWait(keyWord);
+		}
+		return batch;
+	}
+
+	/**
+	 * 等待批次落盘，同一个WAL的批次按顺序写入，所以之前的批次也已写入
+	 * @param batch 为null时直接返回
+	 * @throws WalWriteFailedException 写入失败，这批插入已在内存中生效，但要到下一次Dump后才能持久化
+	 */
+	void awaitDurable(Batch batch) {
+		if(batch == null) {
+			return;
+		}
+
+		boolean interrupted = false;
+		synchronized (bufferMutex) {
+			while(!batch.done) {
+				try {
+					bufferMutex.wait();
+				}
+				catch(InterruptedException _) {
+					interrupted = true;   // 插入已生效，必须等到记录落盘
+				}
+			}
+		}
+
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if(batch.failure != null) {
+			throw new WalWriteFailedException("write wal [" + walFile.getPath() + "] failed: "
+					+ batch.failure.getMessage(), batch.failure);
+		}
+	}
+
+	/**
+	 * 把待写入的批次依次写入对应的WAL文件并fsync，然后唤醒等待的插入线程，由写线程调用。
+	 * 写入失败时截掉写了一部分的一批，等待这些批次的插入线程收到WalWriteFailedException
+	 */
+	void commit() {
+		synchronized (fileMutex) {   // 取出和写入都在锁内，保证批次按追加的顺序写入
+			List<Batch> batches;
+			synchronized (bufferMutex) {
+				batches = new ArrayList<Batch> (pendingBatches);
+				pendingBatches.clear();
+				if(!currentBatch.isEmpty()) {
+					batches.add(currentBatch);
+					currentBatch = new Batch();
+				}
+				scheduled = false;
+			}
+
+			for(Batch batch: batches) {
+				batch.failure = batch.generation == LIVE_GENERATION ? writeToWalFile(batch) : writeToOldWalFile(batch);
+			}
+
+			synchronized (bufferMutex) {
+				for(Batch batch: batches) {
+					batch.done = true;
+				}
+				bufferMutex.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * 把一批写入当前WAL文件，在fileMutex内调用
+	 * @param batch
+	 * @return 写入失败时的异常，成功时返回null
+	 */
+	private IOException writeToWalFile(Batch batch) {
+		try {
+			if(fos == null) {
+				if(walTorn) {   // 上一次写入失败后没能截掉
+					truncateTo(walFile, walValidLength);
+					walTorn = false;
+				}
+				walValidLength = walFile.length();
+				fos = new FileOutputStream(walFile, true);
+			}
+
+			byte[] frame = batch.toFrame();
+			fos.write(frame);
+			fos.getFD().sync();
+			walValidLength += frame.length;
+			return null;
+		}
+		catch(IOException e) {
+			LOG.error("write wal [" + walFile.getPath() + "] failed", e);
+			FileUtil.closeQuietly(fos, walFile.getPath());
+			fos = null;
+			walTorn = true;
+			try {
+				truncateTo(walFile, walValidLength);
+				walTorn = false;
+			}
+			catch(IOException te) {
+				LOG.error("truncate wal [" + walFile.getPath() + "] failed, retry before next write", te);
+			}
+			return e;
+		}
+	}
+
+	/**
+	 * 把切分时留下的一批写入切分出的旧文件，在fileMutex内调用。每个旧文件只会写入这一批，写入失败时截掉的部分没能
+	 * 截掉也不会影响其它批次
+	 * @param batch
+	 * @return 写入失败时的异常，成功时返回null
+	 */
+	private IOException writeToOldWalFile(Batch batch) {
+		File oldWalFile = getOldWalFile(batch.generation);
+		long validLength = oldWalFile.length();
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(oldWalFile, true);
+			out.write(batch.toFrame());
+			out.getFD().sync();
+			return null;
+		}
+		catch(IOException e) {
+			LOG.error("write wal [" + oldWalFile.getPath() + "] failed", e);
+			try {
+				truncateTo(oldWalFile, validLength);
+			}
+			catch(IOException te) {
+				LOG.error("truncate wal [" + oldWalFile.getPath() + "] failed", te);
+			}
+			return e;
+		}
+		finally {
+			FileUtil.closeQuietly(out, oldWalFile.getPath());
+		}
+	}
+
+	/**
+	 * 在Dump的快照时间点切分WAL，返回的对象作为快照的回调传给CountingFilter，由Dump线程调用，同一个WAL的Dump不能并发
+	 * @return
+	 */
+	Cut newCut() {
+		return new Cut();
+	}
+
+	/**
+	 * 切分：当前WAL文件改名为下一个序号的旧文件，还没写入的记录也改为写入这个旧文件，之后的记录写入新的WAL文件。
+	 * 在切分锁的写锁内调用，此时没有插入正在进行
+	 * @return 切分序号
+	 * @throws IOException 改名失败，此时没有切分，Dump应该失败
+	 */
+	private int cut() throws IOException {
+		synchronized (fileMutex) {
+			int generation = nextGeneration;
+			boolean rotated = false;   // 是否切分出了记录
+			FileUtil.closeQuietly(fos, walFile.getPath());
+			fos = null;
+			if(walFile.exists()) {
+				if(walTorn) {   // 不完整的一批后面还要写入切分时留下的一批
+					truncateTo(walFile, walValidLength);
+					walTorn = false;
+				}
+				if(!FileUtil.renameFile(walFile, getOldWalFile(generation))) {
+					throw new IOException("rotate wal [" + walFile.getPath() + "] failed");
+				}
+				rotated = true;
+			}
+			walValidLength = 0;
+
+			synchronized (bufferMutex) {
+				if(!currentBatch.isEmpty()) {   // 已交给写线程，由它写入旧文件
+					currentBatch.generation = generation;
+					pendingBatches.add(currentBatch);
+					currentBatch = new Batch();
+					rotated = true;
+				}
+			}
+			if(rotated) {
+				oldGenerations.add(generation);
+			}
+			nextGeneration++;
+			return generation;
+		}
+	}
+
+	/**
+	 * Dump成功并同步到磁盘后调用，删除切分序号不超过generation的旧文件。其中还没写入的批次已包含在Dump文件中，
+	 * 直接视为已落盘
+	 * @param generation
+	 */
+	void truncate(int generation) {
+		synchronized (fileMutex) {
+			synchronized (bufferMutex) {
+				for(Iterator<Batch> it = pendingBatches.iterator(); it.hasNext(); ) {
+					Batch batch = it.next();
+					if(batch.generation <= generation) {
+						it.remove();
+						batch.done = true;
+					}
+				}
+				bufferMutex.notifyAll();
+			}
+
+			for(Iterator<Integer> it = oldGenerations.iterator(); it.hasNext(); ) {
+				int oldGeneration = it.next();
+				if(oldGeneration > generation) {
+					break;
+				}
+				FileUtil.deleteFile(getOldWalFile(oldGeneration));
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * 是否还有切分出的记录没有删除，即之前的Dump包含的记录还没有被truncate()删除
+	 * @return
+	 */
+	boolean hasRotatedRecords() {
+		synchronized (fileMutex) {
+			return !oldGenerations.isEmpty();
+		}
+	}
+
+	/**
+	 * 关闭WAL文件但不删除，Griddle换出时调用，换入时由新的WriteAheadLog对象接着使用
+	 */
+	void close() {
+		synchronized (fileMutex) {
+			FileUtil.closeQuietly(fos, walFile.getPath());
+			fos = null;
+		}
+	}
+
+	/**
+	 * 关闭并删除WAL文件，Griddle回收时调用
+	 */
+	void delete() {
+		synchronized (fileMutex) {
+			FileUtil.closeQuietly(fos, walFile.getPath());
+			fos = null;
+			for(int generation: oldGenerations) {
+				FileUtil.deleteFile(getOldWalFile(generation));
+			}
+			oldGenerations.clear();
+			FileUtil.deleteFile(walFile);
+		}
+	}
+
+	/**
+	 * 把WAL文件中的记录（先按切分序号依次重放旧文件，最后是.wal）重放到cbf中，之后的切分序号接着最大的旧文件递增
+	 * @param cbf
+	 * @return 重放的记录数
+	 */
+	int replay(CountingFilter cbf) {
+		synchronized (fileMutex) {
+			String[] fileNames = walFile.getParentFile() == null ? null : walFile.getParentFile().list();
+			if(fileNames != null) {
+				for(String fileName: fileNames) {
+					if(fileName.startsWith(oldWalFilePrefix)) {
+						int generation = parseGeneration(fileName.substring(oldWalFilePrefix.length()));
+						if(generation >= 0) {
+							oldGenerations.add(generation);
+						}
+					}
+				}
+			}
+
+			int replayedCount = 0;
+			for(int generation: oldGenerations) {
+				replayedCount += replay(getOldWalFile(generation), cbf);
+			}
+			nextGeneration = oldGenerations.isEmpty() ? 0 : oldGenerations.last() + 1;
+			return replayedCount + replay(walFile, cbf);
+		}
+	}
+
+	private static int replay(File file, CountingFilter cbf) {
+		if(!file.exists()) {
+			return 0;
+		}
+
+		int replayedCount = 0;
+		long validLength = 0;       // 最后一个完整批次的结尾
+		boolean tornTail = false;   // 是否有不完整的最后一批
+		List<String> keyWords = new ArrayList<String> ();
+		DataInputStream dis = null;
+		try {
+			dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			while(true) {
+				byte[] payload;
+				try {
+					int payloadLength = dis.readInt();
+					long checksum = dis.readLong();
+					if(payloadLength <= 0 || payloadLength > file.length()) {
+						tornTail = true;
+						break;
+					}
+					payload = new byte[payloadLength];
+					dis.readFully(payload);
+
+					CRC32 crc = new CRC32();
+					crc.update(payload);
+					if(crc.getValue() != checksum) {
+						tornTail = true;
+						break;
+					}
+					validLength += 12 + payloadLength;
+				}
+				catch(EOFException _) {   // 最后一批没有写完整，或者文件正好结束
+					tornTail = file.length() > validLength;
+					break;
+				}
+
+				DataInputStream payloadDis = new DataInputStream(new ByteArrayInputStream(payload));
+				while(payloadDis.available() > 0) {
+					keyWords.add(payloadDis.readUTF());
+					if(keyWords.size() == REPLAY_BATCH_SIZE) {
+						replayedCount += replay(keyWords, cbf);
+					}
+				}
+			}
+			replayedCount += replay(keyWords, cbf);
+		}
+		catch(IOException e) {
+			LOG.error("replay wal [" + file.getPath() + "] failed, replayed " + replayedCount + " records", e);
+		}
+		finally {
+			FileUtil.closeQuietly(dis, file.getPath());
+		}
+
+		if(tornTail) {   // 截掉不完整的最后一批，否则之后追加的记录不会被重放
+			LOG.warn("truncate torn tail of wal [{}] to {} bytes", file.getPath(), validLength);
+			try {
+				truncateTo(file, validLength);
+			}
+			catch(IOException e) {
+				LOG.error("truncate wal [" + file.getPath() + "] failed", e);
+			}
+		}
+
+		LOG.info("replay {} records from wal [{}]", replayedCount, file.getPath());
+		return replayedCount;
+	}
+
+	/**
+	 * 截掉file在length之后的部分，文件更短时不做任何事
+	 * @param file
+	 * @param length
+	 * @throws IOException
+	 */
+	private static void truncateTo(File file, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if(raf.length() > length) {
+				raf.setLength(length);
+			}
+		}
+		finally {
+			FileUtil.closeQuietly(raf, file.getPath());
+		}
+	}
+
+	private static int replay(List<String> keyWords, CountingFilter cbf) {
+		int count = keyWords.size();
+		cbf.batchAdd(keyWords.toArray(new CharSequence[count]));
+		keyWords.clear();
+		return count;
+	}
+
+	/**
+	 * 一批记录，由写线程作为一个整体写入并fsync
+	 */
+	static final class Batch {
+
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private final DataOutputStream dos = new DataOutputStream(buffer);
+		private int generation = LIVE_GENERATION;   // 写入的文件：LIVE_GENERATION为当前WAL文件，否则为这个序号的旧文件
+		private boolean done;                       // 是否已写入（或已包含在Dump文件中）
+		private IOException failure;                // 写入失败时的异常
+
+		boolean isEmpty() {
+			return buffer.size() == 0;
+		}
+
+		/**
+		 * @return 写入文件的格式：payload长度 + payload的CRC32 + payload
+		 */
+		byte[] toFrame() throws IOException {
+			byte[] payload = buffer.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 12);
+			DataOutputStream frameDos = new DataOutputStream(frame);
+			frameDos.writeInt(payload.length);
+			frameDos.writeLong(crc.getValue());
+			frameDos.write(payload);
+			return frame.toByteArray();
+		}
+
+	}
+
+	/**
+	 * 一次切分，作为快照的回调：快照开始前取得切分锁的写锁，开始后切分并释放写锁
+	 */
+	final class Cut implements SnapshotListener {
+
+		private int generation = -1;
+
+		@Override
+		public void beforeSnapshot() {
+			cutLock.writeLock().lock();
+		}
+
+		@Override
+		public void onSnapshot() throws IOException {
+			try {
+				generation = cut();
+			}
+			finally {
+				cutLock.writeLock().unlock();
+			}
+		}
+
+		/**
+		 * @return 切分序号，快照没有开始或切分失败时为-1
+		 */
+		int getGeneration() {
+			return generation;
+		}
+
+	}
+
+}
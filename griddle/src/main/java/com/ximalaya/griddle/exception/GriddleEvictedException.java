@@ -0,0 +1,20 @@
+package com.ximalaya.griddle.exception;
+
+/**
+ * Griddle已被换出（内存不足时释放了计数器，数据在Dump文件中），持有的Griddle对象不能再使用，
+ * 需要通过GriddleManager重新获取，GriddleManager的接口会自动重试
+ * @author will
+ *
+ */
+public class GriddleEvictedException extends IllegalStateException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -3264419716262148835L;
+	
+	public GriddleEvictedException(String message) {
+		super(message);
+	}
+
+}
@@ -1,18 +1,18 @@
-package com.ximalaya.griddle.exception;
-
-public class RecycleGriddleFailedException extends RuntimeException {
-
-	/**
-	 * 
-	 */
-	private static final long serialVersionUID = 1969802542307175961L;
-	
-	public RecycleGriddleFailedException(String message) {
-		super(message);
-	}
-	
-	public RecycleGriddleFailedException(String message, Throwable cause) {
-		super(message, cause);
-	}
-
-}
+package com.ximalaya.griddle.exception;
+
+public class RecycleGriddleFailedException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1969802542307175961L;
+	
+	public RecycleGriddleFailedException(String message) {
+		super(message);
+	}
+	
+	public RecycleGriddleFailedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,19 @@
+package com.ximalaya.griddle.exception;
+
+/**
+ * WAL写入失败，插入已在内存中生效，但没有落盘，要到下一次Dump成功后才能持久化，期间崩溃会丢失
+ * @author will
+ *
+ */
+public class WalWriteFailedException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -5281396475310582043L;
+	
+	public WalWriteFailedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+	
+}
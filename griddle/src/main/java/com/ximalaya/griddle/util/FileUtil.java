@@ -1,106 +1,189 @@
-package com.ximalaya.griddle.util;
-
-import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-/**
- * 文件通用操作工具类
- * @author will
- *
- */
-public class FileUtil {
-	
-	private static final String DUMP_FILE_FORMAT_SUFFIX = ".dat";
-	
-	private static final Logger LOG = LoggerFactory.getLogger(FileUtil.class);
-	
-	/**
-	 * 判断指定路径的文件是否存在
-	 * @param filePath
-	 * @return
-	 */
-	public static boolean isFileExist(String filePath) {
-		return new File(filePath).exists();
-	}
-	
-	/**
-	 * 获取文件完整路径
-	 * @param fileDir
-	 * @param fileName
-	 * @param fileFormatSuffix 文件格式后缀，比如 .dat
-	 * @return
-	 */
-	public static String getFullFilePath(String fileDir, String fileName, String fileFormatSuffix) {
-		StringBuilder filePathBuilder = new StringBuilder();
-		filePathBuilder.append(fileDir);
-		filePathBuilder.append("/");
-		filePathBuilder.append(fileName);
-		filePathBuilder.append(fileFormatSuffix);
-		
-		return filePathBuilder.toString();
-	}
-	
-	/**
-	 * 删除指定路径的文件
-	 * @param file
-	 */
-	public static void deleteFile(File file) {
-		if(file != null && file.exists()) {
-			LOG.debug("delete file: {}", file.getAbsolutePath());
-			file.delete();
-		}
-	}
-	
-	/**
-	 * 重命名文件，fromFile => toFile
-	 * @param fromFile
-	 * @param toFile
-	 * @return
-	 */
-	public static boolean renameFile(File fromFile, File toFile) {
-		LOG.debug("rename temp file: {} to target file: {}", 
-				  fromFile.getAbsolutePath(), 
-				  toFile.getAbsolutePath());
-		
-		if(fromFile != null && fromFile.exists()
-		   && toFile != null) {
-			return fromFile.renameTo(toFile);
-		}
-		
-		return false;
-	}
-	
-	/**
-	 * 列出某个目录下的所有文件名列表
-	 * @param dirPath
-	 * @return
-	 */
-	public static List<String> listFiles(String dirPath) {
-		File dirFile = new File(dirPath);
-		File[] files = dirFile.listFiles();
-		List<String> fileNameList = new ArrayList<String>();
-		if(files != null && files.length > 0) {
-			for(int i = 0; i < files.length; i++) {
-				File curFile = files[i];
-				if(curFile.isFile()) {   // 只处理文件
-					fileNameList.add(files[i].getName());
-				}
-			}
-		}
-		
-		return fileNameList;
-	}
-	
-	/**
-	 * 获取Dump文件格式后缀
-	 * @return
-	 */
-	public static String getDumpFileFormatSuffix() {
-		return DUMP_FILE_FORMAT_SUFFIX;
-	}
-
-}
+package com.ximalaya.griddle.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 文件通用操作工具类
+ * @author will
+ *
+ */
+public class FileUtil {
+	
+	private static final String DUMP_FILE_FORMAT_SUFFIX = ".dat";
+	
+	private static final Logger LOG = LoggerFactory.getLogger(FileUtil.class);
+	
+	/*
+	 * 同步目录项需要以只读方式打开目录，只有Java 7以上的FileChannel.open(Path, OpenOption...)可以做到，
+	 * 通过反射调用以兼容Java 6，不支持时为null
+	 */
+	private static final Method PATHS_GET;
+	private static final Method FILE_CHANNEL_OPEN;
+	private static final Object READ_OPTIONS;
+	static {
+		Method pathsGet = null;
+		Method fileChannelOpen = null;
+		Object readOptions = null;
+		try {
+			pathsGet = Class.forName("java.nio.file.Paths").getMethod("get", String.class, String[].class);
+			Class<?> openOptionClass = Class.forName("java.nio.file.OpenOption");
+			readOptions = Array.newInstance(openOptionClass, 1);
+			Array.set(readOptions, 0, Class.forName("java.nio.file.StandardOpenOption").getField("READ").get(null));
+			fileChannelOpen = FileChannel.class.getMethod("open", Class.forName("java.nio.file.Path"), readOptions.getClass());
+		}
+		catch(Exception e) {
+			LOG.info("syncing directories is not supported by this JVM: {}", e.toString());
+			pathsGet = null;
+			fileChannelOpen = null;
+		}
+		PATHS_GET = pathsGet;
+		FILE_CHANNEL_OPEN = fileChannelOpen;
+		READ_OPTIONS = readOptions;
+	}
+	
+	/**
+	 * 判断指定路径的文件是否存在
+	 * @param filePath
+	 * @return
+	 */
+	public static boolean isFileExist(String filePath) {
+		return new File(filePath).exists();
+	}
+	
+	/**
+	 * 获取文件完整路径
+	 * @param fileDir
+	 * @param fileName
+	 * @param fileFormatSuffix 文件格式后缀，比如 .dat
+	 * @return
+	 */
+	public static String getFullFilePath(String fileDir, String fileName, String fileFormatSuffix) {
+		StringBuilder filePathBuilder = new StringBuilder();
+		filePathBuilder.append(fileDir);
+		filePathBuilder.append("/");
+		filePathBuilder.append(fileName);
+		filePathBuilder.append(fileFormatSuffix);
+		
+		return filePathBuilder.toString();
+	}
+	
+	/**
+	 * 删除指定路径的文件
+	 * @param file
+	 */
+	public static void deleteFile(File file) {
+		if(file != null && file.exists()) {
+			LOG.debug("delete file: {}", file.getAbsolutePath());
+			file.delete();
+		}
+	}
+	
+	/**
+	 * 重命名文件，fromFile => toFile
+	 * @param fromFile
+	 * @param toFile
+	 * @return
+	 */
+	public static boolean renameFile(File fromFile, File toFile) {
+		LOG.debug("rename temp file: {} to target file: {}", 
+				  fromFile.getAbsolutePath(), 
+				  toFile.getAbsolutePath());
+		
+		if(fromFile != null && fromFile.exists()
+		   && toFile != null) {
+			return fromFile.renameTo(toFile);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * 把目录项同步到磁盘（fsync目录），使之前在该目录下的创建、重命名、删除在掉电后仍然有效
+	 * @param dir
+	 * @return 是否已同步，JVM或操作系统（比如Windows）不支持打开目录时返回false
+	 * @throws IOException 同步失败
+	 */
+	public static boolean syncDirectory(File dir) throws IOException {
+		if(FILE_CHANNEL_OPEN == null) {
+			return false;
+		}
+		
+		FileChannel channel;
+		try {
+			Object path = PATHS_GET.invoke(null, dir.getPath(), new String[0]);
+			channel = (FileChannel) FILE_CHANNEL_OPEN.invoke(null, path, READ_OPTIONS);
+		}
+		catch(InvocationTargetException e) {   // 打开目录失败
+			LOG.debug("open directory [{}] failed: {}", dir.getPath(), e.getCause());
+			return false;
+		}
+		catch(IllegalAccessException e) {   // 公共方法，不会发生
+			return false;
+		}
+		
+		try {
+			channel.force(true);
+			return true;
+		}
+		finally {
+			closeQuietly(channel, dir.getPath());
+		}
+	}
+	
+	/**
+	 * 关闭文件，失败时只记录日志
+	 * @param closeable 可以为null
+	 * @param filePath 用于记录日志
+	 */
+	public static void closeQuietly(Closeable closeable, String filePath) {
+		if(closeable != null) {
+			try {
+				closeable.close();
+			}
+			catch(IOException e) {
+				LOG.error("close file failed: " + filePath, e);
+			}
+		}
+	}
+	
+	/**
+	 * 列出某个目录下的所有文件名列表
+	 * @param dirPath
+	 * @return
+	 */
+	public static List<String> listFiles(String dirPath) {
+		File dirFile = new File(dirPath);
+		File[] files = dirFile.listFiles();
+		List<String> fileNameList = new ArrayList<String>();
+		if(files != null && files.length > 0) {
+			for(int i = 0; i < files.length; i++) {
+				File curFile = files[i];
+				if(curFile.isFile()) {   // 只处理文件
+					fileNameList.add(files[i].getName());
+				}
+			}
+		}
+		
+		return fileNameList;
+	}
+	
+	/**
+	 * 获取Dump文件格式后缀
+	 * @return
+	 */
+	public static String getDumpFileFormatSuffix() {
+		return DUMP_FILE_FORMAT_SUFFIX;
+	}
+
+}
@@ -0,0 +1,126 @@
+package com.ximalaya.griddle;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import com.ximalaya.bloomfilterext.bloom.BucketStorage;
+import com.ximalaya.bloomfilterext.hash.Hash;
+
+/**
+ * GriddleManager测试的公共方法：全局配置是静态的，每个测试用newManager()重新设置全部配置，结束时用destroy()回收所有Griddle
+ * @author will
+ *
+ */
+final class GriddleTestUtil {
+
+	private GriddleTestUtil() {
+	}
+
+	/**
+	 * @param dumpFileDir
+	 * @return 按默认值设置了全部配置、还没有启动的GriddleManager，可以在start()之前修改配置
+	 */
+	static GriddleManager newManager(File dumpFileDir) {
+		GriddleManager manager = new GriddleManager();
+		manager.setDumpFileDir(dumpFileDir.getPath());
+		manager.setDumpFileIntervalMillis(60000);
+		manager.setRecycleGriddleCheckMillis(60000);
+		manager.setVectorSize(1 << 16);
+		manager.setHashType(Hash.MURMUR_HASH);
+		manager.setHashNum(4);
+		manager.setHashStrategy(0);
+		manager.setCbfType(CBFSection.THREAD_SAFE_CBF);
+		manager.setStorageType(BucketStorage.HEAP_STORAGE);
+		manager.setShardNum(16);
+		manager.setDumpParallelism(1);
+		manager.setRestoreParallelism(1);
+		manager.setLazyRestore(false);
+		manager.setDumpCompressionFillRatio(0);
+		manager.setDumpSpreadMillis(0);
+		manager.setDumpBytesPerSecond(0);
+		manager.setDumpDurability(Griddle.PAGE_CACHE_DURABILITY);
+		manager.setPackStoreEnabled(false);
+		manager.setPackSegmentBytes(1 << 30);
+		manager.setMemoryBudgetBytes(0);
+		manager.setWalEnabled(false);
+		manager.setWalSyncIntervalMillis(0);
+		return manager;
+	}
+
+	/**
+	 * 回收所有Griddle后停止，再清空griddleMap和loadingGriddleMap（恢复失败的任务一直留在其中），
+	 * 下一个测试从空的GriddleManager开始
+	 * @param manager
+	 */
+	static void destroy(GriddleManager manager) {
+		if(manager.isRunning()) {
+			for(String griddleName: GriddleManager.getActiveGriddleNameList()) {
+				try {
+					GriddleManager.markToRecycleGriddle(griddleName);
+				}
+				catch(IllegalStateException _) {
+					// 恢复失败
+				}
+			}
+			manager.stop();
+		}
+		forgetGriddles();
+	}
+
+	/**
+	 * 清空griddleMap和loadingGriddleMap，停止后再启动时所有Griddle都从磁盘恢复
+	 */
+	static void forgetGriddles() {
+		clearStaticMap("griddleMap");
+		clearStaticMap("loadingGriddleMap");
+	}
+
+	/**
+	 * @param griddleName
+	 * @return griddleMap中的Griddle，不触发换入和恢复
+	 */
+	static Griddle getGriddle(String griddleName) {
+		return (Griddle) getStaticMap("griddleMap").get(griddleName);
+	}
+
+	private static void clearStaticMap(String fieldName) {
+		getStaticMap(fieldName).clear();
+	}
+
+	private static Map<?, ?> getStaticMap(String fieldName) {
+		try {
+			Field field = GriddleManager.class.getDeclaredField(fieldName);
+			field.setAccessible(true);
+			return (Map<?, ?>) field.get(null);
+		}
+		catch(Exception e) {
+			throw new IllegalStateException("get GriddleManager." + fieldName + " failed", e);
+		}
+	}
+
+	static File createTempDir() throws IOException {
+		File dir = File.createTempFile("griddle-test", "");
+		assertTrue(dir.delete() && dir.mkdir());
+		return dir;
+	}
+
+	static void deleteDir(File dir) {
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File file: files) {
+				if(file.isDirectory()) {
+					deleteDir(file);
+				}
+				else {
+					file.delete();
+				}
+			}
+		}
+		dir.delete();
+	}
+
+}
@@ -0,0 +1,320 @@
+package com.ximalaya.griddle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.ximalaya.bloomfilterext.bloom.BucketStorage;
+import com.ximalaya.bloomfilterext.hash.Hash;
+import com.ximalaya.griddle.util.FileUtil;
+
+public class TestDumpCycle {
+
+	private static final String TRACKING_DUMP_FILE_NAME = "tracking.3" + FileUtil.getDumpFileFormatSuffix();
+	private static final int GRIDDLE_NUM = 8;
+	private static final long OLD_MILLIS = 1000000000000L;   // 2001年，Dump之后一定更新
+
+	@Test
+	public void testModificationTracking() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		try {
+			Griddle griddle = newGriddle(dir);
+			assertTrue(griddle.isModifiedSinceLastDump());   // Dump文件还不存在
+			griddle.dumpCBFToDisk();
+			assertFalse(griddle.isModifiedSinceLastDump());
+
+			griddle.add("toupiao:1:1001");
+			assertTrue(griddle.isModifiedSinceLastDump());
+			griddle.dumpCBFToDisk();
+			assertFalse(griddle.isModifiedSinceLastDump());
+			griddle.getRepeatedInsertCount("toupiao:1:1001");   // 查询不算修改
+			assertFalse(griddle.isModifiedSinceLastDump());
+
+			griddle.setMaxRepeatInsertCount(2);   // 记录在Dump文件头中
+			assertTrue(griddle.isModifiedSinceLastDump());
+			griddle.dumpCBFToDisk();
+			griddle.markModified();
+			assertTrue(griddle.isModifiedSinceLastDump());
+		}
+		finally {
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testUnmodifiedGriddleSkipped() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		GriddleManager manager = GriddleTestUtil.newManager(dir);
+		try {
+			manager.start();
+			GriddleManager.addGriddle("modified", 3);
+			GriddleManager.addGriddle("unmodified", 3);
+			GriddleManager.increaseInsertCountByOne("modified", "toupiao:1:1001");
+			GriddleManager.increaseInsertCountByOne("unmodified", "toupiao:1:1001");
+			manager.stop();
+			GriddleTestUtil.forgetGriddles();
+
+			File modifiedFile = getDumpFile(dir, "modified");
+			File unmodifiedFile = getDumpFile(dir, "unmodified");
+			assertTrue(modifiedFile.setLastModified(OLD_MILLIS));
+			assertTrue(unmodifiedFile.setLastModified(OLD_MILLIS));
+
+			manager.start();   // 从Dump文件恢复后没有修改
+			GriddleManager.increaseInsertCountByOne("modified", "toupiao:1:1002");
+			assertEquals(1, GriddleManager.getHasInsertedCount("unmodified", "toupiao:1:1001"));
+			manager.stop();   // 最后一次Dump只写有修改的Griddle
+
+			assertTrue(getDumpFile(dir, "modified").lastModified() > OLD_MILLIS);
+			assertEquals(OLD_MILLIS, getDumpFile(dir, "unmodified").lastModified());
+			GriddleTestUtil.forgetGriddles();
+
+			manager.start();
+			assertEquals(1, GriddleManager.getHasInsertedCount("modified", "toupiao:1:1002"));
+			assertEquals(1, GriddleManager.getHasInsertedCount("unmodified", "toupiao:1:1001"));
+		}
+		finally {
+			GriddleTestUtil.destroy(manager);
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testSyncBookkeeping() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		try {
+			Griddle griddle = newGriddle(dir);
+			griddle.dumpCBFToDisk();   // 默认只写到页缓存，不同步
+			assertEquals(Griddle.PAGE_CACHE_DURABILITY, griddle.getDumpDurability());
+			assertEquals(0, griddle.getSyncCount());
+
+			griddle.setDumpDurability(Griddle.DATA_SYNC_DURABILITY);
+			assertTrue(griddle.isModifiedSinceLastDump());   // 新的级别要写入文件头
+			griddle.dumpCBFToDisk();
+			assertEquals(1, griddle.getSyncCount());
+			assertEquals(griddle.getLastSyncMicros(), griddle.getSyncMicros());
+
+			griddle.setDumpDurability(Griddle.DATA_SYNC_DURABILITY);   // 相同的级别不算修改
+			assertFalse(griddle.isModifiedSinceLastDump());
+			griddle.setDumpDurability(Griddle.FULL_SYNC_DURABILITY);
+			griddle.dumpCBFToDisk();
+			assertEquals(2, griddle.getSyncCount());
+			assertTrue(griddle.getSyncMicros() >= griddle.getLastSyncMicros());
+			assertEquals(Griddle.FULL_SYNC_DURABILITY, DumpFile.readHeader(getDumpFile(dir, "tracking")).getDurability());
+
+			try {
+				griddle.setDumpDurability(Griddle.FULL_SYNC_DURABILITY + 1);
+				fail("invalid durability should be rejected");
+			}
+			catch(IllegalArgumentException _) {
+			}
+		}
+		finally {
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testUpdateDumpDurability() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		GriddleManager manager = GriddleTestUtil.newManager(dir);
+		try {
+			manager.start();
+			GriddleManager.addGriddle("page", 3);
+			GriddleManager.addGriddle("data", 3, Griddle.DATA_SYNC_DURABILITY);
+			GriddleManager.addGriddle("updated", 3);
+			GriddleManager.updateDumpDurability("updated", Griddle.FULL_SYNC_DURABILITY);
+			manager.stop();
+
+			Griddle data = GriddleTestUtil.getGriddle("data");
+			assertEquals(data.getSyncMicros() / data.getSyncCount(),
+					GriddleManager.getAverageDumpSyncMicros(Griddle.DATA_SYNC_DURABILITY));
+			Griddle updated = GriddleTestUtil.getGriddle("updated");
+			assertEquals(1, updated.getSyncCount());
+			assertEquals(updated.getSyncMicros(), GriddleManager.getAverageDumpSyncMicros(Griddle.FULL_SYNC_DURABILITY));
+			assertEquals(0, GriddleManager.getAverageDumpSyncMicros(Griddle.PAGE_CACHE_DURABILITY));   // 不同步
+			try {
+				GriddleManager.getAverageDumpSyncMicros(-1);
+				fail("invalid durability should be rejected");
+			}
+			catch(IllegalArgumentException _) {
+			}
+			GriddleTestUtil.forgetGriddles();
+
+			manager.setDumpDurability(Griddle.DATA_SYNC_DURABILITY);   // 文件头中的级别优先于新的默认级别
+			manager.start();
+			GriddleManager.getHasInsertedCount("page", "toupiao:1:1001");
+			GriddleManager.getHasInsertedCount("updated", "toupiao:1:1001");
+			assertEquals(Griddle.PAGE_CACHE_DURABILITY, GriddleTestUtil.getGriddle("page").getDumpDurability());
+			assertEquals(Griddle.DATA_SYNC_DURABILITY, GriddleTestUtil.getGriddle("data").getDumpDurability());
+			assertEquals(Griddle.FULL_SYNC_DURABILITY, GriddleTestUtil.getGriddle("updated").getDumpDurability());
+			try {
+				GriddleManager.updateDumpDurability("page", Griddle.FULL_SYNC_DURABILITY + 1);
+				fail("invalid durability should be rejected");
+			}
+			catch(IllegalArgumentException _) {
+			}
+		}
+		finally {
+			GriddleTestUtil.destroy(manager);
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testParallelDumpRacingStop() throws Exception {
+		File dir = GriddleTestUtil.createTempDir();
+		final GriddleManager manager = GriddleTestUtil.newManager(dir);
+		manager.setDumpParallelism(4);
+		manager.setDumpSpreadMillis(1000);   // 定时Dump错开等待时stop()开始最后一次Dump并关闭线程池
+		try {
+			manager.start();
+			for(int i = 0; i < GRIDDLE_NUM; i++) {
+				GriddleManager.addGriddle("parallel" + i, 3);
+				GriddleManager.increaseInsertCountByOne("parallel" + i, "toupiao:1:" + i);
+			}
+			ExecutorService executor = getDumpExecutor();
+			assertFalse(executor.isShutdown());
+
+			final AtomicReference<Throwable> failure = new AtomicReference<Throwable> ();
+			Thread scheduled = new Thread() {
+				@Override
+				public void run() {
+					try {
+						manager.dumpCBFToFileSchedule().getRunnable().run();
+					}
+					catch(Throwable t) {
+						failure.set(t);
+					}
+				}
+			};
+			scheduled.start();
+			Thread.sleep(100);
+			for(int i = 0; i < GRIDDLE_NUM; i++) {   // 定时Dump取列表之后的修改由最后一次Dump写入
+				GriddleManager.increaseInsertCountByOne("parallel" + i, "toupiao:2:" + i);
+			}
+			manager.stop();
+			scheduled.join(30000);
+			assertFalse(scheduled.isAlive());
+			assertEquals(null, failure.get());
+			assertTrue(executor.isShutdown());
+			assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));   // Dump线程全部退出
+			GriddleTestUtil.forgetGriddles();
+
+			manager.start();   // 重新启动时创建新的线程池
+			assertFalse(getDumpExecutor().isShutdown());
+			for(int i = 0; i < GRIDDLE_NUM; i++) {
+				assertEquals(1, GriddleManager.getHasInsertedCount("parallel" + i, "toupiao:1:" + i));
+				assertEquals(1, GriddleManager.getHasInsertedCount("parallel" + i, "toupiao:2:" + i));
+			}
+		}
+		finally {
+			GriddleTestUtil.destroy(manager);
+			GriddleTestUtil.deleteDir(dir);
+		}
+		assertTrue(getDumpExecutor().isShutdown());   // destroy()中的stop()关闭重新启动时创建的线程池
+	}
+
+	@Test
+	public void testDumpMutex() throws Exception {
+		File dir = GriddleTestUtil.createTempDir();
+		try {
+			final Griddle griddle = newGriddle(dir);
+			griddle.add("toupiao:1:1001");
+			Field field = Griddle.class.getDeclaredField("dumpMutex");
+			field.setAccessible(true);
+			Object dumpMutex = field.get(griddle);
+
+			Thread dumper = new Thread() {
+				@Override
+				public void run() {
+					griddle.dumpCBFToDisk();
+				}
+			};
+			synchronized (dumpMutex) {   // 另一个Dump正在进行
+				dumper.start();
+				long deadline = System.currentTimeMillis() + 10000;
+				while(dumper.getState() != Thread.State.BLOCKED) {
+					assertTrue(System.currentTimeMillis() < deadline);
+					Thread.sleep(1);
+				}
+				assertEquals(0, FileUtil.listFiles(dir.getPath()).size());
+			}
+			dumper.join(10000);
+			assertFalse(griddle.isModifiedSinceLastDump());
+
+			final int dumperNum = 4;   // 同时Dump同一个Griddle，写入不交错，Dump文件完整
+			final AtomicReference<Throwable> failure = new AtomicReference<Throwable> ();
+			Thread[] dumpers = new Thread[dumperNum];
+			for(int i = 0; i < dumperNum; i++) {
+				final int dumperId = i;
+				dumpers[i] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							for(int j = 0; j < 20; j++) {
+								griddle.add("toupiao:" + dumperId + ":" + j);
+								griddle.dumpCBFToDisk();
+							}
+						}
+						catch(Throwable t) {
+							failure.set(t);
+						}
+					}
+				};
+				dumpers[i].start();
+			}
+			for(Thread thread: dumpers) {
+				thread.join();
+			}
+			assertEquals(null, failure.get());
+			assertFalse(griddle.isModifiedSinceLastDump());
+
+			Griddle restored = Griddle.restoreFromDumpFileOrConstructFromGroundIfException(3, 1 << 16, 4, 
+					Hash.MURMUR_HASH, 0, CBFSection.THREAD_SAFE_CBF, BucketStorage.HEAP_STORAGE,
+					CBFSection.getNarrowestBucketBits(CBFSection.THREAD_SAFE_CBF, 3), 16, dir.getPath(), 
+					TRACKING_DUMP_FILE_NAME, null);
+			assertEquals(0, restored.getDamagedPageCount());
+			assertEquals(1, restored.getRepeatedInsertCount("toupiao:1:1001"));
+			for(int i = 0; i < dumperNum; i++) {
+				for(int j = 0; j < 20; j++) {
+					assertEquals(1, restored.getRepeatedInsertCount("toupiao:" + i + ":" + j));
+				}
+			}
+		}
+		finally {
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	private static ExecutorService getDumpExecutor() throws Exception {
+		Field field = GriddleManager.class.getDeclaredField("dumpExecutor");
+		field.setAccessible(true);
+		return (ExecutorService) field.get(null);
+	}
+
+	static File getDumpFile(File dir, String griddleName) {
+		for(String fileName: FileUtil.listFiles(dir.getPath())) {
+			if(griddleName.equals(DumpFile.parseGriddleName(fileName))) {
+				return new File(dir, fileName);
+			}
+		}
+		throw new AssertionError("no dump file of griddle [" + griddleName + "]");
+	}
+
+	private static Griddle newGriddle(File dir) {
+		return Griddle.constructFromGround(3, 1 << 16, 4, Hash.MURMUR_HASH, 0, CBFSection.THREAD_SAFE_CBF,
+				BucketStorage.HEAP_STORAGE, CBFSection.getNarrowestBucketBits(CBFSection.THREAD_SAFE_CBF, 3), 16,
+				dir.getPath(), TRACKING_DUMP_FILE_NAME, null);
+	}
+
+}
@@ -0,0 +1,585 @@
+package com.ximalaya.griddle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+import com.ximalaya.bloomfilterext.bloom.BucketStorage;
+import com.ximalaya.bloomfilterext.bloom.CountingFilter;
+import com.ximalaya.bloomfilterext.bloom.HashFunction;
+import com.ximalaya.bloomfilterext.bloom.ShardedCountingFilter;
+import com.ximalaya.bloomfilterext.bloom.ThreadSafeCBloomFilter;
+import com.ximalaya.bloomfilterext.hash.Hash;
+import com.ximalaya.griddle.util.FileUtil;
+
+public class TestDumpFile {
+
+	private static final int VECTOR_SIZE = 1 << 16;   // 4位计数器共32KB，8页
+	private static final int LARGE_VECTOR_SIZE = 1 << 20;   // 512KB，压缩编码时分为3块，最后一块不满
+	private static final int PAGE_SIZE = DumpFile.PAGE_SIZE_IN_BYTE;
+
+	@Test
+	public void testRawRoundTrip() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			CountingFilter cbf = newCBF();
+			addKeys(cbf, "toupiao:1:", 20000);
+			DumpFile dumpFile = dump(cbf, file);
+			assertEquals(dumpFile.getRawFileLength(), file.length());
+
+			DumpFile saved = DumpFile.readHeader(file);
+			assertEquals("1", saved.getGriddleName());
+			assertEquals(3, saved.getMaxRepeatInsertCount());
+			assertFalse(saved.isCompressed());
+			CountingFilter restored = new ThreadSafeCBloomFilter();
+			saved.readPayload(file, restored, getHeaderRanges(CBFSection.THREAD_SAFE_CBF));
+			assertEquals(0, saved.getDamagedPageCount());
+			assertTrue(Arrays.equals(serialize(cbf), serialize(restored)));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testFlippedByteIsolatedToOnePage() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			CountingFilter cbf = newCBF();
+			addKeys(cbf, "toupiao:1:", 20000);
+			DumpFile dumpFile = dump(cbf, file);
+			flipByte(file, dumpFile.getPayloadOffset() + 3 * PAGE_SIZE + 100);
+
+			DumpFile saved = DumpFile.readHeader(file);
+			CountingFilter restored = new ThreadSafeCBloomFilter();
+			saved.readPayload(file, restored, getHeaderRanges(CBFSection.THREAD_SAFE_CBF));
+			assertEquals(1, saved.getDamagedPageCount());
+
+			byte[] expected = serialize(cbf);
+			Arrays.fill(expected, 3 * PAGE_SIZE, 4 * PAGE_SIZE, (byte) 0);   // 只有这一页被清零
+			assertTrue(Arrays.equals(expected, serialize(restored)));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testDamagedHeaderRecoveredFromReplica() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			int shardNum = 4;
+			CountingFilter cbf = new ShardedCountingFilter(VECTOR_SIZE, 4, Hash.MURMUR_HASH,
+					HashFunction.DOUBLE_HASHING, ThreadSafeCBloomFilter.DEFAULT_BUCKET_BITS, shardNum,
+					BucketStorage.HEAP_STORAGE);
+			addKeys(cbf, "toupiao:1:", 20000);
+			DumpFile dumpFile = dump(cbf, file);
+			long[][] headerRanges = Griddle.getHeaderRanges(VECTOR_SIZE, HashFunction.DOUBLE_HASHING,
+					CBFSection.SHARDED_CBF, ThreadSafeCBloomFilter.DEFAULT_BUCKET_BITS, shardNum);
+			long[] damagedHeader = headerRanges[3];
+			flipByte(file, dumpFile.getPayloadOffset() + damagedHeader[0]);
+
+			DumpFile saved = DumpFile.readHeader(file);
+			CountingFilter restored = new ShardedCountingFilter();
+			saved.readPayload(file, restored, headerRanges);
+			assertEquals(1, saved.getDamagedPageCount());
+
+			byte[] expected = serialize(cbf);
+			int damagedPage = (int) (damagedHeader[0] / PAGE_SIZE);
+			byte[] header = Arrays.copyOfRange(expected, (int) damagedHeader[0], (int) damagedHeader[1]);
+			Arrays.fill(expected, damagedPage * PAGE_SIZE, (damagedPage + 1) * PAGE_SIZE, (byte) 0);
+			System.arraycopy(header, 0, expected, (int) damagedHeader[0], header.length);   // 头部从其它分片复制
+			assertTrue(Arrays.equals(expected, serialize(restored)));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testDamagedHeaderWithoutReplica() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			CountingFilter cbf = newCBF();
+			DumpFile dumpFile = dump(cbf, file);
+			flipByte(file, dumpFile.getPayloadOffset() + 1);
+
+			try {
+				DumpFile.readHeader(file).readPayload(file, new ThreadSafeCBloomFilter(),
+						getHeaderRanges(CBFSection.THREAD_SAFE_CBF));
+				fail("cbf header can't be recovered");
+			}
+			catch(IOException _) {
+			}
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testDirtyPagesWritten() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			CountingFilter cbf = newCBF();
+			addKeys(cbf, "toupiao:1:", 1000);
+			DumpFile dumpFile = dump(cbf, file);
+			addKeys(cbf, "toupiao:2:", 1000);
+			assertTrue(dumpFile.writeDirtyPages(file, cbf, IoThrottle.UNLIMITED, null,
+					Griddle.DATA_SYNC_DURABILITY) > 0);
+			assertEquals(dumpFile.getRawFileLength(), file.length());   // 校验日志已截掉
+
+			assertRestored(serialize(cbf), file);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testCrashBeforeChecksumsUpdated() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			CountingFilter cbf = newCBF();
+			addKeys(cbf, "toupiao:1:", 1000);
+			final DumpFile dumpFile = dump(cbf, file);
+			addKeys(cbf, "toupiao:2:", 1000);
+			DumpFile.PageTrackingFile raf = new DumpFile.PageTrackingFile(file, dumpFile, IoThrottle.UNLIMITED,
+					Griddle.PAGE_CACHE_DURABILITY) {
+				@Override
+				void writeChecksums(Set<Integer> pageIndexes, int[] checksums) throws IOException {
+					throw new IOException("crash after pages are written");
+				}
+			};
+			try {
+				dumpFile.writeDirtyPages(raf, cbf, null);
+				fail("dirty page write should crash");
+			}
+			catch(IOException _) {
+			}
+			finally {
+				raf.close();
+			}
+			assertTrue(file.length() > dumpFile.getRawFileLength());
+
+			assertRestored(serialize(cbf), file);   // 新写入的页与校验日志中的新CRC32相符
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testCrashWithChecksumsAheadOfPages() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			CountingFilter cbf = newCBF();
+			addKeys(cbf, "toupiao:1:", 1000);
+			final DumpFile dumpFile = dump(cbf, file);
+			byte[] dumped = serialize(cbf);
+			addKeys(cbf, "toupiao:2:", 1000);
+			DumpFile.PageTrackingFile raf = new DumpFile.PageTrackingFile(file, dumpFile, IoThrottle.UNLIMITED,
+					Griddle.PAGE_CACHE_DURABILITY) {
+				@Override
+				void writePages(SortedMap<Integer, byte[]> pages) {
+					// 掉电时校验表先于这些页到达磁盘
+				}
+
+				@Override
+				void writeChecksums(Set<Integer> pageIndexes, int[] checksums) throws IOException {
+					super.writeChecksums(pageIndexes, checksums);
+					throw new IOException("crash after checksums are written");
+				}
+			};
+			try {
+				dumpFile.writeDirtyPages(raf, cbf, null);
+				fail("dirty page write should crash");
+			}
+			catch(IOException _) {
+			}
+			finally {
+				raf.close();
+			}
+
+			assertRestored(dumped, file);   // 原来的页与校验日志中的旧CRC32相符
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testCompressedRoundTrip() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			CountingFilter cbf = new ThreadSafeCBloomFilter(LARGE_VECTOR_SIZE, 4, Hash.MURMUR_HASH);   // 3块
+			addKeys(cbf, "toupiao:1:", 1000);   // 稀疏
+			DumpFile written = dump(cbf, file, true);
+			assertTrue(written.getFillRatio() < 0.1);
+			assertTrue(file.length() < written.getPayloadLength() / 10);
+			assertRestored(serialize(cbf), file, LARGE_VECTOR_SIZE);
+
+			addKeys(cbf, "toupiao:2:", 400000);   // 稠密
+			written = dump(cbf, file, true);
+			assertTrue(written.getFillRatio() > 0.9);
+			DumpFile saved = assertRestored(serialize(cbf), file, LARGE_VECTOR_SIZE);
+			assertTrue(saved.isCompressed());
+			assertEquals(written.getFillRatio(), saved.getFillRatio(), 1e-9);   // 读取时同样统计
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testCompressedTailNotWordAligned() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			CountingFilter cbf = newRandomCBF(VECTOR_SIZE);
+			byte[] serialized = serialize(cbf);
+			assertTrue(serialized.length % 8 != 0);   // CBF头部不是整字，数据区最后剩下不足一个字
+			assertTrue(serialized[serialized.length - 1] != 0);
+			dump(cbf, file, true);
+			assertRestored(serialized, file, VECTOR_SIZE);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testIncompressibleBlock() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			CountingFilter cbf = newRandomCBF(LARGE_VECTOR_SIZE);   // 随机的计数器压缩后比原来更大
+			DumpFile written = dump(cbf, file, true);
+			long blocksLength = file.length() - written.getPayloadOffset() - 8 * 3;   // 去掉文件头和各块的长度、CRC32
+			assertTrue(blocksLength > written.getPayloadLength());
+			assertEquals(1.0, written.getFillRatio(), 1e-3);
+			assertRestored(serialize(cbf), file, LARGE_VECTOR_SIZE);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testCorruptedBlockRestoredAsZeros() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			CountingFilter cbf = new ThreadSafeCBloomFilter(LARGE_VECTOR_SIZE, 4, Hash.MURMUR_HASH);
+			addKeys(cbf, "toupiao:1:", 200000);
+			dump(cbf, file, true);
+			DumpFile saved = DumpFile.readHeader(file);
+			int blockSize = PAGE_SIZE * 64;
+			int blockCount = (int) ((saved.getPayloadLength() + blockSize - 1) / blockSize);
+			assertEquals(3, blockCount);
+
+			RandomAccessFile raf = new RandomAccessFile(file, "r");   // 文件末尾是各块的长度和CRC32
+			int[] blockLengths = new int[blockCount];
+			try {
+				raf.seek(raf.length() - 8L * blockCount);
+				for(int b = 0; b < blockCount; b++) {
+					blockLengths[b] = raf.readInt();
+					raf.readInt();
+				}
+			}
+			finally {
+				raf.close();
+			}
+			flipByte(file, saved.getPayloadOffset() + blockLengths[0] + blockLengths[1] / 2);   // 第2块
+
+			byte[] expected = serialize(cbf);
+			Arrays.fill(expected, blockSize, 2 * blockSize, (byte) 0);
+			CountingFilter restored = new ThreadSafeCBloomFilter();
+			saved.readPayload(file, restored, getThreadSafeHeaderRanges(LARGE_VECTOR_SIZE));
+			assertTrue(saved.getDamagedPageCount() > 0);
+			assertTrue(Arrays.equals(expected, serialize(restored)));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSwitchBackToRawOnceFilled() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		try {
+			String dumpFileName = "compress.3" + FileUtil.getDumpFileFormatSuffix();
+			File file = new File(dir, dumpFileName);
+			Griddle griddle = Griddle.constructFromGround(3, VECTOR_SIZE, 4, Hash.MURMUR_HASH, 0,
+					CBFSection.THREAD_SAFE_CBF, BucketStorage.HEAP_STORAGE, 4, 16, dir.getPath(), dumpFileName, null);
+			griddle.setCompressionFillRatio(0.5);
+			griddle.add(keys("toupiao:1:", 100));
+			griddle.dumpCBFToDisk();
+			assertTrue(DumpFile.readHeader(file).isCompressed());
+			assertTrue(griddle.getFillRatio() < 0.5);
+
+			griddle.add(keys("toupiao:2:", 2000));   // 按上一次统计的比例仍压缩，并重新统计
+			griddle.dumpCBFToDisk();
+			assertTrue(DumpFile.readHeader(file).isCompressed());
+			assertTrue(griddle.getFillRatio() > 0.5);
+
+			griddle.add(keys("toupiao:3:", 1));
+			griddle.dumpCBFToDisk();
+			assertFalse(DumpFile.readHeader(file).isCompressed());
+			griddle.add(keys("toupiao:4:", 1));   // 之后只写入脏页
+			griddle.dumpCBFToDisk();
+			assertFalse(DumpFile.readHeader(file).isCompressed());
+
+			Griddle restored = Griddle.restoreFromDumpFileOrConstructFromGroundIfException(3, VECTOR_SIZE, 4,
+					Hash.MURMUR_HASH, 0, CBFSection.THREAD_SAFE_CBF, BucketStorage.HEAP_STORAGE, 4, 16, dir.getPath(),
+					dumpFileName, null);
+			assertTrue(restored.getFillRatio() > 0.5);   // 原样Dump之后不再压缩
+			for(String keyWord: new String[] {"toupiao:1:0", "toupiao:2:0", "toupiao:3:0", "toupiao:4:0"}) {
+				assertTrue(restored.getRepeatedInsertCount(keyWord) > 0);
+				assertEquals(griddle.getRepeatedInsertCount(keyWord), restored.getRepeatedInsertCount(keyWord));
+			}
+		}
+		finally {
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testReadOldHeaders() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			for(int formatVersion = 1; formatVersion <= 3; formatVersion++) {
+				writeHeader(file, formatVersion);
+				DumpFile saved = DumpFile.readHeader(file);
+				assertEquals("1", saved.getGriddleName());
+				assertEquals(3, saved.getMaxRepeatInsertCount());
+				assertEquals(CBFSection.BLOCKED_CBF, saved.getCbfType());
+				assertEquals(8, saved.getBucketBits());
+				assertEquals(123456789L, saved.getCreateTimeMillis());
+				assertEquals(32768L, saved.getPayloadLength());
+				assertEquals(formatVersion >= 2, saved.isCompressed());
+				assertEquals(formatVersion >= 3 ? Griddle.DATA_SYNC_DURABILITY : -1, saved.getDurability());
+				assertEquals(0, saved.getVectorSize());
+				assertEquals(0, saved.getHashNum());
+			}
+
+			writeHeader(file, 9);
+			try {
+				DumpFile.readHeader(file);
+				fail("format version 9 is not supported");
+			}
+			catch(IOException _) {
+			}
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testCustomGeometryHeaderRoundTrip() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			CountingFilter cbf = newCBF();
+			addKeys(cbf, "toupiao:1:", 100);
+			byte[] dumped = serialize(cbf);
+			DumpFile dumpFile = new DumpFile("1", 3, CBFSection.THREAD_SAFE_CBF, cbf.getBucketBits(), 123456789L,
+					dumped.length, Griddle.FULL_SYNC_DURABILITY, VECTOR_SIZE, 4);
+			FileOutputStream fos = new FileOutputStream(file);
+			try {
+				dumpFile.writeTo(new FilePositionalChannel(fos.getChannel()), cbf, false, IoThrottle.UNLIMITED, null, 
+						Griddle.FULL_SYNC_DURABILITY);
+			}
+			finally {
+				fos.close();
+			}
+
+			DumpFile saved = DumpFile.readHeader(file);   // 当前版本的文件头带有单独指定的大小和哈希次数
+			assertEquals("1", saved.getGriddleName());
+			assertEquals(123456789L, saved.getCreateTimeMillis());
+			assertEquals(dumped.length, saved.getPayloadLength());
+			assertEquals(Griddle.FULL_SYNC_DURABILITY, saved.getDurability());
+			assertEquals(VECTOR_SIZE, saved.getVectorSize());
+			assertEquals(4, saved.getHashNum());
+			assertRestored(dumped, file);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testDurabilityHeaderRoundTrip() throws IOException {
+		File file = File.createTempFile("griddle-dump", ".cbf");
+		try {
+			CountingFilter cbf = newCBF();
+			byte[] dumped = serialize(cbf);
+			for(int durability = Griddle.PAGE_CACHE_DURABILITY; durability <= Griddle.FULL_SYNC_DURABILITY; durability++) {
+				writeHeader(file, 3, durability);   // 版本3的文件头
+				assertEquals(durability, DumpFile.readHeader(file).getDurability());
+
+				DumpFile dumpFile = new DumpFile("1", 3, CBFSection.THREAD_SAFE_CBF, cbf.getBucketBits(), 123456789L,
+						dumped.length, durability, 0, 0);
+				FileOutputStream fos = new FileOutputStream(file);
+				try {   // 文件头记录的级别与实际同步的级别无关
+					dumpFile.writeTo(new FilePositionalChannel(fos.getChannel()), cbf, false, IoThrottle.UNLIMITED, null, 
+							Griddle.PAGE_CACHE_DURABILITY);
+				}
+				finally {
+					fos.close();
+				}
+				DumpFile saved = DumpFile.readHeader(file);
+				assertEquals(durability, saved.getDurability());
+				assertEquals(0, saved.getVectorSize());
+				assertEquals(0, saved.getHashNum());
+			}
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	private static void writeHeader(File file, int formatVersion) throws IOException {
+		writeHeader(file, formatVersion, Griddle.DATA_SYNC_DURABILITY);
+	}
+
+	/**
+	 * 按旧版本的格式写入文件头：版本2开始有编码（这里为压缩），版本3开始有持久化级别
+	 */
+	private static void writeHeader(File file, int formatVersion, int durability) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		dos.writeInt(0x47524444);
+		dos.writeByte(formatVersion);
+		dos.writeUTF("1");
+		dos.writeInt(3);
+		dos.writeByte(CBFSection.BLOCKED_CBF);
+		dos.writeByte(8);
+		dos.writeLong(123456789L);
+		dos.writeLong(32768L);
+		dos.writeInt(PAGE_SIZE);
+		if(formatVersion >= 2) {
+			dos.writeByte(DumpFile.COMPRESSED_ENCODING);
+		}
+		if(formatVersion >= 3) {
+			dos.writeByte(durability);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bos.toByteArray());
+		dos.writeLong(crc.getValue());
+
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(bos.toByteArray());
+		}
+		finally {
+			fos.close();
+		}
+	}
+
+	private static void assertRestored(byte[] expected, File file) throws IOException {
+		assertRestored(expected, file, VECTOR_SIZE);
+	}
+
+	private static DumpFile assertRestored(byte[] expected, File file, int vectorSize) throws IOException {
+		DumpFile saved = DumpFile.readHeader(file);
+		CountingFilter restored = new ThreadSafeCBloomFilter();
+		saved.readPayload(file, restored, getThreadSafeHeaderRanges(vectorSize));
+		assertEquals(0, saved.getDamagedPageCount());
+		assertTrue(Arrays.equals(expected, serialize(restored)));
+		return saved;
+	}
+
+	static DumpFile dump(CountingFilter cbf, File file) throws IOException {
+		return dump(cbf, file, false);
+	}
+
+	/**
+	 * @return 实际写入的文件头
+	 */
+	static DumpFile dump(CountingFilter cbf, File file, boolean compress) throws IOException {
+		DumpFile dumpFile = new DumpFile("1", 3, CBFSection.THREAD_SAFE_CBF, cbf.getBucketBits(),
+				System.currentTimeMillis(), serialize(cbf).length, Griddle.PAGE_CACHE_DURABILITY, 0, 0);
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			return dumpFile.writeTo(new FilePositionalChannel(fos.getChannel()), cbf, compress, IoThrottle.UNLIMITED, null, 
+					Griddle.PAGE_CACHE_DURABILITY);
+		}
+		finally {
+			fos.close();
+		}
+	}
+
+	static byte[] serialize(CountingFilter cbf) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		cbf.writeTo(Channels.newChannel(bos));
+		return bos.toByteArray();
+	}
+
+	static void addKeys(CountingFilter cbf, String prefix, int count) {
+		cbf.batchAdd(keys(prefix, count));
+	}
+
+	static CountingFilter newCBF() {
+		return new ThreadSafeCBloomFilter(VECTOR_SIZE, 4, Hash.MURMUR_HASH);
+	}
+
+	/**
+	 * @return 计数器为随机值的CBF，几乎不能压缩
+	 */
+	private static CountingFilter newRandomCBF(int vectorSize) throws IOException {
+		byte[] serialized = serialize(new ThreadSafeCBloomFilter(vectorSize, 4, Hash.MURMUR_HASH));
+		byte[] buckets = new byte[vectorSize / 2];
+		new Random(vectorSize).nextBytes(buckets);
+		System.arraycopy(buckets, 0, serialized, serialized.length - buckets.length, buckets.length);
+		CountingFilter cbf = new ThreadSafeCBloomFilter();
+		cbf.readFrom(Channels.newChannel(new ByteArrayInputStream(serialized)));
+		return cbf;
+	}
+
+	private static CharSequence[] keys(String prefix, int count) {
+		CharSequence[] keys = new CharSequence[count];
+		for(int i = 0; i < count; i++) {
+			keys[i] = prefix + i;
+		}
+		return keys;
+	}
+
+	private static long[][] getHeaderRanges(int cbfType) {
+		return Griddle.getHeaderRanges(VECTOR_SIZE, HashFunction.DOUBLE_HASHING, cbfType,
+				ThreadSafeCBloomFilter.DEFAULT_BUCKET_BITS, 1);
+	}
+
+	private static long[][] getThreadSafeHeaderRanges(int vectorSize) {
+		return Griddle.getHeaderRanges(vectorSize, HashFunction.DOUBLE_HASHING, CBFSection.THREAD_SAFE_CBF,
+				ThreadSafeCBloomFilter.DEFAULT_BUCKET_BITS, 1);
+	}
+
+	private static void flipByte(File file, long position) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(position);
+			int b = raf.read();
+			raf.seek(position);
+			raf.write(b ^ 0xff);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+}
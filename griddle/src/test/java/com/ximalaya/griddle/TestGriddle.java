@@ -1,33 +1,47 @@
-package com.ximalaya.griddle;
-
-import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.springframework.test.context.ContextConfiguration;
-import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
-import org.springframework.util.Assert;
-
-import com.ximalaya.griddle.GriddleManager;
-
-@ContextConfiguration(locations="classpath:application-context.xml")
-@RunWith(SpringJUnit4ClassRunner.class)
-public class TestGriddle {
-	
-	@Test
-	public void testAddGriddle() {
-		GriddleManager.addGriddle("1", 3);
-	}
-	
-	@Test
-	public void testIncreaseInsertCountByOne() {
-		Assert.isTrue(GriddleManager.increaseInsertCountByOne("1", "toupiao:1:1001"));
-		Assert.isTrue(GriddleManager.increaseInsertCountByOne("1", "toupiao:1:1001"));
-		Assert.isTrue(GriddleManager.increaseInsertCountByOne("1", "toupiao:1:1001"));
-		Assert.isTrue(!GriddleManager.increaseInsertCountByOne("1", "toupiao:1:1001"));
-	}
-	
-	@Test
-	public void testMarkToRecycleGriddle() {
-//		GriddleManager.markToRecycleGriddle("1");
-	}
-
+package com.ximalaya.griddle;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.util.Assert;
+
+import com.ximalaya.griddle.GriddleManager;
+
+@ContextConfiguration(locations="classpath:application-context.xml")
+@RunWith(SpringJUnit4ClassRunner.class)
+public class TestGriddle {
+	
+	@Test
+	public void testAddGriddle() {
+		GriddleManager.addGriddle("1", 3);
+	}
+	
+	@Test
+	public void testIncreaseInsertCountByOne() {
+		Assert.isTrue(GriddleManager.increaseInsertCountByOne("1", "toupiao:1:1001"));
+		Assert.isTrue(GriddleManager.increaseInsertCountByOne("1", "toupiao:1:1001"));
+		Assert.isTrue(GriddleManager.increaseInsertCountByOne("1", "toupiao:1:1001"));
+		Assert.isTrue(!GriddleManager.increaseInsertCountByOne("1", "toupiao:1:1001"));
+	}
+	
+	@Test
+	public void testBatchIncreaseInsertCountByOne() {
+		GriddleManager.addGriddle("2", 2);
+		BitSet inserted = GriddleManager.increaseInsertCountByOne("2", 
+				new String[] { "toupiao:2:1001", "toupiao:2:1001", "toupiao:2:1001", "toupiao:2:1002" });
+		Assert.isTrue(inserted.get(0) && inserted.get(1) && !inserted.get(2) && inserted.get(3));
+		
+		int[] counts = GriddleManager.getHasInsertedCount(new String[] { "2", "2" }, 
+				new String[] { "toupiao:2:1001", "toupiao:2:1002" });
+		Assert.isTrue(counts[0] == 2 && counts[1] == 1);
+	}
+	
+	@Test
+	public void testMarkToRecycleGriddle() {
+//		GriddleManager.markToRecycleGriddle("1");
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,187 @@
+package com.ximalaya.griddle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.ximalaya.bloomfilterext.bloom.BucketStorage;
+import com.ximalaya.bloomfilterext.hash.Hash;
+import com.ximalaya.griddle.exception.GriddleEvictedException;
+import com.ximalaya.griddle.util.FileUtil;
+
+public class TestGriddleEviction {
+
+	private static final String DUMP_FILE_NAME = "evict.3" + FileUtil.getDumpFileFormatSuffix();
+
+	@Test
+	public void testEvictColdGriddleThenRestore() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		GriddleManager manager = GriddleTestUtil.newManager(dir);
+		manager.setMemoryBudgetBytes(1);   // 所有冷的Griddle都换出
+		try {
+			manager.start();
+			GriddleManager.addGriddle("cold", 3);
+			GriddleManager.addGriddle("hot", 3);
+			GriddleManager.increaseInsertCountByOne("cold", "toupiao:1:1001");
+			GriddleManager.increaseInsertCountByOne("cold", "toupiao:1:1001");
+			GriddleManager.increaseInsertCountByOne("hot", "toupiao:1:1001");
+			long residentBytes = GriddleManager.getResidentGriddleBytes();
+			long evictedCount = GriddleManager.getEvictedCount();
+
+			GriddleManager.evictColdGriddles();   // 两个都在刚结束的周期内访问过
+			assertEquals(evictedCount, GriddleManager.getEvictedCount());
+			GriddleManager.getHasInsertedCount("hot", "toupiao:1:1001");
+			GriddleManager.evictColdGriddles();
+			assertEquals(evictedCount + 1, GriddleManager.getEvictedCount());
+			assertEquals(residentBytes / 2, GriddleManager.getResidentGriddleBytes());
+			assertEquals(2, GriddleManager.getActiveGriddleNameList().size());
+
+			assertEquals(2, GriddleManager.getHasInsertedCount("cold", "toupiao:1:1001"));   // 从Dump文件换入
+			assertTrue(GriddleManager.increaseInsertCountByOne("cold", "toupiao:1:1001"));
+			assertFalse(GriddleManager.increaseInsertCountByOne("cold", "toupiao:1:1001"));
+			assertEquals(residentBytes, GriddleManager.getResidentGriddleBytes());
+		}
+		finally {
+			GriddleTestUtil.destroy(manager);
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testAddRacingEviction() throws Exception {
+		File dir = GriddleTestUtil.createTempDir();
+		try {
+			final Griddle griddle = newGriddle(dir, null);
+			assertTrue(griddle.getCBFSection().tryIncreaseUseCount());   // 正在使用时不换出
+			griddle.dumpCBFToDisk();
+			assertFalse(griddle.evict());
+			griddle.getCBFSection().decreaseUseCount();
+
+			final int adderNum = 2;
+			final AtomicInteger[] addedCounts = new AtomicInteger[adderNum];
+			Thread[] adders = new Thread[adderNum];
+			for(int i = 0; i < adderNum; i++) {
+				final int adder = i;
+				addedCounts[i] = new AtomicInteger();
+				adders[i] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							while(true) {
+								griddle.add("toupiao:" + adder + ":" + addedCounts[adder].get());
+								addedCounts[adder].incrementAndGet();
+								Thread.sleep(1);
+							}
+						}
+						catch(GriddleEvictedException _) {
+							// 换出之后的插入失败，由GriddleManager重新获取后重试
+						}
+						catch(InterruptedException _) {
+						}
+					}
+				};
+				adders[i].start();
+			}
+
+			long deadline = System.currentTimeMillis() + 30000;
+			do {   // 与插入交错：Dump之后又有插入时放弃换出
+				assertTrue(System.currentTimeMillis() < deadline);
+				griddle.dumpCBFToDisk();
+			} while(!griddle.evict());
+			for(Thread adder: adders) {
+				adder.join();
+			}
+			try {
+				griddle.getRepeatedInsertCount("toupiao:0:0");
+				fail("griddle has been evicted");
+			}
+			catch(GriddleEvictedException _) {
+			}
+
+			Griddle restored = restoreGriddle(dir);   // 换出前成功的插入都在Dump文件中
+			for(int i = 0; i < adderNum; i++) {
+				for(int j = 0; j < addedCounts[i].get(); j++) {
+					assertEquals(1, restored.getRepeatedInsertCount("toupiao:" + i + ":" + j));
+				}
+			}
+		}
+		finally {
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testEvictionSkipped() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		try {
+			PackStore store = PackStore.open(dir, 1 << 20);
+			Griddle griddle = newGriddle(dir, new WalWriter(0));
+			griddle.usePackStore(store);
+			griddle.add("toupiao:1:1001");
+			griddle.dumpCBFToDisk();   // 索引写入之前WAL中还有已Dump的记录
+			assertFalse(griddle.isModifiedSinceLastDump());
+			assertFalse(griddle.evict());
+			store.commit(Griddle.PAGE_CACHE_DURABILITY);
+			assertTrue(griddle.evict());
+			store.close();
+
+			griddle = newGriddle(dir, null);   // 待回收
+			griddle.dumpCBFToDisk();
+			griddle.markToRecycle();
+			assertFalse(griddle.evict());
+			assertTrue(griddle.getCBFSection().tryIncreaseUseCount());
+			griddle.getCBFSection().decreaseUseCount();
+		}
+		finally {
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testMappedEvictionSkipped() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		GriddleManager manager = GriddleTestUtil.newManager(dir);
+		manager.setStorageType(BucketStorage.MAPPED_STORAGE);
+		manager.setMemoryBudgetBytes(1);
+		try {
+			manager.start();
+			GriddleManager.addGriddle("mapped", 3);
+			GriddleManager.addGriddle("limit", 3);
+			GriddleManager.addGriddle("durability", 3);
+			GriddleManager.updateMaxRepeatInsertCount("limit", 2);   // 映射模式的Dump文件没有文件头，换入后会丢失
+			GriddleManager.updateDumpDurability("durability", Griddle.DATA_SYNC_DURABILITY);
+			long evictedCount = GriddleManager.getEvictedCount();
+
+			GriddleManager.evictColdGriddles();
+			GriddleManager.evictColdGriddles();
+			assertEquals(evictedCount + 1, GriddleManager.getEvictedCount());   // 只换出沿用默认值的Griddle
+			assertTrue(GriddleManager.increaseInsertCountByOne("limit", "toupiao:1:1001"));
+			assertTrue(GriddleManager.increaseInsertCountByOne("limit", "toupiao:1:1001"));
+			assertFalse(GriddleManager.increaseInsertCountByOne("limit", "toupiao:1:1001"));
+		}
+		finally {
+			GriddleTestUtil.destroy(manager);
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	private static Griddle newGriddle(File dir, WalWriter walWriter) {
+		return Griddle.constructFromGround(3, 1 << 16, 4, Hash.MURMUR_HASH, 0, CBFSection.THREAD_SAFE_CBF,
+				BucketStorage.HEAP_STORAGE, CBFSection.getNarrowestBucketBits(CBFSection.THREAD_SAFE_CBF, 3), 16,
+				dir.getPath(), DUMP_FILE_NAME, walWriter);
+	}
+
+	private static Griddle restoreGriddle(File dir) {
+		return Griddle.restoreFromDumpFileOrConstructFromGroundIfException(3, 1 << 16, 4, Hash.MURMUR_HASH, 0,
+				CBFSection.THREAD_SAFE_CBF, BucketStorage.HEAP_STORAGE,
+				CBFSection.getNarrowestBucketBits(CBFSection.THREAD_SAFE_CBF, 3), 16, dir.getPath(), DUMP_FILE_NAME, null);
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.ximalaya.griddle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.ximalaya.bloomfilterext.bloom.BlockedCountingBloomFilter;
+import com.ximalaya.bloomfilterext.bloom.BucketStorage;
+import com.ximalaya.bloomfilterext.bloom.HashFunction;
+
+public class TestGriddleSizing {
+
+	@Test
+	public void testFileSizeBeyondIntRange() {
+		int vectorSize = 2000000000;   // 16位计数器共约4GB
+		long sizeInByte = Griddle.getCaculatedFileSizeInByte(vectorSize, HashFunction.DOUBLE_HASHING,
+				CBFSection.THREAD_SAFE_CBF, BucketStorage.HEAP_STORAGE, 16, 1);
+		assertTrue(sizeInByte > 4000000000L);
+		assertTrue(sizeInByte < 4000000000L + 1024);
+
+		long shardedSizeInByte = Griddle.getCaculatedFileSizeInByte(vectorSize, HashFunction.DOUBLE_HASHING,
+				CBFSection.SHARDED_CBF, BucketStorage.HEAP_STORAGE, 16, 16);
+		assertTrue(shardedSizeInByte > 4000000000L);
+	}
+
+	@Test
+	public void testOptimalGeometry() {
+		int vectorSize = GriddleManager.getOptimalVectorSize(1000000, 0.01);
+		assertEquals(9585059, vectorSize);
+		assertEquals(7, GriddleManager.getOptimalHashNum(1000000, vectorSize, CBFSection.THREAD_SAFE_CBF));
+		assertEquals(1, GriddleManager.getOptimalHashNum(1000000, 1000, CBFSection.THREAD_SAFE_CBF));
+
+		// 误判率极低时k超过块内计数器数，BLOCKED_CBF截断到上限
+		vectorSize = GriddleManager.getOptimalVectorSize(1000, 1e-60);
+		assertEquals(BlockedCountingBloomFilter.MAX_NB_HASH,
+				GriddleManager.getOptimalHashNum(1000, vectorSize, CBFSection.BLOCKED_CBF));
+		assertTrue(GriddleManager.getOptimalHashNum(1000, vectorSize, CBFSection.THREAD_SAFE_CBF)
+				> BlockedCountingBloomFilter.MAX_NB_HASH);
+		new BlockedCountingBloomFilter(vectorSize, BlockedCountingBloomFilter.MAX_NB_HASH, 1);
+	}
+
+	@Test
+	public void testCheckGeometry() {
+		Griddle.checkGeometry(1 << 20, BlockedCountingBloomFilter.MAX_NB_HASH, CBFSection.BLOCKED_CBF,
+				BucketStorage.HEAP_STORAGE, BlockedCountingBloomFilter.BUCKET_BITS, 1);
+		Griddle.checkGeometry(2000000000, 7, CBFSection.THREAD_SAFE_CBF, BucketStorage.HEAP_STORAGE, 16, 1);
+		Griddle.checkGeometry(2000000000, 7, CBFSection.THREAD_SAFE_CBF, BucketStorage.MAPPED_STORAGE, 4, 1);
+
+		assertRejected(0, 7, CBFSection.THREAD_SAFE_CBF, BucketStorage.HEAP_STORAGE, 4, 1);
+		assertRejected(1 << 20, 0, CBFSection.THREAD_SAFE_CBF, BucketStorage.HEAP_STORAGE, 4, 1);
+		assertRejected(1 << 20, BlockedCountingBloomFilter.MAX_NB_HASH + 1, CBFSection.BLOCKED_CBF,
+				BucketStorage.HEAP_STORAGE, BlockedCountingBloomFilter.BUCKET_BITS, 1);
+		assertRejected(8, 3, CBFSection.SHARDED_CBF, BucketStorage.HEAP_STORAGE, 4, 16);
+		// 16位计数器约4GB，超过一次映射的上限
+		assertRejected(2000000000, 7, CBFSection.THREAD_SAFE_CBF, BucketStorage.MAPPED_STORAGE, 16, 1);
+	}
+
+	private static void assertRejected(int vectorSize, int hashNum, int cbfType, int storageType, int bucketBits,
+			int shardNum) {
+		try {
+			Griddle.checkGeometry(vectorSize, hashNum, cbfType, storageType, bucketBits, shardNum);
+			fail("geometry should be rejected: " + vectorSize + ", " + hashNum + ", " + cbfType);
+		}
+		catch(IllegalArgumentException _) {
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.ximalaya.griddle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class TestIoThrottle {
+
+	private static final long BYTES_PER_SECOND = 1000000;
+	private static final long BURST_BYTES = BYTES_PER_SECOND / 10;   // 桶里最多积攒100ms的令牌
+
+	@Test
+	public void testRate() {
+		IoThrottle throttle = new IoThrottle(BYTES_PER_SECOND);
+		long startMillis = System.currentTimeMillis();
+		throttle.acquire(BURST_BYTES);   // 新建时桶是满的
+		assertEquals(0, throttle.getThrottledMillis());
+
+		throttle.acquire(BYTES_PER_SECOND / 2);   // 超过桶的容量，透支后等待约500ms
+		long elapsedMillis = System.currentTimeMillis() - startMillis;
+		assertTrue(elapsedMillis >= 450);
+		assertTrue(elapsedMillis < 5000);
+		assertTrue(throttle.getThrottledMillis() >= 450);
+		assertTrue(throttle.getThrottledMillis() <= 500);
+	}
+
+	@Test
+	public void testBurstBounded() throws InterruptedException {
+		IoThrottle throttle = new IoThrottle(BYTES_PER_SECOND);
+		Thread.sleep(300);   // 空闲300ms，令牌仍只有100ms的
+		throttle.acquire(BURST_BYTES);
+		assertEquals(0, throttle.getThrottledMillis());
+		throttle.acquire(BYTES_PER_SECOND / 5);
+		assertTrue(throttle.getThrottledMillis() >= 150);
+		assertTrue(throttle.getThrottledMillis() <= 200);
+	}
+
+	@Test
+	public void testInterruptStopsWaiting() {
+		IoThrottle throttle = new IoThrottle(BYTES_PER_SECOND);
+		long startMillis = System.currentTimeMillis();
+		Thread.currentThread().interrupt();
+		throttle.acquire(BYTES_PER_SECOND * 100);   // 要等待约100秒
+		assertTrue(Thread.interrupted());
+		assertTrue(System.currentTimeMillis() - startMillis < 5000);
+	}
+
+	@Test
+	public void testUnlimited() {
+		IoThrottle.UNLIMITED.acquire(Long.MAX_VALUE);
+		new IoThrottle(BYTES_PER_SECOND).acquire(0);
+		assertEquals(0, IoThrottle.UNLIMITED.getThrottledMillis());
+		try {
+			new IoThrottle(-1);
+			fail("negative rate should be rejected");
+		}
+		catch(IllegalArgumentException _) {
+		}
+	}
+
+}
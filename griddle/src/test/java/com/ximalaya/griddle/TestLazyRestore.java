@@ -0,0 +1,99 @@
+package com.ximalaya.griddle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.ximalaya.griddle.util.FileUtil;
+
+public class TestLazyRestore {
+
+	private static final int GRIDDLE_NUM = 32;
+
+	@Test
+	public void testCallerRunsPendingRestore() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		GriddleManager manager = GriddleTestUtil.newManager(dir);
+		manager.setVectorSize(1 << 21);   // 每个1MB，恢复线程依次恢复需要一段时间
+		try {
+			manager.start();
+			for(int i = 0; i < GRIDDLE_NUM; i++) {
+				GriddleManager.addGriddle("lazy" + i, 3);
+				GriddleManager.increaseInsertCountByOne("lazy" + i, "toupiao:1:" + i);
+			}
+			long residentBytes = GriddleManager.getResidentGriddleBytes();
+			manager.stop();
+			GriddleTestUtil.forgetGriddles();
+
+			String lastGriddleName = null;   // 恢复任务按列出Dump文件的顺序提交，最后一个最晚开始
+			for(String fileName: FileUtil.listFiles(dir.getPath())) {
+				if(DumpFile.parseGriddleName(fileName) != null) {
+					lastGriddleName = DumpFile.parseGriddleName(fileName);
+				}
+			}
+			manager.setLazyRestore(true);
+			manager.setRestoreParallelism(1);
+			manager.start();
+			assertEquals(GRIDDLE_NUM, GriddleManager.getActiveGriddleNameList().size());
+			try {
+				GriddleManager.addGriddle(lastGriddleName, 3);
+				fail("griddle [" + lastGriddleName + "] is loading");
+			}
+			catch(IllegalStateException _) {
+			}
+
+			// 恢复任务还没开始，在当前线程执行，不等恢复线程处理完前面的Griddle
+			int i = Integer.parseInt(lastGriddleName.substring("lazy".length()));
+			assertEquals(1, GriddleManager.getHasInsertedCount(lastGriddleName, "toupiao:1:" + i));
+			assertTrue(GriddleManager.getResidentGriddleBytes() < residentBytes);
+
+			for(i = 0; i < GRIDDLE_NUM; i++) {
+				assertEquals(1, GriddleManager.getHasInsertedCount("lazy" + i, "toupiao:1:" + i));
+			}
+			assertEquals(residentBytes, GriddleManager.getResidentGriddleBytes());
+		}
+		finally {
+			GriddleTestUtil.destroy(manager);
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testRestoreFailureReachesCaller() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		GriddleManager manager = GriddleTestUtil.newManager(dir);
+		manager.setLazyRestore(true);
+		try {
+			File badDumpFile = new File(dir, "bad.0" + FileUtil.getDumpFileFormatSuffix());   // maxRepeatInsertCount为0，恢复失败
+			assertTrue(badDumpFile.createNewFile());
+			manager.start();
+			assertTrue(GriddleManager.getActiveGriddleNameList().contains("bad"));
+
+			for(int i = 0; i < 2; i++) {   // 失败的恢复任务保留，之后的访问同样失败
+				try {
+					GriddleManager.getHasInsertedCount("bad", "toupiao:1:1001");
+					fail("restore of griddle [bad] should fail");
+				}
+				catch(IllegalStateException e) {
+					assertTrue(e.getCause() instanceof IllegalArgumentException);
+				}
+			}
+			try {
+				GriddleManager.addGriddle("bad", 3);
+				fail("griddle [bad] is still registered as loading");
+			}
+			catch(IllegalStateException _) {
+			}
+		}
+		finally {
+			GriddleTestUtil.destroy(manager);
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+}
@@ -0,0 +1,244 @@
+package com.ximalaya.griddle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class TestPackStore {
+
+	private static final long SEGMENT_BYTES = 1 << 20;
+
+	@Test
+	public void testAppendCommitReopen() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		try {
+			PackStore store = PackStore.open(dir, SEGMENT_BYTES);
+			append(store, "a.3.cbf", content(1, 100));
+			append(store, "b.3.cbf", content(2, 200));
+			assertFalse(store.commit(Griddle.PAGE_CACHE_DURABILITY));
+			store.close();
+
+			store = PackStore.open(dir, SEGMENT_BYTES);
+			assertEquals(new TreeSet<String> (Arrays.asList("a.3.cbf", "b.3.cbf")), store.getDumpFileNames());
+			assertTrue(Arrays.equals(content(1, 100), read(store, "a.3.cbf")));
+			assertTrue(Arrays.equals(content(2, 200), read(store, "b.3.cbf")));
+			store.close();
+		}
+		finally {
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testUncommittedTailTruncated() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		try {
+			PackStore store = PackStore.open(dir, SEGMENT_BYTES);
+			append(store, "a.3.cbf", content(1, 100));
+			store.commit(Griddle.PAGE_CACHE_DURABILITY);
+			File segmentFile = new File(dir, "griddle.pack.0.seg");
+			long committedLength = segmentFile.length();
+
+			append(store, "b.3.cbf", content(2, 200));   // 帧头已写入，但崩溃在索引提交之前
+			PackStore.Appender appender = store.append("c.3.cbf");   // 崩溃时只写了一部分的区段
+			appender.getChannel().write(ByteBuffer.wrap(content(3, 300)), 0);
+			store.close();
+			assertTrue(segmentFile.length() > committedLength);
+
+			store = PackStore.open(dir, SEGMENT_BYTES);
+			assertEquals(Collections.singleton("a.3.cbf"), store.getDumpFileNames());
+			assertEquals(committedLength, segmentFile.length());
+			append(store, "d.3.cbf", content(4, 400));   // 紧接着已提交的区段追加
+			store.commit(Griddle.PAGE_CACHE_DURABILITY);
+			store.close();
+
+			assertTrue(new File(dir, PackStore.INDEX_FILE_NAME).delete());   // 扫描帧头重建索引时也能找到之后的区段
+			store = PackStore.open(dir, SEGMENT_BYTES);
+			assertEquals(new TreeSet<String> (Arrays.asList("a.3.cbf", "d.3.cbf")), store.getDumpFileNames());
+			assertTrue(Arrays.equals(content(4, 400), read(store, "d.3.cbf")));
+			store.close();
+		}
+		finally {
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testIndexRebuiltFromSegments() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		try {
+			PackStore store = PackStore.open(dir, SEGMENT_BYTES);
+			append(store, "a.3.cbf", content(1, 100));
+			append(store, "b.3.cbf", content(2, 200));
+			append(store, "a.3.cbf", content(3, 300));   // 同一个Griddle以序号最大的区段为准
+			store.commit(Griddle.PAGE_CACHE_DURABILITY);
+			store.close();
+
+			FileOutputStream fos = new FileOutputStream(new File(dir, PackStore.INDEX_FILE_NAME));   // 损坏的索引
+			try {
+				fos.write(new byte[] {1, 2, 3});
+			}
+			finally {
+				fos.close();
+			}
+			FileOutputStream tail = new FileOutputStream(new File(dir, "griddle.pack.0.seg"), true);
+			try {
+				tail.write(content(5, 10));   // 段文件末尾不完整的帧
+			}
+			finally {
+				tail.close();
+			}
+
+			store = PackStore.open(dir, SEGMENT_BYTES);
+			assertEquals(new TreeSet<String> (Arrays.asList("a.3.cbf", "b.3.cbf")), store.getDumpFileNames());
+			assertTrue(Arrays.equals(content(3, 300), read(store, "a.3.cbf")));
+			assertTrue(Arrays.equals(content(2, 200), read(store, "b.3.cbf")));
+			append(store, "c.3.cbf", content(4, 400));
+			store.commit(Griddle.PAGE_CACHE_DURABILITY);   // 重建后写入新的索引
+			store.close();
+
+			store = PackStore.open(dir, SEGMENT_BYTES);
+			assertEquals(3, store.getDumpFileNames().size());
+			assertTrue(Arrays.equals(content(4, 400), read(store, "c.3.cbf")));
+			store.close();
+		}
+		finally {
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testSparseSegmentRelocated() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		try {
+			PackStore store = PackStore.open(dir, 300);
+			append(store, "a.3.cbf", content(1, 200));
+			append(store, "b.3.cbf", content(2, 200));   // 段文件0超过300字节，不再追加
+			assertTrue(store.getGriddlesToRelocate().isEmpty());
+
+			append(store, "a.3.cbf", content(3, 200));   // 追加到段文件1，段文件0中有效区段不到一半
+			store.commit(Griddle.PAGE_CACHE_DURABILITY);
+			assertEquals(Collections.singletonList("b.3.cbf"), store.getGriddlesToRelocate());
+
+			append(store, "b.3.cbf", content(4, 200));
+			store.commit(Griddle.PAGE_CACHE_DURABILITY);
+			assertFalse(new File(dir, "griddle.pack.0.seg").exists());
+			assertTrue(store.getGriddlesToRelocate().isEmpty());
+			store.close();
+
+			store = PackStore.open(dir, 300);
+			assertTrue(Arrays.equals(content(3, 200), read(store, "a.3.cbf")));
+			assertTrue(Arrays.equals(content(4, 200), read(store, "b.3.cbf")));
+			store.remove("a.3.cbf");
+			store.remove("b.3.cbf");
+			assertTrue(store.commit(Griddle.PAGE_CACHE_DURABILITY));   // 清空后删除所有打包文件
+			store.close();
+			assertEquals(0, dir.list().length);
+		}
+		finally {
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testMigrateBetweenFileAndPack() throws IOException {
+		File dir = GriddleTestUtil.createTempDir();
+		GriddleManager manager = GriddleTestUtil.newManager(dir);
+		try {
+			manager.start();
+			GriddleManager.addGriddle("pack", 3);
+			GriddleManager.increaseInsertCountByOne("pack", "toupiao:1:1001");
+			GriddleManager.increaseInsertCountByOne("pack", "toupiao:1:1001");
+			manager.stop();
+			assertFalse(hasPackFiles(dir));
+
+			manager.setPackStoreEnabled(true);   // 从单独的Dump文件迁移到打包存储
+			manager.start();
+			assertEquals(2, GriddleManager.getHasInsertedCount("pack", "toupiao:1:1001"));
+			manager.stop();
+			assertTrue(hasPackFiles(dir));
+			assertTrue(Arrays.asList(dir.list()).contains(PackStore.INDEX_FILE_NAME));
+			assertEquals(0, countDumpFiles(dir));
+
+			manager.start();
+			assertEquals(2, GriddleManager.getHasInsertedCount("pack", "toupiao:1:1001"));
+			GriddleManager.increaseInsertCountByOne("pack", "toupiao:1:1002");
+			manager.stop();
+
+			manager.setPackStoreEnabled(false);   // 迁移回单独的Dump文件，打包存储清空后删除
+			manager.start();
+			assertEquals(1, GriddleManager.getHasInsertedCount("pack", "toupiao:1:1002"));
+			manager.stop();
+			assertFalse(hasPackFiles(dir));
+			assertEquals(1, countDumpFiles(dir));
+
+			manager.start();
+			assertEquals(2, GriddleManager.getHasInsertedCount("pack", "toupiao:1:1001"));
+			assertEquals(1, GriddleManager.getHasInsertedCount("pack", "toupiao:1:1002"));
+		}
+		finally {
+			GriddleTestUtil.destroy(manager);
+			GriddleTestUtil.deleteDir(dir);
+		}
+	}
+
+	private static void append(PackStore store, String dumpFileName, byte[] content) throws IOException {
+		PackStore.Appender appender = store.append(dumpFileName);
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(content);
+			while(buffer.hasRemaining()) {
+				appender.getChannel().write(buffer, buffer.position());
+			}
+			appender.commit();
+		}
+		finally {
+			appender.abort();
+		}
+	}
+
+	private static byte[] read(PackStore store, String dumpFileName) throws IOException {
+		PositionalChannel channel = store.openExtent(dumpFileName);
+		ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+		while(buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+		}
+		return buffer.array();
+	}
+
+	private static byte[] content(int seed, int length) {
+		byte[] content = new byte[length];
+		for(int i = 0; i < length; i++) {
+			content[i] = (byte) (seed * 31 + i);
+		}
+		return content;
+	}
+
+	private static boolean hasPackFiles(File dir) {
+		for(String fileName: dir.list()) {
+			if(PackStore.isPackFile(fileName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int countDumpFiles(File dir) {
+		int count = 0;
+		for(String fileName: dir.list()) {
+			if(DumpFile.parseGriddleName(fileName) != null && !PackStore.isPackFile(fileName)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+}
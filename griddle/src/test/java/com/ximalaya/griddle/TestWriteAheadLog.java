@@ -0,0 +1,375 @@
+package com.ximalaya.griddle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.ximalaya.bloomfilterext.bloom.BucketStorage;
+import com.ximalaya.bloomfilterext.bloom.CountingFilter;
+import com.ximalaya.bloomfilterext.bloom.ThreadSafeCBloomFilter;
+import com.ximalaya.bloomfilterext.hash.Hash;
+import com.ximalaya.griddle.exception.WalWriteFailedException;
+import com.ximalaya.griddle.util.FileUtil;
+
+public class TestWriteAheadLog {
+
+	private static final String RACING_DUMP_FILE_NAME = "racing.3" + FileUtil.getDumpFileFormatSuffix();
+	private static final int RACING_VECTOR_SIZE = 1 << 20;   // 2位计数器共256KB，64页
+	private static final int RACING_INSERT_NUM = 5000;         // 每个插入线程最多插入的key数
+	private static final WalWriter INLINE_WRITER = new WalWriter(0);   // 不启动，记录在插入线程中写入
+
+	@Test
+	public void testAppendThenReplay() throws IOException {
+		File dir = createTempDir();
+		try {
+			String dumpFilePath = new File(dir, "1").getPath();
+			WriteAheadLog wal = new WriteAheadLog(dumpFilePath, INLINE_WRITER);
+			append(wal, "toupiao:1:1001");
+			append(wal, Arrays.<CharSequence> asList("toupiao:1:1001", "toupiao:1:1002"));
+			assertEquals(null, wal.appendWithoutWait(Arrays.<CharSequence> asList()));
+			wal.close();
+
+			CountingFilter cbf = newCBF();
+			assertEquals(3, new WriteAheadLog(dumpFilePath, INLINE_WRITER).replay(cbf));
+			assertEquals(2, cbf.approximateCount("toupiao:1:1001"));
+			assertEquals(1, cbf.approximateCount("toupiao:1:1002"));
+		}
+		finally {
+			deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testTornTailTruncated() throws IOException {
+		File dir = createTempDir();
+		try {
+			String dumpFilePath = new File(dir, "1").getPath();
+			File walFile = new File(dumpFilePath + ".wal");
+			WriteAheadLog wal = new WriteAheadLog(dumpFilePath, INLINE_WRITER);
+			append(wal, "toupiao:1:1001");
+			wal.close();
+			long validLength = walFile.length();
+
+			FileOutputStream fos = new FileOutputStream(walFile, true);   // 崩溃时只写了一部分的一批
+			fos.write(new byte[] {0, 0, 0, 100, 1, 2, 3});
+			fos.close();
+
+			CountingFilter cbf = newCBF();
+			wal = new WriteAheadLog(dumpFilePath, INLINE_WRITER);
+			assertEquals(1, wal.replay(cbf));
+			assertEquals(validLength, walFile.length());
+
+			append(wal, "toupiao:1:1002");   // 追加在截掉的位置，之后能被重放
+			wal.close();
+			cbf = newCBF();
+			assertEquals(2, new WriteAheadLog(dumpFilePath, INLINE_WRITER).replay(cbf));
+			assertEquals(1, cbf.approximateCount("toupiao:1:1002"));
+		}
+		finally {
+			deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testCutAcrossDump() throws IOException {
+		File dir = createTempDir();
+		try {
+			String dumpFilePath = new File(dir, "1").getPath();
+			CountingFilter cbf = newCBF();
+			WriteAheadLog wal = new WriteAheadLog(dumpFilePath, INLINE_WRITER);
+			insert(wal, cbf, "toupiao:1:1001");
+
+			WriteAheadLog.Cut failedCut = wal.newCut();   // Dump失败，切分出的记录保留
+			cbf.writeTo(Channels.newChannel(new ByteArrayOutputStream()), failedCut);
+			assertEquals(0, failedCut.getGeneration());
+			assertTrue(wal.hasRotatedRecords());
+			insert(wal, cbf, "toupiao:1:1002");
+
+			WriteAheadLog.Cut cut = wal.newCut();
+			ByteArrayOutputStream dump = new ByteArrayOutputStream();
+			cbf.writeTo(Channels.newChannel(dump), cut);
+			assertEquals(1, cut.getGeneration());
+			insert(wal, cbf, "toupiao:1:1003");   // 快照之后的插入只在新的WAL中
+
+			wal.truncate(cut.getGeneration());
+			assertFalse(wal.hasRotatedRecords());
+			assertFalse(new File(dumpFilePath + ".wal.old.0").exists());
+			assertFalse(new File(dumpFilePath + ".wal.old.1").exists());
+			wal.close();
+
+			CountingFilter restored = newCBF();
+			assertEquals(1, new WriteAheadLog(dumpFilePath, INLINE_WRITER).replay(restored));
+			assertEquals(0, restored.approximateCount("toupiao:1:1002"));
+			assertEquals(1, restored.approximateCount("toupiao:1:1003"));
+		}
+		finally {
+			deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testUnwrittenBatchCoveredByDump() throws IOException {
+		File dir = createTempDir();
+		WalWriter walWriter = new WalWriter(60000);   // 写线程取出第一批后长时间等待
+		walWriter.start();
+		try {
+			String dumpFilePath = new File(dir, "1").getPath();
+			CountingFilter cbf = newCBF();
+			WriteAheadLog wal = new WriteAheadLog(dumpFilePath, walWriter);
+			wal.beginUpdate();
+			cbf.batchAdd(new CharSequence[] {"toupiao:1:1001"});
+			WriteAheadLog.Batch batch = wal.appendWithoutWait("toupiao:1:1001");
+			wal.endUpdate();
+
+			WriteAheadLog.Cut cut = wal.newCut();
+			cbf.writeTo(Channels.newChannel(new ByteArrayOutputStream()), cut);
+			assertTrue(wal.hasRotatedRecords());
+			wal.truncate(cut.getGeneration());   // 还没写入的一批已包含在Dump中
+			wal.awaitDurable(batch);
+			assertFalse(wal.hasRotatedRecords());
+		}
+		finally {
+			walWriter.shutdown();
+			deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testWriteFailure() throws IOException {
+		File dir = createTempDir();
+		try {
+			String dumpFilePath = new File(dir, "1").getPath();
+			File walFile = new File(dumpFilePath + ".wal");
+			assertTrue(walFile.mkdir());   // WAL文件无法打开
+			WriteAheadLog wal = new WriteAheadLog(dumpFilePath, INLINE_WRITER);
+			try {
+				append(wal, "toupiao:1:1001");
+				fail("wal write should fail");
+			}
+			catch(WalWriteFailedException _) {
+			}
+
+			assertTrue(walFile.delete());
+			append(wal, "toupiao:1:1002");
+			wal.close();
+
+			CountingFilter cbf = newCBF();
+			assertEquals(1, new WriteAheadLog(dumpFilePath, INLINE_WRITER).replay(cbf));
+			assertEquals(0, cbf.approximateCount("toupiao:1:1001"));
+			assertEquals(1, cbf.approximateCount("toupiao:1:1002"));
+		}
+		finally {
+			deleteDir(dir);
+		}
+	}
+
+	@Test
+	public void testInsertRacingDirtyPageDump() throws Exception {
+		// 插入与只写脏页的Dump交错，每次Dump之后复制Dump文件和WAL模拟此时崩溃：
+		// 从复制的文件恢复后，Dump结束前确认过的每一次插入都在，而且只有一次
+		File dir = createTempDir();
+		File crashDir = createTempDir();
+		final AtomicBoolean stopped = new AtomicBoolean();
+		final int inserterNum = 4;
+		Thread[] inserters = new Thread[inserterNum];
+		try {
+			final Griddle griddle = newGriddle(dir);
+			griddle.dumpCBFToDisk();   // 第一次写入整个文件，之后只写脏页
+			Path dumpFile = new File(dir, RACING_DUMP_FILE_NAME).toPath();
+			Object fileKey = Files.readAttributes(dumpFile, BasicFileAttributes.class).fileKey();
+
+			final AtomicInteger[] insertedNums = new AtomicInteger[inserterNum];
+			final AtomicReference<Throwable> failure = new AtomicReference<Throwable> ();
+			for(int i = 0; i < inserterNum; i++) {
+				final int inserter = i;
+				insertedNums[i] = new AtomicInteger();
+				inserters[i] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							for(int j = 0; !stopped.get() && j < RACING_INSERT_NUM; j++) {
+								assertTrue(griddle.add("toupiao:" + inserter + ":" + j));   // 返回时已写入WAL
+								insertedNums[inserter].incrementAndGet();
+							}
+						}
+						catch(Throwable t) {
+							failure.set(t);
+						}
+					}
+				};
+				inserters[i].start();
+			}
+
+			for(int round = 0; round < 20; round++) {
+				griddle.dumpCBFToDisk();
+				int[] acknowledged = new int[inserterNum];
+				for(int i = 0; i < inserterNum; i++) {
+					acknowledged[i] = insertedNums[i].get();
+				}
+
+				for(File file: crashDir.listFiles()) {
+					assertTrue(file.delete());
+				}
+				for(File file: dir.listFiles()) {   // 插入只追加WAL，Dump都在当前线程，复制出的文件与此时崩溃留下的相同
+					Files.copy(file.toPath(), new File(crashDir, file.getName()).toPath());
+				}
+				Griddle restored = Griddle.restoreFromDumpFileOrConstructFromGroundIfException(3, RACING_VECTOR_SIZE, 
+						4, Hash.MURMUR_HASH, 0, CBFSection.THREAD_SAFE_CBF, BucketStorage.HEAP_STORAGE,
+						CBFSection.getNarrowestBucketBits(CBFSection.THREAD_SAFE_CBF, 3), 16, crashDir.getPath(),
+						RACING_DUMP_FILE_NAME, new WalWriter(0));
+				for(int i = 0; i < inserterNum; i++) {
+					for(int j = 0; j < acknowledged[i]; j++) {
+						assertEquals("toupiao:" + i + ":" + j, 1, restored.getRepeatedInsertCount("toupiao:" + i + ":" + j));
+					}
+				}
+				restored.getCBFSection().getCBF().clear();
+			}
+			stopped.set(true);
+			for(Thread inserter: inserters) {
+				inserter.join();
+			}
+			assertEquals(null, failure.get());
+			assertEquals(fileKey, Files.readAttributes(dumpFile, BasicFileAttributes.class).fileKey());   // 没有重写整个文件
+		}
+		finally {
+			stopped.set(true);
+			for(Thread inserter: inserters) {
+				if(inserter != null) {
+					inserter.join();
+				}
+			}
+			deleteDir(dir);
+			deleteDir(crashDir);
+		}
+	}
+
+	@Test
+	public void testInsertBlockingDirtyPageDump() throws Exception {
+		// 插入持有WAL的更新锁时开始只写脏页的Dump，Dump在切分WAL处等待，插入完成后才取快照：
+		// 插入的记录被切分出去并在Dump后删除，所以它修改的页必须写入Dump文件
+		File dir = createTempDir();
+		File crashDir = createTempDir();
+		try {
+			final Griddle griddle = newGriddle(dir);
+			griddle.dumpCBFToDisk();   // 第一次写入整个文件，之后只写脏页
+			Path dumpFile = new File(dir, RACING_DUMP_FILE_NAME).toPath();
+			Object fileKey = Files.readAttributes(dumpFile, BasicFileAttributes.class).fileKey();
+			
+			Field walField = Griddle.class.getDeclaredField("wal");
+			walField.setAccessible(true);
+			WriteAheadLog wal = (WriteAheadLog) walField.get(griddle);
+			CharSequence keyWord = "toupiao:1:1001";
+			WriteAheadLog.Batch batch;
+			Thread dumper = new Thread() {
+				@Override
+				public void run() {
+					griddle.dumpCBFToDisk();
+				}
+			};
+			wal.beginUpdate();   // 同Griddle.add(CharSequence[])，插入和追加记录之间不会切分WAL
+			try {
+				dumper.start();
+				long deadline = System.currentTimeMillis() + 10000;
+				while(dumper.getState() != Thread.State.WAITING) {   // 等待写锁
+					assertTrue("dumper did not block on the wal cut", System.currentTimeMillis() < deadline);
+					Thread.sleep(1);
+				}
+				assertEquals(1, griddle.getCBFSection().insertKeyIfBelow(keyWord, griddle.getMaxRepeatInsertCount()));
+				batch = wal.appendWithoutWait(keyWord);
+			}
+			finally {
+				wal.endUpdate();
+			}
+			wal.awaitDurable(batch);
+			dumper.join();
+			assertFalse(wal.hasRotatedRecords());   // 切分出的记录已删除
+			assertEquals(fileKey, Files.readAttributes(dumpFile, BasicFileAttributes.class).fileKey());   // 只写了脏页
+			
+			for(File file: dir.listFiles()) {   // 模拟此时崩溃
+				Files.copy(file.toPath(), new File(crashDir, file.getName()).toPath());
+			}
+			Griddle restored = Griddle.restoreFromDumpFileOrConstructFromGroundIfException(3, RACING_VECTOR_SIZE, 
+					4, Hash.MURMUR_HASH, 0, CBFSection.THREAD_SAFE_CBF, BucketStorage.HEAP_STORAGE,
+					CBFSection.getNarrowestBucketBits(CBFSection.THREAD_SAFE_CBF, 3), 16, crashDir.getPath(),
+					RACING_DUMP_FILE_NAME, new WalWriter(0));
+			assertEquals(1, restored.getRepeatedInsertCount(keyWord.toString()));
+			restored.getCBFSection().getCBF().clear();
+			griddle.getCBFSection().getCBF().clear();
+		}
+		finally {
+			deleteDir(dir);
+			deleteDir(crashDir);
+		}
+	}
+
+	private static Griddle newGriddle(File dir) {
+		return Griddle.constructFromGround(3, RACING_VECTOR_SIZE, 4, Hash.MURMUR_HASH, 0, CBFSection.THREAD_SAFE_CBF,
+				BucketStorage.HEAP_STORAGE, CBFSection.getNarrowestBucketBits(CBFSection.THREAD_SAFE_CBF, 3), 16,
+				dir.getPath(), RACING_DUMP_FILE_NAME, new WalWriter(0));
+	}
+
+	private static void append(WriteAheadLog wal, CharSequence keyWord) {
+		wal.awaitDurable(wal.appendWithoutWait(keyWord));
+	}
+
+	private static void append(WriteAheadLog wal, List<CharSequence> keyWords) {
+		wal.awaitDurable(wal.appendWithoutWait(keyWords));
+	}
+
+	private static void insert(WriteAheadLog wal, CountingFilter cbf, CharSequence keyWord) {
+		WriteAheadLog.Batch batch;
+		wal.beginUpdate();
+		try {
+			cbf.batchAdd(new CharSequence[] {keyWord});
+			batch = wal.appendWithoutWait(keyWord);
+		}
+		finally {
+			wal.endUpdate();
+		}
+		wal.awaitDurable(batch);
+	}
+
+	private static CountingFilter newCBF() {
+		return new ThreadSafeCBloomFilter(1 << 16, 4, Hash.MURMUR_HASH);
+	}
+
+	private static File createTempDir() throws IOException {
+		File dir = File.createTempFile("griddle-wal", "");
+		assertTrue(dir.delete() && dir.mkdir());
+		return dir;
+	}
+
+	private static void deleteDir(File dir) {
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File file: files) {
+				if(file.isDirectory()) {
+					deleteDir(file);
+				}
+				else {
+					file.delete();
+				}
+			}
+		}
+		dir.delete();
+	}
+
+}